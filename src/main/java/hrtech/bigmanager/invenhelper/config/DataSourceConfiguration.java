@@ -0,0 +1,94 @@
+package hrtech.bigmanager.invenhelper.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import hrtech.bigmanager.invenhelper.repository.ReadWriteRoutingDataSource;
+import hrtech.bigmanager.invenhelper.repository.ShardedDataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Data sources used when read replicas (invenhelper.datasource.replica-urls) or shards (invenhelper.datasource.shard-urls)
+ * are configured. Both modes cannot be used together; with shards, the replicas are ignored.
+ * <p>
+ * The primary database is configured with the spring.datasource properties, as usual. The replicas and the shards use the same
+ * credentials, except for the username and the password set for them (each one on its own), and pools with the same maximum
+ * number of connections
+ */
+public class DataSourceConfiguration {
+
+    private DataSourceConfiguration() {
+    }
+
+    /**
+     * Method that creates a data source for each URL of a list
+     *
+     * @param urls       URLs of the databases; blank URLs are ignored
+     * @param username   username of the databases; empty to use the one of the primary
+     * @param password   password of the databases; empty to use the one of the primary
+     * @param properties properties of the primary database
+     * @param poolSize   maximum number of connections of each pool, the same of the primary
+     * @return data sources created, on the order of the URLs
+     */
+    static List<DataSource> createDataSources(List<String> urls, String username, String password, DataSourceProperties properties, int poolSize) {
+        List<DataSource> dataSources = new ArrayList<>();
+        for (String url : urls) {
+            if (!url.isBlank()) {
+                HikariDataSource dataSource = DataSourceBuilder.create().type(HikariDataSource.class).url(url.trim())
+                        .username(username.isEmpty() ? properties.determineUsername() : username)
+                        .password(password.isEmpty() ? properties.determinePassword() : password)
+                        .build();
+                dataSource.setMaximumPoolSize(poolSize);
+                dataSources.add(dataSource);
+            }
+        }
+        return dataSources;
+    }
+
+    @Configuration
+    @ConditionalOnExpression("!'${invenhelper.datasource.replica-urls:}'.isBlank() && '${invenhelper.datasource.shard-urls:}'.isBlank()")
+    public static class Replicated {
+
+        @Bean
+        @ConfigurationProperties("spring.datasource.hikari")
+        public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+            return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        }
+
+        @Bean
+        @Primary
+        public ReadWriteRoutingDataSource dataSource(HikariDataSource primaryDataSource, DataSourceProperties properties,
+                                                     @Value("${invenhelper.datasource.replica-urls}") List<String> replicaUrls,
+                                                     @Value("${invenhelper.datasource.replica-username:}") String replicaUsername,
+                                                     @Value("${invenhelper.datasource.replica-password:}") String replicaPassword,
+                                                     @Value("${spring.datasource.hikari.maximum-pool-size:10}") int poolSize) {
+            return new ReadWriteRoutingDataSource(primaryDataSource, createDataSources(replicaUrls, replicaUsername, replicaPassword, properties, poolSize));
+        }
+    }
+
+    @Configuration
+    @ConditionalOnExpression("!'${invenhelper.datasource.shard-urls:}'.isBlank()")
+    public static class Sharded {
+
+        @Bean
+        @Primary
+        public ShardedDataSource dataSource(DataSourceProperties properties,
+                                            @Value("${invenhelper.datasource.shard-urls}") List<String> shardUrls,
+                                            @Value("${invenhelper.datasource.retired-shard-urls:}") List<String> retiredShardUrls,
+                                            @Value("${invenhelper.datasource.shard-username:}") String shardUsername,
+                                            @Value("${invenhelper.datasource.shard-password:}") String shardPassword,
+                                            @Value("${spring.datasource.hikari.maximum-pool-size:10}") int poolSize) {
+            return new ShardedDataSource(createDataSources(shardUrls, shardUsername, shardPassword, properties, poolSize),
+                    createDataSources(retiredShardUrls, shardUsername, shardPassword, properties, poolSize));
+        }
+    }
+}
@@ -4,7 +4,7 @@ import hrtech.bigmanager.invenhelper.model.Product;
 import hrtech.bigmanager.invenhelper.model.ProductInformation;
 import hrtech.bigmanager.invenhelper.model.ProductKey;
 import hrtech.bigmanager.invenhelper.model.Quantity;
-import hrtech.bigmanager.invenhelper.repository.ProductRepository;
+import hrtech.bigmanager.invenhelper.repository.IProductRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -18,10 +18,10 @@ import org.springframework.context.annotation.Profile;
 public class InvenHelperApplication {
 
     private final Logger logger = LoggerFactory.getLogger(InvenHelperApplication.class);
-    private ProductRepository repo;
+    private IProductRepository repo;
 
     @Autowired
-    public void setRepo(ProductRepository repo) {
+    public void setRepo(IProductRepository repo) {
         this.repo = repo;
     }
 
@@ -0,0 +1,449 @@
+package hrtech.bigmanager.invenhelper.controller;
+
+import hrtech.bigmanager.invenhelper.service.ProductChangedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Feed of the product changes, sent as Server-Sent Events to the subscribers of /product/changes.
+ * <p>
+ * Each {@link ProductChangedEvent} gets a sequential identifier and is kept, with the last changes, for the retention window, so
+ * a subscriber that reconnects with the identifier of the last change received (the Last-Event-ID header) receives the changes it
+ * missed. The identifiers are local to each instance.
+ * <p>
+ * The changes are never sent by the thread that changed the product: they are added to a bounded buffer of each subscriber and
+ * taken by the dispatch threads. The buffer keeps only the last change of each product, so a subscriber that falls behind receives
+ * the latest state of the products instead of every change. A subscriber with more products waiting than the buffer size is
+ * disconnected, and can resume from the last change it received.
+ * <p>
+ * The dispatch threads never write: the events taken from a buffer are written by a writer thread, with a single write in
+ * progress for each subscriber, so a client that does not read blocks only its own writer. A subscriber whose write takes more
+ * than the write timeout is disconnected; its writer completes the emitter once the write returns
+ */
+@Component
+public class ProductChangeFeed implements InitializingBean, DisposableBean {
+
+    private final Logger logger = LoggerFactory.getLogger(ProductChangeFeed.class);
+    private final Deque<Change> retainedChanges = new ArrayDeque<>();
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private long lastIdentifier;
+    private int bufferSize;
+    private int retentionSize;
+    private Duration retention;
+    private int maximumSubscribers;
+    private Duration heartbeat;
+    private Duration timeout;
+    private Duration writeTimeout;
+    private int dispatchThreads;
+    private ExecutorService dispatcher;
+    private ExecutorService writers;
+    private ScheduledExecutorService heartbeatScheduler;
+
+    @Value("${invenhelper.changes.buffer-size:256}")
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = Math.max(1, bufferSize);
+    }
+
+    @Value("${invenhelper.changes.retention-size:10000}")
+    public void setRetentionSize(int retentionSize) {
+        this.retentionSize = Math.max(0, retentionSize);
+    }
+
+    @Value("${invenhelper.changes.retention:5m}")
+    public void setRetention(Duration retention) {
+        this.retention = retention;
+    }
+
+    @Value("${invenhelper.changes.maximum-subscribers:100}")
+    public void setMaximumSubscribers(int maximumSubscribers) {
+        this.maximumSubscribers = maximumSubscribers;
+    }
+
+    @Value("${invenhelper.changes.heartbeat:15s}")
+    public void setHeartbeat(Duration heartbeat) {
+        this.heartbeat = heartbeat;
+    }
+
+    @Value("${invenhelper.changes.timeout:30m}")
+    public void setTimeout(Duration timeout) {
+        this.timeout = timeout;
+    }
+
+    @Value("${invenhelper.changes.write-timeout:5s}")
+    public void setWriteTimeout(Duration writeTimeout) {
+        this.writeTimeout = writeTimeout;
+    }
+
+    @Value("${invenhelper.changes.dispatch-threads:2}")
+    public void setDispatchThreads(int dispatchThreads) {
+        this.dispatchThreads = Math.max(1, dispatchThreads);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        dispatcher = Executors.newFixedThreadPool(dispatchThreads, runnable -> {
+            Thread thread = new Thread(runnable, "product-changes-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger writerNumber = new AtomicInteger();
+        writers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "product-changes-writer-" + writerNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeatScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "product-changes-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(1, heartbeat.toMillis());
+        heartbeatScheduler.scheduleWithFixedDelay(this::sendHeartbeats, interval, interval, TimeUnit.MILLISECONDS);
+        long check = Math.max(1, writeTimeout.toMillis() / 2);
+        heartbeatScheduler.scheduleWithFixedDelay(this::disconnectStalledSubscribers, check, check, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        heartbeatScheduler.shutdownNow();
+        dispatcher.shutdownNow();
+        writers.shutdownNow();
+        subscribers.forEach(subscriber -> subscriber.emitter.complete());
+        subscribers.clear();
+    }
+
+    /**
+     * Method that adds a product change to the feed and to the buffers of the subscribers interested. The subscribers are only
+     * notified; the change is sent by the dispatch threads
+     *
+     * @param event event of the change
+     */
+    @EventListener
+    public void onProductChanged(ProductChangedEvent event) {
+        String identifier = event.getProduct().getProductBusinessKey();
+        String data = event.getProduct().convertToJSON().toString();
+        List<Subscriber> notified = new ArrayList<>();
+        synchronized (retainedChanges) {
+            Change change = new Change(++lastIdentifier, event.getType().name().toLowerCase(Locale.ROOT), identifier, data, Instant.now());
+            if (retentionSize > 0) {
+                retainedChanges.addLast(change);
+                removeExpiredChanges(change.time);
+            }
+            for (Subscriber subscriber : subscribers) {
+                if (subscriber.offer(change)) {
+                    notified.add(subscriber);
+                }
+            }
+        }
+        notified.forEach(this::schedule);
+    }
+
+    /**
+     * Method that subscribes to the feed. If the identifier of the last change received is known, the changes after it that are
+     * still retained are sent first; if some of them are no longer retained, a reset event is sent before them, so the subscriber
+     * knows it must read the products again. A reset is also sent, instead of the changes, if the changes missed do not fit on
+     * the buffer
+     *
+     * @param prefix      start of the business identifiers of the products to follow; empty for every product
+     * @param lastEventId identifier of the last change received; null on the first subscription
+     * @return Optional with the emitter of the subscription; empty if the maximum number of subscribers was reached
+     */
+    public Optional<SseEmitter> subscribe(String prefix, String lastEventId) {
+        return subscribe(prefix, lastEventId, new SseEmitter(timeout.toMillis()));
+    }
+
+    Optional<SseEmitter> subscribe(String prefix, String lastEventId, SseEmitter emitter) {
+        if (subscribers.size() >= maximumSubscribers) {
+            return Optional.empty();
+        }
+        Subscriber subscriber = new Subscriber(prefix, bufferSize, emitter);
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(() -> subscribers.remove(subscriber));
+        emitter.onError(error -> subscribers.remove(subscriber));
+
+        synchronized (retainedChanges) {
+            if (lastEventId != null) {
+                long lastReceived = parseIdentifier(lastEventId);
+                long firstRetained = retainedChanges.isEmpty() ? lastIdentifier + 1 : retainedChanges.getFirst().identifier;
+                subscriber.reset = lastReceived < firstRetained - 1 || lastReceived > lastIdentifier;
+                for (Change change : retainedChanges) {
+                    if (change.identifier > lastReceived) {
+                        subscriber.offer(change);
+                    }
+                }
+                if (subscriber.isOverflowed()) {
+                    subscriber.restart();
+                }
+            }
+            subscribers.add(subscriber);
+        }
+        schedule(subscriber);
+        return Optional.of(emitter);
+    }
+
+    /**
+     * Method that returns the number of subscribers connected
+     *
+     * @return number of subscribers
+     */
+    public int obtainSubscriberCount() {
+        return subscribers.size();
+    }
+
+    private static long parseIdentifier(String lastEventId) {
+        try {
+            return Long.parseLong(lastEventId.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Method that removes the changes retained for longer than the retention window, or beyond the retention size. Must be
+     * called while holding the lock of the retained changes
+     *
+     * @param now current instant
+     */
+    private void removeExpiredChanges(Instant now) {
+        Instant oldest = now.minus(retention);
+        while (!retainedChanges.isEmpty() && (retainedChanges.size() > retentionSize || retainedChanges.getFirst().time.isBefore(oldest))) {
+            retainedChanges.removeFirst();
+        }
+    }
+
+    private void sendHeartbeats() {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.heartbeat = true;
+            schedule(subscriber);
+        }
+    }
+
+    /**
+     * Method that schedules the delivery of the buffer of a subscriber, if it is not scheduled yet
+     *
+     * @param subscriber subscriber to deliver
+     */
+    private void schedule(Subscriber subscriber) {
+        if (subscriber.scheduled.compareAndSet(false, true)) {
+            try {
+                dispatcher.execute(() -> deliver(subscriber));
+            } catch (RuntimeException e) {
+                subscriber.scheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * Method that takes the changes on the buffer of a subscriber and hands them to a writer. The subscriber stays scheduled
+     * until the buffer is found empty, so it has a single write in progress. A subscriber that overflowed its buffer is
+     * disconnected
+     *
+     * @param subscriber subscriber to deliver
+     */
+    private void deliver(Subscriber subscriber) {
+        List<Change> changes;
+        boolean overflowed;
+        boolean reset;
+        boolean heartbeat;
+        synchronized (subscriber) {
+            changes = subscriber.takePending();
+            overflowed = subscriber.overflowed;
+            reset = subscriber.reset;
+            heartbeat = subscriber.heartbeat;
+            subscriber.reset = false;
+            subscriber.heartbeat = false;
+            if (changes.isEmpty() && !overflowed && !reset && !heartbeat) {
+                subscriber.scheduled.set(false);
+                return;
+            }
+        }
+        if (overflowed) {
+            logger.warn("Product changes subscriber disconnected, with more than " + bufferSize + " products waiting");
+            disconnect(subscriber);
+            return;
+        }
+
+        List<SseEmitter.SseEventBuilder> events = new ArrayList<>(changes.size() + 1);
+        if (reset) {
+            events.add(SseEmitter.event().name("reset").data("{}", MediaType.APPLICATION_JSON));
+        }
+        for (Change change : changes) {
+            events.add(SseEmitter.event().id(String.valueOf(change.identifier)).name(change.type).data(change.data, MediaType.APPLICATION_JSON));
+        }
+        if (heartbeat && changes.isEmpty()) {
+            events.add(SseEmitter.event().comment("heartbeat"));
+        }
+        subscriber.writeStart = System.nanoTime();
+        try {
+            writers.execute(() -> write(subscriber, events));
+        } catch (RejectedExecutionException e) {
+            subscriber.writeStart = 0;
+            subscriber.scheduled.set(false);
+        }
+    }
+
+    /**
+     * Method that writes events to a subscriber, on a writer thread, and schedules the next delivery. A subscriber that cannot be
+     * written, or that was disconnected meanwhile because the write took too long, is completed
+     *
+     * @param subscriber subscriber to write
+     * @param events     events to write, on their order
+     */
+    private void write(Subscriber subscriber, List<SseEmitter.SseEventBuilder> events) {
+        try {
+            for (SseEmitter.SseEventBuilder event : events) {
+                subscriber.emitter.send(event);
+            }
+        } catch (IOException | IllegalStateException e) {
+            logger.debug("Product changes subscriber disconnected: " + e.getLocalizedMessage());
+            disconnect(subscriber);
+            return;
+        } finally {
+            subscriber.writeStart = 0;
+        }
+        if (!subscribers.contains(subscriber)) {
+            disconnect(subscriber);
+            return;
+        }
+        try {
+            dispatcher.execute(() -> deliver(subscriber));
+        } catch (RejectedExecutionException e) {
+            subscriber.scheduled.set(false);
+        }
+    }
+
+    /**
+     * Method that disconnects the subscribers with a write in progress for longer than the write timeout. They are only removed
+     * from the feed: the emitter is completed by their writer, once the write returns, since it cannot be completed while written
+     */
+    private void disconnectStalledSubscribers() {
+        long now = System.nanoTime();
+        for (Subscriber subscriber : subscribers) {
+            long writeStart = subscriber.writeStart;
+            if (writeStart != 0 && now - writeStart > writeTimeout.toNanos() && subscribers.remove(subscriber)) {
+                logger.warn("Product changes subscriber disconnected, with a write blocked for more than " + writeTimeout.toMillis() + " ms");
+            }
+        }
+    }
+
+    private void disconnect(Subscriber subscriber) {
+        subscribers.remove(subscriber);
+        try {
+            subscriber.emitter.complete();
+        } catch (IllegalStateException e) {
+            logger.debug("Product changes subscriber already completed: " + e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Change of a product, as sent to the subscribers
+     */
+    static final class Change {
+
+        private final long identifier;
+        private final String type;
+        private final String businessIdentifier;
+        private final String data;
+        private final Instant time;
+
+        Change(long identifier, String type, String businessIdentifier, String data, Instant time) {
+            this.identifier = identifier;
+            this.type = type;
+            this.businessIdentifier = businessIdentifier;
+            this.data = data;
+            this.time = time;
+        }
+
+        long getIdentifier() {
+            return identifier;
+        }
+    }
+
+    /**
+     * Subscriber of the feed, with its buffer of changes waiting to be sent. The buffer has the last change of each product, on
+     * the order of the changes
+     */
+    static final class Subscriber {
+
+        private final String prefix;
+        private final int bufferSize;
+        private final SseEmitter emitter;
+        private final LinkedHashMap<String, Change> pending = new LinkedHashMap<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile long writeStart;
+        private boolean overflowed;
+        private volatile boolean reset;
+        private volatile boolean heartbeat;
+
+        Subscriber(String prefix, int bufferSize, SseEmitter emitter) {
+            this.prefix = prefix;
+            this.bufferSize = bufferSize;
+            this.emitter = emitter;
+        }
+
+        /**
+         * Method that adds a change to the buffer, if the subscriber follows its product. A previous change of the same product
+         * still waiting is replaced
+         *
+         * @param change change to add
+         * @return true if the change was added, or made the buffer overflow; false if the subscriber does not follow the product
+         */
+        synchronized boolean offer(Change change) {
+            if (!change.businessIdentifier.startsWith(prefix) || overflowed) {
+                return false;
+            }
+            pending.remove(change.businessIdentifier);
+            pending.put(change.businessIdentifier, change);
+            if (pending.size() > bufferSize) {
+                overflowed = true;
+                pending.clear();
+            }
+            return true;
+        }
+
+        /**
+         * Method that removes the changes waiting on the buffer
+         *
+         * @return changes waiting, on the order of the changes
+         */
+        synchronized List<Change> takePending() {
+            List<Change> changes = new ArrayList<>(pending.values());
+            pending.clear();
+            return changes;
+        }
+
+        synchronized boolean isOverflowed() {
+            return overflowed;
+        }
+
+        /**
+         * Method that empties the buffer after an overflow, and asks for a reset event instead of the changes lost
+         */
+        synchronized void restart() {
+            pending.clear();
+            overflowed = false;
+            reset = true;
+        }
+    }
+}
@@ -1,8 +1,22 @@
 package hrtech.bigmanager.invenhelper.controller;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import hrtech.bigmanager.invenhelper.exception.InvalidRepresentationOfConceptOnJSON;
+import hrtech.bigmanager.invenhelper.model.Page;
 import hrtech.bigmanager.invenhelper.model.Product;
+import hrtech.bigmanager.invenhelper.model.ProductUpdate;
+import hrtech.bigmanager.invenhelper.model.Reservation;
 import hrtech.bigmanager.invenhelper.model.Response;
+import hrtech.bigmanager.invenhelper.service.LowStockAlertEvent;
+import hrtech.bigmanager.invenhelper.service.ProductExporter;
+import hrtech.bigmanager.invenhelper.service.ProductImporter;
 import hrtech.bigmanager.invenhelper.service.ProductService;
+import hrtech.bigmanager.invenhelper.service.QuantityIndex;
+import hrtech.bigmanager.invenhelper.service.ReservationService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.enums.ParameterIn;
@@ -15,12 +29,23 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.context.annotation.RequestScope;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
 
 /**
@@ -31,15 +56,45 @@ import java.util.Optional;
 @RequestMapping("/product")
 public class ProductController {
 
+    private static final int MAXIMUM_PAGE_SIZE = 1000;
+    private static final int MAXIMUM_MOVEMENT_SIZE = 1000;
+    private static final int MAXIMUM_SEARCH_SIZE = 100;
+    private static final int MAXIMUM_EXPORT_RANGES = 16;
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
     private ProductService service;
+    private ReservationService reservationService;
+    private ProductChangeFeed changeFeed;
+    private ProductImporter importer;
+    private ProductExporter exporter;
 
     @Autowired
     public void setService(ProductService service) {
         this.service = service;
     }
 
+    @Autowired
+    public void setChangeFeed(ProductChangeFeed changeFeed) {
+        this.changeFeed = changeFeed;
+    }
+
+    @Autowired
+    public void setImporter(ProductImporter importer) {
+        this.importer = importer;
+    }
+
+    @Autowired
+    public void setExporter(ProductExporter exporter) {
+        this.exporter = exporter;
+    }
+
+    @Autowired
+    public void setReservationService(ReservationService reservationService) {
+        this.reservationService = reservationService;
+    }
+
     @GetMapping(value = "/getAllIdentifiers", produces = "application/json")
-    @Operation(summary = "Obtain list of product identifiers")
+    @Operation(summary = "Obtain list of product identifiers, ordered. The list is bounded; use /identifiers to go through all of them")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "List obtained", content = @Content(schema = @Schema(implementation = ArrayList.class)))
     })
@@ -48,6 +103,191 @@ public class ProductController {
         return new ResponseEntity<>(new JSONArray(identifiers).toString(), HttpStatus.OK);
     }
 
+    @GetMapping(value = "/identifiers", produces = "application/json")
+    @Operation(summary = "Obtain a page of product identifiers, ordered", parameters = {
+            @Parameter(in = ParameterIn.QUERY, name = "after", description = "Cursor returned as 'next' by the previous page. Empty on the first page"),
+            @Parameter(in = ParameterIn.QUERY, name = "limit", description = "Maximum number of identifiers, between 1 and " + MAXIMUM_PAGE_SIZE)
+    })
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Page obtained", content = @Content(schema = @Schema(implementation = Page.class))),
+            @ApiResponse(responseCode = "400", description = "Invalid cursor or limit", content = @Content(schema = @Schema(implementation = Response.class)))
+    })
+    public ResponseEntity<String> getBusinessIdentifiersPage(@RequestParam(value = "after", defaultValue = "") String cursor,
+                                                             @RequestParam(value = "limit", defaultValue = "100") int limit) {
+        if (limit < 1 || limit > MAXIMUM_PAGE_SIZE) {
+            return new ResponseEntity<>(new Response<Product>(false, "The limit must be between 1 and " + MAXIMUM_PAGE_SIZE).obtainJSONWithAdditionalInformation().toString(), HttpStatus.BAD_REQUEST);
+        }
+        try {
+            return new ResponseEntity<>(service.findIdentifiersPage(cursor, limit).obtainJSON("identifiers").toString(), HttpStatus.OK);
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>(new Response<Product>(false, "Invalid cursor").obtainJSONWithAdditionalInformation().toString(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    @GetMapping(value = "/identifiers/prefix", produces = "application/json")
+    @Operation(summary = "Obtain a page of the product identifiers that start with a prefix, ordered, without reading the database", parameters = {
+            @Parameter(in = ParameterIn.QUERY, name = "p", description = "Start of the identifiers. Empty for every identifier"),
+            @Parameter(in = ParameterIn.QUERY, name = "after", description = "Cursor returned as 'next' by the previous page. Empty on the first page"),
+            @Parameter(in = ParameterIn.QUERY, name = "limit", description = "Maximum number of identifiers, between 1 and " + MAXIMUM_PAGE_SIZE)
+    })
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Page obtained", content = @Content(schema = @Schema(implementation = Page.class))),
+            @ApiResponse(responseCode = "400", description = "Invalid cursor or limit, or directory disabled", content = @Content(schema = @Schema(implementation = Response.class)))
+    })
+    public ResponseEntity<String> getBusinessIdentifiersByPrefix(@RequestParam(value = "p", defaultValue = "") String prefix,
+                                                                 @RequestParam(value = "after", defaultValue = "") String cursor,
+                                                                 @RequestParam(value = "limit", defaultValue = "10") int limit) {
+        if (limit < 1 || limit > MAXIMUM_PAGE_SIZE) {
+            return new ResponseEntity<>(new Response<Product>(false, "The limit must be between 1 and " + MAXIMUM_PAGE_SIZE).obtainJSONWithAdditionalInformation().toString(), HttpStatus.BAD_REQUEST);
+        }
+        try {
+            Optional<Page<String>> page = service.findIdentifiersByPrefix(prefix, cursor, limit);
+            if (page.isEmpty()) {
+                return new ResponseEntity<>(new Response<Product>(false, "The identifier directory is disabled").obtainJSONWithAdditionalInformation().toString(), HttpStatus.BAD_REQUEST);
+            }
+            return new ResponseEntity<>(page.get().obtainJSON("identifiers").toString(), HttpStatus.OK);
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>(new Response<Product>(false, "Invalid cursor").obtainJSONWithAdditionalInformation().toString(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    @GetMapping(value = "/search", produces = "application/json")
+    @Operation(summary = "Search products by the words of their name and description, the most relevant first", parameters = {
+            @Parameter(in = ParameterIn.QUERY, name = "q", description = "Words to search. Each word also matches the words that start with it"),
+            @Parameter(in = ParameterIn.QUERY, name = "limit", description = "Maximum number of products, between 1 and " + MAXIMUM_SEARCH_SIZE)
+    })
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Products found", content = @Content(schema = @Schema(implementation = ArrayList.class))),
+            @ApiResponse(responseCode = "400", description = "Invalid limit or search disabled", content = @Content(schema = @Schema(implementation = Response.class)))
+    })
+    public ResponseEntity<String> searchProducts(@RequestParam(value = "q") String query, @RequestParam(value = "limit", defaultValue = "20") int limit) {
+        if (limit < 1 || limit > MAXIMUM_SEARCH_SIZE) {
+            return new ResponseEntity<>(new Response<Product>(false, "The limit must be between 1 and " + MAXIMUM_SEARCH_SIZE).obtainJSONWithAdditionalInformation().toString(), HttpStatus.BAD_REQUEST);
+        }
+        Optional<List<Product>> products = service.searchProducts(query, limit);
+        if (products.isEmpty()) {
+            return new ResponseEntity<>(new Response<Product>(false, "The search is disabled").obtainJSONWithAdditionalInformation().toString(), HttpStatus.BAD_REQUEST);
+        }
+        JSONArray array = new JSONArray();
+        products.get().forEach(product -> array.put(product.convertToJSON()));
+        return new ResponseEntity<>(array.toString(), HttpStatus.OK);
+    }
+
+    @GetMapping(value = "/quantities/below", produces = "application/json")
+    @Operation(summary = "Obtain the products with a quantity below a threshold, the lowest first, without reading the database", parameters = {
+            @Parameter(in = ParameterIn.QUERY, name = "threshold", description = "Quantity above the products returned"),
+            @Parameter(in = ParameterIn.QUERY, name = "limit", description = "Maximum number of products, between 1 and " + MAXIMUM_PAGE_SIZE)
+    })
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Products found", content = @Content(schema = @Schema(implementation = ArrayList.class))),
+            @ApiResponse(responseCode = "400", description = "Invalid limit or quantity index disabled", content = @Content(schema = @Schema(implementation = Response.class)))
+    })
+    public ResponseEntity<String> getQuantitiesBelow(@RequestParam(value = "threshold") int threshold, @RequestParam(value = "limit", defaultValue = "100") int limit) {
+        if (limit < 1 || limit > MAXIMUM_PAGE_SIZE) {
+            return new ResponseEntity<>(new Response<Product>(false, "The limit must be between 1 and " + MAXIMUM_PAGE_SIZE).obtainJSONWithAdditionalInformation().toString(), HttpStatus.BAD_REQUEST);
+        }
+        return stockLevelsResponse(service.findQuantitiesBelow(threshold, limit));
+    }
+
+    @GetMapping(value = "/quantities/range", produces = "application/json")
+    @Operation(summary = "Obtain the products with a quantity between two values, the lowest first, without reading the database", parameters = {
+            @Parameter(in = ParameterIn.QUERY, name = "min", description = "Minimum quantity (inclusive)"),
+            @Parameter(in = ParameterIn.QUERY, name = "max", description = "Maximum quantity (inclusive)"),
+            @Parameter(in = ParameterIn.QUERY, name = "limit", description = "Maximum number of products, between 1 and " + MAXIMUM_PAGE_SIZE)
+    })
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Products found", content = @Content(schema = @Schema(implementation = ArrayList.class))),
+            @ApiResponse(responseCode = "400", description = "Invalid limit or quantity index disabled", content = @Content(schema = @Schema(implementation = Response.class)))
+    })
+    public ResponseEntity<String> getQuantitiesInRange(@RequestParam(value = "min") int minimum, @RequestParam(value = "max") int maximum,
+                                                       @RequestParam(value = "limit", defaultValue = "100") int limit) {
+        if (limit < 1 || limit > MAXIMUM_PAGE_SIZE) {
+            return new ResponseEntity<>(new Response<Product>(false, "The limit must be between 1 and " + MAXIMUM_PAGE_SIZE).obtainJSONWithAdditionalInformation().toString(), HttpStatus.BAD_REQUEST);
+        }
+        return stockLevelsResponse(service.findQuantitiesInRange(minimum, maximum, limit));
+    }
+
+    @GetMapping(value = "/quantities/top", produces = "application/json")
+    @Operation(summary = "Obtain the products with the highest quantities, the highest first, without reading the database", parameters = {
+            @Parameter(in = ParameterIn.QUERY, name = "limit", description = "Maximum number of products, between 1 and " + MAXIMUM_PAGE_SIZE)
+    })
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Products found", content = @Content(schema = @Schema(implementation = ArrayList.class))),
+            @ApiResponse(responseCode = "400", description = "Invalid limit or quantity index disabled", content = @Content(schema = @Schema(implementation = Response.class)))
+    })
+    public ResponseEntity<String> getTopQuantities(@RequestParam(value = "limit", defaultValue = "10") int limit) {
+        if (limit < 1 || limit > MAXIMUM_PAGE_SIZE) {
+            return new ResponseEntity<>(new Response<Product>(false, "The limit must be between 1 and " + MAXIMUM_PAGE_SIZE).obtainJSONWithAdditionalInformation().toString(), HttpStatus.BAD_REQUEST);
+        }
+        return stockLevelsResponse(service.findTopQuantities(limit));
+    }
+
+    @PutMapping(value = "/quantities/alert", produces = "application/json")
+    @Operation(summary = "Define the low-stock threshold of a product, on this instance", parameters = {
+            @Parameter(in = ParameterIn.QUERY, name = "identifier", description = "Business identifier of the product"),
+            @Parameter(in = ParameterIn.QUERY, name = "threshold", description = "Quantity below which an alert is raised. 0 to use the default threshold")
+    })
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Threshold defined", content = @Content(schema = @Schema(implementation = Response.class))),
+            @ApiResponse(responseCode = "400", description = "Invalid threshold or quantity index disabled", content = @Content(schema = @Schema(implementation = Response.class)))
+    })
+    public ResponseEntity<String> defineLowStockThreshold(@RequestParam(value = "identifier") String identifier, @RequestParam(value = "threshold") int threshold) {
+        if (threshold < 0) {
+            return new ResponseEntity<>(new Response<Product>(false, "The threshold cannot be negative").obtainJSONWithAdditionalInformation().toString(), HttpStatus.BAD_REQUEST);
+        }
+        if (!service.defineLowStockThreshold(identifier, threshold)) {
+            return new ResponseEntity<>(new Response<Product>(false, "The quantity index is disabled").obtainJSONWithAdditionalInformation().toString(), HttpStatus.BAD_REQUEST);
+        }
+        return new ResponseEntity<>(new Response<Product>(true, "Threshold defined").obtainJSONWithAdditionalInformation().toString(), HttpStatus.OK);
+    }
+
+    @GetMapping(value = "/quantities/alerts", produces = "application/json")
+    @Operation(summary = "Obtain the recent low-stock alerts of this instance, the most recent first", parameters = {
+            @Parameter(in = ParameterIn.QUERY, name = "limit", description = "Maximum number of alerts, between 1 and " + MAXIMUM_PAGE_SIZE)
+    })
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Alerts obtained", content = @Content(schema = @Schema(implementation = ArrayList.class))),
+            @ApiResponse(responseCode = "400", description = "Invalid limit or quantity index disabled", content = @Content(schema = @Schema(implementation = Response.class)))
+    })
+    public ResponseEntity<String> getLowStockAlerts(@RequestParam(value = "limit", defaultValue = "100") int limit) {
+        if (limit < 1 || limit > MAXIMUM_PAGE_SIZE) {
+            return new ResponseEntity<>(new Response<Product>(false, "The limit must be between 1 and " + MAXIMUM_PAGE_SIZE).obtainJSONWithAdditionalInformation().toString(), HttpStatus.BAD_REQUEST);
+        }
+        Optional<List<LowStockAlertEvent>> alerts = service.findLowStockAlerts(limit);
+        if (alerts.isEmpty()) {
+            return new ResponseEntity<>(new Response<Product>(false, "The quantity index is disabled").obtainJSONWithAdditionalInformation().toString(), HttpStatus.BAD_REQUEST);
+        }
+        JSONArray array = new JSONArray();
+        alerts.get().forEach(alert -> array.put(alert.obtainJSON()));
+        return new ResponseEntity<>(array.toString(), HttpStatus.OK);
+    }
+
+    @GetMapping(value = "/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @Operation(summary = "Follow the product changes (creations, quantity changes and updates) as Server-Sent Events, with the product after each change", parameters = {
+            @Parameter(in = ParameterIn.QUERY, name = "prefix", description = "Start of the identifiers of the products to follow. Empty for every product"),
+            @Parameter(in = ParameterIn.HEADER, name = "Last-Event-ID", description = "Identifier of the last change received, to resume the feed (optional)"),
+            @Parameter(in = ParameterIn.QUERY, name = "lastEventId", description = "Identifier of the last change received, for clients that cannot send the header (optional)")
+    })
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Feed of the changes"),
+            @ApiResponse(responseCode = "503", description = "Maximum number of subscribers reached")
+    })
+    public ResponseEntity<SseEmitter> getChanges(@RequestParam(value = "prefix", defaultValue = "") String prefix,
+                                                 @RequestHeader(value = "Last-Event-ID", required = false) String lastEventIdHeader,
+                                                 @RequestParam(value = "lastEventId", required = false) String lastEventId) {
+        Optional<SseEmitter> emitter = changeFeed.subscribe(prefix, lastEventIdHeader != null ? lastEventIdHeader : lastEventId);
+        return emitter.map(ResponseEntity::ok).orElseGet(() -> ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build());
+    }
+
+    @GetMapping(value = "/cacheStatistics", produces = "application/json")
+    @Operation(summary = "Obtain the counters of the product cache")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Counters obtained", content = @Content(schema = @Schema(implementation = JSONObject.class)))
+    })
+    public ResponseEntity<String> getCacheStatistics() {
+        return new ResponseEntity<>(service.obtainCacheStatistics().toString(), HttpStatus.OK);
+    }
+
     @GetMapping(value = "/getByID", produces = "application/json")
     @Operation(summary = "Obtain product by its identifier", parameters = {
             @Parameter(in = ParameterIn.PATH, name = "identifier", description = "Product business identifier")
@@ -56,46 +296,154 @@ public class ProductController {
             @ApiResponse(responseCode = "200", description = "Product created", content = @Content(schema = @Schema(implementation = Product.class))),
             @ApiResponse(responseCode = "400", description = "Error obtaining product", content = @Content(schema = @Schema(implementation = Response.class))),
     })
-    public ResponseEntity<String> getProductByBusinessIdentifier(@RequestParam(value = "identifier") String businessIdentifier) {
+    public void getProductByBusinessIdentifier(@RequestParam(value = "identifier") String businessIdentifier, HttpServletResponse response) throws IOException {
         Optional<Product> productOpt = service.findByBusinessKey(businessIdentifier);
-        return productOpt.map(product -> new ResponseEntity<>(product.convertToJSON().toString(), HttpStatus.OK)).orElseGet(() -> new ResponseEntity<>(new Response<Product>(false, "Product not found").obtainJSONWithAdditionalInformation().toString(), HttpStatus.BAD_REQUEST));
+        if (productOpt.isPresent()) {
+            writeJSON(response, HttpStatus.OK, productOpt.get()::writeJSON);
+        } else {
+            writeJSON(response, HttpStatus.BAD_REQUEST, new Response<Product>(false, "Product not found")::writeJSONWithAdditionalInformation);
+        }
     }
 
     @PostMapping(value = "/create", produces = "application/json")
-    @Operation(summary = "Creates a new product")
+    @Operation(summary = "Creates a new product", requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(description = "Product to create: identifier, name, description and optional quantity",
+            content = @Content(mediaType = "application/json")))
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Product created", content = @Content(schema = @Schema(implementation = Response.class))),
             @ApiResponse(responseCode = "400", description = "Error while creating product", content = @Content(schema = @Schema(implementation = Response.class))),
     })
-    public ResponseEntity<String> createProduct(@RequestBody String informationAboutProductOnString) {
-        JSONObject obj = new JSONObject(informationAboutProductOnString);
+    public void createProduct(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Response<Product> answer;
+        try (JsonParser parser = JSON_FACTORY.createParser(request.getInputStream())) {
+            answer = service.createNewProduct(Product.readJSONToCreate(parser));
+        } catch (JsonProcessingException e) {
+            answer = new Response<>(false, "Error on JSON body. Check the information");
+        } catch (InvalidRepresentationOfConceptOnJSON e) {
+            answer = new Response<>(false, ProductService.CONVERSION_ERROR);
+        }
+        if (answer.isSuccess()) {
+            writeJSON(response, HttpStatus.OK, answer::writeJSONWithAllInfo);
+        } else {
+            writeJSON(response, HttpStatus.BAD_REQUEST, answer::writeJSONWithAdditionalInformation);
+        }
+    }
+
+    @PostMapping(value = "/createBatch", produces = "application/json")
+    @Operation(summary = "Creates a list of new products, reporting the result of each one")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Products processed", content = @Content(schema = @Schema(implementation = ArrayList.class))),
+            @ApiResponse(responseCode = "400", description = "Error on the JSON array", content = @Content(schema = @Schema(implementation = Response.class))),
+    })
+    public ResponseEntity<String> createProducts(@RequestBody String informationAboutProductsOnString) {
         try {
-            Response<Product> response = service.createNewProduct(obj);
-            if (response.isSuccess()) {
-                return new ResponseEntity<>(response.obtainJSONWithAllInfo().toString(), HttpStatus.OK);
-            } else {
-                return new ResponseEntity<>(response.obtainJSONWithAdditionalInformation().toString(), HttpStatus.BAD_REQUEST);
-            }
+            JSONArray array = new JSONArray(informationAboutProductsOnString);
+            return new ResponseEntity<>(convertResponsesToJSON(service.createNewProducts(array)).toString(), HttpStatus.OK);
         } catch (JSONException je) {
             return new ResponseEntity<>(new Response<Product>(false, "Error on JSON body. Check the information").obtainJSONWithAdditionalInformation().toString(), HttpStatus.BAD_REQUEST);
         }
     }
 
+    @PostMapping(value = "/import", consumes = {"text/csv", MediaType.TEXT_PLAIN_VALUE, MediaType.APPLICATION_OCTET_STREAM_VALUE}, produces = "application/x-ndjson")
+    @Operation(summary = "Imports the products of a CSV file (identifier, name, description and quantity per line, with an optional header), " +
+            "reporting, one JSON object per line, the errors of each line, the progress after each chunk inserted and a final summary")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "File processed"),
+            @ApiResponse(responseCode = "400", description = "Error reading the file", content = @Content(schema = @Schema(implementation = Response.class)))
+    })
+    public void importProducts(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType("application/x-ndjson");
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        PrintWriter writer = response.getWriter();
+        try {
+            JSONObject summary = importer.importCsv(request.getInputStream(), record -> {
+                writer.println(record.toString());
+                if (!"error".equals(record.getString("type"))) {
+                    writer.flush();
+                }
+            });
+            writer.println(summary.toString());
+            writer.flush();
+        } catch (IOException e) {
+            if (response.isCommitted()) {
+                throw e;
+            }
+            response.reset();
+            writeError(response, "Error reading the file");
+        }
+    }
+
+    @GetMapping(value = "/export", produces = {"application/x-ndjson", "text/csv"})
+    @Operation(summary = "Exports every product, as NDJSON (a JSON object per line) or CSV, written while the products are read", parameters = {
+            @Parameter(in = ParameterIn.QUERY, name = "format", description = "ndjson (default) or csv"),
+            @Parameter(in = ParameterIn.QUERY, name = "ranges", description = "Number of ranges of identifiers read at the same time, between 1 (default) and " + MAXIMUM_EXPORT_RANGES + ", limited to the connections of the pool minus invenhelper.export.reserved-connections. The products are not ordered")
+    })
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Products exported"),
+            @ApiResponse(responseCode = "400", description = "Invalid format or ranges, or error reading the products", content = @Content(schema = @Schema(implementation = Response.class)))
+    })
+    public void exportProducts(@RequestParam(value = "format", defaultValue = "ndjson") String formatName,
+                               @RequestParam(value = "ranges", defaultValue = "1") int ranges,
+                               HttpServletResponse response) throws IOException {
+        Optional<ProductExporter.Format> format = ProductExporter.Format.fromName(formatName);
+        if (format.isEmpty()) {
+            writeError(response, "The format must be ndjson or csv");
+            return;
+        }
+        if (ranges < 1 || ranges > MAXIMUM_EXPORT_RANGES) {
+            writeError(response, "The ranges must be between 1 and " + MAXIMUM_EXPORT_RANGES);
+            return;
+        }
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType(format.get() == ProductExporter.Format.CSV ? "text/csv" : "application/x-ndjson");
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.setHeader("Content-Disposition", "attachment; filename=\"products." + format.get().name().toLowerCase(Locale.ROOT) + "\"");
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8), 1 << 16);
+        try {
+            exporter.exportProducts(format.get(), ranges, writer);
+        } catch (IOException e) {
+            if (response.isCommitted()) {
+                throw e;
+            }
+            response.reset();
+            writeError(response, "Error reading the products");
+        }
+    }
+
     @PutMapping(value = "updateProduct", produces = "application/json")
-    @Operation(summary = "Updates the product name and/or description")
+    @Operation(summary = "Updates the product name and/or description", requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(description = "Identifier of the product, optional version that it must have, and the name and/or description to change",
+            content = @Content(mediaType = "application/json")))
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Product updated", content = @Content(schema = @Schema(implementation = Response.class))),
-            @ApiResponse(responseCode = "400", description = "Error while updating product", content = @Content(schema = @Schema(implementation = Response.class)))
+            @ApiResponse(responseCode = "400", description = "Error while updating product", content = @Content(schema = @Schema(implementation = Response.class))),
+            @ApiResponse(responseCode = "409", description = "The product does not have the version expected, or was changed by other requests", content = @Content(schema = @Schema(implementation = Response.class)))
     })
-    public ResponseEntity<String> updateProduct(@RequestBody String informationAboutProductOnString) {
+    public void updateProduct(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Response<Product> answer;
+        try (JsonParser parser = JSON_FACTORY.createParser(request.getInputStream())) {
+            answer = service.updateProductInformation(ProductUpdate.readJSON(parser));
+        } catch (JsonProcessingException e) {
+            answer = new Response<>(false, "Error on JSON body. Check the information");
+        }
+        if (answer.isSuccess()) {
+            writeJSON(response, HttpStatus.OK, answer::writeJSONWithAllInfo);
+        } else if (ProductService.VERSION_CONFLICT.equals(answer.getAdditionalInformation())) {
+            writeJSON(response, HttpStatus.CONFLICT, answer::writeJSONWithAllInfo);
+        } else {
+            writeJSON(response, HttpStatus.BAD_REQUEST, answer::writeJSONWithAdditionalInformation);
+        }
+    }
+
+    @PutMapping(value = "/updateBatch", produces = "application/json")
+    @Operation(summary = "Updates the name and/or description of a list of products, reporting the result of each one")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Products processed", content = @Content(schema = @Schema(implementation = ArrayList.class))),
+            @ApiResponse(responseCode = "400", description = "Error on the JSON array", content = @Content(schema = @Schema(implementation = Response.class)))
+    })
+    public ResponseEntity<String> updateProducts(@RequestBody String informationAboutProductsOnString) {
         try {
-            JSONObject object = new JSONObject(informationAboutProductOnString);
-            Response<Product> response = service.updateProductInformation(object);
-            if (response.isSuccess()) {
-                return new ResponseEntity<>(response.obtainJSONWithAllInfo().toString(), HttpStatus.OK);
-            } else {
-                return new ResponseEntity<>(response.obtainJSONWithAdditionalInformation().toString(), HttpStatus.BAD_REQUEST);
-            }
+            JSONArray array = new JSONArray(informationAboutProductsOnString);
+            return new ResponseEntity<>(convertResponsesToJSON(service.updateProductsInformation(array)).toString(), HttpStatus.OK);
         } catch (JSONException je) {
             return new ResponseEntity<>(new Response<Product>(false, "Error on JSON body. Check the information").obtainJSONWithAdditionalInformation().toString(), HttpStatus.BAD_REQUEST);
         }
@@ -104,38 +452,211 @@ public class ProductController {
     @PutMapping(value = "increaseQuantity", produces = "application/json")
     @Operation(summary = "Increases the quantity of a product, given the quantity and the business identifier", parameters = {
             @Parameter(in = ParameterIn.PATH, name = "quantity", description = "Quantity to increase. Must be positive"),
-            @Parameter(in = ParameterIn.PATH, name = "identifier", description = "Product business identifier")
+            @Parameter(in = ParameterIn.PATH, name = "identifier", description = "Product business identifier"),
+            @Parameter(in = ParameterIn.QUERY, name = "version", description = "Version that the product must have (optional)")
     })
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Quantity increased", content = @Content(schema = @Schema(implementation = Response.class))),
-            @ApiResponse(responseCode = "400", description = "Error increasing quantity", content = @Content(schema = @Schema(implementation = Response.class)))
+            @ApiResponse(responseCode = "202", description = "Quantity change accepted, to be written later (write-behind mode)", content = @Content(schema = @Schema(implementation = Response.class))),
+            @ApiResponse(responseCode = "400", description = "Error increasing quantity", content = @Content(schema = @Schema(implementation = Response.class))),
+            @ApiResponse(responseCode = "409", description = "The product does not have the version expected", content = @Content(schema = @Schema(implementation = Response.class)))
     })
-    public ResponseEntity<String> increaseQuantity(@RequestParam(value = "identifier") String businessIdentifier, @RequestParam(value = "quantity") int quantityToIncrease) {
-        Response<Product> response = service.increaseQuantity(businessIdentifier, quantityToIncrease);
-        if (response.isSuccess()) {
-            return new ResponseEntity<>(response.obtainJSONWithAllInfo().toString(), HttpStatus.OK);
-        } else {
-            return new ResponseEntity<>(response.obtainJSONWithAdditionalInformation().toString(), HttpStatus.BAD_REQUEST);
-        }
+    public ResponseEntity<String> increaseQuantity(@RequestParam(value = "identifier") String businessIdentifier, @RequestParam(value = "quantity") int quantityToIncrease,
+                                                   @RequestParam(value = "version", required = false) Long expectedVersion) {
+        return convertQuantityResponse(expectedVersion == null ? service.increaseQuantity(businessIdentifier, quantityToIncrease) :
+                service.increaseQuantity(businessIdentifier, quantityToIncrease, expectedVersion));
     }
 
     @PutMapping(value = "decreaseQuantity", produces = "application/json")
     @Operation(summary = "Decreases the quantity of a product, given the quantity and the business identifier", parameters = {
             @Parameter(in = ParameterIn.PATH, name = "quantity", description = "Quantity to decrease. Must be positive"),
-            @Parameter(in = ParameterIn.PATH, name = "businessIdentifier", description = "Product business identifier")
+            @Parameter(in = ParameterIn.PATH, name = "businessIdentifier", description = "Product business identifier"),
+            @Parameter(in = ParameterIn.QUERY, name = "version", description = "Version that the product must have (optional)")
     })
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Quantity decreased", content = @Content(schema = @Schema(implementation = Response.class))),
-            @ApiResponse(responseCode = "400", description = "Error decreasing quantity", content = @Content(schema = @Schema(implementation = Response.class)))
+            @ApiResponse(responseCode = "202", description = "Quantity change accepted, to be written later (write-behind mode)", content = @Content(schema = @Schema(implementation = Response.class))),
+            @ApiResponse(responseCode = "400", description = "Error decreasing quantity", content = @Content(schema = @Schema(implementation = Response.class))),
+            @ApiResponse(responseCode = "409", description = "The product does not have the version expected", content = @Content(schema = @Schema(implementation = Response.class)))
     })
-    public ResponseEntity<String> decreaseQuantity(@RequestParam(value = "identifier") String businessIdentifier, @RequestParam(value = "quantity") int quantityToDecrease) {
-        Response<Product> response = service.decreaseQuantity(businessIdentifier, quantityToDecrease);
-        if (response.isSuccess()) {
-            return new ResponseEntity<>(response.obtainJSONWithAllInfo().toString(), HttpStatus.OK);
-        } else {
+    public ResponseEntity<String> decreaseQuantity(@RequestParam(value = "identifier") String businessIdentifier, @RequestParam(value = "quantity") int quantityToDecrease,
+                                                   @RequestParam(value = "version", required = false) Long expectedVersion) {
+        return convertQuantityResponse(expectedVersion == null ? service.decreaseQuantity(businessIdentifier, quantityToDecrease) :
+                service.decreaseQuantity(businessIdentifier, quantityToDecrease, expectedVersion));
+    }
+
+    @PutMapping(value = "/move", produces = "application/json")
+    @Operation(summary = "Changes the quantity of a list of products atomically: all the changes are applied, or none is")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Movement applied, with the products updated", content = @Content(schema = @Schema(implementation = ArrayList.class))),
+            @ApiResponse(responseCode = "400", description = "Movement not applied, with the reason for each product", content = @Content(schema = @Schema(implementation = ArrayList.class)))
+    })
+    public ResponseEntity<String> moveQuantities(@RequestBody String movementsOnString) {
+        try {
+            JSONArray array = new JSONArray(movementsOnString);
+            if (array.length() > MAXIMUM_MOVEMENT_SIZE) {
+                return new ResponseEntity<>(new Response<Product>(false, "The movement must have up to " + MAXIMUM_MOVEMENT_SIZE + " products").obtainJSONWithAdditionalInformation().toString(), HttpStatus.BAD_REQUEST);
+            }
+            List<Response<Product>> responses = service.moveQuantities(array);
+            return new ResponseEntity<>(convertResponsesToJSON(responses).toString(), responses.stream().allMatch(Response::isSuccess) ? HttpStatus.OK : HttpStatus.BAD_REQUEST);
+        } catch (JSONException je) {
+            return new ResponseEntity<>(new Response<Product>(false, "Error on JSON body. Check the information").obtainJSONWithAdditionalInformation().toString(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    @GetMapping(value = "/available", produces = "application/json")
+    @Operation(summary = "Obtain the quantity of a product, the quantity reserved and the quantity available for new reservations", parameters = {
+            @Parameter(in = ParameterIn.QUERY, name = "identifier", description = "Product business identifier")
+    })
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Quantities obtained", content = @Content(schema = @Schema(implementation = JSONObject.class))),
+            @ApiResponse(responseCode = "400", description = "Product not found", content = @Content(schema = @Schema(implementation = Response.class)))
+    })
+    public ResponseEntity<String> getAvailableQuantity(@RequestParam(value = "identifier") String businessIdentifier) {
+        Optional<JSONObject> availability = reservationService.obtainAvailability(businessIdentifier);
+        if (availability.isEmpty()) {
+            return new ResponseEntity<>(new Response<Product>(false, "Product not found").obtainJSONWithAdditionalInformation().toString(), HttpStatus.BAD_REQUEST);
+        }
+        return new ResponseEntity<>(availability.get().toString(), HttpStatus.OK);
+    }
+
+    @PostMapping(value = "/reservations", produces = "application/json")
+    @Operation(summary = "Reserve a quantity of a product for a while, without changing its quantity", parameters = {
+            @Parameter(in = ParameterIn.QUERY, name = "identifier", description = "Product business identifier"),
+            @Parameter(in = ParameterIn.QUERY, name = "quantity", description = "Quantity to reserve. Must be positive"),
+            @Parameter(in = ParameterIn.QUERY, name = "duration", description = "Seconds until the reservation expires (optional)")
+    })
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "201", description = "Quantity reserved, with the reservation", content = @Content(schema = @Schema(implementation = Response.class))),
+            @ApiResponse(responseCode = "400", description = "Error reserving the quantity", content = @Content(schema = @Schema(implementation = Response.class)))
+    })
+    public ResponseEntity<String> reserveQuantity(@RequestParam(value = "identifier") String businessIdentifier, @RequestParam(value = "quantity") int quantity,
+                                                  @RequestParam(value = "duration", required = false) Long durationInSeconds) {
+        Duration duration = durationInSeconds == null ? reservationService.getDefaultDuration() : Duration.ofSeconds(durationInSeconds);
+        Response<Reservation> response = reservationService.reserve(businessIdentifier, quantity, duration);
+        if (!response.isSuccess()) {
+            return new ResponseEntity<>(response.obtainJSONWithAdditionalInformation().toString(), HttpStatus.BAD_REQUEST);
+        }
+        return new ResponseEntity<>(response.obtainJSONWithAllInfo().toString(), HttpStatus.CREATED);
+    }
+
+    @PostMapping(value = "/reservations/confirm", produces = "application/json")
+    @Operation(summary = "Confirm a reservation, decreasing the quantity of the product by the quantity reserved", parameters = {
+            @Parameter(in = ParameterIn.QUERY, name = "id", description = "Identifier of the reservation")
+    })
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Reservation confirmed, with the product updated", content = @Content(schema = @Schema(implementation = Response.class))),
+            @ApiResponse(responseCode = "400", description = "Reservation not found, expired or not confirmed", content = @Content(schema = @Schema(implementation = Response.class)))
+    })
+    public ResponseEntity<String> confirmReservation(@RequestParam(value = "id") String identifier) {
+        Response<Product> response = reservationService.confirm(identifier);
+        if (!response.isSuccess()) {
+            return new ResponseEntity<>(response.obtainJSONWithAdditionalInformation().toString(), HttpStatus.BAD_REQUEST);
+        }
+        return new ResponseEntity<>(response.obtainJSONWithAllInfo().toString(), HttpStatus.OK);
+    }
+
+    @DeleteMapping(value = "/reservations", produces = "application/json")
+    @Operation(summary = "Release a reservation, without changing the quantity of the product", parameters = {
+            @Parameter(in = ParameterIn.QUERY, name = "id", description = "Identifier of the reservation")
+    })
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Reservation released", content = @Content(schema = @Schema(implementation = Response.class))),
+            @ApiResponse(responseCode = "400", description = "Reservation not found", content = @Content(schema = @Schema(implementation = Response.class)))
+    })
+    public ResponseEntity<String> releaseReservation(@RequestParam(value = "id") String identifier) {
+        Response<Reservation> response = reservationService.release(identifier);
+        if (!response.isSuccess()) {
             return new ResponseEntity<>(response.obtainJSONWithAdditionalInformation().toString(), HttpStatus.BAD_REQUEST);
         }
+        return new ResponseEntity<>(response.obtainJSONWithAllInfo().toString(), HttpStatus.OK);
     }
 
+    /**
+     * Method that converts the response of a quantity change. A successful change without product was accepted on the
+     * write-behind mode, and is not yet on the database
+     *
+     * @param response response of the service
+     * @return 200 with the updated product, 202 if the change was accepted, 409 with the current product on a version conflict or 400 on failure
+     */
+    private ResponseEntity<String> convertQuantityResponse(Response<Product> response) {
+        if (!response.isSuccess() && ProductService.VERSION_CONFLICT.equals(response.getAdditionalInformation())) {
+            return new ResponseEntity<>(response.obtainJSONWithAllInfo().toString(), HttpStatus.CONFLICT);
+        } else if (!response.isSuccess()) {
+            return new ResponseEntity<>(response.obtainJSONWithAdditionalInformation().toString(), HttpStatus.BAD_REQUEST);
+        } else if (response.getObjectToReturn() == null) {
+            return new ResponseEntity<>(response.obtainJSONWithAdditionalInformation().toString(), HttpStatus.ACCEPTED);
+        } else {
+            return new ResponseEntity<>(response.obtainJSONWithAllInfo().toString(), HttpStatus.OK);
+        }
+    }
 
+    /**
+     * Method that converts a list of responses into a JSON array. Successful responses contain all the info, the others only the additional information
+     *
+     * @param responses responses to convert
+     * @return JSONArray with a JSON object for each response
+     */
+    private JSONArray convertResponsesToJSON(List<Response<Product>> responses) {
+        JSONArray array = new JSONArray();
+        for (Response<Product> response : responses) {
+            array.put(response.isSuccess() ? response.obtainJSONWithAllInfo() : response.obtainJSONWithAdditionalInformation());
+        }
+        return array;
+    }
+
+    /**
+     * Method that converts the stock levels found on the quantity index into a response
+     *
+     * @param levels Optional with the stock levels; empty if the index is disabled
+     * @return ResponseEntity with a JSON array of the stock levels, or an error if the index is disabled
+     */
+    private ResponseEntity<String> stockLevelsResponse(Optional<List<QuantityIndex.StockLevel>> levels) {
+        if (levels.isEmpty()) {
+            return new ResponseEntity<>(new Response<Product>(false, "The quantity index is disabled").obtainJSONWithAdditionalInformation().toString(), HttpStatus.BAD_REQUEST);
+        }
+        JSONArray array = new JSONArray();
+        levels.get().forEach(level -> array.put(level.obtainJSON()));
+        return new ResponseEntity<>(array.toString(), HttpStatus.OK);
+    }
+
+    /**
+     * Writer of a JSON body on a generator
+     */
+    @FunctionalInterface
+    private interface JsonBodyWriter {
+        void write(JsonGenerator generator) throws IOException;
+    }
+
+    /**
+     * Method that writes a JSON body directly on the output stream of the response, without building the JSON as a String
+     *
+     * @param response response where the body is written
+     * @param status   status of the response
+     * @param body     writer of the body
+     * @throws IOException if the body cannot be written
+     */
+    private static void writeJSON(HttpServletResponse response, HttpStatus status, JsonBodyWriter body) throws IOException {
+        response.setStatus(status.value());
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(response.getOutputStream(), JsonEncoding.UTF8)) {
+            body.write(generator);
+        }
+    }
+
+    /**
+     * Method that writes an error on a response that is written directly, instead of returned as a ResponseEntity
+     *
+     * @param response response not yet committed
+     * @param message  description of the error
+     * @throws IOException if the response cannot be written
+     */
+    private void writeError(HttpServletResponse response, String message) throws IOException {
+        response.setStatus(HttpStatus.BAD_REQUEST.value());
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.getWriter().print(new Response<Product>(false, message).obtainJSONWithAdditionalInformation().toString());
+        response.getWriter().flush();
+    }
 }
@@ -0,0 +1,36 @@
+package hrtech.bigmanager.invenhelper.controller;
+
+import hrtech.bigmanager.invenhelper.repository.DataSourceRouting;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Filter that sends all the database operations of a request to the primary database, if the request has the
+ * X-Read-Your-Writes header with the value true. It allows a client to read the changes it has just made, that may not be
+ * on the read replicas yet
+ */
+@Component
+public class ReadYourWritesFilter extends OncePerRequestFilter {
+
+    public static final String HEADER = "X-Read-Your-Writes";
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        if (!Boolean.parseBoolean(request.getHeader(HEADER))) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        boolean previous = DataSourceRouting.forcePrimary(true);
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            DataSourceRouting.forcePrimary(previous);
+        }
+    }
+}
@@ -1,10 +1,19 @@
 package hrtech.bigmanager.invenhelper.model;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import hrtech.bigmanager.invenhelper.exception.InvalidRepresentationOfConceptOnJSON;
 import org.json.JSONObject;
 
+import java.io.IOException;
+
 /**
  * Interface to be implemented on Domain concepts
+ * <p>
+ * Besides the conversion from and to JSONObject, the concepts can be read from and written to a stream of JSON tokens, without
+ * building the tree of the object nor the String of the whole JSON
  *
  * @param <E> Entity class
  * @param <K> Entity key class
@@ -28,6 +37,29 @@ public interface Domain<E, K> {
      */
     JSONObject convertToJSON();
 
+    /**
+     * Method that reads the domain concept from a stream of JSON tokens, with the same rules of {@link #convertFromJSON(JSONObject)}.
+     * The parser is left on the end of the object read
+     *
+     * @param parser parser positioned before or on the start of the object
+     * @return domain concept built from the JSON representation
+     * @throws IOException if the stream cannot be read or is not a JSON object
+     */
+    default E readJSON(JsonParser parser) throws IOException, InvalidRepresentationOfConceptOnJSON {
+        throw new InvalidRepresentationOfConceptOnJSON("Converter override missing");
+    }
+
+    /**
+     * Method that writes the domain concept as a JSON object, with the same fields of {@link #convertToJSON()}. By default, the
+     * JSONObject is built and written as it is; the concepts on the hot path write each field directly
+     *
+     * @param generator generator where the object is written
+     * @throws IOException if the object cannot be written
+     */
+    default void writeJSON(JsonGenerator generator) throws IOException {
+        generator.writeRawValue(convertToJSON().toString());
+    }
+
     /**
      * Method that compares if an entity corresponds to the other, by the key
      *
@@ -36,4 +68,69 @@ public interface Domain<E, K> {
      */
     boolean sameAs(E otherEntity);
 
+    /**
+     * Method that moves the parser to the start of an object, if it is not there yet
+     *
+     * @param parser parser of the JSON
+     * @throws IOException if the next value is not a JSON object
+     */
+    static void readObjectStart(JsonParser parser) throws IOException {
+        if (!parser.hasCurrentToken()) {
+            parser.nextToken();
+        }
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, "A JSON object was expected");
+        }
+    }
+
+    /**
+     * Method that reads the current value as text, like JSONObject.optString. Numbers and booleans are converted; null, objects and
+     * arrays (which are skipped) give the default value
+     *
+     * @param parser       parser on the value
+     * @param defaultValue value returned if the value is not text
+     * @return value as text
+     * @throws IOException if the stream cannot be read
+     */
+    static String readText(JsonParser parser, String defaultValue) throws IOException {
+        if (parser.currentToken().isStructStart()) {
+            parser.skipChildren();
+            return defaultValue;
+        }
+        return parser.getValueAsString(defaultValue);
+    }
+
+    /**
+     * Method that reads the current value as an int, like JSONObject.optInt. Text with a number is converted; booleans, other text,
+     * or objects and arrays (which are skipped), give the default value
+     *
+     * @param parser       parser on the value
+     * @param defaultValue value returned if the value is not a number
+     * @return value as an int
+     * @throws IOException if the stream cannot be read
+     */
+    static int readInt(JsonParser parser, int defaultValue) throws IOException {
+        if (parser.currentToken().isStructStart()) {
+            parser.skipChildren();
+            return defaultValue;
+        }
+        return parser.currentToken().isBoolean() ? defaultValue : parser.getValueAsInt(defaultValue);
+    }
+
+    /**
+     * Method that reads the current value as a long, like JSONObject.optLong. Text with a number is converted; booleans, other text,
+     * or objects and arrays (which are skipped), give the default value
+     *
+     * @param parser       parser on the value
+     * @param defaultValue value returned if the value is not a number
+     * @return value as a long
+     * @throws IOException if the stream cannot be read
+     */
+    static long readLong(JsonParser parser, long defaultValue) throws IOException {
+        if (parser.currentToken().isStructStart()) {
+            parser.skipChildren();
+            return defaultValue;
+        }
+        return parser.currentToken().isBoolean() ? defaultValue : parser.getValueAsLong(defaultValue);
+    }
 }
@@ -19,19 +19,81 @@ public interface DomainKey<K> {
     }
 
     /**
-     * Method that converts a String to a UUID object. The String must be on a valid format: 32 characters separated by 5 hyphen (37 characters) or 32 characters and no hyphens
+     * Method that converts a String to a UUID object. The String must be on a valid format: 32 hexadecimal characters separated by 4 hyphens
+     * (36 characters) or 32 hexadecimal characters and no hyphens. The characters are parsed directly, without intermediate Strings
      *
      * @param idToConvert id that will be converted
      * @return UUID of the string, IllegalArgumentException on failure
      */
     static UUID convertStringToUUID(String idToConvert) {
-        if (idToConvert.split("-").length != 5 && idToConvert.length() == 32) {
-            return UUID.fromString(idToConvert.substring(0, 8) + "-" + idToConvert.substring(8, 12) + "-" + idToConvert.substring(12, 16) + "-" +
-                    idToConvert.substring(16, 20) + "-" + idToConvert.substring(20));
-        } else if (idToConvert.split("-").length == 5 && idToConvert.length() == 36) {
-            return UUID.fromString(idToConvert);
+        boolean withHyphens;
+        if (idToConvert.length() == 36) {
+            withHyphens = true;
+            if (idToConvert.charAt(8) != '-' || idToConvert.charAt(13) != '-' || idToConvert.charAt(18) != '-' || idToConvert.charAt(23) != '-') {
+                throw new IllegalArgumentException("Invalid string to convert to UUID");
+            }
+        } else if (idToConvert.length() == 32) {
+            withHyphens = false;
         } else {
             throw new IllegalArgumentException("Invalid string to convert to UUID");
         }
+
+        long mostSignificantBits = 0;
+        long leastSignificantBits = 0;
+        int digits = 0;
+        for (int index = 0; index < idToConvert.length(); index++) {
+            if (withHyphens && (index == 8 || index == 13 || index == 18 || index == 23)) {
+                continue;
+            }
+            int value = Character.digit(idToConvert.charAt(index), 16);
+            if (value < 0) {
+                throw new IllegalArgumentException("Invalid string to convert to UUID");
+            }
+            if (digits < 16) {
+                mostSignificantBits = (mostSignificantBits << 4) | value;
+            } else {
+                leastSignificantBits = (leastSignificantBits << 4) | value;
+            }
+            digits++;
+        }
+        return new UUID(mostSignificantBits, leastSignificantBits);
+    }
+
+    /**
+     * Method that converts a UUID into its 16 bytes representation (big-endian), as stored on a BINARY(16) column
+     *
+     * @param idToConvert id that will be converted
+     * @return array with the 16 bytes of the UUID
+     */
+    static byte[] convertUUIDToBytes(UUID idToConvert) {
+        byte[] bytes = new byte[16];
+        long mostSignificantBits = idToConvert.getMostSignificantBits();
+        long leastSignificantBits = idToConvert.getLeastSignificantBits();
+        for (int index = 7; index >= 0; index--) {
+            bytes[index] = (byte) mostSignificantBits;
+            bytes[index + 8] = (byte) leastSignificantBits;
+            mostSignificantBits >>>= 8;
+            leastSignificantBits >>>= 8;
+        }
+        return bytes;
+    }
+
+    /**
+     * Method that converts the 16 bytes representation of a UUID (big-endian), as stored on a BINARY(16) column, into a UUID object
+     *
+     * @param idToConvert bytes that will be converted
+     * @return UUID of the bytes, IllegalArgumentException on failure
+     */
+    static UUID convertBytesToUUID(byte[] idToConvert) {
+        if (idToConvert == null || idToConvert.length != 16) {
+            throw new IllegalArgumentException("Invalid bytes to convert to UUID");
+        }
+        long mostSignificantBits = 0;
+        long leastSignificantBits = 0;
+        for (int index = 0; index < 8; index++) {
+            mostSignificantBits = (mostSignificantBits << 8) | (idToConvert[index] & 0xFF);
+            leastSignificantBits = (leastSignificantBits << 8) | (idToConvert[index + 8] & 0xFF);
+        }
+        return new UUID(mostSignificantBits, leastSignificantBits);
     }
 }
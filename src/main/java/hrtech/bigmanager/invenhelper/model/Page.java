@@ -0,0 +1,86 @@
+package hrtech.bigmanager.invenhelper.model;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Page of a listing ordered by a key. It contains the items and, if there are more items, an opaque cursor to obtain the next page
+ *
+ * @param <T> Item class
+ */
+public class Page<T> {
+
+    private final List<T> items;
+    private final String nextCursor;
+
+    public Page(List<T> items, String nextCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * Method that returns the cursor of the next page
+     *
+     * @return Optional with the cursor; empty if this is the last page
+     */
+    public Optional<String> getNextCursor() {
+        return Optional.ofNullable(nextCursor);
+    }
+
+    /**
+     * Method that converts the last key of a page into an opaque cursor
+     *
+     * @param key last key of the page
+     * @return cursor that represents the key
+     */
+    public static String encodeCursor(String key) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Method that converts a cursor into the key it represents
+     *
+     * @param cursor cursor obtained from a previous page
+     * @return key represented by the cursor
+     * @throws IllegalArgumentException if the cursor is invalid
+     */
+    public static String decodeCursor(String cursor) {
+        return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Method that creates a JSON object with the items (on the field with the name received) and the next cursor (null on the last page)
+     *
+     * @param itemsName name of the field with the items
+     * @return JSONObject representing the page
+     */
+    public JSONObject obtainJSON(String itemsName) {
+        JSONObject objectToReturn = new JSONObject();
+        objectToReturn.put(itemsName, new JSONArray(items));
+        objectToReturn.put("next", nextCursor == null ? JSONObject.NULL : nextCursor);
+        return objectToReturn;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Page<?> page = (Page<?>) o;
+        return items.equals(page.items) && Objects.equals(nextCursor, page.nextCursor);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(items, nextCursor);
+    }
+}
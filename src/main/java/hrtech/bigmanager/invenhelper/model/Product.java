@@ -1,11 +1,15 @@
 package hrtech.bigmanager.invenhelper.model;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import hrtech.bigmanager.invenhelper.exception.InvalidBusinessIdentifier;
 import hrtech.bigmanager.invenhelper.exception.InvalidQuantity;
 import hrtech.bigmanager.invenhelper.exception.InvalidRepresentationOfConceptOnJSON;
 import hrtech.bigmanager.invenhelper.exception.InvalidText;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.util.Objects;
 import java.util.UUID;
 
@@ -17,11 +21,17 @@ public class Product implements Domain<Product, ProductKey> {
     private final ProductKey identifier;
     private final ProductInformation information;
     private final Quantity quantity;
+    private long version;
 
     public Product(ProductKey identifier, ProductInformation information, Quantity quantity) {
+        this(identifier, information, quantity, 0);
+    }
+
+    public Product(ProductKey identifier, ProductInformation information, Quantity quantity, long version) {
         this.identifier = identifier;
         this.information = information;
         this.quantity = quantity;
+        this.version = version;
     }
 
     public String getProductBusinessKey() {
@@ -32,6 +42,10 @@ public class Product implements Domain<Product, ProductKey> {
         return identifier.getDatabaseKey().toString();
     }
 
+    public UUID getDatabaseKey() {
+        return identifier.getDatabaseKey();
+    }
+
     public String getName() {
         return information.getName();
     }
@@ -44,6 +58,17 @@ public class Product implements Domain<Product, ProductKey> {
         return quantity.getQuantity();
     }
 
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Method that increases the version by one, after the product is changed on the database
+     */
+    public void increaseVersion() {
+        version++;
+    }
+
     /**
      * Method that increases the quantity by a certain number
      *
@@ -84,6 +109,16 @@ public class Product implements Domain<Product, ProductKey> {
         information.setDescription(description);
     }
 
+    /**
+     * Method that creates a copy of the product, that can be changed without changing this one
+     *
+     * @return copy of the product
+     */
+    public Product copy() {
+        return new Product(new ProductKey(identifier.getDatabaseKey(), identifier.getInternalKey()),
+                new ProductInformation(information.getName(), information.getDescription()), new Quantity(quantity.getQuantity()), version);
+    }
+
     /**
      * Method that converts a JSONObject into the domain concept
      *
@@ -145,9 +180,101 @@ public class Product implements Domain<Product, ProductKey> {
         answer.put("name", this.information.getName());
         answer.put("description", this.information.getDescription());
         answer.put("quantity", this.quantity.getQuantity());
+        answer.put("version", this.version);
         return answer;
     }
 
+    /**
+     * Method that reads the domain concept from a stream of JSON tokens, with the same rules of {@link #convertFromJSON(JSONObject)}
+     *
+     * @param parser parser positioned before or on the start of the object
+     * @return domain concept built from the JSON representation
+     * @throws IOException if the stream cannot be read or is not a JSON object
+     */
+    @Override
+    public Product readJSON(JsonParser parser) throws IOException, InvalidRepresentationOfConceptOnJSON {
+        return readJSON(parser, false);
+    }
+
+    /**
+     * Method that reads the domain concept from a stream of JSON tokens, with the same rules of {@link #convertFromJSONToCreate(JSONObject)}:
+     * the product obtained will have a new UUID and, without a quantity, the quantity at zero
+     *
+     * @param parser parser positioned before or on the start of the object
+     * @return domain concept built from the JSON representation
+     * @throws IOException if the stream cannot be read or is not a JSON object
+     */
+    public static Product readJSONToCreate(JsonParser parser) throws IOException, InvalidRepresentationOfConceptOnJSON {
+        return readJSON(parser, true);
+    }
+
+    /**
+     * Method that reads the fields of a product from a stream of JSON tokens. Unknown fields are skipped
+     *
+     * @param parser   parser positioned before or on the start of the object
+     * @param toCreate true to read a product to be created, with a new UUID
+     * @return domain concept built from the JSON representation
+     * @throws IOException if the stream cannot be read or is not a JSON object
+     */
+    private static Product readJSON(JsonParser parser, boolean toCreate) throws IOException, InvalidRepresentationOfConceptOnJSON {
+        String productInternalKey = "";
+        String productName = "";
+        String productDescription = "";
+        int quantity = toCreate ? 0 : -1;
+
+        Domain.readObjectStart(parser);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "identifier":
+                    productInternalKey = Domain.readText(parser, "");
+                    break;
+                case "name":
+                    productName = Domain.readText(parser, "");
+                    break;
+                case "description":
+                    productDescription = Domain.readText(parser, "");
+                    break;
+                case "quantity":
+                    quantity = Domain.readInt(parser, quantity);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+
+        try {
+            ProductKey key = toCreate ? new ProductKey(UUID.randomUUID(), productInternalKey) : new ProductKey(productInternalKey);
+            ProductInformation info = new ProductInformation(productName, productDescription);
+            Quantity quantityDomain = new Quantity(quantity);
+            return new Product(key, info, quantityDomain);
+        } catch (InvalidQuantity iq) {
+            throw new InvalidRepresentationOfConceptOnJSON("Invalid quantity: " + quantity);
+        } catch (InvalidText it) {
+            throw new InvalidRepresentationOfConceptOnJSON("Invalid text found (description or name");
+        } catch (InvalidBusinessIdentifier ibi) {
+            throw new InvalidRepresentationOfConceptOnJSON(ibi.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Method that writes the domain concept as a JSON object, with the same fields of {@link #convertToJSON()}
+     *
+     * @param generator generator where the object is written
+     * @throws IOException if the object cannot be written
+     */
+    @Override
+    public void writeJSON(JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("identifier", this.identifier.getInternalKey());
+        generator.writeStringField("name", this.information.getName());
+        generator.writeStringField("description", this.information.getDescription());
+        generator.writeNumberField("quantity", this.quantity.getQuantity());
+        generator.writeNumberField("version", this.version);
+        generator.writeEndObject();
+    }
+
     /**
      * Method that compares if an entity corresponds to the other, by the key
      *
@@ -159,6 +286,12 @@ public class Product implements Domain<Product, ProductKey> {
         return this.identifier.equals(otherEntity.identifier);
     }
 
+    /**
+     * Method that compares the products by their content. The version is not compared, since it only identifies the state on the database
+     *
+     * @param o object to compare
+     * @return true if the products have the same key, information and quantity
+     */
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
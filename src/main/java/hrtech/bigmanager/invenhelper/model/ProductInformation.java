@@ -9,11 +9,21 @@ import java.util.Objects;
  */
 public class ProductInformation {
 
+    /**
+     * Maximum length of the name, the same length of the name column
+     */
+    public static final int MAXIMUM_NAME_LENGTH = 255;
+
+    /**
+     * Maximum length of the description. A TEXT column holds 65535 bytes, that are 16383 characters on the worst case of utf8mb4
+     */
+    public static final int MAXIMUM_DESCRIPTION_LENGTH = 16383;
+
     private String name;
     private String description;
 
     public ProductInformation(String name, String description) throws InvalidText {
-        if (validText(name) && validText(description)) {
+        if (validText(name, MAXIMUM_NAME_LENGTH) && validText(description, MAXIMUM_DESCRIPTION_LENGTH)) {
             this.name = name;
             this.description = description;
         } else {
@@ -32,7 +42,7 @@ public class ProductInformation {
      * @throws InvalidText if the text is invalid
      */
     public void setName(String name) {
-        if (!validText(name)) {
+        if (!validText(name, MAXIMUM_NAME_LENGTH)) {
             throw new InvalidText("Invalid product name: " + name);
         }
         this.name = name;
@@ -49,20 +59,21 @@ public class ProductInformation {
      * @throws InvalidText if the text is invalid
      */
     public void setDescription(String description) {
-        if (!validText(description)) {
+        if (!validText(description, MAXIMUM_DESCRIPTION_LENGTH)) {
             throw new InvalidText("Invalid product description: " + description);
         }
         this.description = description;
     }
 
     /**
-     * Method that validates a text
+     * Method that validates a text. It must not be blank and must fit on the database column
      *
-     * @param text text to be checked
+     * @param text          text to be checked
+     * @param maximumLength maximum number of characters of the text
      * @return true on success
      */
-    private boolean validText(String text) {
-        return !text.isBlank();
+    private boolean validText(String text, int maximumLength) {
+        return !text.isBlank() && text.length() <= maximumLength;
     }
 
     @Override
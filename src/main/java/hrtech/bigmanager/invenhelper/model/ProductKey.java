@@ -10,6 +10,11 @@ import java.util.UUID;
  */
 public class ProductKey implements DomainKey<ProductKey> {
 
+    /**
+     * Maximum length of the internal key, the same length of the business_id column
+     */
+    public static final int MAXIMUM_INTERNAL_KEY_LENGTH = 64;
+
     private final UUID databaseKey;
     private String internalKey;
 
@@ -51,18 +56,27 @@ public class ProductKey implements DomainKey<ProductKey> {
         return internalKey;
     }
 
+    /**
+     * Method that sets the internal key, after checking if it is valid
+     *
+     * @param internalKey internal product key
+     * @throws InvalidBusinessIdentifier if the internal key is invalid
+     */
     public void setInternalKey(String internalKey) {
+        if (!validBusinessKey(internalKey)) {
+            throw new InvalidBusinessIdentifier(internalKey);
+        }
         this.internalKey = internalKey;
     }
 
     /**
-     * Method that validates a text
+     * Method that validates a text. It must not be blank and must fit on the database column
      *
      * @param text text to be checked
      * @return true on success
      */
     private boolean validBusinessKey(String text) {
-        return !text.isBlank();
+        return !text.isBlank() && text.length() <= MAXIMUM_INTERNAL_KEY_LENGTH;
     }
 
     @Override
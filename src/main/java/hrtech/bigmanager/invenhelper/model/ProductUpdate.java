@@ -0,0 +1,106 @@
+package hrtech.bigmanager.invenhelper.model;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+/**
+ * Changes requested to the information of a product: the business identifier of the product, the version that it must have
+ * (optional) and the new name and/or description (optional)
+ * <p>
+ * It can be obtained from a JSONObject or read from a stream of JSON tokens
+ */
+public class ProductUpdate {
+
+    private final String identifier;
+    private final OptionalLong version;
+    private final Optional<String> name;
+    private final Optional<String> description;
+
+    public ProductUpdate(String identifier, OptionalLong version, Optional<String> name, Optional<String> description) {
+        this.identifier = identifier;
+        this.version = version;
+        this.name = name;
+        this.description = description;
+    }
+
+    public String getIdentifier() {
+        return identifier;
+    }
+
+    public OptionalLong getVersion() {
+        return version;
+    }
+
+    public Optional<String> getName() {
+        return name;
+    }
+
+    public Optional<String> getDescription() {
+        return description;
+    }
+
+    /**
+     * Method that checks if there is information (name or description) to change
+     *
+     * @return true if the name or the description is present
+     */
+    public boolean hasInformationChanges() {
+        return name.isPresent() || description.isPresent();
+    }
+
+    /**
+     * Method that obtains the changes from a JSON object with the 'identifier' and the optional 'version', 'name' and 'description'
+     *
+     * @param info JSON object with the changes
+     * @return changes on the JSON object
+     */
+    public static ProductUpdate fromJSON(JSONObject info) {
+        return new ProductUpdate(info.optString("identifier", ""),
+                info.has("version") ? OptionalLong.of(info.optLong("version", -1)) : OptionalLong.empty(),
+                info.has("name") ? Optional.of(info.optString("name", "")) : Optional.empty(),
+                info.has("description") ? Optional.of(info.optString("description", "")) : Optional.empty());
+    }
+
+    /**
+     * Method that reads the changes from a stream of JSON tokens, with the same rules of {@link #fromJSON(JSONObject)}. Unknown fields
+     * are skipped
+     *
+     * @param parser parser positioned before or on the start of the object
+     * @return changes on the JSON object
+     * @throws IOException if the stream cannot be read or is not a JSON object
+     */
+    public static ProductUpdate readJSON(JsonParser parser) throws IOException {
+        String identifier = "";
+        OptionalLong version = OptionalLong.empty();
+        Optional<String> name = Optional.empty();
+        Optional<String> description = Optional.empty();
+
+        Domain.readObjectStart(parser);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "identifier":
+                    identifier = Domain.readText(parser, "");
+                    break;
+                case "version":
+                    version = OptionalLong.of(Domain.readLong(parser, -1));
+                    break;
+                case "name":
+                    name = Optional.of(Domain.readText(parser, ""));
+                    break;
+                case "description":
+                    description = Optional.of(Domain.readText(parser, ""));
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return new ProductUpdate(identifier, version, name, description);
+    }
+}
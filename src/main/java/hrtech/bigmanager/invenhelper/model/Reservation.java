@@ -0,0 +1,92 @@
+package hrtech.bigmanager.invenhelper.model;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Reservation of stock: a quantity of a product held until it is confirmed, released or expires. The quantity of the product
+ * only changes when the reservation is confirmed
+ */
+public class Reservation implements Domain<Reservation, UUID> {
+
+    private final UUID identifier;
+    private final String productBusinessKey;
+    private final int quantity;
+    private final Instant expiresOn;
+
+    public Reservation(UUID identifier, String productBusinessKey, int quantity, Instant expiresOn) {
+        this.identifier = identifier;
+        this.productBusinessKey = productBusinessKey;
+        this.quantity = quantity;
+        this.expiresOn = expiresOn;
+    }
+
+    public UUID getIdentifier() {
+        return identifier;
+    }
+
+    public String getProductBusinessKey() {
+        return productBusinessKey;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public Instant getExpiresOn() {
+        return expiresOn;
+    }
+
+    /**
+     * Method that checks if the reservation expired
+     *
+     * @param now current instant
+     * @return true if the reservation expired at the instant received
+     */
+    public boolean isExpired(Instant now) {
+        return !expiresOn.isAfter(now);
+    }
+
+    @Override
+    public JSONObject convertToJSON() {
+        JSONObject objectToReturn = new JSONObject();
+        objectToReturn.put("id", identifier.toString());
+        objectToReturn.put("identifier", productBusinessKey);
+        objectToReturn.put("quantity", quantity);
+        objectToReturn.put("expiresOn", expiresOn.toString());
+        return objectToReturn;
+    }
+
+    @Override
+    public void writeJSON(JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("id", identifier.toString());
+        generator.writeStringField("identifier", productBusinessKey);
+        generator.writeNumberField("quantity", quantity);
+        generator.writeStringField("expiresOn", expiresOn.toString());
+        generator.writeEndObject();
+    }
+
+    @Override
+    public boolean sameAs(Reservation otherEntity) {
+        return identifier.equals(otherEntity.identifier);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Reservation that = (Reservation) o;
+        return quantity == that.quantity && identifier.equals(that.identifier) && productBusinessKey.equals(that.productBusinessKey) && expiresOn.equals(that.expiresOn);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(identifier, productBusinessKey, quantity, expiresOn);
+    }
+}
@@ -1,7 +1,9 @@
 package hrtech.bigmanager.invenhelper.model;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.Objects;
 
@@ -83,6 +85,38 @@ public class Response<E extends Domain> implements Serializable {
         return objectToReturn;
     }
 
+    /**
+     * Method that writes a JSON object with info about the success and the additional message, with the same fields of
+     * {@link #obtainJSONWithAdditionalInformation()}
+     *
+     * @param generator generator where the object is written
+     * @throws IOException if the object cannot be written
+     */
+    public void writeJSONWithAdditionalInformation(JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeBooleanField("success", success);
+        generator.writeStringField("information", additionalInformation);
+        generator.writeEndObject();
+    }
+
+    /**
+     * Method that writes a JSON object with all the info of the Response, with the same fields of {@link #obtainJSONWithAllInfo()}.
+     * The object returned is written by {@link Domain#writeJSON(JsonGenerator)}
+     *
+     * @param generator generator where the object is written
+     * @throws IOException if the object cannot be written
+     */
+    public void writeJSONWithAllInfo(JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeBooleanField("success", success);
+        generator.writeStringField("information", additionalInformation);
+        if (this.objectToReturn != null) {
+            generator.writeFieldName("object");
+            this.objectToReturn.writeJSON(generator);
+        }
+        generator.writeEndObject();
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -0,0 +1,62 @@
+package hrtech.bigmanager.invenhelper.repository;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracker of the contention of the quantity changes of each product, on this instance.
+ * <p>
+ * A change is contended if other change of the same product is running when it starts, since both wait for the same row.
+ * The contended changes of each product are counted on fixed windows of time; the count is restarted on each window
+ */
+class ContentionTracker {
+
+    private final Map<String, Integer> running = new ConcurrentHashMap<>();
+    private final Map<String, Integer> contended = new ConcurrentHashMap<>();
+    private final int threshold;
+    private final long windowNanos;
+    private volatile long windowStart = System.nanoTime();
+
+    /**
+     * Default constructor
+     *
+     * @param threshold number of contended changes of a product, on a window, that reaches the threshold
+     * @param window    duration of each window
+     */
+    ContentionTracker(int threshold, Duration window) {
+        this.threshold = Math.max(1, threshold);
+        this.windowNanos = Math.max(1, window.toNanos());
+    }
+
+    /**
+     * Method that registers the start of a change. Each call must be followed by {@link #exit(String)}, when the change ends
+     *
+     * @param businessIdentifier business identifier of the product changed
+     * @return true if this change makes the product reach the threshold on the current window (only once per window)
+     */
+    boolean enter(String businessIdentifier) {
+        long now = System.nanoTime();
+        if (now - windowStart > windowNanos) {
+            synchronized (this) {
+                if (now - windowStart > windowNanos) {
+                    contended.clear();
+                    windowStart = now;
+                }
+            }
+        }
+        if (running.merge(businessIdentifier, 1, Integer::sum) == 1) {
+            return false;
+        }
+        return contended.merge(businessIdentifier, 1, Integer::sum) == threshold;
+    }
+
+    /**
+     * Method that registers the end of a change
+     *
+     * @param businessIdentifier business identifier of the product changed
+     */
+    void exit(String businessIdentifier) {
+        running.computeIfPresent(businessIdentifier, (key, count) -> count == 1 ? null : count - 1);
+    }
+}
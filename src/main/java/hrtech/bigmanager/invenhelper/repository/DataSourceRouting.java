@@ -0,0 +1,106 @@
+package hrtech.bigmanager.invenhelper.repository;
+
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.function.Supplier;
+
+/**
+ * Routing context of the database operations executed by the current thread.
+ * <p>
+ * Operations are executed on the primary database by default. Read-only operations that accept data that may be slightly
+ * outdated are executed with {@link #onReplica(Supplier)}, and may be sent to a replica. The replicas are never used inside a
+ * transaction, nor while the primary is forced (for example, by a request that must read its own writes).
+ * <p>
+ * On the sharded mode, the operations are executed on the shard selected with {@link #onShard(int, Supplier)} (the first
+ * shard by default). The shard must be selected before a transaction starts, since the connection is obtained at that moment
+ */
+public final class DataSourceRouting {
+
+    private static final ThreadLocal<Boolean> REPLICA_ALLOWED = ThreadLocal.withInitial(() -> false);
+    private static final ThreadLocal<Boolean> PRIMARY_FORCED = ThreadLocal.withInitial(() -> false);
+    private static final ThreadLocal<Integer> SHARD = ThreadLocal.withInitial(() -> 0);
+
+    private DataSourceRouting() {
+    }
+
+    /**
+     * Method that executes a read-only operation, that may be sent to a replica
+     *
+     * @param operation operation to execute
+     * @param <T>       Result class
+     * @return result of the operation
+     */
+    public static <T> T onReplica(Supplier<T> operation) {
+        boolean previous = REPLICA_ALLOWED.get();
+        REPLICA_ALLOWED.set(true);
+        try {
+            return operation.get();
+        } finally {
+            REPLICA_ALLOWED.set(previous);
+        }
+    }
+
+    /**
+     * Method that executes an operation on the primary database, even if it contains read-only operations
+     *
+     * @param operation operation to execute
+     * @param <T>       Result class
+     * @return result of the operation
+     */
+    public static <T> T onPrimary(Supplier<T> operation) {
+        boolean previous = forcePrimary(true);
+        try {
+            return operation.get();
+        } finally {
+            forcePrimary(previous);
+        }
+    }
+
+    /**
+     * Method that forces (or stops forcing) the primary database for the operations of the current thread
+     *
+     * @param force true to force the primary database
+     * @return previous state, to be restored
+     */
+    public static boolean forcePrimary(boolean force) {
+        boolean previous = PRIMARY_FORCED.get();
+        PRIMARY_FORCED.set(force);
+        return previous;
+    }
+
+    /**
+     * Method that informs if the current operation may be sent to a replica
+     *
+     * @return true if the operation is read-only, the primary is not forced and there is no transaction active
+     */
+    public static boolean isReplicaAllowed() {
+        return REPLICA_ALLOWED.get() && !PRIMARY_FORCED.get() && !TransactionSynchronizationManager.isActualTransactionActive();
+    }
+
+    /**
+     * Method that executes an operation on a shard
+     *
+     * @param shard     index of the shard
+     * @param operation operation to execute
+     * @param <T>       Result class
+     * @return result of the operation
+     */
+    public static <T> T onShard(int shard, Supplier<T> operation) {
+        int previous = SHARD.get();
+        SHARD.set(shard);
+        try {
+            return operation.get();
+        } finally {
+            SHARD.set(previous);
+        }
+    }
+
+    /**
+     * Method that returns the shard selected for the operations of the current thread
+     *
+     * @return index of the shard
+     */
+    public static int currentShard() {
+        return SHARD.get();
+    }
+}
@@ -0,0 +1,836 @@
+package hrtech.bigmanager.invenhelper.repository;
+
+import hrtech.bigmanager.invenhelper.model.Product;
+import hrtech.bigmanager.invenhelper.model.ProductInformation;
+import hrtech.bigmanager.invenhelper.model.ProductKey;
+import hrtech.bigmanager.invenhelper.model.Quantity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Repository;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Product repository kept in memory, for the edge stores that run without a database. Selected with the edge profile.
+ * <p>
+ * The products are kept on slots of primitive arrays, allocated in pages of 65536 slots, and their strings (business identifier,
+ * name and description) on a {@link StringArena}, outside the heap, so the number of objects on the heap does not grow with
+ * the number of products. The slot of a product is found with open-addressing indexes of the business identifiers and of the
+ * database keys.
+ * <p>
+ * The reads take no lock: each slot has a sequence, that is odd while the slot is being changed, and a read is repeated if the
+ * sequence changed meanwhile. A change of a product takes the slot, changing its sequence to odd with compare-and-set, so the
+ * changes of different products never wait for each other. The insertions, and the updates that change the business
+ * identifier, are serialized, since they change the indexes.
+ * <p>
+ * The products are written to a snapshot file periodically, if changed, and when the application stops, and are loaded from it
+ * on startup, on the format of {@link SnapshotFile}. Each product is consistent on the snapshot, but the products are not all
+ * read at the same instant
+ */
+@Repository
+@Profile("edge")
+public class EdgeProductRepository implements IProductRepository, InitializingBean, DisposableBean {
+
+    private static final int PAGE_BITS = 16;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    private final Logger logger = LoggerFactory.getLogger(EdgeProductRepository.class);
+    private final Object structureLock = new Object();
+    private final StringArena arena = new StringArena();
+    private final AtomicLong changes = new AtomicLong();
+    private volatile Page[] pages = new Page[0];
+    private volatile int size;
+    private volatile Index businessIndex = new Index(PAGE_SIZE);
+    private volatile Index keyIndex = new Index(PAGE_SIZE);
+    private volatile int[] sortedSlots = new int[0];
+    private long snapshotChanges;
+    private int maximumListSize;
+    private Path snapshotFile;
+    private Duration snapshotInterval;
+    private ScheduledExecutorService scheduler;
+
+    @Value("${invenhelper.identifiers.maximum-list-size:10000}")
+    public void setMaximumListSize(int maximumListSize) {
+        this.maximumListSize = Math.max(1, maximumListSize);
+    }
+
+    @Value("${invenhelper.edge.snapshot-file:inventory.snapshot}")
+    public void setSnapshotFile(String snapshotFile) {
+        this.snapshotFile = Paths.get(snapshotFile);
+    }
+
+    @Value("${invenhelper.edge.snapshot-interval:1m}")
+    public void setSnapshotInterval(Duration snapshotInterval) {
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    /**
+     * Method that loads the products of the snapshot, if it exists, and schedules the periodic snapshots
+     *
+     * @throws IOException if the snapshot exists and cannot be read
+     */
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        if (Files.exists(snapshotFile)) {
+            logger.info("Loaded " + load(snapshotFile) + " products from " + snapshotFile.toAbsolutePath());
+        }
+        snapshotChanges = changes.get();
+        if (!snapshotInterval.isZero() && !snapshotInterval.isNegative()) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "edge-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long interval = snapshotInterval.toMillis();
+            scheduler.scheduleWithFixedDelay(this::snapshotIfChanged, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Method that stops the periodic snapshots and writes the last one, if the products changed
+     */
+    @Override
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        snapshotIfChanged();
+    }
+
+    /**
+     * Method that creates a product
+     *
+     * @param productToCreate product to be created
+     * @return true on success; false if the business identifier or the database key already exist
+     */
+    @Override
+    public boolean insert(Product productToCreate) {
+        byte[] businessIdentifier = StringArena.encode(productToCreate.getProductBusinessKey());
+        byte[] name = StringArena.encode(productToCreate.getName());
+        byte[] description = StringArena.encode(productToCreate.getDescription());
+        UUID databaseKey = productToCreate.getDatabaseKey();
+        synchronized (structureLock) {
+            if (findSlot(businessIdentifier, productToCreate.getProductBusinessKey().hashCode()) >= 0 ||
+                    findSlot(databaseKey.getMostSignificantBits(), databaseKey.getLeastSignificantBits()) >= 0) {
+                return false;
+            }
+            insertSlot(databaseKey.getMostSignificantBits(), databaseKey.getLeastSignificantBits(), businessIdentifier,
+                    productToCreate.getProductBusinessKey().hashCode(), name, description, productToCreate.getQuantity(), productToCreate.getVersion());
+            changes.incrementAndGet();
+            return true;
+        }
+    }
+
+    /**
+     * Method that saves a product, found by its database key. As on the database, the update is only applied if the product has
+     * the same version, and the version is increased. The business identifier can be changed, if it is not used by other product
+     *
+     * @param objectToSave product to be updated
+     * @return true on success; false if the product does not exist, its version does not match or the business identifier is used
+     */
+    @Override
+    public boolean save(Product objectToSave) {
+        byte[] businessIdentifier = StringArena.encode(objectToSave.getProductBusinessKey());
+        byte[] name = StringArena.encode(objectToSave.getName());
+        byte[] description = StringArena.encode(objectToSave.getDescription());
+        int hash = objectToSave.getProductBusinessKey().hashCode();
+        synchronized (structureLock) {
+            int slot = findSlot(objectToSave.getDatabaseKey().getMostSignificantBits(), objectToSave.getDatabaseKey().getLeastSignificantBits());
+            if (slot < 0) {
+                return false;
+            }
+            int owner = findSlot(businessIdentifier, hash);
+            if (owner >= 0 && owner != slot) {
+                return false;
+            }
+
+            Page page = pages[slot >>> PAGE_BITS];
+            int offset = slot & (PAGE_SIZE - 1);
+            int sequence = page.lock(offset);
+            try {
+                if (page.versions[offset] != objectToSave.getVersion()) {
+                    return false;
+                }
+                if (owner < 0) {
+                    businessIndex.remove(slot, page.hashes[offset]);
+                    page.businessIdentifiers[offset] = arena.replace(page.businessIdentifiers[offset], businessIdentifier);
+                    page.hashes[offset] = hash;
+                    addToIndexes(slot, false);
+                    sortedSlots = null;
+                }
+                page.names[offset] = arena.replace(page.names[offset], name);
+                page.descriptions[offset] = arena.replace(page.descriptions[offset], description);
+                page.quantities[offset] = objectToSave.getQuantity();
+                page.versions[offset]++;
+            } finally {
+                page.unlock(offset, sequence);
+            }
+        }
+        changes.incrementAndGet();
+        objectToSave.increaseVersion();
+        return true;
+    }
+
+    /**
+     * Method that, given a key object, returns the corresponding product using the database key
+     *
+     * @param keyToSearch valid key object to search the entity
+     * @return Option that contains the product, if such key exists
+     */
+    @Override
+    public Optional<Product> findById(ProductKey keyToSearch) {
+        int slot = findSlot(keyToSearch.getDatabaseKey().getMostSignificantBits(), keyToSearch.getDatabaseKey().getLeastSignificantBits());
+        return slot < 0 ? Optional.empty() : Optional.of(readProduct(slot));
+    }
+
+    @Override
+    public Optional<Product> findByBusinessId(ProductKey keyToSearch) {
+        byte[] businessIdentifier = StringArena.encode(keyToSearch.getInternalKey());
+        int slot = findSlot(businessIdentifier, keyToSearch.getInternalKey().hashCode());
+        if (slot < 0) {
+            return Optional.empty();
+        }
+        Product product = readProduct(slot);
+        return product.getProductBusinessKey().equals(keyToSearch.getInternalKey()) ? Optional.of(product) : Optional.empty();
+    }
+
+    @Override
+    public List<Product> findByBusinessIds(Collection<String> businessIdentifiers) {
+        List<Product> result = new ArrayList<>();
+        for (String businessIdentifier : new LinkedHashSet<>(businessIdentifiers)) {
+            int slot = findSlot(StringArena.encode(businessIdentifier), businessIdentifier.hashCode());
+            if (slot >= 0) {
+                Product product = readProduct(slot);
+                if (product.getProductBusinessKey().equals(businessIdentifier)) {
+                    result.add(product);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<String> findListOfIdentifiers() {
+        return findIdentifiersAfter("", maximumListSize);
+    }
+
+    /**
+     * Method that returns a page of business identifiers, ordered by their code points (the order of a binary collation), that
+     * come after an identifier. The identifiers are sorted once after each insertion or change of an identifier, and each page is
+     * found with a binary search
+     *
+     * @param after identifier after which the page starts; empty to start on the first identifier
+     * @param limit maximum number of identifiers to return
+     * @return list of business identifiers
+     */
+    @Override
+    public List<String> findIdentifiersAfter(String after, int limit) {
+        int[] sorted = obtainSortedSlots();
+        byte[] bytes = StringArena.encode(after);
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compareIdentifier(sorted[middle], bytes) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        List<String> identifiers = new ArrayList<>(Math.min(limit, sorted.length - low));
+        for (int index = low; index < sorted.length && identifiers.size() < limit; index++) {
+            identifiers.add(readBusinessIdentifier(sorted[index]));
+        }
+        return identifiers;
+    }
+
+    /**
+     * Method that reads every product, on the order of their slots. The products are read on the current thread, regardless of
+     * the number of ranges, since the reads take no lock
+     *
+     * @param ranges   number of ranges (ignored)
+     * @param consumer consumer of the products
+     * @return number of products read
+     */
+    @Override
+    public long forEachProduct(int ranges, Consumer<Product> consumer) {
+        int count = size;
+        for (int slot = 0; slot < count; slot++) {
+            consumer.accept(readProduct(slot));
+        }
+        return count;
+    }
+
+    @Override
+    public long forEachVersion(VersionConsumer consumer) {
+        int count = size;
+        for (int slot = 0; slot < count; slot++) {
+            Product product = readProduct(slot);
+            consumer.accept(product.getProductBusinessKey(), product.getVersion(), product.getQuantity());
+        }
+        return count;
+    }
+
+    @Override
+    public Optional<Product> changeQuantity(ProductKey keyToSearch, int delta) {
+        return change(keyToSearch.getInternalKey(), delta, -1, this::buildProduct);
+    }
+
+    @Override
+    public Optional<Product> changeQuantity(ProductKey keyToSearch, int delta, long expectedVersion) {
+        return change(keyToSearch.getInternalKey(), delta, expectedVersion, this::buildProduct);
+    }
+
+    @Override
+    public Map<String, Boolean> changeQuantities(Map<String, Integer> deltas) {
+        Map<String, Boolean> results = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> delta : new TreeMap<>(deltas).entrySet()) {
+            results.put(delta.getKey(), change(delta.getKey(), delta.getValue(), -1, slot -> Boolean.TRUE).isPresent());
+        }
+        return results;
+    }
+
+    /**
+     * Method that changes the quantity of a list of products atomically. The slots of the products are taken on the order of
+     * their business identifiers, so concurrent movements cannot deadlock, and the changes are only applied if all of them are
+     * valid. While taken, the products are not read by other requests
+     *
+     * @param deltas quantity to be added (positive) or removed (negative), by business identifier
+     * @return result of each change, by business identifier; all true if the movement was applied
+     */
+    @Override
+    public Map<String, Boolean> moveQuantities(Map<String, Integer> deltas) {
+        List<Map.Entry<String, Integer>> sortedDeltas = new ArrayList<>(new TreeMap<>(deltas).entrySet());
+        Map<String, Boolean> results = new LinkedHashMap<>();
+        int[] slots = new int[sortedDeltas.size()];
+        int[] sequences = new int[sortedDeltas.size()];
+        Arrays.fill(slots, -1);
+        try {
+            boolean applied = true;
+            for (int index = 0; index < slots.length; index++) {
+                Map.Entry<String, Integer> delta = sortedDeltas.get(index);
+                byte[] businessIdentifier = StringArena.encode(delta.getKey());
+                int slot = findSlot(businessIdentifier, delta.getKey().hashCode());
+                boolean valid = false;
+                if (slot >= 0) {
+                    Page page = pages[slot >>> PAGE_BITS];
+                    int offset = slot & (PAGE_SIZE - 1);
+                    sequences[index] = page.lock(offset);
+                    slots[index] = slot;
+                    valid = arena.compare(page.businessIdentifiers[offset], businessIdentifier) == 0 &&
+                            validQuantity((long) page.quantities[offset] + delta.getValue());
+                }
+                results.put(delta.getKey(), valid);
+                applied &= valid;
+            }
+            if (applied) {
+                for (int index = 0; index < slots.length; index++) {
+                    Page page = pages[slots[index] >>> PAGE_BITS];
+                    int offset = slots[index] & (PAGE_SIZE - 1);
+                    page.quantities[offset] += sortedDeltas.get(index).getValue();
+                    page.versions[offset]++;
+                }
+                changes.incrementAndGet();
+            }
+            return results;
+        } finally {
+            for (int index = 0; index < slots.length; index++) {
+                if (slots[index] >= 0) {
+                    pages[slots[index] >>> PAGE_BITS].unlock(slots[index] & (PAGE_SIZE - 1), sequences[index]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Method that returns the number of products
+     *
+     * @return number of products
+     */
+    public int obtainSize() {
+        return size;
+    }
+
+    @Override
+    public boolean keepsSnapshot() {
+        return true;
+    }
+
+    /**
+     * Method that writes every product to a snapshot file, on the format of {@link SnapshotFile}
+     *
+     * @param file snapshot file
+     * @return number of products written
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized int snapshot(Path file) throws IOException {
+        int count = size;
+        byte[][] strings = {new byte[StringArena.MAXIMUM_LENGTH], new byte[StringArena.MAXIMUM_LENGTH], new byte[StringArena.MAXIMUM_LENGTH]};
+        int[] lengths = new int[3];
+        SnapshotFile.write(file, writer -> {
+            for (int slot = 0; slot < count; slot++) {
+                Page page = pages[slot >>> PAGE_BITS];
+                int offset = slot & (PAGE_SIZE - 1);
+                long mostBits;
+                long leastBits;
+                int quantity;
+                long version;
+                while (true) {
+                    int sequence = page.sequences.get(offset);
+                    if ((sequence & 1) == 0) {
+                        mostBits = page.mostBits[offset];
+                        leastBits = page.leastBits[offset];
+                        quantity = page.quantities[offset];
+                        version = page.versions[offset];
+                        long[] references = {page.businessIdentifiers[offset], page.names[offset], page.descriptions[offset]};
+                        for (int index = 0; index < references.length; index++) {
+                            lengths[index] = StringArena.length(references[index]);
+                            arena.copy(references[index], strings[index]);
+                        }
+                        VarHandle.acquireFence();
+                        if (page.sequences.get(offset) == sequence) {
+                            break;
+                        }
+                    }
+                    Thread.onSpinWait();
+                }
+                writer.write(mostBits, leastBits, strings[0], lengths[0], strings[1], lengths[1], strings[2], lengths[2], quantity, version);
+            }
+            return count;
+        });
+        return count;
+    }
+
+    /**
+     * Method that loads the products of a snapshot file. The products already registered are kept, and the products of the
+     * snapshot with an existing business identifier or database key are ignored
+     *
+     * @param file snapshot file
+     * @return number of products loaded
+     * @throws IOException if the file cannot be read, is not a snapshot or is corrupted
+     */
+    public int load(Path file) throws IOException {
+        int[] loaded = new int[1];
+        synchronized (structureLock) {
+            SnapshotFile.read(file, (mostBits, leastBits, businessIdentifier, name, description, quantity, version) -> {
+                if (businessIdentifier.length > StringArena.MAXIMUM_LENGTH || name.length > StringArena.MAXIMUM_LENGTH
+                        || description.length > StringArena.MAXIMUM_LENGTH) {
+                    throw new IllegalArgumentException("String longer than " + StringArena.MAXIMUM_LENGTH + " bytes");
+                }
+                int hash = new String(businessIdentifier, StandardCharsets.UTF_8).hashCode();
+                if (findSlot(businessIdentifier, hash) < 0 && findSlot(mostBits, leastBits) < 0) {
+                    insertSlot(mostBits, leastBits, businessIdentifier, hash, name, description, quantity, version);
+                    loaded[0]++;
+                }
+            });
+        }
+        return loaded[0];
+    }
+
+    private synchronized void snapshotIfChanged() {
+        long current = changes.get();
+        if (current == snapshotChanges) {
+            return;
+        }
+        try {
+            snapshot(snapshotFile);
+            snapshotChanges = current;
+        } catch (IOException | RuntimeException e) {
+            logger.error("Error while writing the snapshot of the products: " + e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Method that applies a quantity change on a product, while its slot is taken
+     *
+     * @param businessIdentifier business identifier of the product
+     * @param delta              quantity to be added (positive) or removed (negative)
+     * @param expectedVersion    version that the product must have; negative for any version
+     * @param result             result of the change, obtained from the slot while it is taken
+     * @param <T>                Result class
+     * @return Optional with the result; empty if the product does not exist, the version does not match or the quantity would be invalid
+     */
+    private <T> Optional<T> change(String businessIdentifier, int delta, long expectedVersion, IntFunction<T> result) {
+        byte[] bytes = StringArena.encode(businessIdentifier);
+        int slot = findSlot(bytes, businessIdentifier.hashCode());
+        if (slot < 0) {
+            return Optional.empty();
+        }
+        Page page = pages[slot >>> PAGE_BITS];
+        int offset = slot & (PAGE_SIZE - 1);
+        int sequence = page.lock(offset);
+        try {
+            if (arena.compare(page.businessIdentifiers[offset], bytes) != 0 || (expectedVersion >= 0 && page.versions[offset] != expectedVersion)
+                    || !validQuantity((long) page.quantities[offset] + delta)) {
+                return Optional.empty();
+            }
+            page.quantities[offset] += delta;
+            page.versions[offset]++;
+            changes.incrementAndGet();
+            return Optional.of(result.apply(slot));
+        } finally {
+            page.unlock(offset, sequence);
+        }
+    }
+
+    private static boolean validQuantity(long quantity) {
+        return quantity >= 0 && quantity <= Integer.MAX_VALUE;
+    }
+
+    /**
+     * Method that reads a product without taking its slot, repeating the read if the slot changes meanwhile
+     *
+     * @param slot slot of the product
+     * @return product
+     */
+    private Product readProduct(int slot) {
+        Page page = pages[slot >>> PAGE_BITS];
+        int offset = slot & (PAGE_SIZE - 1);
+        while (true) {
+            int sequence = page.sequences.get(offset);
+            if ((sequence & 1) == 0) {
+                long mostBits = page.mostBits[offset];
+                long leastBits = page.leastBits[offset];
+                String businessIdentifier = arena.read(page.businessIdentifiers[offset]);
+                String name = arena.read(page.names[offset]);
+                String description = arena.read(page.descriptions[offset]);
+                int quantity = page.quantities[offset];
+                long version = page.versions[offset];
+                VarHandle.acquireFence();
+                if (page.sequences.get(offset) == sequence) {
+                    return new Product(new ProductKey(new UUID(mostBits, leastBits), businessIdentifier),
+                            new ProductInformation(name, description), new Quantity(quantity), version);
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Method that reads the business identifier of a product without taking its slot, as {@link #readProduct(int)}
+     *
+     * @param slot slot of the product
+     * @return business identifier
+     */
+    private String readBusinessIdentifier(int slot) {
+        Page page = pages[slot >>> PAGE_BITS];
+        int offset = slot & (PAGE_SIZE - 1);
+        while (true) {
+            int sequence = page.sequences.get(offset);
+            if ((sequence & 1) == 0) {
+                String businessIdentifier = arena.read(page.businessIdentifiers[offset]);
+                VarHandle.acquireFence();
+                if (page.sequences.get(offset) == sequence) {
+                    return businessIdentifier;
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Method that builds a product from a slot that is taken by the current thread
+     *
+     * @param slot slot of the product
+     * @return product
+     */
+    private Product buildProduct(int slot) {
+        Page page = pages[slot >>> PAGE_BITS];
+        int offset = slot & (PAGE_SIZE - 1);
+        return new Product(new ProductKey(new UUID(page.mostBits[offset], page.leastBits[offset]), arena.read(page.businessIdentifiers[offset])),
+                new ProductInformation(arena.read(page.names[offset]), arena.read(page.descriptions[offset])),
+                new Quantity(page.quantities[offset]), page.versions[offset]);
+    }
+
+    private int compareIdentifier(int slot, byte[] bytes) {
+        return arena.compare(pages[slot >>> PAGE_BITS].businessIdentifiers[slot & (PAGE_SIZE - 1)], bytes);
+    }
+
+    /**
+     * Method that writes a new product on the next slot and adds it to the indexes. Must be called while holding the structure lock
+     */
+    private void insertSlot(long mostBits, long leastBits, byte[] businessIdentifier, int hash, byte[] name, byte[] description, int quantity, long version) {
+        int slot = size;
+        if (slot >>> PAGE_BITS == pages.length) {
+            Page[] extended = Arrays.copyOf(pages, pages.length + 1);
+            extended[pages.length] = new Page();
+            pages = extended;
+        }
+        Page page = pages[slot >>> PAGE_BITS];
+        int offset = slot & (PAGE_SIZE - 1);
+        page.mostBits[offset] = mostBits;
+        page.leastBits[offset] = leastBits;
+        page.businessIdentifiers[offset] = arena.append(businessIdentifier);
+        page.hashes[offset] = hash;
+        page.names[offset] = arena.append(name);
+        page.descriptions[offset] = arena.append(description);
+        page.quantities[offset] = quantity;
+        page.versions[offset] = version;
+        page.sequences.set(offset, 0);
+        addToIndexes(slot, true);
+        size = slot + 1;
+        sortedSlots = null;
+    }
+
+    /**
+     * Method that adds a slot to the business identifier index and, optionally, to the database key index, growing the indexes
+     * if they are half full. Must be called while holding the structure lock
+     *
+     * @param slot        slot of the product
+     * @param databaseKey true to add the slot to the database key index
+     */
+    private void addToIndexes(int slot, boolean databaseKey) {
+        Page page = pages[slot >>> PAGE_BITS];
+        int offset = slot & (PAGE_SIZE - 1);
+        if (businessIndex.isHalfFull()) {
+            businessIndex = businessIndex.grow(other -> pages[other >>> PAGE_BITS].hashes[other & (PAGE_SIZE - 1)]);
+        }
+        businessIndex.add(slot, page.hashes[offset]);
+        if (databaseKey) {
+            if (keyIndex.isHalfFull()) {
+                keyIndex = keyIndex.grow(other -> keyHash(pages[other >>> PAGE_BITS].mostBits[other & (PAGE_SIZE - 1)],
+                        pages[other >>> PAGE_BITS].leastBits[other & (PAGE_SIZE - 1)]));
+            }
+            keyIndex.add(slot, keyHash(page.mostBits[offset], page.leastBits[offset]));
+        }
+    }
+
+    /**
+     * Method that finds the slot of a business identifier
+     *
+     * @param businessIdentifier encoded business identifier
+     * @param hash               hash code of the business identifier
+     * @return slot of the product; negative if not found
+     */
+    private int findSlot(byte[] businessIdentifier, int hash) {
+        Index index = businessIndex;
+        for (int position = index.start(hash); ; position = index.next(position)) {
+            int entry = index.entries.get(position);
+            if (entry == Index.EMPTY) {
+                return -1;
+            }
+            if (entry > 0) {
+                int slot = entry - 1;
+                Page page = pages[slot >>> PAGE_BITS];
+                int offset = slot & (PAGE_SIZE - 1);
+                if (page.hashes[offset] == hash && arena.compare(page.businessIdentifiers[offset], businessIdentifier) == 0) {
+                    return slot;
+                }
+            }
+        }
+    }
+
+    /**
+     * Method that finds the slot of a database key
+     *
+     * @param mostBits  most significant bits of the key
+     * @param leastBits least significant bits of the key
+     * @return slot of the product; negative if not found
+     */
+    private int findSlot(long mostBits, long leastBits) {
+        Index index = keyIndex;
+        for (int position = index.start(keyHash(mostBits, leastBits)); ; position = index.next(position)) {
+            int entry = index.entries.get(position);
+            if (entry == Index.EMPTY) {
+                return -1;
+            }
+            if (entry > 0) {
+                int slot = entry - 1;
+                Page page = pages[slot >>> PAGE_BITS];
+                int offset = slot & (PAGE_SIZE - 1);
+                if (page.mostBits[offset] == mostBits && page.leastBits[offset] == leastBits) {
+                    return slot;
+                }
+            }
+        }
+    }
+
+    private static int keyHash(long mostBits, long leastBits) {
+        return Long.hashCode(mostBits ^ leastBits);
+    }
+
+    /**
+     * Method that returns the slots ordered by business identifier, sorting them if they changed since the last sort
+     *
+     * @return ordered slots
+     */
+    private int[] obtainSortedSlots() {
+        int[] sorted = sortedSlots;
+        if (sorted != null) {
+            return sorted;
+        }
+        synchronized (structureLock) {
+            if (sortedSlots == null) {
+                int[] slots = new int[size];
+                for (int slot = 0; slot < slots.length; slot++) {
+                    slots[slot] = slot;
+                }
+                mergeSort(slots, new int[slots.length], 0, slots.length);
+                sortedSlots = slots;
+            }
+            return sortedSlots;
+        }
+    }
+
+    /**
+     * Method that sorts a range of slots by business identifier, without boxing them
+     */
+    private void mergeSort(int[] slots, int[] buffer, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(slots, buffer, from, middle);
+        mergeSort(slots, buffer, middle, to);
+        System.arraycopy(slots, from, buffer, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int index = from; index < to; index++) {
+            if (right >= to || (left < middle && compareSlots(buffer[left], buffer[right]) <= 0)) {
+                slots[index] = buffer[left++];
+            } else {
+                slots[index] = buffer[right++];
+            }
+        }
+    }
+
+    private int compareSlots(int first, int second) {
+        return arena.compare(pages[first >>> PAGE_BITS].businessIdentifiers[first & (PAGE_SIZE - 1)],
+                pages[second >>> PAGE_BITS].businessIdentifiers[second & (PAGE_SIZE - 1)]);
+    }
+
+    /**
+     * Slots of a page: the fields of each product on primitive arrays, and the sequence of each slot
+     */
+    private static final class Page {
+
+        private final AtomicIntegerArray sequences = new AtomicIntegerArray(PAGE_SIZE);
+        private final long[] mostBits = new long[PAGE_SIZE];
+        private final long[] leastBits = new long[PAGE_SIZE];
+        private final long[] businessIdentifiers = new long[PAGE_SIZE];
+        private final long[] names = new long[PAGE_SIZE];
+        private final long[] descriptions = new long[PAGE_SIZE];
+        private final long[] versions = new long[PAGE_SIZE];
+        private final int[] quantities = new int[PAGE_SIZE];
+        private final int[] hashes = new int[PAGE_SIZE];
+
+        /**
+         * Method that takes a slot, waiting while it is taken by other thread
+         *
+         * @param offset offset of the slot
+         * @return sequence of the slot while taken (odd)
+         */
+        int lock(int offset) {
+            while (true) {
+                int sequence = sequences.get(offset);
+                if ((sequence & 1) == 0 && sequences.compareAndSet(offset, sequence, sequence + 1)) {
+                    return sequence + 1;
+                }
+                Thread.onSpinWait();
+            }
+        }
+
+        /**
+         * Method that releases a slot, publishing its changes
+         *
+         * @param offset   offset of the slot
+         * @param sequence sequence returned by {@link #lock(int)}
+         */
+        void unlock(int offset, int sequence) {
+            sequences.set(offset, sequence + 1);
+        }
+    }
+
+    /**
+     * Open-addressing index (linear probing) of slots. Each entry is the slot plus one; 0 is an empty entry and -1 an entry
+     * removed. The entries are changed only while holding the structure lock, and are read without lock
+     */
+    private static final class Index {
+
+        private static final int EMPTY = 0;
+        private static final int REMOVED = -1;
+
+        private final AtomicIntegerArray entries;
+        private final int mask;
+        private int used;
+
+        Index(int capacity) {
+            this.entries = new AtomicIntegerArray(capacity);
+            this.mask = capacity - 1;
+        }
+
+        int start(int hash) {
+            int mixed = hash * 0x9E3779B9;
+            return (mixed ^ (mixed >>> 16)) & mask;
+        }
+
+        int next(int position) {
+            return (position + 1) & mask;
+        }
+
+        boolean isHalfFull() {
+            return (used + 1) * 2 > entries.length();
+        }
+
+        void add(int slot, int hash) {
+            int position = start(hash);
+            while (entries.get(position) > 0) {
+                position = next(position);
+            }
+            if (entries.get(position) == EMPTY) {
+                used++;
+            }
+            entries.set(position, slot + 1);
+        }
+
+        void remove(int slot, int hash) {
+            for (int position = start(hash); entries.get(position) != EMPTY; position = next(position)) {
+                if (entries.get(position) == slot + 1) {
+                    entries.set(position, REMOVED);
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Method that creates an index with the current slots, with the double of the capacity, or the same capacity if most
+         * entries were removed
+         *
+         * @param hashOfSlot hash of the key of each slot
+         * @return new index
+         */
+        Index grow(IntUnaryOperator hashOfSlot) {
+            int live = 0;
+            for (int position = 0; position < entries.length(); position++) {
+                live += entries.get(position) > 0 ? 1 : 0;
+            }
+            Index grown = new Index(live * 4 >= entries.length() ? entries.length() * 2 : entries.length());
+            for (int position = 0; position < entries.length(); position++) {
+                int entry = entries.get(position);
+                if (entry > 0) {
+                    grown.add(entry - 1, hashOfSlot.applyAsInt(entry - 1));
+                }
+            }
+            return grown;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package hrtech.bigmanager.invenhelper.repository;
+
+import hrtech.bigmanager.invenhelper.model.Domain;
+import hrtech.bigmanager.invenhelper.model.DomainKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Interface that defines the behaviour of the repositories over JDBC: the conversion of the rows of a ResultSet into entities
+ *
+ * @param <E> Entity to be managed
+ * @param <K> Key of the entity to be managed
+ */
+public interface IJdbcRepository<E extends Domain<E, K>, K extends DomainKey<K>> extends IRepository<E, K> {
+
+    Logger logger = LoggerFactory.getLogger(IRepository.class);
+
+    /**
+     * Method that extracts the columns names or alias presents on a ResultSet
+     *
+     * @param resultSet     result set to extract columns
+     * @param withTableName if true, the table name will be added on the beginning (for example, sandwich.name); false it will return only name
+     * @return Set with Strings that corresponds to the column names or alias; empty on failure
+     */
+    static Set<String> extractResultSetColumns(ResultSet resultSet, boolean withTableName) {
+        Set<String> columns = new HashSet<>();
+        try {
+            for (int index = 1; index <= resultSet.getMetaData().getColumnCount(); index++) {
+                String toAdd = "";
+                if (withTableName) {
+                    toAdd = resultSet.getMetaData().getTableName(index).toLowerCase();
+                    if (!toAdd.isEmpty()) {
+                        toAdd += ".";
+                    }
+                }
+                toAdd += resultSet.getMetaData().getColumnLabel(index).toLowerCase();
+                columns.add(toAdd);
+            }
+        } catch (NullPointerException | SQLException e) {
+            logger.error("Error while extracting column names of ResultSet: " + e.getLocalizedMessage());
+            columns.clear();
+        }
+        return columns;
+    }
+
+    /**
+     * Method that, given a ResultSet, retrieves the info and tries to build an Entity instance wrapped on an Optional
+     *
+     * @param resultSet result set to extract the info
+     * @return Optional with the Entity instantiated (or not, on failure)
+     */
+    Optional<E> map(ResultSet resultSet);
+
+    /**
+     * Method that creates a row mapper for the entity. Unlike {@link #map(ResultSet)}, that inspects the ResultSet columns on each call,
+     * the mapper resolves the position of the columns once per ResultSet and reads each row by index (see {@link IndexedRowMapper}).
+     * A new mapper must be created for each query
+     *
+     * @return row mapper that builds an Entity instance wrapped on an Optional (empty if the row is invalid)
+     */
+    RowMapper<Optional<E>> rowMapper();
+}
@@ -0,0 +1,260 @@
+package hrtech.bigmanager.invenhelper.repository;
+
+import hrtech.bigmanager.invenhelper.model.Product;
+import hrtech.bigmanager.invenhelper.model.ProductKey;
+import hrtech.bigmanager.invenhelper.model.Reservation;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Interface that defines the operations of a product repository, used by the services. It is implemented by the
+ * {@link ProductRepository}, over a relational database, and by the {@link EdgeProductRepository}, in memory. The reservations of
+ * stock are only kept by the repositories that support them; by default, a repository has no reservations
+ */
+public interface IProductRepository extends IRepository<Product, ProductKey> {
+
+    /**
+     * Method that, given a key object, returns the corresponding object using the business identifier
+     *
+     * @param keyToSearch valid key object to search the entity
+     * @return Option that contains the entity, if such business identifier exists
+     */
+    Optional<Product> findByBusinessId(ProductKey keyToSearch);
+
+    /**
+     * Method that returns the products with the business identifiers received
+     *
+     * @param businessIdentifiers business identifiers to search
+     * @return list with the products found, on no particular order; empty on failure
+     */
+    List<Product> findByBusinessIds(Collection<String> businessIdentifiers);
+
+    /**
+     * Method that returns the list of business identifiers, ordered, bounded by the configured maximum size
+     *
+     * @return list of business identifiers
+     */
+    List<String> findListOfIdentifiers();
+
+    /**
+     * Method that returns a page of business identifiers, ordered, that come after an identifier
+     *
+     * @param after identifier after which the page starts; empty to start on the first identifier
+     * @param limit maximum number of identifiers to return
+     * @return list of business identifiers; empty on failure
+     */
+    List<String> findIdentifiersAfter(String after, int limit);
+
+    /**
+     * Method that reads every product, giving each one to a consumer as it is read, so the products are never all kept in
+     * memory. The products are read on no particular order; the repositories that support it read several ranges of business
+     * identifiers at the same time, each one on its own thread
+     *
+     * @param ranges   number of ranges of business identifiers read at the same time
+     * @param consumer consumer of the products. Must be thread-safe if more than one range is read
+     * @return number of products read; -1 on failure
+     */
+    long forEachProduct(int ranges, Consumer<Product> consumer);
+
+    /**
+     * Method that reads the business identifier, the version and the quantity of every product, without the other columns, as
+     * {@link #forEachProduct(int, Consumer)} with a single range. It is used to find the products changed since they were read
+     *
+     * @param consumer consumer of the business identifier, the version and the quantity of each product
+     * @return number of products read; -1 on failure
+     */
+    long forEachVersion(VersionConsumer consumer);
+
+    /**
+     * Method that changes the quantity of a product, using the business identifier. The change is only applied if the
+     * resulting quantity is not negative; a decrease, on the repositories that keep reservations, is only applied if the
+     * resulting quantity still covers the reservations not expired
+     *
+     * @param keyToSearch valid key object to search the entity
+     * @param delta       quantity to be added (positive) or removed (negative)
+     * @return Optional with the product after the change; empty if the product does not exist, the quantity would be negative or on failure
+     */
+    Optional<Product> changeQuantity(ProductKey keyToSearch, int delta);
+
+    /**
+     * Method that changes the quantity of a product, as {@link #changeQuantity(ProductKey, int)}, only if the product has the
+     * version expected. The version of the product is increased
+     *
+     * @param keyToSearch     valid key object to search the entity
+     * @param delta           quantity to be added (positive) or removed (negative)
+     * @param expectedVersion version that the product must have
+     * @return Optional with the product after the change; empty if the product does not exist, the version does not match,
+     * the quantity would be negative or on failure
+     */
+    Optional<Product> changeQuantity(ProductKey keyToSearch, int delta, long expectedVersion);
+
+    /**
+     * Method that changes the quantity of a list of products. Each change is applied on its own, as {@link #changeQuantity(ProductKey, int)}
+     *
+     * @param deltas quantity to be added (positive) or removed (negative), by business identifier
+     * @return result of each change executed, by business identifier: true if applied, false if refused (the product does not exist
+     * or the quantity would be negative). The changes that could not be executed, because of a database failure, are not present
+     */
+    Map<String, Boolean> changeQuantities(Map<String, Integer> deltas);
+
+    /**
+     * Method that changes the quantity of a list of products, as {@link #changeQuantities(Map)}, registering with each change
+     * applied, on the same transaction, the position of the quantity journal that it comes from. So the journaled changes are not
+     * applied again when the journal is replayed. By default, the positions are not kept
+     *
+     * @param deltas   quantity to be added (positive) or removed (negative), by business identifier
+     * @param journal  identifier of the journal
+     * @param position position of the journal after the changes
+     * @return result of each change executed, by business identifier, as on {@link #changeQuantities(Map)}
+     */
+    default Map<String, Boolean> changeQuantities(Map<String, Integer> deltas, String journal, long position) {
+        return changeQuantities(deltas);
+    }
+
+    /**
+     * Method that returns the positions of a quantity journal registered with the changes applied
+     *
+     * @param journal identifier of the journal
+     * @return Optional with the last position applied, by business identifier; empty on failure. By default, there are no positions
+     */
+    default Optional<Map<String, Long>> findJournalPositions(String journal) {
+        return Optional.of(Map.of());
+    }
+
+    /**
+     * Method that removes the positions of a quantity journal, once the journal has no change before them
+     *
+     * @param journal identifier of the journal
+     */
+    default void deleteJournalPositions(String journal) {
+    }
+
+    /**
+     * Method that changes the quantity of a list of products atomically: all the changes are applied or none is
+     *
+     * @param deltas quantity to be added (positive) or removed (negative), by business identifier
+     * @return result of each change, by business identifier; all true if the movement was applied
+     */
+    Map<String, Boolean> moveQuantities(Map<String, Integer> deltas);
+
+    /**
+     * Method that compacts the stock ledger, if the repository has one. By default, there is nothing to compact
+     *
+     * @return number of movements compacted
+     */
+    default int compactLedger() {
+        return 0;
+    }
+
+    /**
+     * Method that checks if the repository keeps its own snapshot of the products, so the service snapshot is not needed
+     *
+     * @return true if the repository writes and loads its products to a snapshot file; false by default
+     */
+    default boolean keepsSnapshot() {
+        return false;
+    }
+
+    /**
+     * Method that checks if the repository keeps reservations of stock
+     *
+     * @return true if the reservation methods are implemented; false by default
+     */
+    default boolean supportsReservations() {
+        return false;
+    }
+
+    /**
+     * Method that registers a reservation, only if the available quantity of its product (the quantity minus the reservations
+     * not expired) covers it. Concurrent reservations of the same product are applied one after the other
+     *
+     * @param reservation reservation to register
+     * @param now         current instant, used to ignore the expired reservations
+     * @return true if the reservation was registered; false if the product does not exist, the available quantity does not
+     * cover it or on failure
+     */
+    default boolean insertReservation(Reservation reservation, Instant now) {
+        return false;
+    }
+
+    /**
+     * Method that confirms a reservation: the reservation is removed and the quantity of its product is decreased by the
+     * quantity reserved, atomically
+     *
+     * @param reservation reservation to confirm
+     * @param now         current instant; an expired reservation is not confirmed
+     * @return Optional with the product after the change; empty if the reservation does not exist or expired, the quantity
+     * would be negative or on failure
+     */
+    default Optional<Product> confirmReservation(Reservation reservation, Instant now) {
+        return Optional.empty();
+    }
+
+    /**
+     * Method that removes a reservation, without changing the quantity of its product
+     *
+     * @param reservation reservation to remove
+     * @return true if the reservation was removed; false if it does not exist or on failure
+     */
+    default boolean deleteReservation(Reservation reservation) {
+        return false;
+    }
+
+    /**
+     * Method that removes the reservations received that expired
+     *
+     * @param reservations reservations to remove, if expired
+     * @param now          current instant
+     * @return number of reservations removed
+     */
+    default int deleteExpiredReservations(Collection<Reservation> reservations, Instant now) {
+        return 0;
+    }
+
+    /**
+     * Method that returns a reservation, expired or not
+     *
+     * @param identifier identifier of the reservation
+     * @return Optional with the reservation; empty if it does not exist or on failure
+     */
+    default Optional<Reservation> findReservation(UUID identifier) {
+        return Optional.empty();
+    }
+
+    /**
+     * Method that returns every reservation, expired or not
+     *
+     * @return list of reservations; empty on failure
+     */
+    default List<Reservation> findReservations() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Method that returns the quantity held by the reservations of a product that did not expire
+     *
+     * @param businessIdentifier business identifier of the product
+     * @param now                current instant
+     * @return quantity reserved
+     */
+    default int findReservedQuantity(String businessIdentifier, Instant now) {
+        return 0;
+    }
+
+    /**
+     * Consumer of the business identifier, the version and the quantity of a product. The version does not change with the
+     * quantity changes of the stock ledger and of the counter slots, so both are needed to know if a product changed
+     */
+    @FunctionalInterface
+    interface VersionConsumer {
+
+        void accept(String businessIdentifier, long version, int quantity);
+    }
+}
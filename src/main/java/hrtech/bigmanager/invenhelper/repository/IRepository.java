@@ -2,61 +2,19 @@ package hrtech.bigmanager.invenhelper.repository;
 
 import hrtech.bigmanager.invenhelper.model.Domain;
 import hrtech.bigmanager.invenhelper.model.DomainKey;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
-import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
- * Interface that defines default repository behaviour
+ * Interface that defines default repository behaviour. The repositories over JDBC also implement {@link IJdbcRepository}
  *
  * @param <E> Entity to be managed
  * @param <K> Key of the entity to be managed
  */
 public interface IRepository<E extends Domain<E, K>, K extends DomainKey<K>> {
 
-    Logger logger = LoggerFactory.getLogger(IRepository.class);
-
-    /**
-     * Method that extracts the columns names or alias presents on a ResultSet
-     *
-     * @param resultSet     result set to extract columns
-     * @param withTableName if true, the table name will be added on the beginning (for example, sandwich.name); false it will return only name
-     * @return Set with Strings that corresponds to the column names or alias; empty on failure
-     */
-    static Set<String> extractResultSetColumns(ResultSet resultSet, boolean withTableName) {
-        Set<String> columns = new HashSet<>();
-        try {
-            for (int index = 1; index <= resultSet.getMetaData().getColumnCount(); index++) {
-                String toAdd = "";
-                if (withTableName) {
-                    toAdd = resultSet.getMetaData().getTableName(index).toLowerCase();
-                    if (!toAdd.isEmpty()) {
-                        toAdd += ".";
-                    }
-                }
-                toAdd += resultSet.getMetaData().getColumnLabel(index).toLowerCase();
-                columns.add(toAdd);
-            }
-        } catch (NullPointerException | SQLException e) {
-            logger.error("Error while extracting column names of ResultSet: " + e.getLocalizedMessage());
-            columns.clear();
-        }
-        return columns;
-    }
-
-    /**
-     * Method that, given a ResultSet, retrieves the info and tries to build an Entity instance wrapped on an Optional
-     *
-     * @param resultSet result set to extract the info
-     * @return Optional with the Entity instantiated (or not, on failure)
-     */
-    Optional<E> map(ResultSet resultSet);
-
     /**
      * Method that inserts an entity on the repository
      *
@@ -73,6 +31,26 @@ public interface IRepository<E extends Domain<E, K>, K extends DomainKey<K>> {
      */
     boolean save(E objectToSave);
 
+    /**
+     * Method that inserts a list of entities on the repository. By default, each entity is inserted on its own
+     *
+     * @param objectsToSave entities to be created
+     * @return list with the result of each insertion (true on success; false otherwise), on the same order of the entities received
+     */
+    default List<Boolean> insertAll(List<E> objectsToSave) {
+        return objectsToSave.stream().map(this::insert).collect(Collectors.toList());
+    }
+
+    /**
+     * Method that saves a list of entities on the repository. By default, each entity is saved on its own
+     *
+     * @param objectsToSave entities to be updated
+     * @return list with the result of each update (true on success; false otherwise), on the same order of the entities received
+     */
+    default List<Boolean> saveAll(List<E> objectsToSave) {
+        return objectsToSave.stream().map(this::save).collect(Collectors.toList());
+    }
+
     /**
      * Method that, given a key object, returns the corresponding Entity on an Optional
      *
@@ -0,0 +1,81 @@
+package hrtech.bigmanager.invenhelper.repository;
+
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Locale;
+
+/**
+ * Row mapper that resolves the position of its columns once per ResultSet, and then reads each row by index.
+ * <p>
+ * The columns are searched by table and column name (or alias). A column that is not present on the ResultSet has the position 0.
+ * The resolved positions belong to the last ResultSet seen, so an instance must not be shared between concurrent queries
+ *
+ * @param <T> Class of the object built from each row
+ */
+public abstract class IndexedRowMapper<T> implements RowMapper<T> {
+
+    private final String table;
+    private final String[] columns;
+    private int[] positions;
+    private ResultSet resolvedResultSet;
+
+    /**
+     * Default constructor
+     *
+     * @param table   table of the columns; columns from other tables are ignored (columns without table name are accepted)
+     * @param columns columns to resolve. Their positions are given to {@link #mapRow(ResultSet, int[])} on the same order
+     */
+    protected IndexedRowMapper(String table, String... columns) {
+        this.table = table.toLowerCase(Locale.ROOT);
+        this.columns = new String[columns.length];
+        for (int index = 0; index < columns.length; index++) {
+            this.columns[index] = columns[index].toLowerCase(Locale.ROOT);
+        }
+    }
+
+    @Override
+    public T mapRow(ResultSet resultSet, int rowNum) throws SQLException {
+        if (resultSet != resolvedResultSet) {
+            positions = resolvePositions(resultSet.getMetaData());
+            resolvedResultSet = resultSet;
+        }
+        return mapRow(resultSet, positions);
+    }
+
+    /**
+     * Method that builds an object from the current row of a ResultSet
+     *
+     * @param resultSet result set positioned on the row
+     * @param positions position of each column, on the order given on the constructor; 0 if the column is not present
+     * @return object built from the row
+     * @throws SQLException if the row cannot be read
+     */
+    protected abstract T mapRow(ResultSet resultSet, int[] positions) throws SQLException;
+
+    /**
+     * Method that finds the position of each column on the ResultSet metadata
+     *
+     * @param metaData ResultSet metadata
+     * @return position of each column; 0 if not present
+     * @throws SQLException if the metadata cannot be read
+     */
+    private int[] resolvePositions(ResultSetMetaData metaData) throws SQLException {
+        int[] resolved = new int[columns.length];
+        for (int position = 1; position <= metaData.getColumnCount(); position++) {
+            String tableName = metaData.getTableName(position);
+            if (tableName != null && !tableName.isEmpty() && !tableName.equalsIgnoreCase(table)) {
+                continue;
+            }
+            String label = metaData.getColumnLabel(position);
+            for (int index = 0; index < columns.length; index++) {
+                if (resolved[index] == 0 && columns[index].equalsIgnoreCase(label)) {
+                    resolved[index] = position;
+                }
+            }
+        }
+        return resolved;
+    }
+}
@@ -0,0 +1,151 @@
+package hrtech.bigmanager.invenhelper.repository;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import hrtech.bigmanager.invenhelper.model.Product;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Local read-through cache of products, by business identifier.
+ * <p>
+ * The cache is bounded by size (entries are evicted with the W-TinyLFU policy, that combines frequency and recency) and
+ * by time since the entry was written. The products are copied when they enter and leave the cache, so changes made by the
+ * callers do not affect the cached instances. The repository invalidates an entry whenever the product is written; an invalidation
+ * waits for a load of the same product that is in progress, so a stale value cannot be cached after a write
+ */
+@Component
+public class ProductCache implements InitializingBean {
+
+    private final Logger logger = LoggerFactory.getLogger(ProductCache.class);
+    private boolean enabled;
+    private long maximumSize;
+    private Duration timeToLive;
+    private Cache<String, Product> cache;
+
+    @Value("${invenhelper.cache.enabled:false}")
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Value("${invenhelper.cache.maximum-size:10000}")
+    public void setMaximumSize(long maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+
+    @Value("${invenhelper.cache.time-to-live:5m}")
+    public void setTimeToLive(Duration timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (enabled) {
+            cache = Caffeine.newBuilder()
+                    .maximumSize(maximumSize)
+                    .expireAfterWrite(timeToLive)
+                    .executor(Runnable::run)
+                    .recordStats()
+                    .build();
+            logger.info("Product cache enabled with " + maximumSize + " entries and time to live of " + timeToLive);
+        }
+    }
+
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    /**
+     * Method that returns a product from the cache or, if it is not cached, loads it and caches it. Products not found are not cached
+     *
+     * @param businessIdentifier business identifier of the product
+     * @param loader             function that loads the product from the database
+     * @return Optional with a copy of the product; empty if it does not exist
+     */
+    public Optional<Product> get(String businessIdentifier, Supplier<Optional<Product>> loader) {
+        if (cache == null) {
+            return loader.get();
+        }
+        Product product = cache.get(businessIdentifier, key -> loader.get().map(Product::copy).orElse(null));
+        return Optional.ofNullable(product).map(Product::copy);
+    }
+
+    /**
+     * Method that fills the cache with products known to be current (read from a snapshot and reconciled with the database),
+     * up to its maximum size, so the first reads do not go to the database
+     *
+     * @param products products to cache
+     * @return number of products cached
+     */
+    public int preload(Collection<Product> products) {
+        if (cache == null) {
+            return 0;
+        }
+        int loaded = 0;
+        for (Product product : products) {
+            if (loaded >= maximumSize) {
+                break;
+            }
+            cache.put(product.getProductBusinessKey(), product.copy());
+            loaded++;
+        }
+        return loaded;
+    }
+
+    /**
+     * Method that removes a product from the cache
+     *
+     * @param businessIdentifier business identifier of the product
+     */
+    public void invalidate(String businessIdentifier) {
+        if (cache != null) {
+            cache.invalidate(businessIdentifier);
+        }
+    }
+
+    /**
+     * Method that removes a list of products from the cache
+     *
+     * @param businessIdentifiers business identifiers of the products
+     */
+    public void invalidateAll(Collection<String> businessIdentifiers) {
+        if (cache != null) {
+            cache.invalidateAll(businessIdentifiers);
+        }
+    }
+
+    /**
+     * Method that removes all the products from the cache
+     */
+    public void invalidateAll() {
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    /**
+     * Method that creates a JSON object with the cache counters
+     *
+     * @return JSONObject with the state (enabled), size, hits, misses and evictions of the cache
+     */
+    public JSONObject obtainJSONWithStatistics() {
+        JSONObject objectToReturn = new JSONObject();
+        objectToReturn.put("enabled", cache != null);
+        CacheStats statistics = cache == null ? CacheStats.empty() : cache.stats();
+        objectToReturn.put("size", cache == null ? 0 : cache.estimatedSize());
+        objectToReturn.put("hits", statistics.hitCount());
+        objectToReturn.put("misses", statistics.missCount());
+        objectToReturn.put("evictions", statistics.evictionCount());
+        return objectToReturn;
+    }
+}
@@ -3,63 +3,253 @@ package hrtech.bigmanager.invenhelper.repository;
 import hrtech.bigmanager.invenhelper.model.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.context.annotation.Profile;
 import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.core.support.JdbcDaoSupport;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.sql.DataSource;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
- * Product repository
+ * Product repository.
+ * <p>
+ * If the stock ledger is enabled, the quantity changes are appended to the stock_movement table instead of updating the product.
+ * The quantity column of the product is the snapshot of the ledger: the quantity of a product is its snapshot plus the movements
+ * not compacted yet, and {@link #compactLedger()} adds those movements to the snapshot. The movements are kept as the history of
+ * the product.
+ * <p>
+ * The quantity of a product with many concurrent changes can be split over counter slots (rows of the quantity_slot table), so
+ * its changes do not wait for each other on a single row. The quantity of the product is then the sum of its slots, and its row
+ * keeps only the other columns. If enabled, a product is split automatically when the number of contended changes, measured by
+ * {@link ContentionTracker}, reaches a threshold.
+ * <p>
+ * If the data source is a {@link ShardedDataSource}, each operation over a product is executed on the shard that owns it, and the
+ * operations that search all the products are executed on every shard, in parallel, and their results are merged.
+ * <p>
+ * The reservations of stock are kept on the stock_reservation table, on the shard of their products. They do not change the
+ * quantity of the product until they are confirmed.
+ * <p>
+ * {@link #forEachProduct(int, Consumer)} reads the products with a forward-only cursor, that fetches the rows by blocks (on MySQL,
+ * that sends the rows only when the fetch size is Integer.MIN_VALUE, one by one), so a full read does not keep the products in
+ * memory. The business identifiers can be split in ranges, read at the same time on their own connections
  */
 @Repository
-public class ProductRepository extends JdbcDaoSupport implements IRepository<Product, ProductKey> {
+@Profile("!edge")
+@DependsOn("schemaMigrationRunner")
+public class ProductRepository extends JdbcDaoSupport implements IProductRepository, IJdbcRepository<Product, ProductKey>, DisposableBean {
+
+    private static final String INSERT_PRODUCT = "INSERT INTO product (id, business_id, name, description, quantity, version) VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE_PRODUCT = "UPDATE product SET business_id = ?, name = ?, description = ?, " +
+            "quantity = CASE WHEN counter_slots = 0 THEN CAST(? AS SIGNED) ELSE quantity END, version = version + 1 WHERE id = ? AND version = ?";
+    private static final String RESERVED_ON_DECREASE = "CASE WHEN ? < 0 THEN COALESCE((SELECT SUM(stock_reservation.quantity) FROM stock_reservation " +
+            "WHERE stock_reservation.business_id = product.business_id AND stock_reservation.expires_on > ?), 0) ELSE 0 END";
+    private static final String CHANGE_QUANTITY = "UPDATE product SET quantity = quantity + ?, version = version + 1 WHERE business_id = ? AND counter_slots = 0 AND quantity + ? >= " + RESERVED_ON_DECREASE;
+    private static final String UPDATE_PRODUCT_INFORMATION = "UPDATE product SET business_id = ?, name = ?, description = ?, version = version + 1 WHERE id = ? AND version = ?";
+    private static final String PENDING_MOVEMENTS = "COALESCE((SELECT SUM(delta) FROM stock_movement WHERE stock_movement.business_id = product.business_id AND compacted = FALSE), 0)";
+    private static final String SLOTS_QUANTITY = "CASE WHEN counter_slots = 0 THEN 0 ELSE COALESCE((SELECT SUM(quantity_slot.quantity) FROM quantity_slot WHERE quantity_slot.business_id = product.business_id), 0) END";
+    private static final String SELECT_PRODUCT = "SELECT id, business_id, name, description, quantity + " + SLOTS_QUANTITY + " AS quantity, version FROM product";
+    private static final String SELECT_PRODUCT_FROM_LEDGER = "SELECT id, business_id, name, description, quantity + " + PENDING_MOVEMENTS + " + " + SLOTS_QUANTITY + " AS quantity, version FROM product";
+    private static final String SELECT_VERSION = "SELECT business_id, version, quantity + " + SLOTS_QUANTITY + " AS quantity FROM product";
+    private static final String SELECT_VERSION_FROM_LEDGER = "SELECT business_id, version, quantity + " + PENDING_MOVEMENTS + " + " + SLOTS_QUANTITY + " AS quantity FROM product";
+    private static final String APPEND_MOVEMENT = "INSERT INTO stock_movement (business_id, delta) SELECT business_id, ? FROM product WHERE business_id = ? AND counter_slots = 0 AND quantity + " + PENDING_MOVEMENTS + " + ? >= " + RESERVED_ON_DECREASE;
+    private static final String INSERT_RESERVATION = "INSERT INTO stock_reservation (id, business_id, quantity, expires_on) VALUES (?, ?, ?, ?)";
+    private static final String SELECT_RESERVATION = "SELECT id, business_id, quantity, expires_on FROM stock_reservation";
+    private static final String CHANGE_SLOT = "UPDATE quantity_slot SET quantity = quantity + ? WHERE business_id = ? AND slot = ? AND quantity + ? >= 0 " +
+            "AND (? >= 0 OR NOT EXISTS (SELECT 1 FROM stock_reservation WHERE stock_reservation.business_id = quantity_slot.business_id AND stock_reservation.expires_on > ?))";
 
     private final Logger logger = LoggerFactory.getLogger(ProductRepository.class);
+    private final Map<String, Integer> counterSlots = new ConcurrentHashMap<>();
+    private TransactionTemplate transactionTemplate;
+    private ProductCache productCache;
+    private int batchSize;
+    private int maximumListSize;
+    private boolean binaryKeys;
+    private ShardedDataSource shardedDataSource;
+    private ExecutorService shardExecutor;
+    private ExecutorService rangeExecutor;
+    private int fetchSize;
+    private int maximumRanges = 1;
+    private boolean streamingResults;
+    private boolean ledgerEnabled;
+    private ContentionTracker contentionTracker;
+    private int slotsPerProduct;
 
     @Autowired
     public void initialize(DataSource dataSource) {
         super.setDataSource(dataSource);
+        if (dataSource instanceof ShardedDataSource) {
+            shardedDataSource = (ShardedDataSource) dataSource;
+            shardExecutor = Executors.newFixedThreadPool(shardedDataSource.getShardCount(), runnable -> {
+                Thread thread = new Thread(runnable, "product-shards");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (rangeExecutor != null) {
+            rangeExecutor.shutdownNow();
+        }
+        if (shardExecutor != null) {
+            shardExecutor.shutdownNow();
+        }
+    }
+
+    @Autowired
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @Autowired
+    public void setProductCache(ProductCache productCache) {
+        this.productCache = productCache;
+    }
+
+    @Value("${invenhelper.quantity.ledger.enabled:false}")
+    public void setLedgerEnabled(boolean ledgerEnabled) {
+        this.ledgerEnabled = ledgerEnabled;
+    }
+
+    @Value("${invenhelper.quantity.counter-slots.slots:8}")
+    public void setSlotsPerProduct(int slotsPerProduct) {
+        this.slotsPerProduct = Math.max(2, slotsPerProduct);
     }
 
     /**
-     * Method that, given a ResultSet, retrieves the info and tries to build an Entity instance wrapped on an Optional
+     * Method that enables the automatic split of the products with contended quantity changes
      *
-     * @param resultSet result set to extract the info
-     * @return Optional with the Entity instantiated (or not, on failure)
+     * @param enabled            true to split the products automatically
+     * @param promotionThreshold number of contended changes of a product, on a window, that splits it
+     * @param window             duration of each window of contended changes
+     */
+    @Autowired
+    public void setCounterSlotsPromotion(@Value("${invenhelper.quantity.counter-slots.enabled:false}") boolean enabled,
+                                         @Value("${invenhelper.quantity.counter-slots.promotion-threshold:50}") int promotionThreshold,
+                                         @Value("${invenhelper.quantity.counter-slots.window:1m}") Duration window) {
+        this.contentionTracker = enabled ? new ContentionTracker(promotionThreshold, window) : null;
+    }
+
+    /**
+     * Method that limits the ranges read at the same time, on each shard, to the connections of the pool minus the connections
+     * reserved for the other requests, so the reads of the ranges do not wait for connections nor take all of them
+     *
+     * @param poolSize            maximum number of connections of the pool of each database
+     * @param reservedConnections connections of the pool not used by the reads of the ranges
+     */
+    @Autowired
+    public void setMaximumRanges(@Value("${spring.datasource.hikari.maximum-pool-size:10}") int poolSize,
+                                 @Value("${invenhelper.export.reserved-connections:4}") int reservedConnections) {
+        this.maximumRanges = Math.max(1, poolSize - Math.max(0, reservedConnections));
+    }
+
+    @Value("${invenhelper.export.fetch-size:1000}")
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = Math.max(1, fetchSize);
+    }
+
+    @Value("${invenhelper.repository.batch-size:500}")
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Method that detects how the database keys are stored: as BINARY(16), after the optional binary keys migration, or as text,
+     * if the database is MySQL, whose driver only streams the rows of a cursor with a special fetch size, and loads the products
+     * split over counter slots. The ranges are read on a pool with a thread for each range allowed on each shard
      */
     @Override
-    public Optional<Product> map(ResultSet resultSet) {
-        Set<String> columnsOnResultSet = IRepository.extractResultSetColumns(resultSet, true);
-        Optional<Product> product;
+    protected void initDao() {
+        rangeExecutor = Executors.newFixedThreadPool(maximumRanges * (shardedDataSource == null ? 1 : shardedDataSource.getShardCount()), runnable -> {
+            Thread thread = new Thread(runnable, "product-ranges");
+            thread.setDaemon(true);
+            return thread;
+        });
+
         try {
-            if (columnsOnResultSet.isEmpty()) {
-                throw new SQLException("Error extracting columns from ResultSet");
-            }
+            Boolean binary = getJdbcTemplate().query("SELECT id FROM product WHERE 1 = 0", resultSet -> {
+                int type = resultSet.getMetaData().getColumnType(1);
+                return type == Types.BINARY || type == Types.VARBINARY;
+            });
+            binaryKeys = Boolean.TRUE.equals(binary);
+        } catch (DataAccessException e) {
+            logger.warn("Unable to detect the format of the product keys, using text: " + e.getLocalizedMessage());
+            binaryKeys = false;
+        }
+        logger.info("Product keys stored as " + (binaryKeys ? "BINARY(16)" : "text"));
 
-            String databaseIDOnString = columnsOnResultSet.contains("product.id") ? resultSet.getString("product.id") : "";
-            UUID databaseID = DomainKey.convertStringToUUID(databaseIDOnString);
-            String productID = columnsOnResultSet.contains("product.business_id") ? resultSet.getString("product.business_id") : "";
-            ProductKey key = new ProductKey(databaseID, productID);
+        try {
+            streamingResults = "MySQL".equalsIgnoreCase(getJdbcTemplate().execute((ConnectionCallback<String>) connection -> connection.getMetaData().getDatabaseProductName()));
+        } catch (DataAccessException e) {
+            logger.warn("Unable to detect the database: " + e.getLocalizedMessage());
+            streamingResults = false;
+        }
 
-            String name = columnsOnResultSet.contains("product.name") ? resultSet.getString("product.name") : "";
-            String description = columnsOnResultSet.contains("product.description") ? resultSet.getString("product.description") : "";
-            ProductInformation information = new ProductInformation(name, description);
+        try {
+            onEveryShard(() -> getJdbcTemplate().queryForList("SELECT business_id, counter_slots FROM product WHERE counter_slots > 0"))
+                    .forEach(rows -> rows.forEach(row -> counterSlots.put((String) row.get("business_id"), ((Number) row.get("counter_slots")).intValue())));
+        } catch (DataAccessException e) {
+            logger.warn("Unable to load the products split over counter slots: " + e.getLocalizedMessage());
+        }
+    }
 
-            int quantityNumber = columnsOnResultSet.contains("product.quantity") ? resultSet.getInt("product.quantity") : -1;
-            Quantity quantity = new Quantity(quantityNumber);
+    @Value("${invenhelper.identifiers.maximum-list-size:10000}")
+    public void setMaximumListSize(int maximumListSize) {
+        this.maximumListSize = Math.max(1, maximumListSize);
+    }
 
-            product = Optional.of(new Product(key, information, quantity));
-        } catch (SQLException | IllegalArgumentException e) {
-            System.out.println("Error while mapping Product: " + e.getLocalizedMessage());
-            product = Optional.empty();
+    /**
+     * Method that, given a ResultSet, retrieves the info and tries to build an Entity instance wrapped on an Optional
+     *
+     * @param resultSet result set to extract the info
+     * @return Optional with the Entity instantiated (or not, on failure)
+     */
+    @Override
+    public Optional<Product> map(ResultSet resultSet) {
+        try {
+            return rowMapper().mapRow(resultSet, 0);
+        } catch (SQLException e) {
+            logger.error("Error while mapping Product: " + e.getLocalizedMessage());
+            return Optional.empty();
         }
-        return product;
+    }
+
+    /**
+     * Method that creates a row mapper for products, that resolves the columns once per ResultSet
+     *
+     * @return row mapper that builds a Product wrapped on an Optional (empty if the row is invalid)
+     */
+    @Override
+    public IndexedRowMapper<Optional<Product>> rowMapper() {
+        return new ProductRowMapper();
     }
 
     /**
@@ -70,15 +260,15 @@ public class ProductRepository extends JdbcDaoSupport implements IRepository<Pro
      */
     @Override
     public boolean insert(Product productToCreate) {
-        String createProduct = "INSERT INTO product (id, business_id, name, description, quantity) VALUES (?, ?, ?, ?, ?)";
         if (getJdbcTemplate() != null) {
             try {
-                int result = getJdbcTemplate().update(createProduct, productToCreate.getProductID(), productToCreate.getProductBusinessKey(),
-                        productToCreate.getName(), productToCreate.getDescription(), productToCreate.getQuantity());
+                int result = onOwnerShard(productToCreate.getProductBusinessKey(), () -> getJdbcTemplate().update(INSERT_PRODUCT, insertParameters(productToCreate)));
                 return result == 1;
             } catch (DataAccessException e) {
                 logger.error("Error while manipulating data: " + e.getLocalizedMessage());
                 return false;
+            } finally {
+                productCache.invalidate(productToCreate.getProductBusinessKey());
             }
         } else {
             logger.error("Error while connecting to the database to create a product");
@@ -87,22 +277,28 @@ public class ProductRepository extends JdbcDaoSupport implements IRepository<Pro
     }
 
     /**
-     * Method that saves an entity on the repository
+     * Method that saves an entity on the repository. The update is conditional: it is only applied if the version on the
+     * database is the version of the product, so a product changed meanwhile is not overwritten. On success, the version of
+     * the product is increased, as it is on the database. With the stock ledger, the quantity is not saved: it is only changed
+     * with movements
      *
      * @param objectToSave entity to be created/updated
-     * @return entity created/updated
+     * @return true on success; false if the product does not exist, its version does not match or on failure
      */
     @Override
     public boolean save(Product objectToSave) {
-        String updateProduct = "UPDATE product SET business_id = ?, name = ?, description = ?, quantity = ? WHERE id = ?";
         if (getJdbcTemplate() != null) {
             try {
-                int result = getJdbcTemplate().update(updateProduct, objectToSave.getProductBusinessKey(),
-                        objectToSave.getName(), objectToSave.getDescription(), objectToSave.getQuantity(), objectToSave.getProductID());
+                int result = onOwnerShard(objectToSave.getProductBusinessKey(), () -> getJdbcTemplate().update(updateStatement(), updateParameters(objectToSave)));
+                if (result == 1) {
+                    objectToSave.increaseVersion();
+                }
                 return result == 1;
             } catch (DataAccessException e) {
                 logger.error("Error while manipulating data: " + e.getLocalizedMessage());
                 return false;
+            } finally {
+                productCache.invalidate(objectToSave.getProductBusinessKey());
             }
         } else {
             logger.error("Error while connecting to the database to create a product");
@@ -111,39 +307,271 @@ public class ProductRepository extends JdbcDaoSupport implements IRepository<Pro
     }
 
     /**
-     * Method that, given a key object, returns the corresponding object using the database identifier
+     * Method that creates a list of products on the database, using JDBC batches. The products are sent in chunks with the configured
+     * batch size, each chunk on its own transaction. If a chunk fails (for example, with a duplicated identifier), it is rolled back
+     * and its products are inserted one by one, so the result of each product is known
      *
-     * @param keyToSearch valid key object to search the entity
-     * @return Option that contains the entity, if such ID exists on the database
+     * @param productsToCreate products to be created
+     * @return list with the result of each insertion, on the same order of the products received
      */
     @Override
-    public Optional<Product> findById(ProductKey keyToSearch) {
-        if (getJdbcTemplate() != null) {
+    public List<Boolean> insertAll(List<Product> productsToCreate) {
+        try {
+            return executeInBatches(INSERT_PRODUCT, productsToCreate, Product::getProductBusinessKey, this::insertParameters);
+        } finally {
+            productCache.invalidateAll(productsToCreate.stream().map(Product::getProductBusinessKey).collect(Collectors.toList()));
+        }
+    }
+
+    /**
+     * Method that saves a list of products on the database, using JDBC batches. The products are sent in chunks with the configured
+     * batch size, each chunk on its own transaction. If a chunk fails, it is rolled back and its products are saved one by one.
+     * As on {@link #save(Product)}, each update is only applied if the version matches, and increases the version of the product
+     *
+     * @param productsToSave products to be updated
+     * @return list with the result of each update, on the same order of the products received
+     */
+    @Override
+    public List<Boolean> saveAll(List<Product> productsToSave) {
+        try {
+            List<Boolean> results = executeInBatches(updateStatement(), productsToSave, Product::getProductBusinessKey, this::updateParameters);
+            for (int index = 0; index < results.size(); index++) {
+                if (results.get(index)) {
+                    productsToSave.get(index).increaseVersion();
+                }
+            }
+            return results;
+        } finally {
+            productCache.invalidateAll(productsToSave.stream().map(Product::getProductBusinessKey).collect(Collectors.toList()));
+        }
+    }
+
+    /**
+     * Method that executes a statement for each item, in chunks of JDBC batches. With shards, the items are grouped by the
+     * shard that owns them, and each group is executed on its shard
+     *
+     * @param statement          statement to execute
+     * @param items              items to use on the statement
+     * @param businessIdentifier function that extracts the business identifier of the product changed by an item
+     * @param parameters         function that extracts the statement parameters from an item
+     * @param <T>                Item class
+     * @return list with the result of each statement, on the same order of the items received
+     */
+    private <T> List<Boolean> executeInBatches(String statement, List<T> items, Function<T, String> businessIdentifier, Function<T, Object[]> parameters) {
+        return executeInBatches(items, businessIdentifier,
+                chunk -> getJdbcTemplate().batchUpdate(statement, chunk.stream().map(parameters).collect(Collectors.toList())),
+                item -> executeSingle(statement, parameters.apply(item))).stream().map(Boolean.TRUE::equals).collect(Collectors.toList());
+    }
+
+    /**
+     * Method that executes the changes of a list of items, in chunks of JDBC batches. With shards, the items are grouped by the
+     * shard that owns them, and each group is executed on its shard
+     *
+     * @param items              items to change
+     * @param businessIdentifier function that extracts the business identifier of the product changed by an item
+     * @param batch              function that executes the changes of a chunk of items, inside a transaction, and returns the
+     *                           number of rows changed by each one
+     * @param single             function that executes the change of a single item, used when the batch of its chunk fails.
+     *                           It returns null if the change could not be executed
+     * @param <T>                Item class
+     * @return list with the result of each change, on the same order of the items received; null for the changes that could not
+     * be executed because of a database failure
+     */
+    private <T> List<Boolean> executeInBatches(List<T> items, Function<T, String> businessIdentifier, Function<List<T>, int[]> batch, Function<T, Boolean> single) {
+        if (getJdbcTemplate() == null || transactionTemplate == null) {
+            logger.error("Error while connecting to the database to execute a batch");
+            return new ArrayList<>(Collections.nCopies(items.size(), null));
+        }
+        if (shardedDataSource == null) {
+            return executeChunks(items, batch, single);
+        }
+
+        Boolean[] result = new Boolean[items.size()];
+        groupByShard(items, businessIdentifier).forEach((shard, positions) -> {
+            List<T> shardItems = positions.stream().map(items::get).collect(Collectors.toList());
+            List<Boolean> shardResult = DataSourceRouting.onShard(shard, () -> executeChunks(shardItems, batch, single));
+            for (int index = 0; index < positions.size(); index++) {
+                result[positions.get(index)] = shardResult.get(index);
+            }
+        });
+        return Arrays.asList(result);
+    }
+
+    /**
+     * Method that executes the changes of a list of items, in chunks of JDBC batches, each chunk on its own transaction. If a
+     * chunk fails, it is rolled back and its changes are executed one by one
+     *
+     * @param items  items to change
+     * @param batch  function that executes the changes of a chunk of items, inside a transaction
+     * @param single function that executes the change of a single item; null if it could not be executed
+     * @param <T>    Item class
+     * @return list with the result of each change, on the same order of the items received
+     */
+    private <T> List<Boolean> executeChunks(List<T> items, Function<List<T>, int[]> batch, Function<T, Boolean> single) {
+        List<Boolean> result = new ArrayList<>(items.size());
+        for (int start = 0; start < items.size(); start += batchSize) {
+            List<T> chunk = items.subList(start, Math.min(start + batchSize, items.size()));
             try {
-                return getJdbcTemplate().queryForObject("SELECT * FROM product WHERE id = ?", (rs, rowNum) -> map(rs), keyToSearch.getDatabaseKey().toString());
-            } catch (DataAccessException e) {
-                logger.error("Error while manipulating data: " + e.getLocalizedMessage());
-                return Optional.empty();
+                int[] counts = transactionTemplate.execute(status -> batch.apply(chunk));
+                for (int count : Objects.requireNonNull(counts)) {
+                    result.add(count == 1 || count == Statement.SUCCESS_NO_INFO);
+                }
+            } catch (DataAccessException | TransactionException e) {
+                logger.warn("Batch failed, executing its statements one by one: " + e.getLocalizedMessage());
+                for (T item : chunk) {
+                    result.add(single.apply(item));
+                }
             }
-        } else {
-            logger.error("Invalid JDBC template instance");
-            return Optional.empty();
         }
+        return result;
+    }
+
+    /**
+     * Method that executes a statement that must change a single row
+     *
+     * @param statement  statement to execute
+     * @param parameters statement parameters
+     * @return true if one row was changed; false otherwise
+     */
+    private boolean executeSingle(String statement, Object[] parameters) {
+        try {
+            return getJdbcTemplate().update(statement, parameters) == 1;
+        } catch (DataAccessException e) {
+            logger.error("Error while manipulating data: " + e.getLocalizedMessage());
+            return false;
+        }
+    }
+
+    private Object[] insertParameters(Product product) {
+        return new Object[]{databaseKeyParameter(product.getDatabaseKey()), product.getProductBusinessKey(), product.getName(), product.getDescription(), product.getQuantity(), product.getVersion()};
+    }
+
+    private Object[] updateParameters(Product product) {
+        if (ledgerEnabled) {
+            return new Object[]{product.getProductBusinessKey(), product.getName(), product.getDescription(), databaseKeyParameter(product.getDatabaseKey()), product.getVersion()};
+        }
+        return new Object[]{product.getProductBusinessKey(), product.getName(), product.getDescription(), product.getQuantity(), databaseKeyParameter(product.getDatabaseKey()), product.getVersion()};
+    }
+
+    private String updateStatement() {
+        return ledgerEnabled ? UPDATE_PRODUCT_INFORMATION : UPDATE_PRODUCT;
+    }
+
+    /**
+     * Method that returns the query of the products, without conditions. The quantity of a product split over counter slots
+     * is the sum of its slots. With the stock ledger, it includes the movements not compacted yet
+     *
+     * @return query that selects every column of the products
+     */
+    private String selectProduct() {
+        return ledgerEnabled ? SELECT_PRODUCT_FROM_LEDGER : SELECT_PRODUCT;
+    }
+
+    /**
+     * Method that converts a database key into the statement parameter, on the format used by the id column
+     *
+     * @param databaseKey key to convert
+     * @return 16 bytes if the keys are stored as binary; the String representation otherwise
+     */
+    private Object databaseKeyParameter(UUID databaseKey) {
+        return binaryKeys ? DomainKey.convertUUIDToBytes(databaseKey) : databaseKey.toString();
     }
 
     /**
-     * Method that, given a key object, returns the corresponding object using the business identifier
+     * Method that changes the quantity of a product, using the business identifier, with a single statement on the database.
+     * The statement only changes the row if the resulting quantity is not negative, so concurrent changes are never lost. A
+     * decrease must also leave the quantity held by the reservations not expired, so it cannot take the stock reserved.
+     * The updated row is read on the same transaction, while the row is still locked by the update.
+     * <p>
+     * With the stock ledger, the change is appended as a movement, and the version of the product is not changed. An increase
+     * does not lock the product; a decrease locks it, so concurrent decreases cannot use the same quantity.
+     * <p>
+     * If the product is split over counter slots, the change is applied on a random slot, without changing the version. A decrease
+     * that the slot cannot cover is applied again over all the slots, on a new transaction that locks them. If the product is no
+     * longer split, the change is applied again on the product
      *
      * @param keyToSearch valid key object to search the entity
-     * @return Option that contains the entity, if such ID exists on the database
+     * @param delta       quantity to be added (positive) or removed (negative)
+     * @return Optional with the product after the change; empty if the product does not exist, the quantity would be negative or on failure
      */
-    public Optional<Product> findByBusinessId(ProductKey keyToSearch) {
-        if (getJdbcTemplate() != null) {
+    @Override
+    public Optional<Product> changeQuantity(ProductKey keyToSearch, int delta) {
+        String businessIdentifier = keyToSearch.getInternalKey();
+        return onOwnerShard(businessIdentifier, () -> {
+            if (counterSlots.containsKey(businessIdentifier)) {
+                Optional<Product> result = executeQuantityChange(keyToSearch, () -> changeRandomSlot(businessIdentifier, delta));
+                if (result.isPresent() || !loadCounterSlots(businessIdentifier)) {
+                    return result.isPresent() ? result : changeQuantity(keyToSearch, delta);
+                }
+                return delta >= 0 ? result : executeQuantityChange(keyToSearch, () -> changeSlots(businessIdentifier, delta));
+            }
+
+            boolean contended = contentionTracker != null && contentionTracker.enter(businessIdentifier);
             try {
-                return getJdbcTemplate().queryForObject("SELECT * FROM product WHERE business_id = ?", (rs, rowNum) -> map(rs), keyToSearch.getInternalKey());
-            } catch (DataAccessException e) {
+                return executeQuantityChange(keyToSearch, () -> applyChanges(Collections.singletonList(Map.entry(businessIdentifier, delta)))[0] == 1);
+            } finally {
+                if (contentionTracker != null) {
+                    contentionTracker.exit(businessIdentifier);
+                }
+                if (contended) {
+                    splitQuantity(businessIdentifier, slotsPerProduct);
+                }
+            }
+        });
+    }
+
+    /**
+     * Method that changes the quantity of a product, as {@link #changeQuantity(ProductKey, int)}, only if the version of the
+     * product on the database is the version expected. With the stock ledger, or if the product is split over counter slots, the
+     * product is always locked and its version is increased, so the next conditional change expects the new version
+     *
+     * @param keyToSearch     valid key object to search the entity
+     * @param delta           quantity to be added (positive) or removed (negative)
+     * @param expectedVersion version that the product must have
+     * @return Optional with the product after the change; empty if the product does not exist, the version does not match,
+     * the quantity would be negative or on failure
+     */
+    @Override
+    public Optional<Product> changeQuantity(ProductKey keyToSearch, int delta, long expectedVersion) {
+        String businessIdentifier = keyToSearch.getInternalKey();
+        return onOwnerShard(businessIdentifier, () -> executeQuantityChange(keyToSearch, () -> {
+            if (counterSlots.containsKey(businessIdentifier)) {
+                lockProducts(Collections.singletonList(businessIdentifier));
+                return getJdbcTemplate().update("UPDATE product SET version = version + 1 WHERE business_id = ? AND version = ?", businessIdentifier, expectedVersion) == 1
+                        && changeSlots(businessIdentifier, delta);
+            }
+            if (!ledgerEnabled) {
+                return getJdbcTemplate().update(CHANGE_QUANTITY + " AND version = ?", delta, businessIdentifier, delta, delta, Timestamp.from(Instant.now()), expectedVersion) == 1;
+            }
+            lockProducts(Collections.singletonList(businessIdentifier));
+            return getJdbcTemplate().update(APPEND_MOVEMENT + " AND version = ?", delta, businessIdentifier, delta, delta, Timestamp.from(Instant.now()), expectedVersion) == 1
+                    && getJdbcTemplate().update("UPDATE product SET version = version + 1 WHERE business_id = ?", businessIdentifier) == 1;
+        }));
+    }
+
+    /**
+     * Method that executes a quantity change and reads the product changed, on the same transaction. If the change is not
+     * applied, the transaction is rolled back
+     *
+     * @param keyToSearch valid key object of the product changed
+     * @param change      change of the quantity, executed inside the transaction
+     * @return Optional with the product after the change; empty if the change was not applied or on failure
+     */
+    private Optional<Product> executeQuantityChange(ProductKey keyToSearch, Supplier<Boolean> change) {
+        if (getJdbcTemplate() != null && transactionTemplate != null) {
+            try {
+                return transactionTemplate.execute(status -> {
+                    if (!change.get()) {
+                        status.setRollbackOnly();
+                        return Optional.empty();
+                    }
+                    return getJdbcTemplate().queryForObject(selectProduct() + " WHERE business_id = ?", rowMapper(), keyToSearch.getInternalKey());
+                });
+            } catch (DataAccessException | TransactionException e) {
                 logger.error("Error while manipulating data: " + e.getLocalizedMessage());
                 return Optional.empty();
+            } finally {
+                productCache.invalidate(keyToSearch.getInternalKey());
             }
         } else {
             logger.error("Invalid JDBC template instance");
@@ -152,25 +580,1090 @@ public class ProductRepository extends JdbcDaoSupport implements IRepository<Pro
     }
 
     /**
-     * Method that returns the list of business identifiers on the database
+     * Method that changes the quantity of a list of products, using JDBC batches. Each change is applied with the same conditional
+     * statement of {@link #changeQuantity(ProductKey, int)}, so a change that would make a quantity negative is not applied, without
+     * affecting the other changes. The products are changed on the order of their business identifiers, so concurrent batches lock
+     * the rows on the same order
      *
-     * @return list of business identifier on database
+     * @param deltas quantity to be added (positive) or removed (negative), by business identifier
+     * @return result of each change executed, by business identifier. The changes that failed with a database error are not present
      */
-    public List<String> findListOfIdentifiers() {
-        List<String> result = new ArrayList<>();
-        if (getJdbcTemplate() != null) {
-            try {
-                List<Optional<Product>> optionalList = getJdbcTemplate().query(
-                        "SELECT * FROM product", (rs, rowNum) -> map(rs));
-                result = optionalList.stream().filter(Optional::isPresent).map(Optional::get).map(Product::getProductBusinessKey).collect(Collectors.toList());
-            } catch (DataAccessException e) {
-                logger.error("Error while manipulating data: " + e.getLocalizedMessage());
-                return result;
+    @Override
+    public Map<String, Boolean> changeQuantities(Map<String, Integer> deltas) {
+        return changeQuantities(deltas, null, 0);
+    }
+
+    /**
+     * Method that changes the quantity of a list of products, as {@link #changeQuantities(Map)}. Each chunk of changes registers
+     * the journal position on the same transaction, for the products of the chunk (including the changes refused, that are
+     * not retried either)
+     *
+     * @param deltas   quantity to be added (positive) or removed (negative), by business identifier
+     * @param journal  identifier of the journal; null to not register the position
+     * @param position position of the journal after the changes
+     * @return result of each change executed, by business identifier. The changes that failed with a database error are not present
+     */
+    @Override
+    public Map<String, Boolean> changeQuantities(Map<String, Integer> deltas, String journal, long position) {
+        List<Map.Entry<String, Integer>> sortedDeltas = new ArrayList<>(new TreeMap<>(deltas).entrySet());
+        try {
+            List<Boolean> results = executeInBatches(sortedDeltas, Map.Entry::getKey,
+                    chunk -> registerJournalPosition(chunk, applyChanges(chunk), journal, position),
+                    delta -> applyChange(delta, journal, position));
+            Map<String, Boolean> resultsByIdentifier = new LinkedHashMap<>();
+            for (int index = 0; index < sortedDeltas.size(); index++) {
+                if (results.get(index) != null) {
+                    resultsByIdentifier.put(sortedDeltas.get(index).getKey(), results.get(index));
+                }
             }
-        } else {
+            return resultsByIdentifier;
+        } finally {
+            productCache.invalidateAll(deltas.keySet());
+        }
+    }
+
+    /**
+     * Method that applies a list of quantity changes, with the conditional statement of {@link #changeQuantity(ProductKey, int)}.
+     * With the stock ledger, the products decreased are locked first, on the order received. The changes of the products split
+     * over counter slots are applied after the others, with {@link #changeSlots(String, int)}; a product split by other instance
+     * is detected when its change is not applied. Must be executed inside a transaction
+     *
+     * @param sortedDeltas changes to apply, ordered by business identifier
+     * @return number of rows changed by each change
+     */
+    private int[] applyChanges(List<Map.Entry<String, Integer>> sortedDeltas) {
+        int[] counts = new int[sortedDeltas.size()];
+        List<Integer> positions = IntStream.range(0, sortedDeltas.size())
+                .filter(index -> !counterSlots.containsKey(sortedDeltas.get(index).getKey())).boxed().collect(Collectors.toList());
+        if (!positions.isEmpty()) {
+            Timestamp now = Timestamp.from(Instant.now());
+            List<Object[]> parameters = positions.stream().map(sortedDeltas::get)
+                    .map(delta -> new Object[]{delta.getValue(), delta.getKey(), delta.getValue(), delta.getValue(), now}).collect(Collectors.toList());
+            int[] directCounts;
+            if (ledgerEnabled) {
+                List<String> decreased = positions.stream().map(sortedDeltas::get).filter(delta -> delta.getValue() < 0)
+                        .map(Map.Entry::getKey).collect(Collectors.toList());
+                if (!decreased.isEmpty()) {
+                    lockProducts(decreased);
+                }
+                directCounts = getJdbcTemplate().batchUpdate(APPEND_MOVEMENT, parameters);
+            } else {
+                directCounts = getJdbcTemplate().batchUpdate(CHANGE_QUANTITY, parameters);
+            }
+            for (int index = 0; index < positions.size(); index++) {
+                counts[positions.get(index)] = directCounts[index];
+            }
+        }
+
+        for (int index = 0; index < sortedDeltas.size(); index++) {
+            Map.Entry<String, Integer> delta = sortedDeltas.get(index);
+            if (counterSlots.containsKey(delta.getKey()) || (counts[index] == 0 && loadCounterSlots(delta.getKey()))) {
+                counts[index] = changeSlots(delta.getKey(), delta.getValue()) ? 1 : 0;
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Method that applies a quantity change on a random counter slot of a product. Must be executed inside a transaction
+     *
+     * @param businessIdentifier business identifier of a product split over counter slots
+     * @param delta              quantity to be added (positive) or removed (negative)
+     * @return true if the change was applied; false if the slot does not have the quantity to remove or, for a decrease, the
+     * product has reservations not expired (that only {@link #changeSlots(String, int)} checks)
+     */
+    private boolean changeRandomSlot(String businessIdentifier, int delta) {
+        int slot = ThreadLocalRandom.current().nextInt(counterSlots.getOrDefault(businessIdentifier, 1));
+        return getJdbcTemplate().update(CHANGE_SLOT, delta, businessIdentifier, slot, delta, delta, Timestamp.from(Instant.now())) == 1;
+    }
+
+    /**
+     * Method that applies a quantity change on the counter slots of a product. An increase is applied on a random slot; a
+     * decrease locks all the slots, on their order, and removes the quantity from as many slots as needed, if their sum minus the
+     * reservations not expired covers it. Must be executed inside a transaction
+     *
+     * @param businessIdentifier business identifier of a product split over counter slots
+     * @param delta              quantity to be added (positive) or removed (negative)
+     * @return true if the change was applied; false if the product does not exist or the quantity would be negative
+     */
+    private boolean changeSlots(String businessIdentifier, int delta) {
+        if (delta >= 0) {
+            return changeRandomSlot(businessIdentifier, delta);
+        }
+        List<Map<String, Object>> slots = getJdbcTemplate().queryForList("SELECT slot, quantity FROM quantity_slot WHERE business_id = ? " +
+                "ORDER BY slot FOR UPDATE", businessIdentifier);
+        long total = slots.stream().mapToLong(slot -> ((Number) slot.get("quantity")).longValue()).sum();
+        if (slots.isEmpty() || total - findReservedQuantityOnShard(businessIdentifier, Instant.now()) + delta < 0) {
+            return false;
+        }
+        long remaining = -(long) delta;
+        for (Map<String, Object> slot : slots) {
+            long taken = Math.min(remaining, ((Number) slot.get("quantity")).longValue());
+            if (taken > 0) {
+                getJdbcTemplate().update("UPDATE quantity_slot SET quantity = quantity - ? WHERE business_id = ? AND slot = ?", taken, businessIdentifier, slot.get("slot"));
+                remaining -= taken;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Method that reads from the database if a product is split over counter slots, for products split by other instance.
+     * A product that is no longer split (because it was removed and created again, for example) is forgotten
+     *
+     * @param businessIdentifier business identifier of the product
+     * @return true if the product is split
+     */
+    private boolean loadCounterSlots(String businessIdentifier) {
+        List<Integer> slots = getJdbcTemplate().queryForList("SELECT counter_slots FROM product WHERE business_id = ? AND counter_slots > 0",
+                Integer.class, businessIdentifier);
+        if (slots.isEmpty()) {
+            counterSlots.remove(businessIdentifier);
+            return false;
+        }
+        counterSlots.put(businessIdentifier, slots.get(0));
+        return true;
+    }
+
+    /**
+     * Method that splits the quantity of a product over counter slots. The pending movements of the stock ledger are compacted,
+     * and the quantity is divided by the slots, so each one can cover part of the decreases. The version of the product is not
+     * changed, since its quantity is the same
+     *
+     * @param businessIdentifier business identifier of the product
+     * @param slots              number of counter slots
+     * @return true if the product is split (now or before); false if the product does not exist or on failure
+     */
+    public boolean splitQuantity(String businessIdentifier, int slots) {
+        if (getJdbcTemplate() == null || transactionTemplate == null) {
             logger.error("Invalid JDBC template instance");
-            return result;
+            return false;
+        }
+        try {
+            Integer split = onOwnerShard(businessIdentifier, () -> transactionTemplate.execute(status -> {
+                lockProducts(Collections.singletonList(businessIdentifier));
+                List<Integer> current = getJdbcTemplate().queryForList("SELECT counter_slots FROM product WHERE business_id = ?", Integer.class, businessIdentifier);
+                if (current.isEmpty() || current.get(0) > 0) {
+                    return current.isEmpty() ? 0 : current.get(0);
+                }
+                while (compactMovements(businessIdentifier) > 0) {
+                    // the movements are compacted in chunks
+                }
+                int quantity = Objects.requireNonNull(getJdbcTemplate().queryForObject("SELECT quantity FROM product WHERE business_id = ?", Integer.class, businessIdentifier));
+                getJdbcTemplate().batchUpdate("INSERT INTO quantity_slot (business_id, slot, quantity) VALUES (?, ?, ?)", IntStream.range(0, slots)
+                        .mapToObj(slot -> new Object[]{businessIdentifier, slot, quantity / slots + (slot < quantity % slots ? 1 : 0)}).collect(Collectors.toList()));
+                getJdbcTemplate().update("UPDATE product SET quantity = 0, counter_slots = ? WHERE business_id = ?", slots, businessIdentifier);
+                return slots;
+            }));
+            if (split == null || split == 0) {
+                return false;
+            }
+            counterSlots.put(businessIdentifier, split);
+            logger.info("Quantity of the product " + businessIdentifier + " split over " + split + " counter slots");
+            return true;
+        } catch (DataAccessException | TransactionException e) {
+            logger.error("Error while manipulating data: " + e.getLocalizedMessage());
+            return false;
+        } finally {
+            productCache.invalidate(businessIdentifier);
+        }
+    }
+
+    /**
+     * Method that registers the position of a quantity journal for the products of a list of changes applied. Must be executed
+     * inside the transaction of the changes
+     *
+     * @param sortedDeltas changes applied
+     * @param counts       number of rows changed by each change
+     * @param journal      identifier of the journal; null to not register the position
+     * @param position     position of the journal after the changes
+     * @return the number of rows changed by each change, as received
+     */
+    private int[] registerJournalPosition(List<Map.Entry<String, Integer>> sortedDeltas, int[] counts, String journal, long position) {
+        if (journal == null) {
+            return counts;
+        }
+        List<Object[]> parameters = sortedDeltas.stream().map(delta -> new Object[]{position, journal, delta.getKey()}).collect(Collectors.toList());
+        int[] updated = getJdbcTemplate().batchUpdate("UPDATE journal_position SET applied_position = ? WHERE journal = ? AND business_id = ?", parameters);
+        List<Object[]> missing = IntStream.range(0, updated.length).filter(index -> updated[index] == 0).mapToObj(parameters::get)
+                .collect(Collectors.toList());
+        if (!missing.isEmpty()) {
+            getJdbcTemplate().batchUpdate("INSERT INTO journal_position (applied_position, journal, business_id) VALUES (?, ?, ?)", missing);
+        }
+        return counts;
+    }
+
+    /**
+     * Method that returns the positions of a quantity journal registered with the changes applied, on every shard
+     *
+     * @param journal identifier of the journal
+     * @return Optional with the last position applied, by business identifier; empty on failure
+     */
+    @Override
+    public Optional<Map<String, Long>> findJournalPositions(String journal) {
+        if (getJdbcTemplate() == null) {
+            logger.error("Invalid JDBC template instance");
+            return Optional.empty();
+        }
+        try {
+            Map<String, Long> positions = new HashMap<>();
+            onEveryShard(() -> getJdbcTemplate().queryForList("SELECT business_id, applied_position FROM journal_position WHERE journal = ?", journal))
+                    .stream().flatMap(List::stream).forEach(row -> positions.merge((String) row.get("business_id"),
+                            ((Number) row.get("applied_position")).longValue(), Math::max));
+            return Optional.of(positions);
+        } catch (DataAccessException e) {
+            logger.error("Error while manipulating data: " + e.getLocalizedMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Method that removes the positions of a quantity journal, on every shard
+     *
+     * @param journal identifier of the journal
+     */
+    @Override
+    public void deleteJournalPositions(String journal) {
+        if (getJdbcTemplate() == null) {
+            logger.error("Invalid JDBC template instance");
+            return;
+        }
+        try {
+            onEveryShard(() -> getJdbcTemplate().update("DELETE FROM journal_position WHERE journal = ?", journal));
+        } catch (DataAccessException e) {
+            logger.error("Error while manipulating data: " + e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Method that applies a single quantity change, on its own transaction, registering the journal position with it
+     *
+     * @param delta    change to apply
+     * @param journal  identifier of the journal; null to not register the position
+     * @param position position of the journal after the change
+     * @return true if the change was applied; false if it was refused; null if it failed with a database error
+     */
+    private Boolean applyChange(Map.Entry<String, Integer> delta, String journal, long position) {
+        try {
+            List<Map.Entry<String, Integer>> single = Collections.singletonList(delta);
+            int[] counts = transactionTemplate.execute(status -> registerJournalPosition(single, applyChanges(single), journal, position));
+            return Objects.requireNonNull(counts)[0] == 1;
+        } catch (DataAccessException | TransactionException e) {
+            logger.error("Error while manipulating data: " + e.getLocalizedMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Method that locks products until the end of the current transaction. The lock is taken by an update that keeps the row as
+     * it is, instead of a SELECT ... FOR UPDATE: some engines (H2 among them) take that lock by writing back the row read before
+     * waiting, which would undo a compaction committed meanwhile and let a conditional decrease see a quantity already moved.
+     * The update always applies to the latest version of the row
+     *
+     * @param businessIdentifiers business identifiers of the products, on the order to lock them
+     */
+    private void lockProducts(List<String> businessIdentifiers) {
+        getJdbcTemplate().batchUpdate("UPDATE product SET quantity = quantity WHERE business_id = ?",
+                businessIdentifiers.stream().map(businessIdentifier -> new Object[]{businessIdentifier}).collect(Collectors.toList()));
+    }
+
+    /**
+     * Method that compacts the stock ledger: the movements not compacted yet are added to the quantity of their products, and
+     * marked as compacted. Each product is compacted on its own transaction, while locked. On each call, up to the configured
+     * batch size of products, and of movements of each product, are compacted on each shard
+     *
+     * @return number of movements compacted; 0 if there is nothing to compact or on failure
+     */
+    @Override
+    public int compactLedger() {
+        if (getJdbcTemplate() == null || transactionTemplate == null) {
+            logger.error("Invalid JDBC template instance");
+            return 0;
+        }
+        try {
+            return onEveryShard(() -> {
+                int compacted = 0;
+                for (String businessIdentifier : getJdbcTemplate().queryForList("SELECT DISTINCT business_id FROM stock_movement " +
+                        "WHERE compacted = FALSE ORDER BY business_id LIMIT ?", String.class, batchSize)) {
+                    compacted += Objects.requireNonNull(transactionTemplate.execute(status -> compactMovements(businessIdentifier)));
+                }
+                return compacted;
+            }).stream().mapToInt(Integer::intValue).sum();
+        } catch (DataAccessException | TransactionException e) {
+            logger.error("Error while manipulating data: " + e.getLocalizedMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * Method that adds the movements not compacted of a product to its quantity. Must be executed inside a transaction
+     *
+     * @param businessIdentifier business identifier of the product
+     * @return number of movements compacted
+     */
+    private int compactMovements(String businessIdentifier) {
+        lockProducts(Collections.singletonList(businessIdentifier));
+        List<Map<String, Object>> movements = getJdbcTemplate().queryForList("SELECT id, delta FROM stock_movement " +
+                "WHERE business_id = ? AND compacted = FALSE ORDER BY id LIMIT ?", businessIdentifier, batchSize);
+        if (movements.isEmpty()) {
+            return 0;
+        }
+        long total = movements.stream().mapToLong(movement -> ((Number) movement.get("delta")).longValue()).sum();
+        new NamedParameterJdbcTemplate(getJdbcTemplate()).update("UPDATE stock_movement SET compacted = TRUE WHERE id IN (:ids)",
+                Collections.singletonMap("ids", movements.stream().map(movement -> movement.get("id")).collect(Collectors.toList())));
+        getJdbcTemplate().update("UPDATE product SET quantity = quantity + ? WHERE business_id = ?", total, businessIdentifier);
+        return movements.size();
+    }
+
+    @Override
+    public boolean supportsReservations() {
+        return true;
+    }
+
+    /**
+     * Method that registers a reservation on the shard of its product. The product, and its counter slots, are locked while its
+     * available quantity is calculated, so concurrent reservations and decreases of the same product wait for each other. The
+     * increases of the stock ledger, that do not lock the product, are not waited for
+     *
+     * @param reservation reservation to register
+     * @param now         current instant, used to ignore the expired reservations
+     * @return true if the reservation was registered; false if the product does not exist, the available quantity does not
+     * cover it or on failure
+     */
+    @Override
+    public boolean insertReservation(Reservation reservation, Instant now) {
+        if (getJdbcTemplate() == null || transactionTemplate == null) {
+            logger.error("Invalid JDBC template instance");
+            return false;
+        }
+        String businessIdentifier = reservation.getProductBusinessKey();
+        try {
+            return Boolean.TRUE.equals(onOwnerShard(businessIdentifier, () -> transactionTemplate.execute(status -> {
+                lockProducts(Collections.singletonList(businessIdentifier));
+                getJdbcTemplate().queryForList("SELECT slot FROM quantity_slot WHERE business_id = ? ORDER BY slot FOR UPDATE", Integer.class, businessIdentifier);
+                Optional<Product> product = getJdbcTemplate().query(selectProduct() + " WHERE business_id = ?", rowMapper(), businessIdentifier)
+                        .stream().findFirst().flatMap(Function.identity());
+                if (product.isEmpty() || product.get().getQuantity() - findReservedQuantityOnShard(businessIdentifier, now) < reservation.getQuantity()) {
+                    return false;
+                }
+                return getJdbcTemplate().update(INSERT_RESERVATION, reservation.getIdentifier().toString(), businessIdentifier,
+                        reservation.getQuantity(), Timestamp.from(reservation.getExpiresOn())) == 1;
+            })));
+        } catch (DataAccessException | TransactionException e) {
+            logger.error("Error while manipulating data: " + e.getLocalizedMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Method that confirms a reservation: the reservation is removed and the quantity of its product is decreased, with the
+     * statements of {@link #changeQuantities(Map)}, on the same transaction. If the product cannot be decreased, the reservation
+     * is kept
+     *
+     * @param reservation reservation to confirm
+     * @param now         current instant; an expired reservation is not confirmed
+     * @return Optional with the product after the change; empty if the reservation does not exist or expired, the quantity
+     * would be negative or on failure
+     */
+    @Override
+    public Optional<Product> confirmReservation(Reservation reservation, Instant now) {
+        String businessIdentifier = reservation.getProductBusinessKey();
+        return onOwnerShard(businessIdentifier, () -> executeQuantityChange(new ProductKey(businessIdentifier), () ->
+                getJdbcTemplate().update("DELETE FROM stock_reservation WHERE id = ? AND expires_on > ?", reservation.getIdentifier().toString(), Timestamp.from(now)) == 1
+                        && applyChanges(Collections.singletonList(Map.entry(businessIdentifier, -reservation.getQuantity())))[0] == 1));
+    }
+
+    /**
+     * Method that removes a reservation, without changing the quantity of its product
+     *
+     * @param reservation reservation to remove
+     * @return true if the reservation was removed; false if it does not exist or on failure
+     */
+    @Override
+    public boolean deleteReservation(Reservation reservation) {
+        if (getJdbcTemplate() == null) {
+            logger.error("Invalid JDBC template instance");
+            return false;
+        }
+        try {
+            return onOwnerShard(reservation.getProductBusinessKey(), () ->
+                    getJdbcTemplate().update("DELETE FROM stock_reservation WHERE id = ?", reservation.getIdentifier().toString())) == 1;
+        } catch (DataAccessException e) {
+            logger.error("Error while manipulating data: " + e.getLocalizedMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Method that removes the reservations received that expired, with a statement for each chunk of the configured batch size,
+     * on the shard of their products
+     *
+     * @param reservations reservations to remove, if expired
+     * @param now          current instant
+     * @return number of reservations removed; the reservations removed before a failure
+     */
+    @Override
+    public int deleteExpiredReservations(Collection<Reservation> reservations, Instant now) {
+        if (getJdbcTemplate() == null) {
+            logger.error("Invalid JDBC template instance");
+            return 0;
+        }
+        List<Reservation> reservationList = new ArrayList<>(reservations);
+        int removed = 0;
+        try {
+            for (Map.Entry<Integer, List<Integer>> shardPositions : groupByShard(reservationList, Reservation::getProductBusinessKey).entrySet()) {
+                List<String> identifiers = shardPositions.getValue().stream().map(reservationList::get)
+                        .map(reservation -> reservation.getIdentifier().toString()).collect(Collectors.toList());
+                for (int start = 0; start < identifiers.size(); start += batchSize) {
+                    Map<String, Object> parameters = new HashMap<>();
+                    parameters.put("identifiers", identifiers.subList(start, Math.min(start + batchSize, identifiers.size())));
+                    parameters.put("now", Timestamp.from(now));
+                    Supplier<Integer> delete = () -> new NamedParameterJdbcTemplate(getJdbcTemplate())
+                            .update("DELETE FROM stock_reservation WHERE id IN (:identifiers) AND expires_on <= :now", parameters);
+                    removed += shardedDataSource == null ? delete.get() : DataSourceRouting.onShard(shardPositions.getKey(), delete);
+                }
+            }
+        } catch (DataAccessException e) {
+            logger.error("Error while manipulating data: " + e.getLocalizedMessage());
+        }
+        return removed;
+    }
+
+    /**
+     * Method that returns a reservation, searching every shard
+     *
+     * @param identifier identifier of the reservation
+     * @return Optional with the reservation; empty if it does not exist or on failure
+     */
+    @Override
+    public Optional<Reservation> findReservation(UUID identifier) {
+        if (getJdbcTemplate() == null) {
+            logger.error("Invalid JDBC template instance");
+            return Optional.empty();
+        }
+        try {
+            return onEveryShard(() -> getJdbcTemplate().query(SELECT_RESERVATION + " WHERE id = ?", this::mapReservation, identifier.toString()))
+                    .stream().flatMap(List::stream).findFirst();
+        } catch (DataAccessException e) {
+            logger.error("Error while manipulating data: " + e.getLocalizedMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Method that returns every reservation, from every shard
+     *
+     * @return list of reservations; empty on failure
+     */
+    @Override
+    public List<Reservation> findReservations() {
+        if (getJdbcTemplate() == null) {
+            logger.error("Invalid JDBC template instance");
+            return new ArrayList<>();
+        }
+        try {
+            return onEveryShard(() -> getJdbcTemplate().query(SELECT_RESERVATION, this::mapReservation))
+                    .stream().flatMap(List::stream).collect(Collectors.toList());
+        } catch (DataAccessException e) {
+            logger.error("Error while manipulating data: " + e.getLocalizedMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Method that returns the quantity held by the reservations of a product that did not expire, on the shard of the product
+     *
+     * @param businessIdentifier business identifier of the product
+     * @param now                current instant
+     * @return quantity reserved; 0 on failure
+     */
+    @Override
+    public int findReservedQuantity(String businessIdentifier, Instant now) {
+        if (getJdbcTemplate() == null) {
+            logger.error("Invalid JDBC template instance");
+            return 0;
+        }
+        try {
+            return onOwnerShard(businessIdentifier, () -> findReservedQuantityOnShard(businessIdentifier, now));
+        } catch (DataAccessException e) {
+            logger.error("Error while manipulating data: " + e.getLocalizedMessage());
+            return 0;
+        }
+    }
+
+    private int findReservedQuantityOnShard(String businessIdentifier, Instant now) {
+        Integer reserved = getJdbcTemplate().queryForObject("SELECT COALESCE(SUM(quantity), 0) FROM stock_reservation WHERE business_id = ? AND expires_on > ?",
+                Integer.class, businessIdentifier, Timestamp.from(now));
+        return reserved == null ? 0 : reserved;
+    }
+
+    private Reservation mapReservation(ResultSet resultSet, int rowNumber) throws SQLException {
+        return new Reservation(UUID.fromString(resultSet.getString("id")), resultSet.getString("business_id"), resultSet.getInt("quantity"),
+                resultSet.getTimestamp("expires_on").toInstant());
+    }
+
+    /**
+     * Method that changes the quantity of a list of products atomically, on a single transaction. Each product is changed with
+     * the same conditional statement of {@link #changeQuantity(ProductKey, int)}, on the order of their business identifiers, so
+     * concurrent movements lock the rows on the same order and cannot deadlock. If any change is not applied (the product does not
+     * exist or its quantity would be negative), the transaction is rolled back and no quantity is changed.
+     * The database driver must report the number of rows changed by each statement of a batch, as the MySQL and H2 drivers do.
+     * <p>
+     * With shards, a movement over products of several shards is not isolated (see {@link #moveOnShards(List, Map)})
+     *
+     * @param deltas quantity to be added (positive) or removed (negative), by business identifier
+     * @return result of each change, by business identifier; all true if the movement was applied
+     */
+    @Override
+    public Map<String, Boolean> moveQuantities(Map<String, Integer> deltas) {
+        List<Map.Entry<String, Integer>> sortedDeltas = new ArrayList<>(new TreeMap<>(deltas).entrySet());
+        Map<String, Boolean> resultsByIdentifier = new LinkedHashMap<>();
+        if (getJdbcTemplate() == null || transactionTemplate == null) {
+            logger.error("Invalid JDBC template instance");
+            sortedDeltas.forEach(delta -> resultsByIdentifier.put(delta.getKey(), false));
+            return resultsByIdentifier;
+        }
+
+        try {
+            if (shardedDataSource == null) {
+                applyMovement(sortedDeltas, resultsByIdentifier);
+            } else {
+                moveOnShards(sortedDeltas, resultsByIdentifier);
+            }
+        } finally {
+            productCache.invalidateAll(deltas.keySet());
+        }
+        return resultsByIdentifier;
+    }
+
+    /**
+     * Method that applies a movement on a single transaction, that is rolled back if any change is not applied
+     *
+     * @param sortedDeltas        changes of the movement, ordered by business identifier
+     * @param resultsByIdentifier map where the result of each change is placed
+     * @return true if the movement was applied; false otherwise
+     */
+    private boolean applyMovement(List<Map.Entry<String, Integer>> sortedDeltas, Map<String, Boolean> resultsByIdentifier) {
+        try {
+            return Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+                int[] counts = applyChanges(sortedDeltas);
+                boolean applied = true;
+                for (int index = 0; index < sortedDeltas.size(); index++) {
+                    resultsByIdentifier.put(sortedDeltas.get(index).getKey(), counts[index] == 1);
+                    applied &= counts[index] == 1;
+                }
+                if (!applied) {
+                    status.setRollbackOnly();
+                }
+                return applied;
+            }));
+        } catch (DataAccessException | TransactionException e) {
+            logger.error("Error while manipulating data: " + e.getLocalizedMessage());
+            sortedDeltas.forEach(delta -> resultsByIdentifier.put(delta.getKey(), false));
+            return false;
+        }
+    }
+
+    /**
+     * Method that applies a movement over the shards that own its products. Each shard applies its changes on its own
+     * transaction, on the order of the shards. If the changes of a shard are not applied, the changes already committed on the
+     * previous shards are reverted with the inverse changes, and the changes of the next shards are not attempted (their result
+     * is true, since they did not make the movement fail).
+     * <p>
+     * The movement is atomic on each shard, but not isolated: until it is applied (or reverted) on every shard, other requests
+     * may see only part of it. A change that cannot be reverted (the quantity was meanwhile removed by other request) is logged
+     *
+     * @param sortedDeltas        changes of the movement, ordered by business identifier
+     * @param resultsByIdentifier map where the result of each change is placed
+     */
+    private void moveOnShards(List<Map.Entry<String, Integer>> sortedDeltas, Map<String, Boolean> resultsByIdentifier) {
+        List<List<Map.Entry<String, Integer>>> committed = new ArrayList<>();
+        for (Map.Entry<Integer, List<Integer>> shardPositions : groupByShard(sortedDeltas, Map.Entry::getKey).entrySet()) {
+            List<Map.Entry<String, Integer>> shardDeltas = shardPositions.getValue().stream().map(sortedDeltas::get).collect(Collectors.toList());
+            if (DataSourceRouting.onShard(shardPositions.getKey(), () -> applyMovement(shardDeltas, resultsByIdentifier))) {
+                committed.add(shardDeltas);
+                continue;
+            }
+
+            for (List<Map.Entry<String, Integer>> committedDeltas : committed) {
+                List<Map.Entry<String, Integer>> inverseDeltas = committedDeltas.stream()
+                        .map(delta -> Map.entry(delta.getKey(), -delta.getValue())).collect(Collectors.toList());
+                int shard = shardedDataSource.shardOf(committedDeltas.get(0).getKey());
+                if (!DataSourceRouting.onShard(shard, () -> applyMovement(inverseDeltas, new HashMap<>()))) {
+                    logger.error("Unable to revert the movement of the products " + inverseDeltas.stream().map(Map.Entry::getKey)
+                            .collect(Collectors.joining(", ")) + " on shard " + shard);
+                }
+            }
+            sortedDeltas.forEach(delta -> resultsByIdentifier.putIfAbsent(delta.getKey(), true));
+            return;
+        }
+    }
+
+    /**
+     * Method that, given a key object, returns the corresponding object using the database identifier
+     *
+     * @param keyToSearch valid key object to search the entity
+     * @return Option that contains the entity, if such ID exists on the database
+     */
+    @Override
+    public Optional<Product> findById(ProductKey keyToSearch) {
+        if (getJdbcTemplate() != null) {
+            try {
+                return onEveryShard(() -> findOnShard(keyToSearch)).stream().flatMap(Optional::stream).findFirst();
+            } catch (DataAccessException e) {
+                logger.error("Error while manipulating data: " + e.getLocalizedMessage());
+                return Optional.empty();
+            }
+        } else {
+            logger.error("Invalid JDBC template instance");
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Method that reads a product from the database of the current shard, using the database identifier
+     *
+     * @param keyToSearch valid key object to search the entity
+     * @return Option that contains the entity, if such ID exists on the shard
+     */
+    private Optional<Product> findOnShard(ProductKey keyToSearch) {
+        try {
+            return getJdbcTemplate().queryForObject(selectProduct() + " WHERE id = ?", rowMapper(), databaseKeyParameter(keyToSearch.getDatabaseKey()));
+        } catch (EmptyResultDataAccessException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Method that, given a key object, returns the corresponding object using the business identifier. If the cache is enabled,
+     * the product is read from the cache and, if not cached, it is loaded from the primary database and cached (a replica could
+     * return a product older than the last invalidation)
+     *
+     * @param keyToSearch valid key object to search the entity
+     * @return Option that contains the entity, if such ID exists on the database
+     */
+    @Override
+    public Optional<Product> findByBusinessId(ProductKey keyToSearch) {
+        if (productCache.isEnabled()) {
+            return productCache.get(keyToSearch.getInternalKey(), () -> DataSourceRouting.onPrimary(() -> loadByBusinessId(keyToSearch)));
+        }
+        return loadByBusinessId(keyToSearch);
+    }
+
+    /**
+     * Method that reads a product from the database, using the business identifier
+     *
+     * @param keyToSearch valid key object to search the entity
+     * @return Option that contains the entity, if such ID exists on the database
+     */
+    private Optional<Product> loadByBusinessId(ProductKey keyToSearch) {
+        if (getJdbcTemplate() != null) {
+            try {
+                return onOwnerShard(keyToSearch.getInternalKey(),
+                        () -> getJdbcTemplate().queryForObject(selectProduct() + " WHERE business_id = ?", rowMapper(), keyToSearch.getInternalKey()));
+            } catch (DataAccessException e) {
+                logger.error("Error while manipulating data: " + e.getLocalizedMessage());
+                return Optional.empty();
+            }
+        } else {
+            logger.error("Invalid JDBC template instance");
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Method that returns the products with the business identifiers received. The identifiers are searched in chunks with the configured
+     * batch size, on the shard that owns them
+     *
+     * @param businessIdentifiers business identifiers to search
+     * @return list with the products found, on no particular order; empty on failure
+     */
+    @Override
+    public List<Product> findByBusinessIds(Collection<String> businessIdentifiers) {
+        List<Product> result = new ArrayList<>();
+        if (getJdbcTemplate() != null) {
+            NamedParameterJdbcTemplate namedTemplate = new NamedParameterJdbcTemplate(getJdbcTemplate());
+            List<String> identifiers = new ArrayList<>(new LinkedHashSet<>(businessIdentifiers));
+            try {
+                for (Map.Entry<Integer, List<Integer>> shardPositions : groupByShard(identifiers, Function.identity()).entrySet()) {
+                    List<String> shardIdentifiers = shardPositions.getValue().stream().map(identifiers::get).collect(Collectors.toList());
+                    DataSourceRouting.onShard(shardPositions.getKey(), () -> {
+                        for (int start = 0; start < shardIdentifiers.size(); start += batchSize) {
+                            Map<String, Object> parameters = Collections.singletonMap("identifiers", shardIdentifiers.subList(start, Math.min(start + batchSize, shardIdentifiers.size())));
+                            namedTemplate.query(selectProduct() + " WHERE business_id IN (:identifiers)", parameters, rowMapper())
+                                    .forEach(product -> product.ifPresent(result::add));
+                        }
+                        return null;
+                    });
+                }
+            } catch (DataAccessException e) {
+                logger.error("Error while manipulating data: " + e.getLocalizedMessage());
+                return new ArrayList<>();
+            }
+        } else {
+            logger.error("Invalid JDBC template instance");
+        }
+        return result;
+    }
+
+    /**
+     * Method that returns the list of business identifiers on the database, ordered. The list is bounded by the configured
+     * maximum size, so only the first identifiers are returned on large catalogs; {@link #findIdentifiersAfter(String, int)} returns all of them
+     *
+     * @return list of business identifier on database
+     */
+    @Override
+    public List<String> findListOfIdentifiers() {
+        return findIdentifiersAfter("", maximumListSize);
+    }
+
+    /**
+     * Method that returns a page of business identifiers, ordered, that come after an identifier. Only the business identifier
+     * is read, following the order of its index, so each page costs the same regardless of its position.
+     * <p>
+     * With shards, a page is read from every shard, in parallel, and the pages are merged. The merge compares the identifiers as
+     * Java strings, so the business_id column of the shards must use a binary collation for the pages to be consistent
+     *
+     * @param after identifier after which the page starts; empty to start on the first identifier
+     * @param limit maximum number of identifiers to return
+     * @return list of business identifiers; empty on failure
+     */
+    @Override
+    public List<String> findIdentifiersAfter(String after, int limit) {
+        if (getJdbcTemplate() != null) {
+            try {
+                return onEveryShard(() -> findIdentifiersOnShard(after, limit)).stream().flatMap(List::stream)
+                        .sorted().limit(limit).collect(Collectors.toList());
+            } catch (DataAccessException e) {
+                logger.error("Error while manipulating data: " + e.getLocalizedMessage());
+                return new ArrayList<>();
+            }
+        } else {
+            logger.error("Invalid JDBC template instance");
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Method that returns a page of business identifiers of the current shard, ordered, that come after an identifier
+     *
+     * @param after identifier after which the page starts; empty to start on the first identifier
+     * @param limit maximum number of identifiers to return
+     * @return list of business identifiers
+     */
+    private List<String> findIdentifiersOnShard(String after, int limit) {
+        if (after.isEmpty()) {
+            return getJdbcTemplate().queryForList("SELECT business_id FROM product ORDER BY business_id LIMIT ?", String.class, limit);
+        }
+        return getJdbcTemplate().queryForList("SELECT business_id FROM product WHERE business_id > ? ORDER BY business_id LIMIT ?", String.class, after, limit);
+    }
+
+    /**
+     * Method that reads every product with a forward-only cursor. The business identifiers of each shard are split in ranges
+     * of about the same number of products, and each range is read on its own thread and connection. The replica routing of the
+     * current thread is kept by the threads of the ranges. The ranges are limited to the connections of the pool minus the
+     * reserved connections, and the threads of the ranges are shared by the concurrent reads, so the ranges of a read may wait for
+     * the ranges of the others, but never for a connection
+     *
+     * @param ranges   number of ranges of business identifiers read at the same time, on each shard, up to the maximum
+     * @param consumer consumer of the products. Must be thread-safe if more than one range is read
+     * @return number of products read; -1 on failure
+     */
+    @Override
+    public long forEachProduct(int ranges, Consumer<Product> consumer) {
+        if (getJdbcTemplate() == null) {
+            logger.error("Invalid JDBC template instance");
+            return -1;
+        }
+
+        boolean replicaAllowed = DataSourceRouting.isReplicaAllowed();
+        List<Supplier<Long>> scans = new ArrayList<>();
+        try {
+            int shardCount = shardedDataSource == null ? 1 : shardedDataSource.getShardCount();
+            for (int shard = 0; shard < shardCount; shard++) {
+                int selectedShard = shard;
+                List<String> boundaries = onShard(selectedShard, () -> findRangeBoundaries(Math.min(ranges, maximumRanges)));
+                for (int range = 0; range <= boundaries.size(); range++) {
+                    String from = range == 0 ? null : boundaries.get(range - 1);
+                    String to = range == boundaries.size() ? null : boundaries.get(range);
+                    Supplier<Long> scan = () -> onShard(selectedShard, () -> scanRange(from, to, consumer));
+                    scans.add(replicaAllowed ? () -> DataSourceRouting.onReplica(scan) : scan);
+                }
+            }
+            if (scans.size() == 1) {
+                return scans.get(0).get();
+            }
+            return executeScans(scans);
+        } catch (DataAccessException e) {
+            logger.error("Error while manipulating data: " + e.getLocalizedMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * Method that reads the ranges at the same time, each one on its own thread. If a range fails, the others are cancelled
+     *
+     * @param scans reads of the ranges
+     * @return number of products read
+     * @throws RuntimeException the exception of the range that failed, on the database or on the consumer
+     */
+    private long executeScans(List<Supplier<Long>> scans) {
+        List<Future<Long>> futures = scans.stream().map(scan -> rangeExecutor.submit(scan::get)).collect(Collectors.toList());
+        long count = 0;
+        try {
+            for (Future<Long> future : futures) {
+                count += future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            futures.forEach(future -> future.cancel(true));
+            throw new DataAccessResourceFailureException("Interrupted while reading the products", e);
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new DataAccessResourceFailureException("Error while reading the products", e.getCause());
+        }
+        return count;
+    }
+
+    /**
+     * Method that splits the business identifiers of the current shard in ranges with about the same number of products. Each
+     * boundary is searched after the previous one, following the index of the business identifiers, so the boundaries are
+     * ordered by the collation of the database even if products are created meanwhile
+     *
+     * @param ranges number of ranges
+     * @return first business identifier of each range, except the first range; empty for a single range
+     */
+    private List<String> findRangeBoundaries(int ranges) {
+        List<String> boundaries = new ArrayList<>();
+        if (ranges <= 1) {
+            return boundaries;
+        }
+        Long count = getJdbcTemplate().queryForObject("SELECT COUNT(*) FROM product", Long.class);
+        long step = count == null ? 0 : count / ranges;
+        if (step == 0) {
+            return boundaries;
+        }
+        for (int range = 1; range < ranges; range++) {
+            List<String> boundary = boundaries.isEmpty() ?
+                    getJdbcTemplate().queryForList("SELECT business_id FROM product ORDER BY business_id LIMIT 1 OFFSET ?", String.class, step) :
+                    getJdbcTemplate().queryForList("SELECT business_id FROM product WHERE business_id > ? ORDER BY business_id LIMIT 1 OFFSET ?",
+                            String.class, boundaries.get(boundaries.size() - 1), step - 1);
+            if (boundary.isEmpty()) {
+                break;
+            }
+            boundaries.add(boundary.get(0));
+        }
+        return boundaries;
+    }
+
+    /**
+     * Method that reads the products of a range of business identifiers, on the current shard, with a forward-only cursor
+     *
+     * @param from     first business identifier of the range; null to start on the first product
+     * @param to       business identifier after the range; null to end on the last product
+     * @param consumer consumer of the products
+     * @return number of products read
+     */
+    private long scanRange(String from, String to, Consumer<Product> consumer) {
+        List<String> parameters = new ArrayList<>(2);
+        StringBuilder query = new StringBuilder(selectProduct());
+        if (from != null) {
+            query.append(" WHERE business_id >= ?");
+            parameters.add(from);
+        }
+        if (to != null) {
+            query.append(from != null ? " AND" : " WHERE").append(" business_id < ?");
+            parameters.add(to);
+        }
+        IndexedRowMapper<Optional<Product>> mapper = rowMapper();
+        long[] count = {0};
+        streamQuery(query.toString(), parameters, resultSet -> mapper.mapRow(resultSet, 0).ifPresent(product -> {
+            consumer.accept(product);
+            count[0]++;
+        }));
+        return count[0];
+    }
+
+    /**
+     * Method that reads the business identifier, the version and the quantity of every product, shard by shard, with a
+     * forward-only cursor. The quantity includes the counter slots and, with the stock ledger, the movements not compacted yet
+     *
+     * @param consumer consumer of the business identifier, the version and the quantity of each product
+     * @return number of products read; -1 on failure
+     */
+    @Override
+    public long forEachVersion(VersionConsumer consumer) {
+        if (getJdbcTemplate() == null) {
+            logger.error("Invalid JDBC template instance");
+            return -1;
+        }
+
+        long[] count = {0};
+        try {
+            int shardCount = shardedDataSource == null ? 1 : shardedDataSource.getShardCount();
+            for (int shard = 0; shard < shardCount; shard++) {
+                onShard(shard, () -> {
+                    streamQuery(ledgerEnabled ? SELECT_VERSION_FROM_LEDGER : SELECT_VERSION, Collections.emptyList(), resultSet -> {
+                        consumer.accept(resultSet.getString(1), resultSet.getLong(2), resultSet.getInt(3));
+                        count[0]++;
+                    });
+                    return null;
+                });
+            }
+        } catch (DataAccessException e) {
+            logger.error("Error while manipulating data: " + e.getLocalizedMessage());
+            return -1;
+        }
+        return count[0];
+    }
+
+    /**
+     * Method that executes a query with a forward-only cursor, that fetches the rows by blocks (or streams them, on MySQL), and
+     * gives each row to a handler as it is fetched
+     *
+     * @param query      query to execute
+     * @param parameters text parameters of the query
+     * @param handler    handler of each row
+     */
+    private void streamQuery(String query, List<String> parameters, RowCallbackHandler handler) {
+        getJdbcTemplate().query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(streamingResults ? Integer.MIN_VALUE : fetchSize);
+            for (int index = 0; index < parameters.size(); index++) {
+                statement.setString(index + 1, parameters.get(index));
+            }
+            return statement;
+        }, handler);
+    }
+
+    /**
+     * Method that executes an operation on a shard. Without shards, it is executed on the database
+     *
+     * @param shard     index of the shard
+     * @param operation operation to execute
+     * @param <T>       Result class
+     * @return result of the operation
+     */
+    private <T> T onShard(int shard, Supplier<T> operation) {
+        return shardedDataSource == null ? operation.get() : DataSourceRouting.onShard(shard, operation);
+    }
+
+    /**
+     * Method that executes an operation on the shard that owns a product. Without shards, it is executed on the database
+     *
+     * @param businessIdentifier business identifier of the product
+     * @param operation          operation to execute
+     * @param <T>                Result class
+     * @return result of the operation
+     */
+    private <T> T onOwnerShard(String businessIdentifier, Supplier<T> operation) {
+        if (shardedDataSource == null) {
+            return operation.get();
+        }
+        return DataSourceRouting.onShard(shardedDataSource.shardOf(businessIdentifier), operation);
+    }
+
+    /**
+     * Method that executes an operation on every shard, active and retired, in parallel. The replica and primary routing of the
+     * current thread is not used by the operations. Without shards, it is executed on the database
+     *
+     * @param operation operation to execute
+     * @param <T>       Result class
+     * @return results of the operation, on the order of the shards
+     * @throws DataAccessException if the operation fails on any shard
+     */
+    private <T> List<T> onEveryShard(Supplier<T> operation) {
+        if (shardedDataSource == null) {
+            return Collections.singletonList(operation.get());
+        }
+
+        List<Future<T>> futures = new ArrayList<>();
+        for (int shard = 0; shard < shardedDataSource.getShardCount(); shard++) {
+            int selectedShard = shard;
+            futures.add(shardExecutor.submit(() -> DataSourceRouting.onShard(selectedShard, operation)));
+        }
+        List<T> results = new ArrayList<>();
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            futures.forEach(future -> future.cancel(true));
+            throw new DataAccessResourceFailureException("Interrupted while reading the shards", e);
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            if (e.getCause() instanceof DataAccessException) {
+                throw (DataAccessException) e.getCause();
+            }
+            throw new DataAccessResourceFailureException("Error while reading the shards", e.getCause());
+        }
+        return results;
+    }
+
+    /**
+     * Method that groups the positions of a list of items by the shard that owns each item. Without shards, all the items
+     * belong to the first shard
+     *
+     * @param items              items to group
+     * @param businessIdentifier function that extracts the business identifier of the product of an item
+     * @param <T>                Item class
+     * @return positions of the items, by shard, ordered by shard
+     */
+    private <T> SortedMap<Integer, List<Integer>> groupByShard(List<T> items, Function<T, String> businessIdentifier) {
+        SortedMap<Integer, List<Integer>> positions = new TreeMap<>();
+        for (int index = 0; index < items.size(); index++) {
+            int shard = shardedDataSource == null ? 0 : shardedDataSource.shardOf(businessIdentifier.apply(items.get(index)));
+            positions.computeIfAbsent(shard, key -> new ArrayList<>()).add(index);
+        }
+        return positions;
+    }
+
+    /**
+     * Row mapper of the product table
+     */
+    private class ProductRowMapper extends IndexedRowMapper<Optional<Product>> {
+
+        private static final int ID = 0;
+        private static final int BUSINESS_ID = 1;
+        private static final int NAME = 2;
+        private static final int DESCRIPTION = 3;
+        private static final int QUANTITY = 4;
+        private static final int VERSION = 5;
+
+        ProductRowMapper() {
+            super("product", "id", "business_id", "name", "description", "quantity", "version");
+        }
+
+        @Override
+        protected Optional<Product> mapRow(ResultSet resultSet, int[] positions) throws SQLException {
+            try {
+                UUID databaseID;
+                if (binaryKeys) {
+                    databaseID = DomainKey.convertBytesToUUID(positions[ID] > 0 ? resultSet.getBytes(positions[ID]) : null);
+                } else {
+                    databaseID = DomainKey.convertStringToUUID(positions[ID] > 0 ? resultSet.getString(positions[ID]) : "");
+                }
+                String productID = positions[BUSINESS_ID] > 0 ? resultSet.getString(positions[BUSINESS_ID]) : "";
+                ProductKey key = new ProductKey(databaseID, productID);
+
+                String name = positions[NAME] > 0 ? resultSet.getString(positions[NAME]) : "";
+                String description = positions[DESCRIPTION] > 0 ? resultSet.getString(positions[DESCRIPTION]) : "";
+                ProductInformation information = new ProductInformation(name, description);
+
+                int quantityNumber = positions[QUANTITY] > 0 ? resultSet.getInt(positions[QUANTITY]) : -1;
+                Quantity quantity = new Quantity(quantityNumber);
+
+                long version = positions[VERSION] > 0 ? resultSet.getLong(positions[VERSION]) : 0;
+
+                return Optional.of(new Product(key, information, quantity, version));
+            } catch (IllegalArgumentException e) {
+                logger.error("Error while mapping Product: " + e.getLocalizedMessage());
+                return Optional.empty();
+            }
         }
-        return result;
     }
 }
@@ -0,0 +1,139 @@
+package hrtech.bigmanager.invenhelper.repository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.jdbc.datasource.init.ScriptUtils;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Component that applies the versioned schema migrations on startup, before any repository uses the database.
+ * <p>
+ * Migrations are SQL scripts named V{version}__{description}.sql. The scripts already applied are registered on the
+ * schema_version table, so each one is executed only once. A location may contain the {vendor} placeholder, that is
+ * replaced by the database name (for example, mysql or h2), for scripts that are specific to a database. On the sharded
+ * mode, every shard is migrated
+ */
+@Component
+@Profile("!edge")
+public class SchemaMigrationRunner implements InitializingBean {
+
+    private static final Pattern MIGRATION_NAME = Pattern.compile("V(\\d+)__(.+)\\.sql");
+
+    private final Logger logger = LoggerFactory.getLogger(SchemaMigrationRunner.class);
+    private DataSource dataSource;
+    private boolean enabled;
+    private List<String> locations;
+
+    @Autowired
+    public void setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    @Value("${invenhelper.migration.enabled:true}")
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Value("${invenhelper.migration.locations:classpath:db/migration}")
+    public void setLocations(List<String> locations) {
+        this.locations = locations;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (enabled && dataSource instanceof ShardedDataSource) {
+            ShardedDataSource shardedDataSource = (ShardedDataSource) dataSource;
+            for (int shard = 0; shard < shardedDataSource.getShardCount(); shard++) {
+                migrate(shardedDataSource.getShard(shard));
+            }
+        } else if (enabled) {
+            migrate(dataSource);
+        } else {
+            logger.info("Schema migrations disabled");
+        }
+    }
+
+    /**
+     * Method that applies the pending migrations on a database
+     *
+     * @param target database to migrate
+     * @return number of migrations applied
+     * @throws IllegalStateException if a migration cannot be read or fails
+     */
+    public int migrate(DataSource target) {
+        JdbcTemplate template = new JdbcTemplate(target);
+        template.execute("CREATE TABLE IF NOT EXISTS schema_version (version INT NOT NULL, description VARCHAR(255) NOT NULL, " +
+                "installed_on TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, PRIMARY KEY (version))");
+        Set<Integer> applied = new HashSet<>(template.queryForList("SELECT version FROM schema_version", Integer.class));
+
+        int count = 0;
+        for (Map.Entry<Integer, Resource> migration : findMigrations(vendorOf(template)).entrySet()) {
+            if (applied.contains(migration.getKey())) {
+                continue;
+            }
+            String description = describe(migration.getValue());
+            logger.info("Applying schema migration " + migration.getKey() + ": " + description);
+            Connection connection = DataSourceUtils.getConnection(target);
+            try {
+                ScriptUtils.executeSqlScript(connection, migration.getValue());
+            } finally {
+                DataSourceUtils.releaseConnection(connection, target);
+            }
+            template.update("INSERT INTO schema_version (version, description) VALUES (?, ?)", migration.getKey(), description);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Method that finds the migration scripts on the configured locations
+     *
+     * @param vendor database name, to replace on the locations
+     * @return migrations sorted by version
+     * @throws IllegalStateException if the locations cannot be read or two scripts have the same version
+     */
+    private SortedMap<Integer, Resource> findMigrations(String vendor) {
+        SortedMap<Integer, Resource> migrations = new TreeMap<>();
+        PathMatchingResourcePatternResolver resolver = new PathMatchingResourcePatternResolver();
+        for (String location : locations) {
+            String path = location.replace("{vendor}", vendor);
+            try {
+                for (Resource resource : resolver.getResources(path + "/V*__*.sql")) {
+                    Matcher matcher = MIGRATION_NAME.matcher(Objects.requireNonNull(resource.getFilename()));
+                    if (matcher.matches() && migrations.put(Integer.parseInt(matcher.group(1)), resource) != null) {
+                        throw new IllegalStateException("Duplicated schema migration version: " + matcher.group(1));
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Error while reading schema migrations from " + path, e);
+            }
+        }
+        return migrations;
+    }
+
+    private String describe(Resource resource) {
+        Matcher matcher = MIGRATION_NAME.matcher(Objects.requireNonNull(resource.getFilename()));
+        return matcher.matches() ? matcher.group(2).replace('_', ' ') : resource.getFilename();
+    }
+
+    private String vendorOf(JdbcTemplate template) {
+        String vendor = template.execute((ConnectionCallback<String>) connection -> connection.getMetaData().getDatabaseProductName());
+        return vendor == null ? "" : vendor.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,173 @@
+package hrtech.bigmanager.invenhelper.repository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Component that moves the products that are not on the shard that owns them, after the list of shards changes.
+ * <p>
+ * Each shard is read in pages, ordered by business identifier. The products owned by other shard (and all the products of the
+ * retired shards) are copied to their owner, with their counter slots and reservations, and deleted from the shard where they
+ * were. A product that already exists on its owner is kept on both shards and logged, to be solved manually. A product that
+ * cannot be copied or deleted is kept where it was, and logged. The products should not be changed while the shards are
+ * rebalanced, since the repository searches a product only on its owner.
+ * <p>
+ * The movements of the stock ledger are not moved: the pending ones are compacted on startup, before the rebalance, and the
+ * history of a product moved stays on its previous shard
+ */
+@Component
+@Profile("!edge")
+public class ShardRebalancer implements ApplicationRunner {
+
+    private static final String INSERT_ROW = "INSERT INTO product (id, business_id, name, description, quantity, version, counter_slots) VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+    private final Logger logger = LoggerFactory.getLogger(ShardRebalancer.class);
+    private DataSource dataSource;
+    private boolean rebalanceOnStartup;
+    private int batchSize;
+
+    @Autowired
+    public void setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    @Value("${invenhelper.datasource.rebalance-on-startup:false}")
+    public void setRebalanceOnStartup(boolean rebalanceOnStartup) {
+        this.rebalanceOnStartup = rebalanceOnStartup;
+    }
+
+    @Value("${invenhelper.repository.batch-size:500}")
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (rebalanceOnStartup) {
+            rebalance();
+        }
+    }
+
+    /**
+     * Method that moves every product to the shard that owns it
+     *
+     * @return number of products moved; 0 if the data source is not sharded
+     */
+    public int rebalance() {
+        if (!(dataSource instanceof ShardedDataSource)) {
+            logger.info("The data source is not sharded, there is nothing to rebalance");
+            return 0;
+        }
+
+        ShardedDataSource shardedDataSource = (ShardedDataSource) dataSource;
+        int moved = 0;
+        for (int shard = 0; shard < shardedDataSource.getShardCount(); shard++) {
+            moved += rebalanceShard(shardedDataSource, shard);
+        }
+        logger.info("Shards rebalanced: " + moved + " products moved");
+        return moved;
+    }
+
+    /**
+     * Method that moves the products of a shard that are owned by other shards
+     *
+     * @param shardedDataSource sharded data source
+     * @param shard             index of the shard to read
+     * @return number of products moved
+     */
+    private int rebalanceShard(ShardedDataSource shardedDataSource, int shard) {
+        DataSource shardDataSource = shardedDataSource.getShard(shard);
+        JdbcTemplate source = new JdbcTemplate(shardDataSource);
+        int moved = 0;
+        String after = "";
+        List<Map<String, Object>> page;
+        do {
+            page = source.queryForList("SELECT id, business_id, name, description, quantity, version, counter_slots FROM product " +
+                    "WHERE business_id > ? ORDER BY business_id LIMIT ?", after, batchSize);
+            for (Map<String, Object> row : page) {
+                String businessIdentifier = (String) row.get("business_id");
+                int owner = shardedDataSource.shardOf(businessIdentifier);
+                if (owner != shard && moveRow(row, shardDataSource, shardedDataSource.getShard(owner))) {
+                    moved++;
+                }
+                after = businessIdentifier;
+            }
+        } while (page.size() == batchSize);
+        return moved;
+    }
+
+    /**
+     * Method that copies a product, its counter slots and its reservations, to its owner and deletes them from the shard where
+     * they were. The copy and the deletion are each executed on a transaction of their shard; if the deletion fails, the copy is
+     * deleted from the owner, so the product is kept only where it was
+     *
+     * @param row    columns of the product
+     * @param source shard where the product is
+     * @param owner  shard that owns the product
+     * @return true if the product was moved; false otherwise
+     */
+    private boolean moveRow(Map<String, Object> row, DataSource source, DataSource owner) {
+        String businessIdentifier = (String) row.get("business_id");
+        JdbcTemplate sourceTemplate = new JdbcTemplate(source);
+        JdbcTemplate ownerTemplate = new JdbcTemplate(owner);
+        TransactionTemplate ownerTransaction = new TransactionTemplate(new DataSourceTransactionManager(owner));
+        try {
+            List<Map<String, Object>> slots = sourceTemplate.queryForList("SELECT slot, quantity FROM quantity_slot WHERE business_id = ?", businessIdentifier);
+            List<Map<String, Object>> reservations = sourceTemplate.queryForList("SELECT id, quantity, expires_on FROM stock_reservation " +
+                    "WHERE business_id = ?", businessIdentifier);
+            ownerTransaction.executeWithoutResult(status -> {
+                ownerTemplate.update(INSERT_ROW, row.get("id"), businessIdentifier, row.get("name"), row.get("description"), row.get("quantity"),
+                        row.get("version"), row.get("counter_slots"));
+                ownerTemplate.batchUpdate("INSERT INTO quantity_slot (business_id, slot, quantity) VALUES (?, ?, ?)", slots.stream()
+                        .map(slot -> new Object[]{businessIdentifier, slot.get("slot"), slot.get("quantity")}).collect(Collectors.toList()));
+                ownerTemplate.batchUpdate("INSERT INTO stock_reservation (id, business_id, quantity, expires_on) VALUES (?, ?, ?, ?)", reservations.stream()
+                        .map(reservation -> new Object[]{reservation.get("id"), businessIdentifier, reservation.get("quantity"), reservation.get("expires_on")})
+                        .collect(Collectors.toList()));
+            });
+        } catch (DataAccessException | TransactionException e) {
+            logger.error("Unable to move the product " + businessIdentifier + " to its shard, it is kept where it is: " + e.getLocalizedMessage());
+            return false;
+        }
+        try {
+            new TransactionTemplate(new DataSourceTransactionManager(source)).executeWithoutResult(status -> deleteRows(sourceTemplate, businessIdentifier));
+            return true;
+        } catch (DataAccessException | TransactionException e) {
+            logger.error("Unable to delete the product " + businessIdentifier + " from its previous shard, it is kept there: " + e.getLocalizedMessage());
+        }
+        try {
+            ownerTransaction.executeWithoutResult(status -> deleteRows(ownerTemplate, businessIdentifier));
+        } catch (DataAccessException | TransactionException e) {
+            logger.error("Unable to delete the copy of the product " + businessIdentifier + " from its shard, it is kept on both shards: " +
+                    e.getLocalizedMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Method that deletes a product, its counter slots and its reservations, from a shard
+     *
+     * @param shard              template of the shard
+     * @param businessIdentifier business identifier of the product
+     */
+    private void deleteRows(JdbcTemplate shard, String businessIdentifier) {
+        shard.update("DELETE FROM quantity_slot WHERE business_id = ?", businessIdentifier);
+        shard.update("DELETE FROM stock_reservation WHERE business_id = ?", businessIdentifier);
+        shard.update("DELETE FROM product WHERE business_id = ?", businessIdentifier);
+    }
+}
@@ -0,0 +1,134 @@
+package hrtech.bigmanager.invenhelper.repository;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Data source that sends each operation to the shard selected with {@link DataSourceRouting#onShard(int, java.util.function.Supplier)}.
+ * <p>
+ * Each product belongs to one of the active shards, chosen by a consistent hash of its business identifier (jump consistent
+ * hash), so adding a shard at the end of the list only moves about 1/N of the products. Retired shards do not own products;
+ * they are only kept until {@link ShardRebalancer} moves their products to the active shards
+ */
+public class ShardedDataSource extends AbstractRoutingDataSource implements DisposableBean {
+
+    private final List<DataSource> shards;
+    private final int activeShards;
+
+    /**
+     * Default constructor
+     *
+     * @param activeShards  shards that own the products, on a fixed order. They are closed with this data source
+     * @param retiredShards shards being removed, that are placed after the active ones. They are closed with this data source
+     */
+    public ShardedDataSource(List<DataSource> activeShards, List<DataSource> retiredShards) {
+        if (activeShards.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is needed");
+        }
+        this.shards = new ArrayList<>(activeShards);
+        this.shards.addAll(retiredShards);
+        this.activeShards = activeShards.size();
+        Map<Object, Object> targets = new HashMap<>();
+        for (int index = 0; index < shards.size(); index++) {
+            targets.put(index, shards.get(index));
+        }
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(shards.get(0));
+        setLenientFallback(false);
+        afterPropertiesSet();
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return DataSourceRouting.currentShard();
+    }
+
+    /**
+     * Method that returns the number of shards that own products
+     *
+     * @return number of active shards
+     */
+    public int getActiveShards() {
+        return activeShards;
+    }
+
+    /**
+     * Method that returns the number of shards, active and retired
+     *
+     * @return number of shards
+     */
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    /**
+     * Method that returns the data source of a shard
+     *
+     * @param shard index of the shard
+     * @return data source of the shard
+     */
+    public DataSource getShard(int shard) {
+        return shards.get(shard);
+    }
+
+    /**
+     * Method that finds the shard that owns a product
+     *
+     * @param businessIdentifier business identifier of the product
+     * @return index of the active shard that owns the product
+     */
+    public int shardOf(String businessIdentifier) {
+        return jumpConsistentHash(fnv1a(businessIdentifier), activeShards);
+    }
+
+    /**
+     * Method that computes the 64 bits FNV-1a hash of the UTF-8 bytes of a text
+     *
+     * @param text text to hash
+     * @return hash of the text
+     */
+    private static long fnv1a(String text) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte value : text.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= value & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Method that maps a key to one of the buckets, with the jump consistent hash algorithm (Lamping and Veach)
+     *
+     * @param key     key to map
+     * @param buckets number of buckets
+     * @return bucket of the key, between 0 and buckets - 1
+     */
+    private static int jumpConsistentHash(long key, int buckets) {
+        long bucket = -1;
+        long next = 0;
+        while (next < buckets) {
+            bucket = next;
+            key = key * 2862933555777941757L + 1;
+            next = (long) ((bucket + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+        return (int) bucket;
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        for (DataSource shard : shards) {
+            if (shard instanceof Closeable) {
+                ((Closeable) shard).close();
+            }
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package hrtech.bigmanager.invenhelper.repository;
+
+import hrtech.bigmanager.invenhelper.model.Product;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary snapshot file of products, written by the {@link hrtech.bigmanager.invenhelper.service.ProductSnapshot} and by the
+ * {@link EdgeProductRepository}.
+ * <p>
+ * The file starts with a header (magic number, format and the instant it was written). Each product is written with its database
+ * key as 16 bytes, its business identifier, name and description as UTF-8 strings prefixed by their length, and its quantity and
+ * version as variable-length integers. The file ends with the number of products and the CRC-32 of the previous bytes.
+ * <p>
+ * The file is written on a temporary file, forced to the disk, and moved over the previous snapshot, so a snapshot is never
+ * partially written. It is read mapped on memory, so it is limited to 2GB, and refused if the checksum does not match
+ */
+public final class SnapshotFile {
+
+    private static final int SNAPSHOT_MAGIC = 0x494E5650;
+    private static final int SNAPSHOT_FORMAT = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int TRAILER_SIZE = 16;
+
+    private SnapshotFile() {
+    }
+
+    /**
+     * Method that writes a snapshot file with the products written by the contents
+     *
+     * @param file     snapshot file
+     * @param contents writes the products, returning their number
+     * @return number of products written
+     * @throws IOException if the file cannot be written, or the contents fail
+     */
+    public static long write(Path file, Contents contents) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        CRC32 checksum = new CRC32();
+        long count;
+        try (FileOutputStream fileStream = new FileOutputStream(temporary.toFile());
+             DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(fileStream, checksum), 1 << 16))) {
+            output.writeInt(SNAPSHOT_MAGIC);
+            output.writeInt(SNAPSHOT_FORMAT);
+            output.writeLong(System.currentTimeMillis());
+            count = contents.writeTo(new Writer(output));
+            output.flush();
+            long value = checksum.getValue();
+            output.writeLong(count);
+            output.writeLong(value);
+            output.flush();
+            fileStream.getFD().sync();
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    /**
+     * Method that reads the products of a snapshot file, mapped on memory, after verifying its checksum
+     *
+     * @param file   snapshot file
+     * @param reader receives each product read
+     * @return number of products read
+     * @throws IOException if the file cannot be read, is not a snapshot or is corrupted
+     */
+    public static long read(Path file, Reader reader) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE + TRAILER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("Invalid snapshot size: " + size);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            long count = buffer.getLong((int) size - TRAILER_SIZE);
+            long expectedChecksum = buffer.getLong((int) size - TRAILER_SIZE + 8);
+            CRC32 checksum = new CRC32();
+            checksum.update(buffer.duplicate().limit((int) size - TRAILER_SIZE));
+            if (checksum.getValue() != expectedChecksum) {
+                throw new IOException("Snapshot checksum does not match");
+            }
+            if (buffer.getInt() != SNAPSHOT_MAGIC || buffer.getInt() != SNAPSHOT_FORMAT) {
+                throw new IOException("Invalid snapshot file: " + file);
+            }
+            buffer.getLong();
+            buffer.limit((int) size - TRAILER_SIZE);
+
+            for (long record = 0; record < count; record++) {
+                long mostBits = buffer.getLong();
+                long leastBits = buffer.getLong();
+                byte[] businessIdentifier = readBytes(buffer);
+                byte[] name = readBytes(buffer);
+                byte[] description = readBytes(buffer);
+                int quantity = (int) readVarLong(buffer);
+                long version = readVarLong(buffer);
+                reader.read(mostBits, leastBits, businessIdentifier, name, description, quantity, version);
+            }
+            if (buffer.hasRemaining()) {
+                throw new IOException("Snapshot with more data than products");
+            }
+            return count;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Invalid snapshot record: " + e.getLocalizedMessage(), e);
+        }
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer) {
+        int length = (int) readVarLong(buffer);
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid string length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Method that writes a non-negative integer with 7 bits per byte, the lowest first, with the highest bit set on every byte
+     * except the last
+     *
+     * @param output stream to write
+     * @param value  non-negative value
+     * @throws IOException if the value cannot be written
+     */
+    static void writeVarLong(OutputStream output, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            output.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        output.write((int) value);
+    }
+
+    /**
+     * Method that reads an integer written by {@link #writeVarLong(OutputStream, long)}
+     *
+     * @param buffer buffer to read
+     * @return value read
+     * @throws IllegalArgumentException if the value has more than 64 bits
+     */
+    static long readVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte current = buffer.get();
+            value |= (long) (current & 0x7F) << shift;
+            if (current >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Variable-length integer too long");
+    }
+
+    /**
+     * Writer of the products of a snapshot
+     */
+    public static final class Writer {
+
+        private final DataOutputStream output;
+
+        private Writer(DataOutputStream output) {
+            this.output = output;
+        }
+
+        /**
+         * Method that writes a product
+         *
+         * @param product product to write
+         * @throws IOException if the product cannot be written
+         */
+        public void write(Product product) throws IOException {
+            UUID databaseKey = product.getDatabaseKey();
+            byte[] businessIdentifier = product.getProductBusinessKey().getBytes(StandardCharsets.UTF_8);
+            byte[] name = product.getName().getBytes(StandardCharsets.UTF_8);
+            byte[] description = product.getDescription().getBytes(StandardCharsets.UTF_8);
+            write(databaseKey.getMostSignificantBits(), databaseKey.getLeastSignificantBits(), businessIdentifier, businessIdentifier.length,
+                    name, name.length, description, description.length, product.getQuantity(), product.getVersion());
+        }
+
+        /**
+         * Method that writes a product from its fields, with the strings already encoded on UTF-8
+         *
+         * @param mostBits                 most significant bits of the database key
+         * @param leastBits                least significant bits of the database key
+         * @param businessIdentifier       bytes of the business identifier
+         * @param businessIdentifierLength number of bytes of the business identifier
+         * @param name                     bytes of the name
+         * @param nameLength               number of bytes of the name
+         * @param description              bytes of the description
+         * @param descriptionLength        number of bytes of the description
+         * @param quantity                 quantity of the product
+         * @param version                  version of the product
+         * @throws IOException if the product cannot be written
+         */
+        public void write(long mostBits, long leastBits, byte[] businessIdentifier, int businessIdentifierLength, byte[] name, int nameLength,
+                          byte[] description, int descriptionLength, int quantity, long version) throws IOException {
+            output.writeLong(mostBits);
+            output.writeLong(leastBits);
+            writeVarLong(output, businessIdentifierLength);
+            output.write(businessIdentifier, 0, businessIdentifierLength);
+            writeVarLong(output, nameLength);
+            output.write(name, 0, nameLength);
+            writeVarLong(output, descriptionLength);
+            output.write(description, 0, descriptionLength);
+            writeVarLong(output, quantity);
+            writeVarLong(output, version);
+        }
+    }
+
+    /**
+     * Contents of a snapshot, written product by product
+     */
+    @FunctionalInterface
+    public interface Contents {
+
+        /**
+         * Method that writes the products of the snapshot
+         *
+         * @param writer writer of the products
+         * @return number of products written
+         * @throws IOException if the products cannot be written or read
+         */
+        long writeTo(Writer writer) throws IOException;
+    }
+
+    /**
+     * Receiver of the products read from a snapshot
+     */
+    @FunctionalInterface
+    public interface Reader {
+
+        /**
+         * Method that receives a product read, with the strings encoded on UTF-8
+         *
+         * @param mostBits           most significant bits of the database key
+         * @param leastBits          least significant bits of the database key
+         * @param businessIdentifier bytes of the business identifier
+         * @param name               bytes of the name
+         * @param description        bytes of the description
+         * @param quantity           quantity of the product
+         * @param version            version of the product
+         */
+        void read(long mostBits, long leastBits, byte[] businessIdentifier, byte[] name, byte[] description, int quantity, long version);
+    }
+}
@@ -0,0 +1,247 @@
+package hrtech.bigmanager.invenhelper.repository;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Off-heap storage of strings, encoded on UTF-8, used by the {@link EdgeProductRepository}.
+ * <p>
+ * The bytes of the strings are appended to direct buffers (chunks of 16MB), outside the Java heap, so millions of strings do
+ * not add work to the garbage collector. Each string is referenced by a long, with the chunk (24 bits), the offset on the chunk
+ * (24 bits) and the number of bytes (16 bits).
+ * <p>
+ * Each string takes a block with the capacity of its size class (multiples of 16 bytes up to 1024, and powers of two above), so
+ * the capacity of a block is known from the length of its string. A string is replaced in place if the new one has the same
+ * size class; otherwise, its block is released to the free list of its size class, kept on the released blocks themselves
+ * (each one has the reference of the next on its first bytes), and the new string takes a released block of its size class,
+ * if any, before taking new bytes. So the bytes reserved do not grow with the number of replacements.
+ * <p>
+ * The writes must be serialized by the caller. The reads need no lock, but may see a string being replaced, so the caller
+ * must validate them (the repository uses the sequence of the product)
+ */
+class StringArena {
+
+    /**
+     * Maximum number of bytes of a string
+     */
+    static final int MAXIMUM_LENGTH = 0xFFFF;
+
+    private static final int CHUNK_BITS = 24;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int SMALL_CAPACITY = 1024;
+    private static final int SMALL_CLASSES = SMALL_CAPACITY / 16;
+    private static final long NO_BLOCK = -1;
+
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+    private int position = CHUNK_SIZE;
+    private final long[] freeBlocks = new long[sizeClass(MAXIMUM_LENGTH) + 1];
+    private long releasedBytes;
+
+    StringArena() {
+        Arrays.fill(freeBlocks, NO_BLOCK);
+    }
+
+    /**
+     * Method that encodes a string, to be written or compared
+     *
+     * @param text string to encode
+     * @return UTF-8 bytes of the string
+     * @throws IllegalArgumentException if the string has more than {@link #MAXIMUM_LENGTH} bytes
+     */
+    static byte[] encode(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAXIMUM_LENGTH) {
+            throw new IllegalArgumentException("String with " + bytes.length + " bytes exceeds the arena limit");
+        }
+        return bytes;
+    }
+
+    /**
+     * Method that returns the number of bytes of a string
+     *
+     * @param reference reference of the string
+     * @return number of bytes
+     */
+    static int length(long reference) {
+        return (int) (reference & MAXIMUM_LENGTH);
+    }
+
+    /**
+     * Method that returns the capacity of the blocks of the strings with a number of bytes
+     *
+     * @param length number of bytes of the string
+     * @return number of bytes of the block
+     */
+    static int capacity(int length) {
+        if (length <= SMALL_CAPACITY) {
+            return Math.max(16, (length + 15) & ~15);
+        }
+        return Integer.highestOneBit(length - 1) << 1;
+    }
+
+    /**
+     * Method that returns the size class of the strings with a number of bytes, the position of its free list
+     *
+     * @param length number of bytes of the string
+     * @return size class
+     */
+    static int sizeClass(int length) {
+        int capacity = capacity(length);
+        if (capacity <= SMALL_CAPACITY) {
+            return capacity / 16 - 1;
+        }
+        return SMALL_CLASSES + Integer.numberOfTrailingZeros(capacity) - Integer.numberOfTrailingZeros(SMALL_CAPACITY) - 1;
+    }
+
+    /**
+     * Method that appends a string to the arena, on a released block of its size class or on new bytes
+     *
+     * @param bytes encoded string
+     * @return reference of the string
+     */
+    long append(byte[] bytes) {
+        long block = allocate(bytes.length);
+        write(chunks[(int) (block >>> 40)], offset(block), bytes);
+        return block | bytes.length;
+    }
+
+    /**
+     * Method that replaces a string, in place if the new one has the same size class of the old one. Otherwise, the block of the
+     * old string is released
+     *
+     * @param reference reference of the string to replace
+     * @param bytes     encoded new string
+     * @return reference of the new string
+     */
+    long replace(long reference, byte[] bytes) {
+        if (sizeClass(bytes.length) != sizeClass(length(reference))) {
+            release(reference);
+            return append(bytes);
+        }
+        write(chunks[(int) (reference >>> 40)], offset(reference), bytes);
+        return reference & ~(long) MAXIMUM_LENGTH | bytes.length;
+    }
+
+    /**
+     * Method that returns the bytes of the released blocks, waiting to be taken by new strings
+     *
+     * @return number of bytes
+     */
+    long obtainReleasedBytes() {
+        return releasedBytes;
+    }
+
+    private long allocate(int length) {
+        int sizeClass = sizeClass(length);
+        long block = freeBlocks[sizeClass];
+        if (block != NO_BLOCK) {
+            freeBlocks[sizeClass] = chunks[(int) (block >>> 40)].getLong(offset(block));
+            releasedBytes -= capacity(length);
+            return block;
+        }
+        int capacity = capacity(length);
+        if (position + capacity > CHUNK_SIZE) {
+            ByteBuffer[] extended = Arrays.copyOf(chunks, chunks.length + 1);
+            extended[chunks.length] = ByteBuffer.allocateDirect(CHUNK_SIZE);
+            chunks = extended;
+            position = 0;
+        }
+        block = (long) (chunks.length - 1) << 40 | (long) position << 16;
+        position += capacity;
+        return block;
+    }
+
+    private void release(long reference) {
+        int sizeClass = sizeClass(length(reference));
+        long block = reference & ~(long) MAXIMUM_LENGTH;
+        chunks[(int) (block >>> 40)].putLong(offset(block), freeBlocks[sizeClass]);
+        freeBlocks[sizeClass] = block;
+        releasedBytes += capacity(length(reference));
+    }
+
+    /**
+     * Method that reads a string
+     *
+     * @param reference reference of the string
+     * @return string decoded
+     */
+    String read(long reference) {
+        byte[] bytes = new byte[length(reference)];
+        copy(reference, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Method that copies the bytes of a string to an array
+     *
+     * @param reference reference of the string
+     * @param target    array with, at least, the length of the string
+     */
+    void copy(long reference, byte[] target) {
+        ByteBuffer chunk = chunks[(int) (reference >>> 40)];
+        int offset = offset(reference);
+        for (int index = 0; index < length(reference); index++) {
+            target[index] = chunk.get(offset + index);
+        }
+    }
+
+    /**
+     * Method that compares the bytes of a string with an encoded string, as unsigned bytes (the order of the code points)
+     *
+     * @param reference reference of the string
+     * @param bytes     encoded string
+     * @return negative, zero or positive, if the string comes before, is equal to or comes after the encoded string
+     */
+    int compare(long reference, byte[] bytes) {
+        ByteBuffer chunk = chunks[(int) (reference >>> 40)];
+        int offset = offset(reference);
+        int length = length(reference);
+        for (int index = 0; index < Math.min(length, bytes.length); index++) {
+            int difference = Byte.toUnsignedInt(chunk.get(offset + index)) - Byte.toUnsignedInt(bytes[index]);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return length - bytes.length;
+    }
+
+    /**
+     * Method that compares two strings of the arena, as unsigned bytes
+     *
+     * @param first  reference of the first string
+     * @param second reference of the second string
+     * @return negative, zero or positive, if the first string comes before, is equal to or comes after the second
+     */
+    int compare(long first, long second) {
+        ByteBuffer firstChunk = chunks[(int) (first >>> 40)];
+        ByteBuffer secondChunk = chunks[(int) (second >>> 40)];
+        int length = Math.min(length(first), length(second));
+        for (int index = 0; index < length; index++) {
+            int difference = Byte.toUnsignedInt(firstChunk.get(offset(first) + index)) - Byte.toUnsignedInt(secondChunk.get(offset(second) + index));
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return length(first) - length(second);
+    }
+
+    /**
+     * Method that returns the memory reserved by the arena, outside the heap
+     *
+     * @return number of bytes
+     */
+    long obtainReservedBytes() {
+        return (long) chunks.length * CHUNK_SIZE;
+    }
+
+    private static int offset(long reference) {
+        return (int) (reference >>> 16) & (CHUNK_SIZE - 1);
+    }
+
+    private static void write(ByteBuffer chunk, int offset, byte[] bytes) {
+        for (int index = 0; index < bytes.length; index++) {
+            chunk.put(offset + index, bytes[index]);
+        }
+    }
+}
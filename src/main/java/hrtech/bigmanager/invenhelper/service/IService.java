@@ -3,6 +3,7 @@ package hrtech.bigmanager.invenhelper.service;
 import hrtech.bigmanager.invenhelper.model.Domain;
 import hrtech.bigmanager.invenhelper.model.DomainKey;
 
+import java.util.List;
 import java.util.Optional;
 
 /**
@@ -29,6 +30,22 @@ public interface IService<E extends Domain<E, K>, K extends DomainKey<K>> {
      */
     boolean save(E objectToSave);
 
+    /**
+     * Method that creates a list of new entities
+     *
+     * @param objectsToSave entities to be created
+     * @return list with the result of each creation, on the same order of the entities received
+     */
+    List<Boolean> insertAll(List<E> objectsToSave);
+
+    /**
+     * Method that updates a list of entities
+     *
+     * @param objectsToSave entities to be updated
+     * @return list with the result of each update, on the same order of the entities received
+     */
+    List<Boolean> saveAll(List<E> objectsToSave);
+
     /**
      * Method that, given a key object, returns the corresponding Entity on an Optional
      *
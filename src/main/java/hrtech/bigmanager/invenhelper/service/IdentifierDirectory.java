@@ -0,0 +1,225 @@
+package hrtech.bigmanager.invenhelper.service;
+
+import hrtech.bigmanager.invenhelper.model.Page;
+import hrtech.bigmanager.invenhelper.model.Product;
+import hrtech.bigmanager.invenhelper.repository.DataSourceRouting;
+import hrtech.bigmanager.invenhelper.repository.IProductRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * In-memory directory of the business identifiers, ordered, used to suggest identifiers by prefix and to go through ranges of
+ * identifiers without reading the database.
+ * <p>
+ * The identifiers are kept on a sorted array, read on startup (from the {@link ProductSnapshot}, if there is one), and the
+ * identifiers created afterwards on a small sorted set, that is merged into a new array when it grows. Both are published
+ * together, so the reads take no lock and each one sees a consistent directory. The identifiers are ordered by their UTF-16 code
+ * units (as {@link String#compareTo(String)}), which may differ from the collation of the database. The directory is local to
+ * each instance: the products created by other instances are only listed after a restart
+ */
+@Component
+public class IdentifierDirectory implements InitializingBean {
+
+    private static final int MAXIMUM_RECENT_IDENTIFIERS = 4096;
+
+    private final Logger logger = LoggerFactory.getLogger(IdentifierDirectory.class);
+    private volatile State state = new State(new String[0], new ConcurrentSkipListSet<>());
+    private IProductRepository productRepository;
+    private ProductSnapshot productSnapshot;
+    private boolean enabled;
+    private int buildPageSize;
+
+    @Autowired
+    public void setProductRepository(IProductRepository productRepository) {
+        this.productRepository = productRepository;
+    }
+
+    @Autowired
+    public void setProductSnapshot(ProductSnapshot productSnapshot) {
+        this.productSnapshot = productSnapshot;
+    }
+
+    @Value("${invenhelper.identifiers.directory.enabled:true}")
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Value("${invenhelper.identifiers.maximum-list-size:10000}")
+    public void setBuildPageSize(int buildPageSize) {
+        this.buildPageSize = Math.max(1, buildPageSize);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (enabled) {
+            long start = System.nanoTime();
+            Optional<Collection<Product>> products = productSnapshot.obtainProducts();
+            int loaded = products.map(this::rebuild).orElseGet(this::rebuild);
+            logger.info("Identifier directory built with " + loaded + " identifiers" + (products.isPresent() ? " from the snapshot" : "") +
+                    " in " + (System.nanoTime() - start) / 1_000_000 + "ms");
+        }
+    }
+
+    /**
+     * Method that adds the identifier of a product created to the directory
+     *
+     * @param event event of the change
+     */
+    @EventListener
+    public void onProductChanged(ProductChangedEvent event) {
+        if (enabled && event.getType() == ProductChangedEvent.Type.CREATED) {
+            add(event.getProduct().getProductBusinessKey());
+        }
+    }
+
+    /**
+     * Method that reads every identifier again, with pages of the configured maximum list size
+     *
+     * @return number of identifiers on the directory
+     */
+    public synchronized int rebuild() {
+        List<String> identifiers = new ArrayList<>();
+        List<String> page;
+        do {
+            String after = identifiers.isEmpty() ? "" : identifiers.get(identifiers.size() - 1);
+            page = DataSourceRouting.onReplica(() -> productRepository.findIdentifiersAfter(after, buildPageSize));
+            identifiers.addAll(page);
+        } while (page.size() == buildPageSize);
+
+        String[] sorted = identifiers.toArray(new String[0]);
+        Arrays.sort(sorted);
+        state = new State(sorted, new ConcurrentSkipListSet<>());
+        return sorted.length;
+    }
+
+    /**
+     * Method that builds the directory again with the identifiers of a list of products, read without the database
+     *
+     * @param products products of the directory
+     * @return number of identifiers on the directory
+     */
+    public synchronized int rebuild(Collection<Product> products) {
+        String[] sorted = products.stream().map(Product::getProductBusinessKey).toArray(String[]::new);
+        Arrays.sort(sorted);
+        state = new State(sorted, new ConcurrentSkipListSet<>());
+        return sorted.length;
+    }
+
+    /**
+     * Method that adds an identifier to the directory. The recent identifiers are merged with the array when they exceed
+     * {@value #MAXIMUM_RECENT_IDENTIFIERS}
+     *
+     * @param identifier identifier to add
+     */
+    public synchronized void add(String identifier) {
+        State current = state;
+        if (Arrays.binarySearch(current.sorted, identifier) >= 0 || !current.recent.add(identifier)) {
+            return;
+        }
+        if (current.recent.size() > MAXIMUM_RECENT_IDENTIFIERS) {
+            String[] merged = new String[current.sorted.length + current.recent.size()];
+            int position = 0;
+            int index = 0;
+            for (String recent : current.recent) {
+                while (index < current.sorted.length && current.sorted[index].compareTo(recent) < 0) {
+                    merged[position++] = current.sorted[index++];
+                }
+                merged[position++] = recent;
+            }
+            System.arraycopy(current.sorted, index, merged, position, current.sorted.length - index);
+            state = new State(merged, new ConcurrentSkipListSet<>());
+        }
+    }
+
+    /**
+     * Method that returns the number of identifiers on the directory
+     *
+     * @return number of identifiers
+     */
+    public int obtainSize() {
+        State current = state;
+        return current.sorted.length + current.recent.size();
+    }
+
+    /**
+     * Method that returns a page of the identifiers that start with a prefix, ordered
+     *
+     * @param prefix start of the identifiers; empty for every identifier
+     * @param cursor cursor returned with the previous page; empty to obtain the first page
+     * @param limit  maximum number of identifiers on the page
+     * @return page with the identifiers and the cursor of the next page, if there are more identifiers
+     * @throws IllegalArgumentException if the cursor is invalid
+     */
+    public Page<String> findByPrefix(String prefix, String cursor, int limit) {
+        String after = cursor.isEmpty() ? "" : Page.decodeCursor(cursor);
+        List<String> identifiers = findRange(prefix.compareTo(after) > 0 ? prefix : after, !after.isEmpty() && after.compareTo(prefix) >= 0,
+                prefix, limit + 1);
+        if (identifiers.size() <= limit) {
+            return new Page<>(identifiers, null);
+        }
+        List<String> pageItems = new ArrayList<>(identifiers.subList(0, limit));
+        return new Page<>(pageItems, Page.encodeCursor(pageItems.get(limit - 1)));
+    }
+
+    /**
+     * Method that returns the identifiers from a lower bound, ordered, while they start with a prefix. The array and the recent
+     * identifiers are merged as they are read
+     *
+     * @param from      lower bound of the range
+     * @param exclusive true if the lower bound itself is excluded
+     * @param prefix    prefix that every identifier must have
+     * @param limit     maximum number of identifiers
+     * @return identifiers found
+     */
+    private List<String> findRange(String from, boolean exclusive, String prefix, int limit) {
+        State current = state;
+        int index = Arrays.binarySearch(current.sorted, from);
+        index = index >= 0 ? (exclusive ? index + 1 : index) : -index - 1;
+        Iterator<String> recent = current.recent.tailSet(from, !exclusive).iterator();
+        String nextRecent = recent.hasNext() ? recent.next() : null;
+
+        List<String> identifiers = new ArrayList<>(Math.min(limit, 64));
+        while (identifiers.size() < limit) {
+            String next;
+            if (nextRecent != null && (index >= current.sorted.length || nextRecent.compareTo(current.sorted[index]) < 0)) {
+                next = nextRecent;
+                nextRecent = recent.hasNext() ? recent.next() : null;
+            } else if (index < current.sorted.length) {
+                next = current.sorted[index++];
+            } else {
+                break;
+            }
+            if (!next.startsWith(prefix)) {
+                break;
+            }
+            identifiers.add(next);
+        }
+        return identifiers;
+    }
+
+    /**
+     * Identifiers of the directory: the sorted array and the identifiers added after it was built
+     */
+    private static final class State {
+
+        private final String[] sorted;
+        private final ConcurrentSkipListSet<String> recent;
+
+        State(String[] sorted, ConcurrentSkipListSet<String> recent) {
+            this.sorted = sorted;
+            this.recent = recent;
+        }
+    }
+}
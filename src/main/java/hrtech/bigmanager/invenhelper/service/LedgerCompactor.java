@@ -0,0 +1,93 @@
+package hrtech.bigmanager.invenhelper.service;
+
+import hrtech.bigmanager.invenhelper.repository.IProductRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background compactor of the stock ledger.
+ * <p>
+ * When the ledger is enabled, the movements are compacted periodically, so the number of movements added to each product when
+ * it is read stays small. On startup, the movements left by a previous execution are always compacted, so the quantities are
+ * correct even if the ledger was disabled meanwhile
+ */
+@Component
+public class LedgerCompactor implements InitializingBean, DisposableBean {
+
+    private final Logger logger = LoggerFactory.getLogger(LedgerCompactor.class);
+    private IProductRepository productRepository;
+    private boolean enabled;
+    private Duration compactionInterval;
+    private ScheduledExecutorService scheduler;
+
+    @Autowired
+    public void setProductRepository(IProductRepository productRepository) {
+        this.productRepository = productRepository;
+    }
+
+    @Value("${invenhelper.quantity.ledger.enabled:false}")
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Value("${invenhelper.quantity.ledger.compaction-interval:10s}")
+    public void setCompactionInterval(Duration compactionInterval) {
+        this.compactionInterval = compactionInterval;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        compact();
+        if (enabled) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "ledger-compactor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long interval = Math.max(1, compactionInterval.toMillis());
+            scheduler.scheduleWithFixedDelay(this::compactSafely, interval, interval, TimeUnit.MILLISECONDS);
+            logger.info("Stock ledger enabled, compacting every " + compactionInterval);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Method that compacts the movements of the ledger, until there is nothing left to compact
+     *
+     * @return number of movements compacted
+     */
+    public synchronized int compact() {
+        int total = 0;
+        for (int compacted = productRepository.compactLedger(); compacted > 0; compacted = productRepository.compactLedger()) {
+            total += compacted;
+        }
+        if (total > 0) {
+            logger.debug("Stock ledger compacted: " + total + " movements");
+        }
+        return total;
+    }
+
+    private void compactSafely() {
+        try {
+            compact();
+        } catch (RuntimeException e) {
+            logger.error("Error while compacting the stock ledger: " + e.getLocalizedMessage());
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package hrtech.bigmanager.invenhelper.service;
+
+import org.json.JSONObject;
+
+import java.time.Instant;
+
+/**
+ * Event published by the {@link QuantityIndex} when the quantity of a product goes below its low-stock threshold
+ */
+public class LowStockAlertEvent {
+
+    private final String identifier;
+    private final int quantity;
+    private final int threshold;
+    private final Instant time;
+
+    public LowStockAlertEvent(String identifier, int quantity, int threshold, Instant time) {
+        this.identifier = identifier;
+        this.quantity = quantity;
+        this.threshold = threshold;
+        this.time = time;
+    }
+
+    public String getIdentifier() {
+        return identifier;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public Instant getTime() {
+        return time;
+    }
+
+    /**
+     * Method that creates a JSON object with the alert
+     *
+     * @return JSONObject with the identifier, the quantity, the threshold and the time of the alert
+     */
+    public JSONObject obtainJSON() {
+        JSONObject objectToReturn = new JSONObject();
+        objectToReturn.put("identifier", identifier);
+        objectToReturn.put("quantity", quantity);
+        objectToReturn.put("threshold", threshold);
+        objectToReturn.put("time", time.toString());
+        return objectToReturn;
+    }
+}
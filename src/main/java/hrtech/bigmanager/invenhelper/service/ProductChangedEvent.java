@@ -0,0 +1,37 @@
+package hrtech.bigmanager.invenhelper.service;
+
+import hrtech.bigmanager.invenhelper.model.Product;
+
+/**
+ * Event published by the {@link ProductService} after a product is created or changed successfully, so the in-process indexes can
+ * follow the products without reading them again. The quantity changes accepted on the write-behind mode are published by the
+ * {@link QuantityAggregator}, once written, and the confirmations of reservations by the {@link ReservationService}. The
+ * listeners run on the thread of the change and must not change the product
+ */
+public class ProductChangedEvent {
+
+    /**
+     * Kind of change of the product
+     */
+    public enum Type {
+        CREATED,
+        UPDATED,
+        QUANTITY_CHANGED
+    }
+
+    private final Product product;
+    private final Type type;
+
+    public ProductChangedEvent(Product product, Type type) {
+        this.product = product;
+        this.type = type;
+    }
+
+    public Product getProduct() {
+        return product;
+    }
+
+    public Type getType() {
+        return type;
+    }
+}
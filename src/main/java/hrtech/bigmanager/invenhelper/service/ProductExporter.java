@@ -0,0 +1,117 @@
+package hrtech.bigmanager.invenhelper.service;
+
+import hrtech.bigmanager.invenhelper.model.Product;
+import hrtech.bigmanager.invenhelper.repository.DataSourceRouting;
+import hrtech.bigmanager.invenhelper.repository.IProductRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Exporter of every product, as NDJSON (a JSON object per line) or as CSV.
+ * <p>
+ * The products are written as they are read from the repository, so the export uses the same memory regardless of the number
+ * of products. With more than one range, the products of each range are read and formatted on their own thread, and each line is
+ * written whole. The CSV has the columns read by {@link ProductImporter}, and the version
+ */
+@Component
+public class ProductExporter {
+
+    private final Logger logger = LoggerFactory.getLogger(ProductExporter.class);
+    private IProductRepository productRepository;
+
+    @Autowired
+    public void setProductRepository(IProductRepository productRepository) {
+        this.productRepository = productRepository;
+    }
+
+    /**
+     * Formats of the export
+     */
+    public enum Format {
+        NDJSON(product -> product.convertToJSON().toString(), null),
+        CSV(product -> formatCsvField(product.getProductBusinessKey()) + ',' + formatCsvField(product.getName()) + ',' +
+                formatCsvField(product.getDescription()) + ',' + product.getQuantity() + ',' + product.getVersion(),
+                "identifier,name,description,quantity,version");
+
+        private final Function<Product, String> formatter;
+        private final String header;
+
+        Format(Function<Product, String> formatter, String header) {
+            this.formatter = formatter;
+            this.header = header;
+        }
+
+        /**
+         * Method that obtains a format by its name, ignoring the case
+         *
+         * @param name name of the format
+         * @return Optional with the format; empty if there is no format with the name
+         */
+        public static Optional<Format> fromName(String name) {
+            try {
+                return Optional.of(valueOf(name.toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException e) {
+                return Optional.empty();
+            }
+        }
+    }
+
+    /**
+     * Method that writes every product. The products may be read from a replica
+     *
+     * @param format format of the export
+     * @param ranges number of ranges of business identifiers read at the same time
+     * @param writer writer of the export. It is flushed, but not closed
+     * @return number of products written
+     * @throws IOException if the export cannot be written, or the products cannot be read
+     */
+    public long exportProducts(Format format, int ranges, Writer writer) throws IOException {
+        if (format.header != null) {
+            writer.write(format.header);
+            writer.write('\n');
+        }
+        long exported;
+        try {
+            exported = DataSourceRouting.onReplica(() -> productRepository.forEachProduct(ranges, product -> {
+                String line = format.formatter.apply(product) + '\n';
+                try {
+                    synchronized (writer) {
+                        writer.write(line);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (exported < 0) {
+            throw new IOException("Error while reading the products");
+        }
+        writer.flush();
+        logger.info("Export finished: " + exported + " products");
+        return exported;
+    }
+
+    /**
+     * Method that formats a CSV field, quoting it if it has commas, quotes or line breaks
+     *
+     * @param field field to format
+     * @return field formatted
+     */
+    static String formatCsvField(String field) {
+        if (field.indexOf(',') < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0 && field.indexOf('\r') < 0) {
+            return field;
+        }
+        return '"' + field.replace("\"", "\"\"") + '"';
+    }
+}
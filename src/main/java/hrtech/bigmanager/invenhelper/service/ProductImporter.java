@@ -0,0 +1,422 @@
+package hrtech.bigmanager.invenhelper.service;
+
+import hrtech.bigmanager.invenhelper.model.Product;
+import hrtech.bigmanager.invenhelper.model.ProductInformation;
+import hrtech.bigmanager.invenhelper.model.ProductKey;
+import hrtech.bigmanager.invenhelper.model.Quantity;
+import hrtech.bigmanager.invenhelper.repository.IProductRepository;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Importer of products from CSV files.
+ * <p>
+ * The file is read as a stream, in blocks of lines, and each block is parsed and validated on the parse threads while the next
+ * blocks are read, up to a bounded number of blocks at a time, so the file is never kept in memory. The products parsed are
+ * deduplicated by identifier, on the order of the file, and inserted in chunks with the batches of
+ * {@link ProductService#insertAll(List)}, so the products already registered are only searched when their insertion fails.
+ * <p>
+ * The file has a product per line, with the identifier, the name, the description and the quantity, separated by commas. A field
+ * may be quoted, to contain commas, quotes (written twice) and line breaks (read as '\n'), as written by {@link ProductExporter}.
+ * A first line with the names of the columns (identifier, name, description and quantity, on any order) is optional
+ */
+@Component
+public class ProductImporter implements InitializingBean, DisposableBean {
+
+    private static final List<String> DEFAULT_COLUMNS = Arrays.asList("identifier", "name", "description", "quantity");
+    private static final int MAXIMUM_RECORD_LENGTH = 1 << 16;
+
+    private final Logger logger = LoggerFactory.getLogger(ProductImporter.class);
+    private ProductService productService;
+    private IProductRepository productRepository;
+    private int parseThreads;
+    private int blockSize;
+    private int chunkSize;
+    private ExecutorService parsers;
+
+    @Autowired
+    public void setProductService(ProductService productService) {
+        this.productService = productService;
+    }
+
+    @Autowired
+    public void setProductRepository(IProductRepository productRepository) {
+        this.productRepository = productRepository;
+    }
+
+    @Value("${invenhelper.import.parse-threads:4}")
+    public void setParseThreads(int parseThreads) {
+        this.parseThreads = Math.max(1, parseThreads);
+    }
+
+    @Value("${invenhelper.import.block-size:1000}")
+    public void setBlockSize(int blockSize) {
+        this.blockSize = Math.max(1, blockSize);
+    }
+
+    @Value("${invenhelper.import.chunk-size:5000}")
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        parsers = Executors.newFixedThreadPool(parseThreads, runnable -> {
+            Thread thread = new Thread(runnable, "product-import-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void destroy() {
+        parsers.shutdownNow();
+    }
+
+    /**
+     * Method that imports the products of a CSV file. The errors of each line and the progress after each chunk are reported as
+     * they happen, as JSON objects with the type 'error' (with the line and the message) or 'progress' (with the counters)
+     *
+     * @param input    CSV file, in UTF-8
+     * @param reporter consumer of the errors and of the progress
+     * @return JSON object with the counters: lines read, products imported, lines with errors and the duration in milliseconds
+     * @throws IOException if the file cannot be read
+     */
+    public JSONObject importCsv(InputStream input, Consumer<JSONObject> reporter) throws IOException {
+        Import currentImport = new Import(reporter);
+        long start = System.nanoTime();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8), 1 << 16)) {
+            Deque<Future<ParsedBlock>> parsing = new ArrayDeque<>();
+            List<String> records = new ArrayList<>(blockSize);
+            List<Integer> recordLines = new ArrayList<>(blockSize);
+            int blockLines = 0;
+            String record = null;
+            int lineNumber = 0;
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                lineNumber++;
+                if (lineNumber == 1) {
+                    line = removeByteOrderMark(line);
+                    if (currentImport.readHeader(line)) {
+                        continue;
+                    }
+                }
+                if (record == null) {
+                    record = line;
+                    recordLines.add(lineNumber);
+                } else {
+                    record = record + '\n' + line;
+                }
+                blockLines++;
+                if (endsInsideQuotes(record) && record.length() < MAXIMUM_RECORD_LENGTH) {
+                    continue;
+                }
+                records.add(record);
+                record = null;
+                if (records.size() == blockSize) {
+                    parsing.addLast(submit(records, recordLines, blockLines, currentImport.columns));
+                    records = new ArrayList<>(blockSize);
+                    recordLines = new ArrayList<>(blockSize);
+                    blockLines = 0;
+                    while (parsing.size() > parseThreads * 2) {
+                        currentImport.add(obtain(parsing.removeFirst()));
+                    }
+                }
+            }
+            if (record != null) {
+                records.add(record);
+            }
+            if (!records.isEmpty()) {
+                parsing.addLast(submit(records, recordLines, blockLines, currentImport.columns));
+            }
+            while (!parsing.isEmpty()) {
+                currentImport.add(obtain(parsing.removeFirst()));
+            }
+            currentImport.write();
+        }
+
+        JSONObject summary = currentImport.obtainCounters("summary");
+        summary.put("duration", (System.nanoTime() - start) / 1_000_000);
+        logger.info("Import finished: " + summary);
+        return summary;
+    }
+
+    private Future<ParsedBlock> submit(List<String> records, List<Integer> recordLines, int lineCount, int[] columns) {
+        return parsers.submit(() -> parse(records, recordLines, lineCount, columns));
+    }
+
+    private static ParsedBlock obtain(Future<ParsedBlock> block) throws IOException {
+        try {
+            return block.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while parsing the file", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Error while parsing the file", e.getCause());
+        }
+    }
+
+    /**
+     * Method that parses and validates a block of records
+     *
+     * @param records     records of the block, each one on one or more lines
+     * @param recordLines number of the first line of each record, on the file
+     * @param lineCount   number of lines of the block
+     * @param columns     position of the identifier, the name, the description and the quantity on each record
+     * @return products parsed and errors found, on the order of the records
+     */
+    static ParsedBlock parse(List<String> records, List<Integer> recordLines, int lineCount, int[] columns) {
+        ParsedBlock block = new ParsedBlock(lineCount);
+        int requiredFields = Arrays.stream(columns).max().orElse(0) + 1;
+        for (int index = 0; index < records.size(); index++) {
+            int lineNumber = recordLines.get(index);
+            String line = records.get(index);
+            if (line.isBlank()) {
+                continue;
+            }
+            try {
+                List<String> fields = splitFields(line);
+                if (fields.size() < requiredFields) {
+                    throw new IllegalArgumentException("Expected " + requiredFields + " fields, found " + fields.size());
+                }
+                int quantity;
+                try {
+                    quantity = Integer.parseInt(fields.get(columns[3]).trim());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid quantity: " + fields.get(columns[3]));
+                }
+                block.products.add(new Product(new ProductKey(UUID.randomUUID(), fields.get(columns[0])),
+                        new ProductInformation(fields.get(columns[1]), fields.get(columns[2])), new Quantity(quantity)));
+                block.productLines.add(lineNumber);
+            } catch (IllegalArgumentException e) {
+                block.errors.put(lineNumber, e.getLocalizedMessage());
+            }
+        }
+        return block;
+    }
+
+    /**
+     * Method that splits a record into its fields, separated by commas. A quoted field may contain commas, quotes written twice and
+     * line breaks
+     *
+     * @param line line to split
+     * @return fields of the line
+     * @throws IllegalArgumentException if a quoted field is not closed
+     */
+    static List<String> splitFields(String line) {
+        List<String> fields = new ArrayList<>(4);
+        StringBuilder field = new StringBuilder();
+        int position = 0;
+        while (true) {
+            if (position < line.length() && line.charAt(position) == '"') {
+                position++;
+                while (true) {
+                    if (position >= line.length()) {
+                        throw new IllegalArgumentException("Quoted field not closed");
+                    }
+                    char character = line.charAt(position++);
+                    if (character != '"') {
+                        field.append(character);
+                    } else if (position < line.length() && line.charAt(position) == '"') {
+                        field.append('"');
+                        position++;
+                    } else {
+                        break;
+                    }
+                }
+                if (position < line.length() && line.charAt(position) != ',') {
+                    throw new IllegalArgumentException("Unexpected text after a quoted field");
+                }
+            } else {
+                int end = line.indexOf(',', position);
+                field.append(line, position, end < 0 ? line.length() : end);
+                position = end < 0 ? line.length() : end;
+            }
+            fields.add(field.toString());
+            field.setLength(0);
+            if (position >= line.length()) {
+                return fields;
+            }
+            position++;
+        }
+    }
+
+    /**
+     * Method that checks if a record ends inside a quoted field, so its next line is part of the field. A quote only opens a
+     * field at its start, as read by {@link #splitFields(String)}
+     *
+     * @param record record read so far
+     * @return true if a quoted field is not closed
+     */
+    static boolean endsInsideQuotes(String record) {
+        boolean fieldStart = true;
+        boolean quoted = false;
+        for (int position = 0; position < record.length(); position++) {
+            char character = record.charAt(position);
+            if (quoted) {
+                if (character == '"') {
+                    if (position + 1 < record.length() && record.charAt(position + 1) == '"') {
+                        position++;
+                    } else {
+                        quoted = false;
+                    }
+                }
+            } else if (character == ',') {
+                fieldStart = true;
+            } else {
+                quoted = fieldStart && character == '"';
+                fieldStart = false;
+            }
+        }
+        return quoted;
+    }
+
+    private static String removeByteOrderMark(String line) {
+        return !line.isEmpty() && line.charAt(0) == '\uFEFF' ? line.substring(1) : line;
+    }
+
+    /**
+     * Products and errors of a block of lines
+     */
+    static final class ParsedBlock {
+
+        private final int lineCount;
+        private final List<Product> products = new ArrayList<>();
+        private final List<Integer> productLines = new ArrayList<>();
+        private final SortedMap<Integer, String> errors = new TreeMap<>();
+
+        ParsedBlock(int lineCount) {
+            this.lineCount = lineCount;
+        }
+    }
+
+    /**
+     * State of an import: the columns of the file, the identifiers already read, the chunk waiting to be inserted and the counters
+     */
+    private final class Import {
+
+        private final Consumer<JSONObject> reporter;
+        private final Set<String> identifiers = new HashSet<>();
+        private final List<Product> chunk = new ArrayList<>();
+        private final List<Integer> chunkLines = new ArrayList<>();
+        private int[] columns = {0, 1, 2, 3};
+        private long lines;
+        private long imported;
+        private long failed;
+
+        Import(Consumer<JSONObject> reporter) {
+            this.reporter = reporter;
+        }
+
+        /**
+         * Method that reads the first line as the names of the columns, if it has them
+         *
+         * @param line first line of the file
+         * @return true if the line has the names of the columns
+         */
+        boolean readHeader(String line) {
+            List<String> names;
+            try {
+                names = splitFields(line).stream().map(name -> name.trim().toLowerCase(Locale.ROOT)).collect(Collectors.toList());
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+            if (!names.containsAll(DEFAULT_COLUMNS)) {
+                return false;
+            }
+            lines++;
+            columns = DEFAULT_COLUMNS.stream().mapToInt(names::indexOf).toArray();
+            return true;
+        }
+
+        /**
+         * Method that adds the products of a block to the chunk, reporting the errors of the block and the identifiers repeated
+         * on the file. The chunk is inserted once it is full
+         *
+         * @param block block parsed
+         */
+        void add(ParsedBlock block) {
+            SortedMap<Integer, String> errors = block.errors;
+            for (int index = 0; index < block.products.size(); index++) {
+                Product product = block.products.get(index);
+                int lineNumber = block.productLines.get(index);
+                if (!identifiers.add(product.getProductBusinessKey())) {
+                    errors.put(lineNumber, "The business identifier is repeated on the file");
+                } else {
+                    chunk.add(product);
+                    chunkLines.add(lineNumber);
+                }
+            }
+            lines += block.lineCount;
+            errors.forEach(this::reportError);
+            if (chunk.size() >= chunkSize) {
+                write();
+            }
+        }
+
+        /**
+         * Method that inserts the chunk, reporting the products that could not be inserted and the progress
+         */
+        void write() {
+            if (chunk.isEmpty()) {
+                return;
+            }
+            List<Boolean> results = productService.insertAll(chunk);
+            Map<String, Integer> notInserted = new LinkedHashMap<>();
+            for (int index = 0; index < chunk.size(); index++) {
+                if (results.get(index)) {
+                    imported++;
+                } else {
+                    notInserted.put(chunk.get(index).getProductBusinessKey(), chunkLines.get(index));
+                }
+            }
+            if (!notInserted.isEmpty()) {
+                Set<String> registered = productRepository.findByBusinessIds(notInserted.keySet()).stream()
+                        .map(Product::getProductBusinessKey).collect(Collectors.toSet());
+                notInserted.forEach((identifier, lineNumber) -> reportError(lineNumber, registered.contains(identifier) ?
+                        "A product with the same business identifier is already registered" : "Error saving on the database"));
+            }
+            chunk.clear();
+            chunkLines.clear();
+            reporter.accept(obtainCounters("progress"));
+        }
+
+        private void reportError(int lineNumber, String message) {
+            failed++;
+            JSONObject error = new JSONObject();
+            error.put("type", "error");
+            error.put("line", lineNumber);
+            error.put("message", message);
+            reporter.accept(error);
+        }
+
+        JSONObject obtainCounters(String type) {
+            JSONObject counters = new JSONObject();
+            counters.put("type", type);
+            counters.put("lines", lines);
+            counters.put("imported", imported);
+            counters.put("failed", failed);
+            return counters;
+        }
+    }
+}
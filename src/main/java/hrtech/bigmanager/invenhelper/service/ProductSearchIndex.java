@@ -0,0 +1,578 @@
+package hrtech.bigmanager.invenhelper.service;
+
+import hrtech.bigmanager.invenhelper.model.Product;
+import hrtech.bigmanager.invenhelper.repository.DataSourceRouting;
+import hrtech.bigmanager.invenhelper.repository.IProductRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * In-process inverted index of the words of the name and description of the products, used to search products without
+ * scanning the table.
+ * <p>
+ * The words are normalized (lower case, without accents) and each one keeps the ordered list of the products that contain it
+ * (its postings), with the fields where it appears. The words are kept ordered, so a word of the query also matches the words
+ * that start with it. The products must contain every word of the query, and are ranked by the rarity of the words matched,
+ * with the words of the name counting more than those of the description, and the complete words more than the prefixes.
+ * <p>
+ * The index is built on startup, from the {@link ProductSnapshot} if there is one, or reading the products with pages of
+ * identifiers on several threads, and is updated with the {@link ProductChangedEvent}s. It is local to each instance: the
+ * products changed by other instances are only found after a restart (or a {@link #rebuild()})
+ */
+@Component
+public class ProductSearchIndex implements InitializingBean {
+
+    private static final int MAXIMUM_TERM_LENGTH = 32;
+    private static final int MAXIMUM_QUERY_TERMS = 8;
+    private static final byte NAME = 1;
+    private static final byte DESCRIPTION = 2;
+    private static final Pattern SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    private final Logger logger = LoggerFactory.getLogger(ProductSearchIndex.class);
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final TreeMap<String, Postings> postingsByTerm = new TreeMap<>();
+    private final Map<String, Integer> documentByIdentifier = new HashMap<>();
+    private String[] identifiers = new String[1024];
+    private long[] versions = new long[1024];
+    private Postings[][] documentTerms = new Postings[1024][];
+    private int documents;
+    private IProductRepository productRepository;
+    private ProductSnapshot productSnapshot;
+    private boolean enabled;
+    private int buildThreads;
+    private int buildPageSize;
+
+    @Autowired
+    public void setProductRepository(IProductRepository productRepository) {
+        this.productRepository = productRepository;
+    }
+
+    @Autowired
+    public void setProductSnapshot(ProductSnapshot productSnapshot) {
+        this.productSnapshot = productSnapshot;
+    }
+
+    @Value("${invenhelper.search.enabled:true}")
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Value("${invenhelper.search.build-threads:4}")
+    public void setBuildThreads(int buildThreads) {
+        this.buildThreads = Math.max(1, buildThreads);
+    }
+
+    @Value("${invenhelper.search.build-page-size:1000}")
+    public void setBuildPageSize(int buildPageSize) {
+        this.buildPageSize = Math.max(1, buildPageSize);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (enabled) {
+            long start = System.nanoTime();
+            Optional<Collection<Product>> products = productSnapshot.obtainProducts();
+            int indexed = products.map(this::rebuild).orElseGet(this::rebuild);
+            logger.info("Search index built with " + indexed + " products" + (products.isPresent() ? " from the snapshot" : "") +
+                    " in " + (System.nanoTime() - start) / 1_000_000 + "ms");
+        }
+    }
+
+    /**
+     * Method that updates the index with a product created or changed. The quantity changes are ignored, since they do not
+     * change the texts indexed
+     *
+     * @param event event of the change
+     */
+    @EventListener
+    public void onProductChanged(ProductChangedEvent event) {
+        if (enabled && event.getType() != ProductChangedEvent.Type.QUANTITY_CHANGED) {
+            index(Collections.singletonList(event.getProduct()));
+        }
+    }
+
+    /**
+     * Method that builds the index again with every product. The identifiers are read by pages, and the products of each page
+     * are read and tokenized on a pool of threads, so several connections are used. The changes received meanwhile are kept,
+     * since a product is never replaced by an older version of it
+     *
+     * @return number of products indexed
+     */
+    public int rebuild() {
+        clear();
+        ExecutorService executor = createBuildExecutor();
+        try {
+            List<Future<Integer>> pages = new ArrayList<>();
+            String after = "";
+            List<String> page;
+            do {
+                String pageStart = after;
+                page = DataSourceRouting.onReplica(() -> productRepository.findIdentifiersAfter(pageStart, buildPageSize));
+                if (!page.isEmpty()) {
+                    List<String> identifiersOfPage = page;
+                    pages.add(executor.submit(() -> index(DataSourceRouting.onReplica(() -> productRepository.findByBusinessIds(identifiersOfPage)))));
+                    after = page.get(page.size() - 1);
+                }
+            } while (page.size() == buildPageSize);
+
+            int indexed = 0;
+            for (Future<Integer> indexedOnPage : pages) {
+                indexed += indexedOnPage.get();
+            }
+            return indexed;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Search index build interrupted");
+            return 0;
+        } catch (ExecutionException e) {
+            logger.error("Error while building the search index: " + e.getCause().getLocalizedMessage());
+            return 0;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Method that builds the index again with a list of products, read without the database. The products are tokenized by
+     * pages on a pool of threads
+     *
+     * @param products products to index
+     * @return number of products indexed
+     */
+    public int rebuild(Collection<Product> products) {
+        clear();
+        ExecutorService executor = createBuildExecutor();
+        try {
+            List<Future<Integer>> pages = new ArrayList<>();
+            List<Product> page = new ArrayList<>(buildPageSize);
+            for (Product product : products) {
+                page.add(product);
+                if (page.size() == buildPageSize) {
+                    List<Product> productsOfPage = page;
+                    pages.add(executor.submit(() -> index(productsOfPage)));
+                    page = new ArrayList<>(buildPageSize);
+                }
+            }
+            int indexed = index(page);
+            for (Future<Integer> indexedOnPage : pages) {
+                indexed += indexedOnPage.get();
+            }
+            return indexed;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Search index build interrupted");
+            return 0;
+        } catch (ExecutionException e) {
+            logger.error("Error while building the search index: " + e.getCause().getLocalizedMessage());
+            return 0;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void clear() {
+        lock.writeLock().lock();
+        try {
+            postingsByTerm.clear();
+            documentByIdentifier.clear();
+            Arrays.fill(identifiers, 0, documents, null);
+            Arrays.fill(documentTerms, 0, documents, null);
+            documents = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private ExecutorService createBuildExecutor() {
+        return Executors.newFixedThreadPool(buildThreads, runnable -> {
+            Thread thread = new Thread(runnable, "search-index-build");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Method that returns the identifiers of the products that contain every word of a query, on the name or on the description,
+     * ordered by relevance. Each word of the query also matches the words that start with it
+     *
+     * @param query words to search
+     * @param limit maximum number of identifiers to return
+     * @return identifiers of the products found, the most relevant first
+     */
+    public List<String> search(String query, int limit) {
+        List<String> queryTerms = new ArrayList<>(new LinkedHashSet<>(tokenize(query)));
+        if (queryTerms.isEmpty() || limit < 1) {
+            return Collections.emptyList();
+        }
+        queryTerms = queryTerms.subList(0, Math.min(queryTerms.size(), MAXIMUM_QUERY_TERMS));
+
+        lock.readLock().lock();
+        try {
+            List<TermMatch> termMatches = new ArrayList<>(queryTerms.size());
+            for (String queryTerm : queryTerms) {
+                TermMatch termMatch = new TermMatch(queryTerm, postingsByTerm.subMap(queryTerm, true, queryTerm + Character.MAX_VALUE, true).values());
+                if (termMatch.estimate == 0) {
+                    return Collections.emptyList();
+                }
+                termMatches.add(termMatch);
+            }
+            termMatches.sort(Comparator.comparingLong(termMatch -> termMatch.estimate));
+
+            Matches candidates = union(termMatches.get(0));
+            for (int index = 1; index < termMatches.size() && candidates.size > 0; index++) {
+                TermMatch termMatch = termMatches.get(index);
+                if ((long) candidates.size * termMatch.postings.size() < termMatch.estimate) {
+                    candidates = probe(candidates, termMatch);
+                } else {
+                    candidates = intersect(candidates, union(termMatch));
+                }
+            }
+            return top(candidates, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Method that adds products to the index, replacing the words of the products already indexed, unless the version indexed
+     * is newer. The products are tokenized before taking the lock
+     *
+     * @param products products to index
+     * @return number of products indexed
+     */
+    private int index(List<Product> products) {
+        List<Map<String, Byte>> fieldsOfProducts = new ArrayList<>(products.size());
+        for (Product product : products) {
+            Map<String, Byte> fieldsByTerm = new HashMap<>();
+            tokenize(product.getName()).forEach(term -> fieldsByTerm.merge(term, NAME, (first, second) -> (byte) (first | second)));
+            tokenize(product.getDescription()).forEach(term -> fieldsByTerm.merge(term, DESCRIPTION, (first, second) -> (byte) (first | second)));
+            fieldsOfProducts.add(fieldsByTerm);
+        }
+
+        int indexed = 0;
+        lock.writeLock().lock();
+        try {
+            for (int index = 0; index < products.size(); index++) {
+                Product product = products.get(index);
+                Integer document = documentByIdentifier.get(product.getProductBusinessKey());
+                if (document == null) {
+                    document = addDocument(product.getProductBusinessKey());
+                } else if (versions[document] > product.getVersion()) {
+                    continue;
+                } else {
+                    removeTerms(document);
+                }
+
+                Postings[] terms = new Postings[fieldsOfProducts.get(index).size()];
+                int position = 0;
+                for (Map.Entry<String, Byte> fields : fieldsOfProducts.get(index).entrySet()) {
+                    Postings postings = postingsByTerm.computeIfAbsent(fields.getKey(), Postings::new);
+                    postings.add(document, fields.getValue());
+                    terms[position++] = postings;
+                }
+                documentTerms[document] = terms;
+                versions[document] = product.getVersion();
+                indexed++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return indexed;
+    }
+
+    private int addDocument(String identifier) {
+        if (documents == identifiers.length) {
+            identifiers = Arrays.copyOf(identifiers, documents * 2);
+            versions = Arrays.copyOf(versions, documents * 2);
+            documentTerms = Arrays.copyOf(documentTerms, documents * 2);
+        }
+        identifiers[documents] = identifier;
+        documentByIdentifier.put(identifier, documents);
+        return documents++;
+    }
+
+    private void removeTerms(int document) {
+        for (Postings postings : documentTerms[document]) {
+            postings.remove(document);
+            if (postings.size == 0) {
+                postingsByTerm.remove(postings.term);
+            }
+        }
+    }
+
+    /**
+     * Method that returns the weight of a word of the index for a word of the query: the rarer the word, the higher the weight,
+     * and a word that only starts with the word of the query counts less the longer it is
+     */
+    private float weight(Postings postings, String queryTerm) {
+        float weight = (float) Math.log(1 + (double) documentByIdentifier.size() / postings.size);
+        return postings.term.length() == queryTerm.length() ? weight : weight * 0.5f * queryTerm.length() / postings.term.length();
+    }
+
+    /**
+     * Method that returns the multiplier of the fields where a word appears: a word on the name counts twice as one on the description
+     */
+    private static int fieldsWeight(byte fields) {
+        return ((fields & NAME) != 0 ? 2 : 0) + ((fields & DESCRIPTION) != 0 ? 1 : 0);
+    }
+
+    /**
+     * Method that returns the products that contain a word of the query (or a word that starts with it), with the highest weight
+     * of the words matched on each product
+     */
+    private Matches union(TermMatch termMatch) {
+        int total = (int) Math.min(Integer.MAX_VALUE - 8, termMatch.estimate);
+        if (termMatch.postings.size() == 1) {
+            Postings postings = termMatch.postings.get(0);
+            float weight = weight(postings, termMatch.queryTerm);
+            Matches matches = new Matches(postings.size);
+            for (int index = 0; index < postings.size; index++) {
+                matches.add(postings.documents[index], weight * fieldsWeight(postings.fields[index]));
+            }
+            return matches;
+        }
+
+        if ((long) total * 16 < documents) {
+            long[] keys = new long[total];
+            int position = 0;
+            for (Postings postings : termMatch.postings) {
+                float weight = weight(postings, termMatch.queryTerm);
+                for (int index = 0; index < postings.size; index++) {
+                    keys[position++] = (long) postings.documents[index] << 32 | Float.floatToRawIntBits(weight * fieldsWeight(postings.fields[index]));
+                }
+            }
+            Arrays.sort(keys);
+            Matches matches = new Matches(total);
+            for (int index = 0; index < keys.length; index++) {
+                if (index + 1 == keys.length || keys[index] >>> 32 != keys[index + 1] >>> 32) {
+                    matches.add((int) (keys[index] >>> 32), Float.intBitsToFloat((int) keys[index]));
+                }
+            }
+            return matches;
+        }
+
+        float[] scores = new float[documents];
+        for (Postings postings : termMatch.postings) {
+            float weight = weight(postings, termMatch.queryTerm);
+            for (int index = 0; index < postings.size; index++) {
+                int document = postings.documents[index];
+                scores[document] = Math.max(scores[document], weight * fieldsWeight(postings.fields[index]));
+            }
+        }
+        Matches matches = new Matches(Math.min(total, documents));
+        for (int document = 0; document < documents; document++) {
+            if (scores[document] > 0) {
+                matches.add(document, scores[document]);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Method that keeps the candidates that also contain a word of the query, searching each candidate on the postings of the
+     * words matched. Used when the candidates are few and the postings long
+     */
+    private Matches probe(Matches candidates, TermMatch termMatch) {
+        Matches matches = new Matches(candidates.size);
+        for (int index = 0; index < candidates.size; index++) {
+            float best = 0;
+            for (Postings postings : termMatch.postings) {
+                byte fields = postings.fields(candidates.documents[index]);
+                if (fields != 0) {
+                    best = Math.max(best, weight(postings, termMatch.queryTerm) * fieldsWeight(fields));
+                }
+            }
+            if (best > 0) {
+                matches.add(candidates.documents[index], candidates.scores[index] + best);
+            }
+        }
+        return matches;
+    }
+
+    private static Matches intersect(Matches first, Matches second) {
+        Matches matches = new Matches(Math.min(first.size, second.size));
+        for (int left = 0, right = 0; left < first.size && right < second.size; ) {
+            if (first.documents[left] < second.documents[right]) {
+                left++;
+            } else if (first.documents[left] > second.documents[right]) {
+                right++;
+            } else {
+                matches.add(first.documents[left], first.scores[left++] + second.scores[right++]);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Method that returns the identifiers of the products with the highest scores, ordered by score and identifier. The best
+     * matches are kept on a heap with the size of the limit, whose root is the worst of them
+     */
+    private List<String> top(Matches matches, int limit) {
+        int[] heap = new int[Math.min(limit, matches.size)];
+        int size = 0;
+        for (int index = 0; index < matches.size; index++) {
+            if (size < heap.length) {
+                heap[size] = index;
+                for (int child = size++; child > 0 && moreRelevant(matches, heap[(child - 1) / 2], heap[child]); child = (child - 1) / 2) {
+                    swap(heap, child, (child - 1) / 2);
+                }
+            } else if (moreRelevant(matches, index, heap[0])) {
+                heap[0] = index;
+                for (int parent = 0; ; ) {
+                    int worst = parent;
+                    for (int child = 2 * parent + 1; child <= 2 * parent + 2 && child < size; child++) {
+                        if (moreRelevant(matches, heap[worst], heap[child])) {
+                            worst = child;
+                        }
+                    }
+                    if (worst == parent) {
+                        break;
+                    }
+                    swap(heap, parent, worst);
+                    parent = worst;
+                }
+            }
+        }
+
+        List<Integer> ordered = new ArrayList<>(size);
+        for (int index = 0; index < size; index++) {
+            ordered.add(heap[index]);
+        }
+        ordered.sort((first, second) -> moreRelevant(matches, first, second) ? -1 : moreRelevant(matches, second, first) ? 1 : 0);
+        List<String> result = new ArrayList<>(size);
+        ordered.forEach(index -> result.add(identifiers[matches.documents[index]]));
+        return result;
+    }
+
+    private boolean moreRelevant(Matches matches, int first, int second) {
+        if (matches.scores[first] != matches.scores[second]) {
+            return matches.scores[first] > matches.scores[second];
+        }
+        return identifiers[matches.documents[first]].compareTo(identifiers[matches.documents[second]]) < 0;
+    }
+
+    private static void swap(int[] heap, int first, int second) {
+        int swapped = heap[first];
+        heap[first] = heap[second];
+        heap[second] = swapped;
+    }
+
+    /**
+     * Method that splits a text on words, normalized: lower case, without accents, and up to {@value #MAXIMUM_TERM_LENGTH} characters
+     *
+     * @param text text to split
+     * @return words of the text, on the order they appear
+     */
+    static List<String> tokenize(String text) {
+        String normalized = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("").toLowerCase(Locale.ROOT);
+        List<String> terms = new ArrayList<>();
+        for (String term : SEPARATOR.split(normalized)) {
+            if (!term.isEmpty()) {
+                terms.add(term.length() > MAXIMUM_TERM_LENGTH ? term.substring(0, MAXIMUM_TERM_LENGTH) : term);
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Products that contain a word, ordered, with the fields where the word appears on each one
+     */
+    private static final class Postings {
+
+        private final String term;
+        private int[] documents = new int[2];
+        private byte[] fields = new byte[2];
+        private int size;
+
+        Postings(String term) {
+            this.term = term;
+        }
+
+        void add(int document, byte documentFields) {
+            int position = Arrays.binarySearch(documents, 0, size, document);
+            if (position >= 0) {
+                fields[position] = documentFields;
+                return;
+            }
+            position = -position - 1;
+            if (size == documents.length) {
+                documents = Arrays.copyOf(documents, size * 2);
+                fields = Arrays.copyOf(fields, size * 2);
+            }
+            System.arraycopy(documents, position, documents, position + 1, size - position);
+            System.arraycopy(fields, position, fields, position + 1, size - position);
+            documents[position] = document;
+            fields[position] = documentFields;
+            size++;
+        }
+
+        void remove(int document) {
+            int position = Arrays.binarySearch(documents, 0, size, document);
+            if (position >= 0) {
+                System.arraycopy(documents, position + 1, documents, position, size - position - 1);
+                System.arraycopy(fields, position + 1, fields, position, size - position - 1);
+                size--;
+            }
+        }
+
+        byte fields(int document) {
+            int position = Arrays.binarySearch(documents, 0, size, document);
+            return position >= 0 ? fields[position] : 0;
+        }
+    }
+
+    /**
+     * Word of a query, with the postings of the words that start with it and the total number of products on them
+     */
+    private static final class TermMatch {
+
+        private final String queryTerm;
+        private final List<Postings> postings;
+        private final long estimate;
+
+        TermMatch(String queryTerm, Collection<Postings> postings) {
+            this.queryTerm = queryTerm;
+            this.postings = new ArrayList<>(postings);
+            this.estimate = postings.stream().mapToLong(matched -> matched.size).sum();
+        }
+    }
+
+    /**
+     * Products matched, ordered, with their scores
+     */
+    private static final class Matches {
+
+        private final int[] documents;
+        private final float[] scores;
+        private int size;
+
+        Matches(int capacity) {
+            this.documents = new int[capacity];
+            this.scores = new float[capacity];
+        }
+
+        void add(int document, float score) {
+            documents[size] = document;
+            scores[size++] = score;
+        }
+    }
+}
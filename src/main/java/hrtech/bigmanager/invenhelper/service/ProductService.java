@@ -1,23 +1,30 @@
 package hrtech.bigmanager.invenhelper.service;
 
 import hrtech.bigmanager.invenhelper.exception.InvalidBusinessIdentifier;
-import hrtech.bigmanager.invenhelper.exception.InvalidQuantity;
 import hrtech.bigmanager.invenhelper.exception.InvalidRepresentationOfConceptOnJSON;
 import hrtech.bigmanager.invenhelper.exception.InvalidText;
 import hrtech.bigmanager.invenhelper.model.DomainKey;
+import hrtech.bigmanager.invenhelper.model.Page;
 import hrtech.bigmanager.invenhelper.model.Product;
 import hrtech.bigmanager.invenhelper.model.ProductKey;
+import hrtech.bigmanager.invenhelper.model.ProductUpdate;
 import hrtech.bigmanager.invenhelper.model.Response;
-import hrtech.bigmanager.invenhelper.repository.ProductRepository;
+import hrtech.bigmanager.invenhelper.repository.DataSourceRouting;
+import hrtech.bigmanager.invenhelper.repository.IProductRepository;
+import hrtech.bigmanager.invenhelper.repository.ProductCache;
+import org.json.JSONArray;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 
-import java.util.List;
-import java.util.Optional;
-import java.util.UUID;
+import java.time.Instant;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * Product service
@@ -25,14 +32,59 @@ import java.util.UUID;
 @Service
 public class ProductService implements IService<Product, ProductKey> {
 
+    public static final String VERSION_CONFLICT = "The product was changed by other request";
+    public static final String CONVERSION_ERROR = "Error converting the JSON into a Product. Check the request";
+
     private final Logger logger = LoggerFactory.getLogger(ProductService.class);
-    private ProductRepository productRepository;
+    private IProductRepository productRepository;
+    private ProductCache productCache;
+    private QuantityAggregator quantityAggregator;
+    private ProductSearchIndex productSearchIndex;
+    private IdentifierDirectory identifierDirectory;
+    private QuantityIndex quantityIndex;
+    private ApplicationEventPublisher eventPublisher;
+    private int updateAttempts;
 
     @Autowired
-    public void setProductRepository(ProductRepository productRepository) {
+    public void setProductRepository(IProductRepository productRepository) {
         this.productRepository = productRepository;
     }
 
+    @Autowired
+    public void setProductCache(ProductCache productCache) {
+        this.productCache = productCache;
+    }
+
+    @Autowired
+    public void setQuantityAggregator(QuantityAggregator quantityAggregator) {
+        this.quantityAggregator = quantityAggregator;
+    }
+
+    @Autowired
+    public void setProductSearchIndex(ProductSearchIndex productSearchIndex) {
+        this.productSearchIndex = productSearchIndex;
+    }
+
+    @Autowired
+    public void setIdentifierDirectory(IdentifierDirectory identifierDirectory) {
+        this.identifierDirectory = identifierDirectory;
+    }
+
+    @Autowired
+    public void setQuantityIndex(QuantityIndex quantityIndex) {
+        this.quantityIndex = quantityIndex;
+    }
+
+    @Autowired
+    public void setEventPublisher(ApplicationEventPublisher eventPublisher) {
+        this.eventPublisher = eventPublisher;
+    }
+
+    @Value("${invenhelper.product.update-attempts:3}")
+    public void setUpdateAttempts(int updateAttempts) {
+        this.updateAttempts = Math.max(1, updateAttempts);
+    }
+
     /**
      * Method that creates a new entity
      *
@@ -41,7 +93,7 @@ public class ProductService implements IService<Product, ProductKey> {
      */
     @Override
     public boolean insert(Product objectToSave) {
-        return productRepository.insert(objectToSave);
+        return publishIfChanged(objectToSave, productRepository.insert(objectToSave), ProductChangedEvent.Type.CREATED);
     }
 
     /**
@@ -52,16 +104,183 @@ public class ProductService implements IService<Product, ProductKey> {
      */
     @Override
     public boolean save(Product objectToSave) {
-        return productRepository.save(objectToSave);
+        return publishIfChanged(objectToSave, productRepository.save(objectToSave), ProductChangedEvent.Type.UPDATED);
     }
 
     /**
-     * Method that returns the list of business identifiers
+     * Method that creates a list of new entities
+     *
+     * @param objectsToSave entities to be created
+     * @return list with the result of each creation, on the same order of the entities received
+     */
+    @Override
+    public List<Boolean> insertAll(List<Product> objectsToSave) {
+        List<Boolean> results = productRepository.insertAll(objectsToSave);
+        for (int index = 0; index < results.size(); index++) {
+            publishIfChanged(objectsToSave.get(index), results.get(index), ProductChangedEvent.Type.CREATED);
+        }
+        return results;
+    }
+
+    /**
+     * Method that updates a list of entities
+     *
+     * @param objectsToSave entities to be updated
+     * @return list with the result of each update, on the same order of the entities received
+     */
+    @Override
+    public List<Boolean> saveAll(List<Product> objectsToSave) {
+        List<Boolean> results = productRepository.saveAll(objectsToSave);
+        for (int index = 0; index < results.size(); index++) {
+            publishIfChanged(objectsToSave.get(index), results.get(index), ProductChangedEvent.Type.UPDATED);
+        }
+        return results;
+    }
+
+    /**
+     * Method that publishes a {@link ProductChangedEvent} if the change of a product was applied
+     *
+     * @param product product changed
+     * @param changed true if the change was applied
+     * @param type    kind of change
+     * @return the result received
+     */
+    private boolean publishIfChanged(Product product, boolean changed, ProductChangedEvent.Type type) {
+        if (changed) {
+            eventPublisher.publishEvent(new ProductChangedEvent(product, type));
+        }
+        return changed;
+    }
+
+    /**
+     * Method that returns the list of business identifiers, bounded by the configured maximum size
      *
      * @return list of business identifier
      */
     public List<String> findListOfIdentifiers() {
-        return productRepository.findListOfIdentifiers();
+        return DataSourceRouting.onReplica(productRepository::findListOfIdentifiers);
+    }
+
+    /**
+     * Method that returns the counters of the product cache
+     *
+     * @return JSONObject with the state, size, hits, misses and evictions of the cache
+     */
+    public JSONObject obtainCacheStatistics() {
+        return productCache.obtainJSONWithStatistics();
+    }
+
+    /**
+     * Method that returns a page of business identifiers, ordered
+     *
+     * @param cursor cursor returned with the previous page; empty to obtain the first page
+     * @param limit  maximum number of identifiers on the page
+     * @return page with the identifiers and the cursor of the next page, if there are more identifiers
+     * @throws IllegalArgumentException if the cursor is invalid
+     */
+    public Page<String> findIdentifiersPage(String cursor, int limit) {
+        String after = cursor.isEmpty() ? "" : Page.decodeCursor(cursor);
+        List<String> identifiers = DataSourceRouting.onReplica(() -> productRepository.findIdentifiersAfter(after, limit + 1));
+        if (identifiers.size() <= limit) {
+            return new Page<>(identifiers, null);
+        }
+        List<String> pageItems = identifiers.subList(0, limit);
+        return new Page<>(new ArrayList<>(pageItems), Page.encodeCursor(pageItems.get(limit - 1)));
+    }
+
+    /**
+     * Method that returns a page of the business identifiers that start with a prefix, ordered, from the in-memory
+     * {@link IdentifierDirectory}, without reading the database
+     *
+     * @param prefix start of the identifiers; empty for every identifier
+     * @param cursor cursor returned with the previous page; empty to obtain the first page
+     * @param limit  maximum number of identifiers on the page
+     * @return Optional with the page; empty if the directory is disabled
+     * @throws IllegalArgumentException if the cursor is invalid
+     */
+    public Optional<Page<String>> findIdentifiersByPrefix(String prefix, String cursor, int limit) {
+        return identifierDirectory.isEnabled() ? Optional.of(identifierDirectory.findByPrefix(prefix, cursor, limit)) : Optional.empty();
+    }
+
+    /**
+     * Method that returns the products with a quantity below a threshold, the lowest first, from the in-memory
+     * {@link QuantityIndex}
+     *
+     * @param threshold quantity above the products returned
+     * @param limit     maximum number of products
+     * @return Optional with the stock levels found; empty if the index is disabled
+     */
+    public Optional<List<QuantityIndex.StockLevel>> findQuantitiesBelow(int threshold, int limit) {
+        return quantityIndex.isEnabled() ? Optional.of(quantityIndex.findBelow(threshold, limit)) : Optional.empty();
+    }
+
+    /**
+     * Method that returns the products with a quantity between two values (inclusive), the lowest first, from the in-memory
+     * {@link QuantityIndex}
+     *
+     * @param minimum minimum quantity
+     * @param maximum maximum quantity
+     * @param limit   maximum number of products
+     * @return Optional with the stock levels found; empty if the index is disabled
+     */
+    public Optional<List<QuantityIndex.StockLevel>> findQuantitiesInRange(int minimum, int maximum, int limit) {
+        return quantityIndex.isEnabled() ? Optional.of(quantityIndex.findRange(minimum, maximum, limit)) : Optional.empty();
+    }
+
+    /**
+     * Method that returns the products with the highest quantities, the highest first, from the in-memory {@link QuantityIndex}
+     *
+     * @param limit maximum number of products
+     * @return Optional with the stock levels found; empty if the index is disabled
+     */
+    public Optional<List<QuantityIndex.StockLevel>> findTopQuantities(int limit) {
+        return quantityIndex.isEnabled() ? Optional.of(quantityIndex.findTop(limit)) : Optional.empty();
+    }
+
+    /**
+     * Method that defines the low-stock threshold of a product. The threshold is kept in memory, on this instance
+     *
+     * @param identifier business identifier of the product
+     * @param threshold  quantity below which an alert is published; 0 to use the default threshold
+     * @return true if the threshold was defined; false if the index is disabled
+     */
+    public boolean defineLowStockThreshold(String identifier, int threshold) {
+        if (!quantityIndex.isEnabled()) {
+            return false;
+        }
+        quantityIndex.defineThreshold(identifier, threshold);
+        return true;
+    }
+
+    /**
+     * Method that returns the recent low-stock alerts of this instance, the most recent first
+     *
+     * @param limit maximum number of alerts
+     * @return Optional with the alerts; empty if the index is disabled
+     */
+    public Optional<List<LowStockAlertEvent>> findLowStockAlerts(int limit) {
+        return quantityIndex.isEnabled() ? Optional.of(quantityIndex.findRecentAlerts(limit)) : Optional.empty();
+    }
+
+    /**
+     * Method that searches products by the words of their name and description, using the {@link ProductSearchIndex}. Only the
+     * products found are read, with a single query
+     *
+     * @param query words to search; the last ones may be incomplete
+     * @param limit maximum number of products to return
+     * @return Optional with the products found, the most relevant first; empty if the search is disabled
+     */
+    public Optional<List<Product>> searchProducts(String query, int limit) {
+        if (!productSearchIndex.isEnabled()) {
+            return Optional.empty();
+        }
+        List<String> identifiers = productSearchIndex.search(query, limit);
+        if (identifiers.isEmpty()) {
+            return Optional.of(Collections.emptyList());
+        }
+        Map<String, Product> productsByIdentifier = DataSourceRouting.onReplica(() -> productRepository.findByBusinessIds(identifiers)).stream()
+                .collect(Collectors.toMap(Product::getProductBusinessKey, Function.identity()));
+        return Optional.of(identifiers.stream().map(productsByIdentifier::get).filter(Objects::nonNull).collect(Collectors.toList()));
     }
 
     /**
@@ -74,7 +293,7 @@ public class ProductService implements IService<Product, ProductKey> {
     public Optional<Product> findById(Object keyToSearch) {
         try {
             ProductKey key = new ProductKey(DomainKey.convertStringToUUID(keyToSearch.toString()), keyToSearch.toString());
-            return productRepository.findById(key);
+            return DataSourceRouting.onReplica(() -> productRepository.findById(key));
         } catch (IllegalArgumentException e) {
             logger.error("Invalid key: " + keyToSearch);
             return Optional.empty();
@@ -82,12 +301,24 @@ public class ProductService implements IService<Product, ProductKey> {
     }
 
     /**
-     * Method that, given a key object, returns the corresponding object using the business identifier
+     * Method that, given a key object, returns the corresponding object using the business identifier. The product may be read
+     * from a replica, so it should not be used to change the product
      *
      * @param keyToSearch valid key object to search the entity
      * @return Option that contains the entity, if such ID exists on the database
      */
     public Optional<Product> findByBusinessKey(String keyToSearch) {
+        return DataSourceRouting.onReplica(() -> searchByBusinessKey(keyToSearch));
+    }
+
+    /**
+     * Method that returns a product, using the business identifier. It is read from the primary database, unless it is called
+     * by a read-only operation
+     *
+     * @param keyToSearch valid key object to search the entity
+     * @return Option that contains the entity, if such ID exists on the database
+     */
+    private Optional<Product> searchByBusinessKey(String keyToSearch) {
         try {
             ProductKey key = new ProductKey(UUID.randomUUID(), keyToSearch);
             return productRepository.findByBusinessId(key);
@@ -97,23 +328,35 @@ public class ProductService implements IService<Product, ProductKey> {
     }
 
     /**
-     * Method that, receiving a valid JSON object, creates a new Product and saves it on the database
+     * Method that, receiving a valid JSON object, creates a new Product and saves it on the database. The business identifier is unique on
+     * the database, so it is only searched if the product cannot be inserted
      *
      * @param objectOnBody JSON body with info about the product for the creation
      * @return Response object with info about the success of the operation
      */
     public Response<Product> createNewProduct(JSONObject objectOnBody) {
         try {
-            Product product = Product.convertFromJSONToCreate(objectOnBody);
-            if (this.findByBusinessKey(product.getProductBusinessKey()).isPresent()) {
-                throw new IllegalArgumentException("A product with the same business identifier is already registered");
-            }
+            return createNewProduct(Product.convertFromJSONToCreate(objectOnBody));
+        } catch (InvalidRepresentationOfConceptOnJSON e) {
+            logger.error("Invalid JSON object to be converted to Product: " + e.getLocalizedMessage());
+            return new Response<>(false, CONVERSION_ERROR);
+        }
+    }
 
+    /**
+     * Method that saves a new Product on the database, already converted from the request. The business identifier is unique on
+     * the database, so it is only searched if the product cannot be inserted
+     *
+     * @param product product to create
+     * @return Response object with info about the success of the operation
+     */
+    public Response<Product> createNewProduct(Product product) {
+        try {
             boolean answer = this.insert(product);
+            if (!answer && searchByBusinessKey(product.getProductBusinessKey()).isPresent()) {
+                throw new IllegalArgumentException("A product with the same business identifier is already registered");
+            }
             return new Response<>(answer, (answer ? "Success creating the product" : "Error saving on the database"), (answer ? product : null));
-        } catch (InvalidRepresentationOfConceptOnJSON e) {
-            logger.error("Invalid JSON object to be converted to Product: " + e.getLocalizedMessage());
-            return new Response<>(false, "Error converting the JSON into a Product. Check the request");
         } catch (IllegalArgumentException e) {
             logger.error(e.getLocalizedMessage());
             return new Response<>(false, e.getLocalizedMessage());
@@ -121,46 +364,119 @@ public class ProductService implements IService<Product, ProductKey> {
     }
 
     /**
-     * Method that obtains a product by its business identifier and increases by the quantity passed by parameter
+     * Method that, receiving a JSON array of products, creates the valid ones on the database. The products are inserted with batches
+     * and the business identifiers are unique on the database, so they are only searched for the products that could not be inserted
      *
-     * @param businessIdentifier product identifier
-     * @param quantity           quantity to be increased
-     * @return Response with info about the success of the operation
+     * @param objectsOnBody JSON array with info about each product for the creation
+     * @return list with a Response for each product, on the same order of the array received
      */
-    public Response<Product> increaseQuantity(String businessIdentifier, int quantity) {
-        Optional<Product> optionalProduct = findByBusinessKey(businessIdentifier);
-        if (optionalProduct.isEmpty()) {
-            return new Response<>(false, "Product not found");
+    public List<Response<Product>> createNewProducts(JSONArray objectsOnBody) {
+        List<Response<Product>> responses = new ArrayList<>(objectsOnBody.length());
+        Map<String, Integer> positionByIdentifier = new HashMap<>();
+        List<Product> productsToCreate = new ArrayList<>();
+        for (int index = 0; index < objectsOnBody.length(); index++) {
+            responses.add(null);
+            JSONObject objectOnBody = objectsOnBody.optJSONObject(index);
+            if (objectOnBody == null) {
+                responses.set(index, new Response<>(false, CONVERSION_ERROR));
+                continue;
+            }
+            try {
+                Product product = Product.convertFromJSONToCreate(objectOnBody);
+                if (positionByIdentifier.putIfAbsent(product.getProductBusinessKey(), index) != null) {
+                    responses.set(index, new Response<>(false, "The business identifier is repeated on the request"));
+                } else {
+                    productsToCreate.add(product);
+                }
+            } catch (InvalidRepresentationOfConceptOnJSON e) {
+                logger.error("Invalid JSON object to be converted to Product: " + e.getLocalizedMessage());
+                responses.set(index, new Response<>(false, CONVERSION_ERROR));
+            }
         }
 
-        if (quantity < 0) {
-            return new Response<>(false, "The number must be positive");
+        List<Boolean> results = this.insertAll(productsToCreate);
+        List<String> notInserted = new ArrayList<>();
+        for (int index = 0; index < productsToCreate.size(); index++) {
+            Product product = productsToCreate.get(index);
+            if (results.get(index)) {
+                responses.set(positionByIdentifier.get(product.getProductBusinessKey()), new Response<>(true, "Success creating the product", product));
+            } else {
+                notInserted.add(product.getProductBusinessKey());
+                responses.set(positionByIdentifier.get(product.getProductBusinessKey()), new Response<>(false, "Error saving on the database"));
+            }
         }
 
-        Product product = optionalProduct.get();
-        try {
-            product.increaseQuantity(quantity);
-        } catch (InvalidQuantity iq) {
-            return new Response<>(false, "Invalid quantity obtained while trying to increase");
+        if (!notInserted.isEmpty()) {
+            for (Product registered : productRepository.findByBusinessIds(notInserted)) {
+                responses.set(positionByIdentifier.get(registered.getProductBusinessKey()), new Response<>(false, "A product with the same business identifier is already registered"));
+            }
         }
+        return responses;
+    }
 
-        if (this.save(product)) {
-            return new Response<>(true, "Quantity updated", product);
-        } else {
-            return new Response<>(false, "Error updating database", product);
-        }
+    /**
+     * Method that increases the quantity of a product, given its business identifier, by the quantity passed by parameter
+     *
+     * @param businessIdentifier product identifier
+     * @param quantity           quantity to be increased
+     * @return Response with info about the success of the operation
+     */
+    public Response<Product> increaseQuantity(String businessIdentifier, int quantity) {
+        return changeQuantity(businessIdentifier, quantity, false, OptionalLong.empty());
     }
 
     /**
-     * Method that obtains a product by its business identifier and decreases by the quantity passed by parameter
+     * Method that increases the quantity of a product, only if the product has the version expected
      *
      * @param businessIdentifier product identifier
      * @param quantity           quantity to be increased
+     * @param expectedVersion    version that the product must have
+     * @return Response with info about the success of the operation
+     */
+    public Response<Product> increaseQuantity(String businessIdentifier, int quantity, long expectedVersion) {
+        return changeQuantity(businessIdentifier, quantity, false, OptionalLong.of(expectedVersion));
+    }
+
+    /**
+     * Method that decreases the quantity of a product, given its business identifier, by the quantity passed by parameter
+     *
+     * @param businessIdentifier product identifier
+     * @param quantity           quantity to be decreased
      * @return Response with info about the success of the operation
      */
     public Response<Product> decreaseQuantity(String businessIdentifier, int quantity) {
-        Optional<Product> optionalProduct = findByBusinessKey(businessIdentifier);
-        if (optionalProduct.isEmpty()) {
+        return changeQuantity(businessIdentifier, quantity, true, OptionalLong.empty());
+    }
+
+    /**
+     * Method that decreases the quantity of a product, only if the product has the version expected
+     *
+     * @param businessIdentifier product identifier
+     * @param quantity           quantity to be decreased
+     * @param expectedVersion    version that the product must have
+     * @return Response with info about the success of the operation
+     */
+    public Response<Product> decreaseQuantity(String businessIdentifier, int quantity, long expectedVersion) {
+        return changeQuantity(businessIdentifier, quantity, true, OptionalLong.of(expectedVersion));
+    }
+
+    /**
+     * Method that applies a quantity change to a product directly on the database, with a single statement, or, on the
+     * write-behind mode, accumulates it to be written later (the Response has no product in that case). A change with an
+     * expected version is always applied directly, since the version is only known on the database.
+     * The product is only read again if the change fails, to find out the reason of the failure
+     *
+     * @param businessIdentifier product identifier
+     * @param quantity           quantity to be increased or decreased. Must be positive
+     * @param decrease           true if the quantity is to be decreased; false if it is to be increased
+     * @param expectedVersion    version that the product must have; empty to change any version
+     * @return Response with info about the success of the operation
+     */
+    private Response<Product> changeQuantity(String businessIdentifier, int quantity, boolean decrease, OptionalLong expectedVersion) {
+        ProductKey key;
+        try {
+            key = new ProductKey(UUID.randomUUID(), businessIdentifier);
+        } catch (InvalidBusinessIdentifier ibi) {
             return new Response<>(false, "Product not found");
         }
 
@@ -168,59 +484,225 @@ public class ProductService implements IService<Product, ProductKey> {
             return new Response<>(false, "The number must be positive");
         }
 
-        Product product = optionalProduct.get();
-        try {
-            product.decreaseQuantity(quantity);
-        } catch (InvalidQuantity iq) {
-            return new Response<>(false, "Invalid quantity obtained while trying to decrease");
+        int delta = decrease ? -quantity : quantity;
+        Boolean accepted = expectedVersion.isEmpty() && quantityAggregator.isEnabled() ? quantityAggregator.add(key, delta) : null;
+        if (Boolean.TRUE.equals(accepted)) {
+            return new Response<>(true, "Quantity change accepted");
+        } else if (accepted == null) {
+            Optional<Product> updatedProduct = expectedVersion.isPresent() ? productRepository.changeQuantity(key, delta, expectedVersion.getAsLong()) :
+                    productRepository.changeQuantity(key, delta);
+            if (updatedProduct.isPresent()) {
+                publishIfChanged(updatedProduct.get(), true, ProductChangedEvent.Type.QUANTITY_CHANGED);
+                return new Response<>(true, "Quantity updated", updatedProduct.get());
+            }
+        }
+
+        Optional<Product> product = productRepository.findByBusinessId(key);
+        if (product.isEmpty()) {
+            return new Response<>(false, "Product not found");
+        }
+        if (expectedVersion.isPresent() && product.get().getVersion() != expectedVersion.getAsLong()) {
+            return new Response<>(false, VERSION_CONFLICT, product.get());
+        }
+        return new Response<>(false, "Invalid quantity obtained while trying to " + (decrease ? "decrease" : "increase"));
+    }
+
+    /**
+     * Method that applies a movement: a list of quantity changes, on different products, applied atomically. Either all the
+     * changes are applied or none is (for example, if a quantity would become negative)
+     *
+     * @param movements JSON array with an object for each product, with the 'identifier' and the signed 'quantity' to add
+     * @return list with a Response for each product, on the same order of the array received. On success, each Response contains
+     * the product after the movement; on failure, the products that made the movement fail have the reason of the failure
+     */
+    public List<Response<Product>> moveQuantities(JSONArray movements) {
+        List<Response<Product>> responses = new ArrayList<>(movements.length());
+        Map<String, Integer> deltas = new LinkedHashMap<>();
+        boolean valid = true;
+        for (int index = 0; index < movements.length(); index++) {
+            JSONObject movement = movements.optJSONObject(index);
+            Object quantity = movement == null ? null : movement.opt("quantity");
+            if (!(quantity instanceof Integer)) {
+                responses.add(new Response<>(false, "Error converting the JSON into a movement. Check the request"));
+                valid = false;
+                continue;
+            }
+            try {
+                ProductKey key = new ProductKey(movement.optString("identifier", ""));
+                if (deltas.putIfAbsent(key.getInternalKey(), (Integer) quantity) != null) {
+                    responses.add(new Response<>(false, "The business identifier is repeated on the request"));
+                    valid = false;
+                } else {
+                    responses.add(null);
+                }
+            } catch (InvalidBusinessIdentifier ibi) {
+                responses.add(new Response<>(false, "Product not found"));
+                valid = false;
+            }
         }
+        if (!valid) {
+            responses.replaceAll(response -> response == null ? new Response<>(false, "Movement not applied") : response);
+            return responses;
+        }
+
+        Map<String, Boolean> results = productRepository.moveQuantities(deltas);
+        boolean applied = results.values().stream().allMatch(Boolean::booleanValue);
+        Map<String, Product> productsByIdentifier = productRepository.findByBusinessIds(applied ? deltas.keySet() : results.entrySet().stream()
+                .filter(result -> !result.getValue()).map(Map.Entry::getKey).collect(Collectors.toList())).stream()
+                .collect(Collectors.toMap(Product::getProductBusinessKey, Function.identity()));
 
-        if (this.save(product)) {
-            return new Response<>(true, "Quantity updated", product);
-        } else {
-            return new Response<>(false, "Error updating database", product);
+        if (applied) {
+            quantityAggregator.refresh(deltas.keySet());
+        }
+        List<String> identifiers = new ArrayList<>(deltas.keySet());
+        for (int index = 0; index < identifiers.size(); index++) {
+            String identifier = identifiers.get(index);
+            Product product = productsByIdentifier.get(identifier);
+            if (applied) {
+                if (product != null) {
+                    publishIfChanged(product, true, ProductChangedEvent.Type.QUANTITY_CHANGED);
+                }
+                responses.set(index, new Response<>(true, "Quantity updated", product));
+            } else if (results.get(identifier)) {
+                responses.set(index, new Response<>(false, "Movement not applied"));
+            } else if (product == null) {
+                responses.set(index, new Response<>(false, "Product not found"));
+            } else if ((long) product.getQuantity() + deltas.get(identifier) < 0) {
+                responses.set(index, new Response<>(false, "Invalid quantity obtained while trying to move", product));
+            } else if (deltas.get(identifier) < 0 && product.getQuantity() + deltas.get(identifier) <
+                    productRepository.findReservedQuantity(identifier, Instant.now())) {
+                responses.set(index, new Response<>(false, "The quantity left would not cover the reserved quantity", product));
+            } else {
+                responses.set(index, new Response<>(false, "Error updating database"));
+            }
         }
+        return responses;
     }
 
     /**
      * Method that updates the product information (name and description).
+     * <p>
+     * The product is saved only if it was not changed since it was read. If it was, the update is applied again on the new
+     * state of the product, up to the configured number of attempts. If the request contains the 'version', the update is only
+     * applied on that version, and is never attempted again
      *
-     * @param info JSON object with info to update. It must contain the 'identifier' obligatory, 'name' and 'description' are optional
+     * @param info JSON object with info to update. It must contain the 'identifier' obligatory, 'name', 'description' and 'version' are optional
      * @return Response with info about the success of the operation
      */
     public Response<Product> updateProductInformation(JSONObject info) {
-        String businessIdentifier = info.optString("identifier", "");
-        Optional<Product> productToUpdate = findByBusinessKey(businessIdentifier);
-        if (productToUpdate.isEmpty()) {
-            return new Response<>(false, "Product not found");
-        }
+        return updateProductInformation(ProductUpdate.fromJSON(info));
+    }
 
-        try {
-            boolean hasChanges = false;
+    /**
+     * Method that updates the product information (name and description), as on {@link #updateProductInformation(JSONObject)}
+     *
+     * @param info changes to the product, already read from the request
+     * @return Response with info about the success of the operation
+     */
+    public Response<Product> updateProductInformation(ProductUpdate info) {
+        String businessIdentifier = info.getIdentifier();
+        Optional<Product> productToUpdate = searchByBusinessKey(businessIdentifier);
+        for (int attempt = 1; productToUpdate.isPresent(); attempt++) {
+            Product product = productToUpdate.get();
+            if (info.getVersion().isPresent() && product.getVersion() != info.getVersion().getAsLong()) {
+                return new Response<>(false, VERSION_CONFLICT, product);
+            }
 
-            Product oldProduct = productToUpdate.get();
-            if (info.has("name")) {
-                oldProduct.changeName(info.optString("name", ""));
-                hasChanges = true;
+            long versionRead = product.getVersion();
+            try {
+                if (!applyInformationChanges(product, info)) {
+                    return new Response<>(true, "No information to update product");
+                }
+                if (this.save(product)) {
+                    return new Response<>(true, "Product updated", product);
+                }
+            } catch (InvalidText it) {
+                return new Response<>(false, it.getLocalizedMessage());
+            } catch (IllegalArgumentException e) {
+                logger.error(e.getLocalizedMessage());
+                return new Response<>(false, "Error while updating product information");
             }
-            if (info.has("description")) {
-                oldProduct.changeDescription(info.optString("description", ""));
-                hasChanges = true;
+
+            productToUpdate = searchByBusinessKey(businessIdentifier);
+            if (productToUpdate.isPresent() && productToUpdate.get().getVersion() == versionRead) {
+                return new Response<>(false, "Error updating database", productToUpdate.get());
+            }
+            if (productToUpdate.isPresent() && attempt >= updateAttempts) {
+                return new Response<>(false, VERSION_CONFLICT, productToUpdate.get());
             }
+        }
+        return new Response<>(false, "Product not found");
+    }
+
+    /**
+     * Method that updates the information (name and description) of a list of products. The products are obtained with a
+     * single query for the whole list and saved with batches. The products that fail to be saved (for example, because they
+     * were changed meanwhile) are updated again one by one, as on {@link #updateProductInformation(JSONObject)}
+     *
+     * @param infos JSON array with the info to update of each product, on the format used by {@link #updateProductInformation(JSONObject)}
+     * @return list with a Response for each product, on the same order of the array received
+     */
+    public List<Response<Product>> updateProductsInformation(JSONArray infos) {
+        List<ProductUpdate> objects = new ArrayList<>(infos.length());
+        for (int index = 0; index < infos.length(); index++) {
+            JSONObject info = infos.optJSONObject(index);
+            objects.add(info == null ? null : ProductUpdate.fromJSON(info));
+        }
+        Map<String, Product> productsByIdentifier = productRepository.findByBusinessIds(objects.stream().filter(Objects::nonNull)
+                .map(ProductUpdate::getIdentifier).collect(Collectors.toList())).stream()
+                .collect(Collectors.toMap(Product::getProductBusinessKey, Function.identity()));
 
-            if (!hasChanges) {
-                return new Response<>(true, "No information to update product");
+        List<Response<Product>> responses = new ArrayList<>(objects.size());
+        List<Integer> positionsToSave = new ArrayList<>();
+        List<Product> productsToSave = new ArrayList<>();
+        Set<String> identifiersOnRequest = new HashSet<>();
+        for (ProductUpdate info : objects) {
+            Product product = info == null ? null : productsByIdentifier.get(info.getIdentifier());
+            if (product == null) {
+                responses.add(new Response<>(false, "Product not found"));
+                continue;
             }
-            if (this.save(oldProduct)) {
-                return new Response<>(true, "Product updated", oldProduct);
-            } else {
-                return new Response<>(false, "Error updating database", productToUpdate.get());
+            if (!identifiersOnRequest.add(product.getProductBusinessKey())) {
+                responses.add(new Response<>(false, "The business identifier is repeated on the request"));
+                continue;
+            }
+            if (info.getVersion().isPresent() && product.getVersion() != info.getVersion().getAsLong()) {
+                responses.add(new Response<>(false, VERSION_CONFLICT, product));
+                continue;
+            }
+            try {
+                if (applyInformationChanges(product, info)) {
+                    positionsToSave.add(responses.size());
+                    productsToSave.add(product);
+                    responses.add(null);
+                } else {
+                    responses.add(new Response<>(true, "No information to update product"));
+                }
+            } catch (InvalidText it) {
+                responses.add(new Response<>(false, it.getLocalizedMessage()));
             }
-        } catch (InvalidText it) {
-            return new Response<>(false, it.getLocalizedMessage());
-        } catch (IllegalArgumentException e) {
-            logger.error(e.getLocalizedMessage());
-            return new Response<>(false, "Error while updating product information");
         }
+
+        List<Boolean> results = this.saveAll(productsToSave);
+        for (int index = 0; index < productsToSave.size(); index++) {
+            int position = positionsToSave.get(index);
+            responses.set(position, results.get(index) ? new Response<>(true, "Product updated", productsToSave.get(index)) :
+                    updateProductInformation(objects.get(position)));
+        }
+        return responses;
+    }
+
+    /**
+     * Method that applies the name and description present on the changes to a product
+     *
+     * @param product product to change
+     * @param info    changes with the optional name and description
+     * @return true if the product was changed; false if there was nothing to change
+     * @throws InvalidText if the name or the description is invalid
+     */
+    private boolean applyInformationChanges(Product product, ProductUpdate info) {
+        info.getName().ifPresent(product::changeName);
+        info.getDescription().ifPresent(product::changeDescription);
+        return info.hasInformationChanges();
     }
 }
@@ -0,0 +1,247 @@
+package hrtech.bigmanager.invenhelper.service;
+
+import hrtech.bigmanager.invenhelper.model.Product;
+import hrtech.bigmanager.invenhelper.model.ProductInformation;
+import hrtech.bigmanager.invenhelper.model.ProductKey;
+import hrtech.bigmanager.invenhelper.model.Quantity;
+import hrtech.bigmanager.invenhelper.repository.DataSourceRouting;
+import hrtech.bigmanager.invenhelper.repository.IProductRepository;
+import hrtech.bigmanager.invenhelper.repository.ProductCache;
+import hrtech.bigmanager.invenhelper.repository.SnapshotFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Binary snapshot of the products, used to start an instance without reading every product from the database.
+ * <p>
+ * The snapshot is written periodically and when the application stops, reading the products with a cursor, on the format of
+ * {@link SnapshotFile}. On startup, the file is read and verified with its checksum. The products read are reconciled with the database,
+ * reading only the business identifier, the version and the quantity of each product: the products changed or created since the
+ * snapshot are read again, and the ones no longer on the database are discarded. The reconciled products fill the product cache
+ * and are used to build the search index, the identifier directory and the quantity index, until the application is started.
+ * A missing, invalid or unreadable snapshot is ignored, and the products are read from the database as before.
+ * <p>
+ * A repository that keeps its own snapshot (the one of the edge profile) already has its products in memory on startup, so this
+ * snapshot is not written nor read with it
+ */
+@Component
+public class ProductSnapshot implements InitializingBean, DisposableBean {
+
+    private static final int RECONCILE_PAGE_SIZE = 1000;
+
+    private final Logger logger = LoggerFactory.getLogger(ProductSnapshot.class);
+    private IProductRepository productRepository;
+    private ProductCache productCache;
+    private boolean enabled;
+    private Path snapshotFile;
+    private Duration interval;
+    private ScheduledExecutorService scheduler;
+    private volatile Collection<Product> startupProducts;
+
+    @Autowired
+    public void setProductRepository(IProductRepository productRepository) {
+        this.productRepository = productRepository;
+    }
+
+    @Autowired
+    public void setProductCache(ProductCache productCache) {
+        this.productCache = productCache;
+    }
+
+    @Value("${invenhelper.snapshot.enabled:false}")
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Value("${invenhelper.snapshot.file:products.snapshot}")
+    public void setSnapshotFile(String snapshotFile) {
+        this.snapshotFile = Paths.get(snapshotFile);
+    }
+
+    @Value("${invenhelper.snapshot.interval:30m}")
+    public void setInterval(Duration interval) {
+        this.interval = interval;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (enabled && productRepository.keepsSnapshot()) {
+            logger.info("Product snapshot disabled: the repository keeps its own snapshot");
+            enabled = false;
+        }
+        if (!enabled) {
+            return;
+        }
+        startupProducts = loadAndReconcile().orElse(null);
+        if (startupProducts != null) {
+            logger.info("Product cache filled with " + productCache.preload(startupProducts) + " products from the snapshot");
+        }
+        if (!interval.isZero() && !interval.isNegative()) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "product-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::writeSnapshot, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        if (enabled) {
+            writeSnapshot();
+        }
+    }
+
+    /**
+     * Method that releases the products read on startup, once every index was built
+     */
+    @EventListener(ContextRefreshedEvent.class)
+    public void releaseProducts() {
+        startupProducts = null;
+    }
+
+    /**
+     * Method that returns the products read from the snapshot and reconciled with the database, while the application starts
+     *
+     * @return Optional with the products; empty if there is no valid snapshot, or the application was already started
+     */
+    public Optional<Collection<Product>> obtainProducts() {
+        return Optional.ofNullable(startupProducts).map(Collections::unmodifiableCollection);
+    }
+
+    private synchronized void writeSnapshot() {
+        try {
+            long start = System.nanoTime();
+            long written = write(snapshotFile);
+            logger.info("Snapshot written with " + written + " products in " + (System.nanoTime() - start) / 1_000_000 + "ms");
+        } catch (IOException e) {
+            logger.error("Error while writing the snapshot: " + e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Method that writes every product to a snapshot file, read with a cursor
+     *
+     * @param file snapshot file
+     * @return number of products written
+     * @throws IOException if the file cannot be written, or the products cannot be read
+     */
+    public long write(Path file) throws IOException {
+        return SnapshotFile.write(file, writer -> {
+            long count;
+            try {
+                count = DataSourceRouting.onReplica(() -> productRepository.forEachProduct(1, product -> {
+                    try {
+                        writer.write(product);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            if (count < 0) {
+                throw new IOException("Error while reading the products");
+            }
+            return count;
+        });
+    }
+
+    /**
+     * Method that reads the products of a snapshot file
+     *
+     * @param file snapshot file
+     * @return products of the snapshot, by business identifier
+     * @throws IOException if the file cannot be read, is not a snapshot or is corrupted
+     */
+    public Map<String, Product> read(Path file) throws IOException {
+        Map<String, Product> products = new HashMap<>();
+        SnapshotFile.read(file, (mostBits, leastBits, businessIdentifier, name, description, quantity, version) -> {
+            String identifier = new String(businessIdentifier, StandardCharsets.UTF_8);
+            products.put(identifier, new Product(new ProductKey(new UUID(mostBits, leastBits), identifier),
+                    new ProductInformation(new String(name, StandardCharsets.UTF_8), new String(description, StandardCharsets.UTF_8)),
+                    new Quantity(quantity), version));
+        });
+        return products;
+    }
+
+    /**
+     * Method that reads the snapshot and reconciles it with the database
+     *
+     * @return Optional with the products on the database; empty if the snapshot cannot be used
+     */
+    private Optional<Collection<Product>> loadAndReconcile() {
+        if (!Files.exists(snapshotFile)) {
+            logger.info("No snapshot found on " + snapshotFile);
+            return Optional.empty();
+        }
+        long start = System.nanoTime();
+        Map<String, Product> snapshotProducts;
+        try {
+            snapshotProducts = read(snapshotFile);
+        } catch (IOException e) {
+            logger.error("Error while reading the snapshot, ignoring it: " + e.getLocalizedMessage());
+            return Optional.empty();
+        }
+        int loaded = snapshotProducts.size();
+
+        Optional<Collection<Product>> products = reconcile(snapshotProducts);
+        products.ifPresent(reconciled -> logger.info("Snapshot loaded with " + loaded + " products and reconciled to " + reconciled.size() +
+                " products in " + (System.nanoTime() - start) / 1_000_000 + "ms"));
+        return products;
+    }
+
+    /**
+     * Method that reconciles the products of a snapshot with the database. The products with the same version and quantity on
+     * the database are kept; the others are read again, and the products of the snapshot not found on the database are discarded
+     *
+     * @param snapshotProducts products of the snapshot, by business identifier. The map is emptied
+     * @return Optional with the products on the database; empty if the database cannot be read
+     */
+    Optional<Collection<Product>> reconcile(Map<String, Product> snapshotProducts) {
+        Map<String, Product> products = new HashMap<>(snapshotProducts.size() * 4 / 3 + 1);
+        List<String> changed = new ArrayList<>();
+        long read = DataSourceRouting.onReplica(() -> productRepository.forEachVersion((businessIdentifier, version, quantity) -> {
+            Product product = snapshotProducts.remove(businessIdentifier);
+            if (product != null && product.getVersion() == version && product.getQuantity() == quantity) {
+                products.put(businessIdentifier, product);
+            } else {
+                changed.add(businessIdentifier);
+            }
+        }));
+        if (read < 0) {
+            return Optional.empty();
+        }
+        for (int start = 0; start < changed.size(); start += RECONCILE_PAGE_SIZE) {
+            List<String> page = changed.subList(start, Math.min(start + RECONCILE_PAGE_SIZE, changed.size()));
+            DataSourceRouting.onReplica(() -> productRepository.findByBusinessIds(page))
+                    .forEach(product -> products.put(product.getProductBusinessKey(), product));
+        }
+        logger.info("Snapshot reconciled: " + changed.size() + " products read again, " + snapshotProducts.size() + " discarded");
+        snapshotProducts.clear();
+        return Optional.of(products.values());
+    }
+}
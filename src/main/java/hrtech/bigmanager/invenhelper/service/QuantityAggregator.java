@@ -0,0 +1,476 @@
+package hrtech.bigmanager.invenhelper.service;
+
+import hrtech.bigmanager.invenhelper.model.Product;
+import hrtech.bigmanager.invenhelper.model.ProductKey;
+import hrtech.bigmanager.invenhelper.repository.IProductRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Write-behind aggregator of quantity changes.
+ * <p>
+ * When enabled, the quantity changes are accumulated in memory, on a lock-free counter per product, and written to the database
+ * in batches, periodically or when the number of pending changes reaches a threshold. Each counter knows the quantity on the
+ * database, minus the quantity reserved and not expired, and the pending delta, so a decrease is only accepted if the projected
+ * quantity (available quantity plus pending delta) does not become negative, as the database would refuse it otherwise. A pending
+ * delta that the database rejects (for example, because the quantity was changed by other instance) is discarded and logged, and
+ * the counter is updated with the quantity on the database. A pending delta that cannot be written because of a database failure
+ * is put back on its counter, and written by the next flush.
+ * <p>
+ * When the application stops, the aggregator stops accepting changes, waits for the changes being added, and writes the
+ * pending ones. The changes received afterwards are written directly by the {@link ProductService}. The changes written directly
+ * while the aggregator is enabled (movements and confirmed reservations), and the reservations created, released or expired,
+ * refresh the counters of their products.
+ * <p>
+ * With the {@link QuantityJournal}, each accepted change is also appended to the journal before being acknowledged, and the
+ * journal checkpoint is moved after each flush, past the changes written or refused, so the changes accepted and not written
+ * are not lost if the application stops unexpectedly. Each flush keeps the journal position on the database with its changes
+ */
+@Component
+public class QuantityAggregator implements InitializingBean, DisposableBean {
+
+    private final Logger logger = LoggerFactory.getLogger(QuantityAggregator.class);
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final AtomicInteger pendingChanges = new AtomicInteger();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final ReadWriteLock acceptLock = new ReentrantReadWriteLock();
+    private IProductRepository productRepository;
+    private QuantityJournal quantityJournal;
+    private ApplicationEventPublisher eventPublisher;
+    private boolean enabled;
+    private Duration flushInterval;
+    private int flushThreshold;
+    private ScheduledExecutorService scheduler;
+    private volatile boolean accepting;
+
+    @Autowired
+    public void setProductRepository(IProductRepository productRepository) {
+        this.productRepository = productRepository;
+    }
+
+    @Autowired
+    public void setQuantityJournal(QuantityJournal quantityJournal) {
+        this.quantityJournal = quantityJournal;
+    }
+
+    @Autowired
+    public void setEventPublisher(ApplicationEventPublisher eventPublisher) {
+        this.eventPublisher = eventPublisher;
+    }
+
+    @Value("${invenhelper.quantity.write-behind.enabled:false}")
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Value("${invenhelper.quantity.write-behind.flush-interval:1s}")
+    public void setFlushInterval(Duration flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    @Value("${invenhelper.quantity.write-behind.flush-threshold:1000}")
+    public void setFlushThreshold(int flushThreshold) {
+        this.flushThreshold = Math.max(1, flushThreshold);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (enabled) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "quantity-aggregator");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long interval = Math.max(1, flushInterval.toMillis());
+            scheduler.scheduleWithFixedDelay(this::flushSafely, interval, interval, TimeUnit.MILLISECONDS);
+            accepting = true;
+            logger.info("Quantity write-behind enabled, flushing every " + flushInterval + " or " + flushThreshold + " changes");
+        }
+    }
+
+    /**
+     * Method that stops accepting changes, waits for the changes being added and writes the pending ones to the database
+     */
+    @Override
+    public void destroy() {
+        if (scheduler != null) {
+            acceptLock.writeLock().lock();
+            try {
+                accepting = false;
+            } finally {
+                acceptLock.writeLock().unlock();
+            }
+            scheduler.shutdown();
+            try {
+                if (!scheduler.awaitTermination(30, TimeUnit.SECONDS)) {
+                    logger.warn("Quantity aggregator did not stop on time");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            flush();
+            if (pendingChanges.get() > 0) {
+                logger.error("Error while manipulating data: " + pendingChanges.get() + " pending quantity changes could not be written before stopping");
+            } else {
+                logger.info("Quantity aggregator drained");
+            }
+        }
+    }
+
+    /**
+     * Method that informs if the changes are being accumulated
+     *
+     * @return true if the write-behind mode is enabled and the application is not stopping
+     */
+    public boolean isEnabled() {
+        return accepting;
+    }
+
+    /**
+     * Method that returns the number of changes accepted and not yet written to the database
+     *
+     * @return number of pending changes
+     */
+    public int obtainPendingChanges() {
+        return pendingChanges.get();
+    }
+
+    /**
+     * Method that accumulates a quantity change, to be written later to the database
+     *
+     * @param key   valid key of the product
+     * @param delta quantity to be added (positive) or removed (negative)
+     * @return true if the change was accepted; false if the product does not exist or the projected quantity would be invalid;
+     * null if the aggregator stopped accepting changes, so the change must be written directly
+     */
+    public Boolean add(ProductKey key, int delta) {
+        acceptLock.readLock().lock();
+        try {
+            return accepting ? accumulate(key, delta) : null;
+        } finally {
+            acceptLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Method that accumulates a quantity change on the counter of its product, creating the counter if needed
+     *
+     * @param key   valid key of the product
+     * @param delta quantity to be added (positive) or removed (negative)
+     * @return true if the change was accepted; false if the product does not exist or the projected quantity would be invalid
+     */
+    private boolean accumulate(ProductKey key, int delta) {
+        while (true) {
+            Counter counter = counters.get(key.getInternalKey());
+            if (counter == null) {
+                Optional<Product> product = productRepository.findByBusinessId(key);
+                if (product.isEmpty()) {
+                    return false;
+                }
+                Counter created = new Counter(availableQuantity(product.get()));
+                counter = counters.putIfAbsent(key.getInternalKey(), created);
+                if (counter == null) {
+                    counter = created;
+                }
+            }
+            Counter current = counter;
+            Boolean accepted = quantityJournal.isEnabled() ? quantityJournal.append(key.getInternalKey(), delta, () -> current.add(delta)) :
+                    counter.add(delta);
+            if (accepted != null) {
+                if (accepted && pendingChanges.incrementAndGet() >= flushThreshold && flushRequested.compareAndSet(false, true)) {
+                    try {
+                        scheduler.execute(this::flushSafely);
+                    } catch (RejectedExecutionException e) {
+                        // the application is stopping, and the pending changes are written by the drain
+                        flushRequested.set(false);
+                    }
+                }
+                return accepted;
+            }
+            // the counter was retired by a flush, so a new one is created
+        }
+    }
+
+    /**
+     * Method that writes the pending changes to the database, in a batch. Only one flush is executed at a time. With the journal,
+     * the changes are taken while no change is appended to it, and the journal checkpoint is moved after the batch; the changes
+     * that could not be written are appended again to the journal before, so the checkpoint does not leave them behind
+     */
+    public synchronized void flush() {
+        flushRequested.set(false);
+        Map<String, Integer> deltas = new HashMap<>();
+        if (quantityJournal.isEnabled()) {
+            long position = quantityJournal.mark(() -> takePendingChanges(deltas));
+            Map<String, Integer> failed = writePendingChanges(deltas, quantityJournal.getIdentifier(), position);
+            restorePendingChanges(failed);
+            if (!failed.isEmpty()) {
+                quantityJournal.appendAgain(failed, position);
+            }
+            quantityJournal.checkpoint(position);
+        } else {
+            takePendingChanges(deltas);
+            restorePendingChanges(writePendingChanges(deltas, null, 0));
+        }
+    }
+
+    /**
+     * Method that updates the counters of products changed directly on the repository (by a movement or a confirmed reservation),
+     * or whose reservations changed, with the available quantity on the database, so the next changes are not checked against a
+     * stale quantity. Executed while no flush is
+     * running, so the quantity read has none of the pending deltas
+     *
+     * @param businessIdentifiers business identifiers of the products changed
+     */
+    public synchronized void refresh(Collection<String> businessIdentifiers) {
+        for (String businessIdentifier : businessIdentifiers) {
+            Counter counter = counters.get(businessIdentifier);
+            if (counter == null) {
+                continue;
+            }
+            Optional<Product> product = productRepository.findByBusinessId(new ProductKey(businessIdentifier));
+            if (product.isPresent()) {
+                counter.rebase(availableQuantity(product.get()));
+            } else if (counter.retire()) {
+                counters.remove(businessIdentifier, counter);
+            }
+        }
+    }
+
+    /**
+     * Method that returns the quantity of a product that a decrease can remove: the quantity on the database minus the quantity
+     * reserved and not expired
+     *
+     * @param product product read from the database
+     * @return available quantity
+     */
+    private int availableQuantity(Product product) {
+        return product.getQuantity() - productRepository.findReservedQuantity(product.getProductBusinessKey(), Instant.now());
+    }
+
+    /**
+     * Method that takes the pending delta of each counter, retiring the counters without changes
+     *
+     * @param deltas map where the pending deltas are placed, by business identifier
+     */
+    private void takePendingChanges(Map<String, Integer> deltas) {
+        pendingChanges.set(0);
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            long delta = entry.getValue().take();
+            if (delta != 0) {
+                deltas.put(entry.getKey(), (int) delta);
+            } else if (entry.getValue().retire()) {
+                counters.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Method that puts back on their counters the deltas taken that could not be written to the database
+     *
+     * @param deltas deltas not written, by business identifier
+     */
+    private void restorePendingChanges(Map<String, Integer> deltas) {
+        for (Map.Entry<String, Integer> delta : deltas.entrySet()) {
+            Counter counter = counters.get(delta.getKey());
+            if (counter == null || !counter.restore(delta.getValue())) {
+                logger.error("Error while manipulating data: pending quantity change of " + delta.getValue() + " on product " +
+                        delta.getKey() + " could not be kept");
+            } else {
+                pendingChanges.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Method that writes the pending deltas to the database. A delta refused by the database is discarded, and the counter of its
+     * product is updated with the quantity on the database. The products changed are read with a single query and published as
+     * {@link ProductChangedEvent}s
+     *
+     * @param deltas   pending deltas, by business identifier
+     * @param journal  identifier of the journal, whose position is kept by the database with the changes; null without the journal
+     * @param position position of the journal after the pending deltas
+     * @return deltas that were not written because of a database failure, by business identifier
+     */
+    private Map<String, Integer> writePendingChanges(Map<String, Integer> deltas, String journal, long position) {
+        if (deltas.isEmpty()) {
+            return deltas;
+        }
+
+        Map<String, Boolean> results;
+        try {
+            results = productRepository.changeQuantities(deltas, journal, position);
+        } catch (RuntimeException e) {
+            logger.error("Error while manipulating data: " + e.getLocalizedMessage());
+            return deltas;
+        }
+        Map<String, Integer> failed = new HashMap<>();
+        List<String> applied = new ArrayList<>(deltas.size());
+        for (Map.Entry<String, Integer> delta : deltas.entrySet()) {
+            Boolean result = results.get(delta.getKey());
+            if (result == null) {
+                failed.put(delta.getKey(), delta.getValue());
+            } else if (result) {
+                applied.add(delta.getKey());
+            } else {
+                logger.error("Error while manipulating data: pending quantity change of " + delta.getValue() +
+                        " on product " + delta.getKey() + " was not applied and was discarded");
+                Counter counter = counters.get(delta.getKey());
+                Optional<Product> product = productRepository.findByBusinessId(new ProductKey(delta.getKey()));
+                if (counter != null) {
+                    if (product.isPresent()) {
+                        counter.rebase(availableQuantity(product.get()));
+                    } else if (counter.retire()) {
+                        counters.remove(delta.getKey(), counter);
+                    }
+                }
+            }
+        }
+        if (!failed.isEmpty()) {
+            logger.error("Error while manipulating data: " + failed.size() + " pending quantity changes could not be written, and are kept to the next flush");
+        }
+        if (!applied.isEmpty()) {
+            try {
+                productRepository.findByBusinessIds(applied).forEach(product ->
+                        eventPublisher.publishEvent(new ProductChangedEvent(product, ProductChangedEvent.Type.QUANTITY_CHANGED)));
+            } catch (RuntimeException e) {
+                logger.error("Error while manipulating data: " + e.getLocalizedMessage());
+            }
+        }
+        return failed;
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            logger.error("Error while writing the pending quantity changes: " + e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Quantity known on the database and pending delta of a product
+     */
+    private static final class State {
+
+        private final long base;
+        private final long pending;
+        private final boolean retired;
+
+        State(long base, long pending, boolean retired) {
+            this.base = base;
+            this.pending = pending;
+            this.retired = retired;
+        }
+    }
+
+    /**
+     * Lock-free counter of a product. The state is replaced with compare-and-set, so the projected quantity is checked and
+     * changed atomically
+     */
+    private static final class Counter {
+
+        private final AtomicReference<State> state;
+
+        Counter(int base) {
+            this.state = new AtomicReference<>(new State(base, 0, false));
+        }
+
+        /**
+         * Method that adds a delta, if the projected quantity remains valid
+         *
+         * @param delta quantity to add
+         * @return true if added; false if the projected quantity would be invalid; null if the counter is retired
+         */
+        Boolean add(int delta) {
+            while (true) {
+                State current = state.get();
+                if (current.retired) {
+                    return null;
+                }
+                long projected = current.base + current.pending + delta;
+                if (projected < 0 || projected > Integer.MAX_VALUE) {
+                    return false;
+                }
+                if (state.compareAndSet(current, new State(current.base, current.pending + delta, false))) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Method that takes the pending delta, assuming that it is written to the database
+         *
+         * @return pending delta
+         */
+        long take() {
+            while (true) {
+                State current = state.get();
+                if (current.pending == 0 || state.compareAndSet(current, new State(current.base + current.pending, 0, current.retired))) {
+                    return current.pending;
+                }
+            }
+        }
+
+        /**
+         * Method that puts back a delta taken, that was not written to the database
+         *
+         * @param delta delta taken
+         * @return true if restored; false if the counter is retired
+         */
+        boolean restore(long delta) {
+            while (true) {
+                State current = state.get();
+                if (current.retired) {
+                    return false;
+                }
+                if (state.compareAndSet(current, new State(current.base - delta, current.pending + delta, false))) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Method that replaces the quantity known on the database, keeping the pending delta
+         *
+         * @param base quantity on the database
+         */
+        void rebase(int base) {
+            state.updateAndGet(current -> new State(base, current.pending, current.retired));
+        }
+
+        /**
+         * Method that retires the counter, if it has no pending delta
+         *
+         * @return true if retired
+         */
+        boolean retire() {
+            State current = state.get();
+            return current.pending == 0 && state.compareAndSet(current, new State(current.base, 0, true));
+        }
+    }
+}
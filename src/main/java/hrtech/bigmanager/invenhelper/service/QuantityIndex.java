@@ -0,0 +1,308 @@
+package hrtech.bigmanager.invenhelper.service;
+
+import hrtech.bigmanager.invenhelper.model.Product;
+import hrtech.bigmanager.invenhelper.repository.DataSourceRouting;
+import hrtech.bigmanager.invenhelper.repository.IProductRepository;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory index of the products ordered by quantity, used to find the products with low stock, the products within a range
+ * of quantities and the best-stocked products without reading the database.
+ * <p>
+ * The index is read on startup (from the {@link ProductSnapshot}, if there is one) and follows the {@link ProductChangedEvent}s.
+ * Each product is kept once, and a change only replaces the entry of its product, so the queries see the index while it changes
+ * (a product changed during a query may be missed or seen twice). A change older than the one indexed (with a lower version) is
+ * ignored. The quantity changes of the stock ledger and of the counter slots keep the version, so the concurrent changes of those
+ * products are indexed on the order their events arrive, and the index may keep an older quantity until the next change: for
+ * them, the index is approximate. It is local to each instance: the quantities changed by other instances are only seen after a
+ * restart.
+ * <p>
+ * Each product may have a low-stock threshold (or the default one). When a change makes its quantity go below the threshold, a
+ * {@link LowStockAlertEvent} is published, logged and kept on the list of recent alerts. The thresholds are kept in memory
+ */
+@Component
+public class QuantityIndex implements InitializingBean {
+
+    private static final int MAXIMUM_RECENT_ALERTS = 1000;
+    private static final Comparator<StockLevel> BY_QUANTITY = Comparator.comparingInt(StockLevel::getQuantity).thenComparing(StockLevel::getIdentifier);
+
+    private final Logger logger = LoggerFactory.getLogger(QuantityIndex.class);
+    private final Map<String, StockLevel> levelsByIdentifier = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<StockLevel> levels = new ConcurrentSkipListSet<>(BY_QUANTITY);
+    private final Map<String, Integer> thresholds = new ConcurrentHashMap<>();
+    private final Deque<LowStockAlertEvent> recentAlerts = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger numberOfRecentAlerts = new AtomicInteger();
+    private IProductRepository productRepository;
+    private ProductSnapshot productSnapshot;
+    private ApplicationEventPublisher eventPublisher;
+    private boolean enabled;
+    private int defaultThreshold;
+    private int buildPageSize;
+
+    @Autowired
+    public void setProductRepository(IProductRepository productRepository) {
+        this.productRepository = productRepository;
+    }
+
+    @Autowired
+    public void setEventPublisher(ApplicationEventPublisher eventPublisher) {
+        this.eventPublisher = eventPublisher;
+    }
+
+    @Autowired
+    public void setProductSnapshot(ProductSnapshot productSnapshot) {
+        this.productSnapshot = productSnapshot;
+    }
+
+    @Value("${invenhelper.quantity.index.enabled:true}")
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Value("${invenhelper.quantity.index.low-stock-threshold:0}")
+    public void setDefaultThreshold(int defaultThreshold) {
+        this.defaultThreshold = Math.max(0, defaultThreshold);
+    }
+
+    @Value("${invenhelper.identifiers.maximum-list-size:10000}")
+    public void setBuildPageSize(int buildPageSize) {
+        this.buildPageSize = Math.max(1, buildPageSize);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (enabled) {
+            long start = System.nanoTime();
+            Optional<Collection<Product>> products = productSnapshot.obtainProducts();
+            int loaded = products.map(this::rebuild).orElseGet(this::rebuild);
+            logger.info("Quantity index built with " + loaded + " products" + (products.isPresent() ? " from the snapshot" : "") +
+                    " in " + (System.nanoTime() - start) / 1_000_000 + "ms");
+        }
+    }
+
+    /**
+     * Method that updates the quantity of a product created or changed
+     *
+     * @param event event of the change
+     */
+    @EventListener
+    public void onProductChanged(ProductChangedEvent event) {
+        if (enabled) {
+            update(event.getProduct());
+        }
+    }
+
+    /**
+     * Method that reads every product again, with pages of the configured maximum list size. No alert is published while the
+     * index is read
+     *
+     * @return number of products indexed
+     */
+    public synchronized int rebuild() {
+        levels.clear();
+        levelsByIdentifier.clear();
+        String after = "";
+        List<String> page;
+        do {
+            String pageStart = after;
+            page = DataSourceRouting.onReplica(() -> productRepository.findIdentifiersAfter(pageStart, buildPageSize));
+            if (!page.isEmpty()) {
+                List<String> identifiers = page;
+                DataSourceRouting.onReplica(() -> productRepository.findByBusinessIds(identifiers)).forEach(product ->
+                        replace(product.getProductBusinessKey(), product.getQuantity(), product.getVersion()));
+                after = page.get(page.size() - 1);
+            }
+        } while (page.size() == buildPageSize);
+        return levelsByIdentifier.size();
+    }
+
+    /**
+     * Method that builds the index again with a list of products, read without the database. No alert is published
+     *
+     * @param products products to index
+     * @return number of products indexed
+     */
+    public synchronized int rebuild(Collection<Product> products) {
+        levels.clear();
+        levelsByIdentifier.clear();
+        products.forEach(product -> replace(product.getProductBusinessKey(), product.getQuantity(), product.getVersion()));
+        return levelsByIdentifier.size();
+    }
+
+    /**
+     * Method that updates the quantity of a product, publishing a {@link LowStockAlertEvent} if it went below its threshold
+     *
+     * @param product product changed
+     */
+    public void update(Product product) {
+        StockLevel previous = replace(product.getProductBusinessKey(), product.getQuantity(), product.getVersion());
+        int threshold = thresholds.getOrDefault(product.getProductBusinessKey(), defaultThreshold);
+        if (previous != null && previous.quantity >= threshold && product.getQuantity() < threshold) {
+            LowStockAlertEvent alert = new LowStockAlertEvent(product.getProductBusinessKey(), product.getQuantity(), threshold, Instant.now());
+            logger.warn("Low stock on product " + alert.getIdentifier() + ": " + alert.getQuantity() + " below " + threshold);
+            recentAlerts.addFirst(alert);
+            if (numberOfRecentAlerts.incrementAndGet() > MAXIMUM_RECENT_ALERTS && recentAlerts.pollLast() != null) {
+                numberOfRecentAlerts.decrementAndGet();
+            }
+            eventPublisher.publishEvent(alert);
+        }
+    }
+
+    /**
+     * Method that replaces the stock level of a product, unless the one indexed is newer. A level with the same version replaces
+     * the one indexed, since the quantity changes that keep the version (stock ledger and counter slots) are only ordered by
+     * their events
+     *
+     * @param identifier business identifier of the product
+     * @param quantity   quantity of the product
+     * @param version    version of the product
+     * @return previous stock level, if the level was replaced and the product was indexed; null otherwise
+     */
+    private StockLevel replace(String identifier, int quantity, long version) {
+        StockLevel[] previous = new StockLevel[1];
+        levelsByIdentifier.compute(identifier, (key, current) -> {
+            if (current != null && current.version > version) {
+                return current;
+            }
+            StockLevel updated = new StockLevel(key, quantity, version);
+            if (current != null) {
+                levels.remove(current);
+                previous[0] = current;
+            }
+            levels.add(updated);
+            return updated;
+        });
+        return previous[0];
+    }
+
+    /**
+     * Method that defines the low-stock threshold of a product
+     *
+     * @param identifier business identifier of the product
+     * @param threshold  quantity below which an alert is published; 0 to use the default threshold
+     */
+    public void defineThreshold(String identifier, int threshold) {
+        if (threshold <= 0) {
+            thresholds.remove(identifier);
+        } else {
+            thresholds.put(identifier, threshold);
+        }
+    }
+
+    /**
+     * Method that returns the products with a quantity below a threshold, the lowest first
+     *
+     * @param threshold quantity above the products returned
+     * @param limit     maximum number of products
+     * @return stock levels found
+     */
+    public List<StockLevel> findBelow(int threshold, int limit) {
+        return threshold == Integer.MIN_VALUE ? Collections.emptyList() : findRange(Integer.MIN_VALUE, threshold - 1, limit);
+    }
+
+    /**
+     * Method that returns the products with a quantity between two values (inclusive), the lowest first
+     *
+     * @param minimum minimum quantity
+     * @param maximum maximum quantity
+     * @param limit   maximum number of products
+     * @return stock levels found
+     */
+    public List<StockLevel> findRange(int minimum, int maximum, int limit) {
+        if (minimum > maximum) {
+            return Collections.emptyList();
+        }
+        StockLevel from = new StockLevel("", minimum, 0);
+        if (maximum == Integer.MAX_VALUE) {
+            return take(levels.tailSet(from, true), limit);
+        }
+        return take(levels.subSet(from, true, new StockLevel("", maximum + 1, 0), false), limit);
+    }
+
+    /**
+     * Method that returns the products with the highest quantities, the highest first
+     *
+     * @param limit maximum number of products
+     * @return stock levels found
+     */
+    public List<StockLevel> findTop(int limit) {
+        return take(levels.descendingSet(), limit);
+    }
+
+    /**
+     * Method that returns the recent low-stock alerts, the most recent first
+     *
+     * @param limit maximum number of alerts
+     * @return alerts
+     */
+    public List<LowStockAlertEvent> findRecentAlerts(int limit) {
+        List<LowStockAlertEvent> alerts = new ArrayList<>();
+        for (Iterator<LowStockAlertEvent> iterator = recentAlerts.iterator(); iterator.hasNext() && alerts.size() < limit; ) {
+            alerts.add(iterator.next());
+        }
+        return alerts;
+    }
+
+    private static List<StockLevel> take(Collection<StockLevel> levelsToTake, int limit) {
+        List<StockLevel> taken = new ArrayList<>(Math.min(limit, 64));
+        for (Iterator<StockLevel> iterator = levelsToTake.iterator(); iterator.hasNext() && taken.size() < limit; ) {
+            taken.add(iterator.next());
+        }
+        return taken;
+    }
+
+    /**
+     * Quantity of a product, as indexed
+     */
+    public static final class StockLevel {
+
+        private final String identifier;
+        private final int quantity;
+        private final long version;
+
+        StockLevel(String identifier, int quantity, long version) {
+            this.identifier = identifier;
+            this.quantity = quantity;
+            this.version = version;
+        }
+
+        public String getIdentifier() {
+            return identifier;
+        }
+
+        public int getQuantity() {
+            return quantity;
+        }
+
+        /**
+         * Method that creates a JSON object with the stock level
+         *
+         * @return JSONObject with the identifier and the quantity
+         */
+        public JSONObject obtainJSON() {
+            JSONObject objectToReturn = new JSONObject();
+            objectToReturn.put("identifier", identifier);
+            objectToReturn.put("quantity", quantity);
+            return objectToReturn;
+        }
+    }
+}
@@ -0,0 +1,558 @@
+package hrtech.bigmanager.invenhelper.service;
+
+import hrtech.bigmanager.invenhelper.repository.IProductRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of the quantity changes accepted on the write-behind mode.
+ * <p>
+ * When enabled, each change accepted by the {@link QuantityAggregator} is appended to a local segment file, mapped on memory,
+ * and the change is only acknowledged after the segment is forced to the disk. Concurrent changes share the same force (group
+ * commit): while a force is running, the changes appended meanwhile wait for it to end and are all forced by the next one.
+ * <p>
+ * Each record has the length of the payload, its CRC32 and the payload (the business identifier, the delta and, for a change
+ * appended again, the position of the changes it replaces). A segment ends on the first record with length 0 (the file is filled
+ * with zeros when created) or with an invalid checksum (a record not acknowledged, partially written before a crash). The position
+ * of the first record not yet written to the database is kept on the checkpoint file, updated after each flush of the aggregator.
+ * <p>
+ * On startup, the records after the checkpoint, left by a previous execution, are written to the database before the
+ * application accepts requests, even if the journal is now disabled. The database keeps, on the same transaction of each change,
+ * the position of the journal written for each product, and the replay skips the records of a product up to that position,
+ * so a crash between a flush and the update of the checkpoint does not write the changes of that flush again. The journal is
+ * identified by a random identifier, kept on its directory.
+ * <p>
+ * A change is only left behind by the checkpoint after being written to the database or refused by it. The changes of a flush
+ * that failed with a database error are appended again before the checkpoint is moved. On startup, the changes that cannot be
+ * written are tried again; if the database stays unavailable, they are kept on a new segment and the startup fails
+ */
+@Component
+public class QuantityJournal implements InitializingBean, DisposableBean {
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d{20})\\.journal");
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final String IDENTIFIER_FILE = "journal-id";
+    private static final int HEADER_SIZE = 8;
+    private static final int FIXED_PAYLOAD_SIZE = Integer.BYTES + Long.BYTES;
+    private static final int MINIMUM_SEGMENT_SIZE = 64 * 1024;
+
+    private final Logger logger = LoggerFactory.getLogger(QuantityJournal.class);
+    private final Object appendLock = new Object();
+    private final Object forceLock = new Object();
+    private IProductRepository productRepository;
+    private volatile boolean enabled;
+    private Path directory;
+    private int segmentSize;
+    private int replayAttempts;
+    private Duration replayRetryDelay;
+    private String identifier;
+    private MappedByteBuffer segment;
+    private long segmentSequence;
+    private long appended;
+    private long forced;
+
+    @Autowired
+    public void setProductRepository(IProductRepository productRepository) {
+        this.productRepository = productRepository;
+    }
+
+    /**
+     * Method that sets if the journal is enabled. The journal is only used on the write-behind mode
+     *
+     * @param enabled            true to enable the journal
+     * @param writeBehindEnabled true if the write-behind mode is enabled
+     */
+    @Autowired
+    public void setEnabled(@Value("${invenhelper.quantity.write-behind.journal.enabled:false}") boolean enabled,
+                           @Value("${invenhelper.quantity.write-behind.enabled:false}") boolean writeBehindEnabled) {
+        this.enabled = enabled && writeBehindEnabled;
+    }
+
+    @Value("${invenhelper.quantity.write-behind.journal.directory:journal}")
+    public void setDirectory(String directory) {
+        this.directory = Paths.get(directory);
+    }
+
+    @Value("${invenhelper.quantity.write-behind.journal.segment-size:16MB}")
+    public void setSegmentSize(DataSize segmentSize) {
+        this.segmentSize = (int) Math.min(Integer.MAX_VALUE, Math.max(MINIMUM_SEGMENT_SIZE, segmentSize.toBytes()));
+    }
+
+    @Value("${invenhelper.quantity.write-behind.journal.replay-attempts:5}")
+    public void setReplayAttempts(int replayAttempts) {
+        this.replayAttempts = Math.max(1, replayAttempts);
+    }
+
+    @Value("${invenhelper.quantity.write-behind.journal.replay-retry-delay:2s}")
+    public void setReplayRetryDelay(Duration replayRetryDelay) {
+        this.replayRetryDelay = replayRetryDelay;
+    }
+
+    /**
+     * Method that writes the records left by a previous execution to the database and, if enabled, opens a new segment
+     *
+     * @throws IOException if the journal directory cannot be read or written, or if the records left cannot be written to
+     *                     the database. In that case, the records not written are kept for the next startup
+     */
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        List<Long> sequences = Files.isDirectory(directory) ? listSegments() : List.of();
+        if (enabled || !sequences.isEmpty()) {
+            Files.createDirectories(directory);
+            identifier = readIdentifier();
+        }
+        if (!sequences.isEmpty()) {
+            List<Record> records = readRecords(sequences);
+            long lastPosition = records.isEmpty() ? 0 : records.get(records.size() - 1).position;
+            Map<String, Integer> notWritten = replay(records, lastPosition);
+            if (!notWritten.isEmpty()) {
+                long sequence = sequences.get(sequences.size() - 1) + 1;
+                keepRecords(sequence, notWritten, lastPosition);
+                writeCheckpoint(position(sequence, 0));
+                deleteSegmentsBefore(sequence);
+                throw new IOException("The journaled quantity changes of " + notWritten.size() + " products could not be written to the database");
+            }
+        }
+        // the positions only grow, so the positions kept by the database are never ahead of new records
+        segmentSequence = Math.max(sequences.isEmpty() ? 0 : sequences.get(sequences.size() - 1) + 1, readCheckpoint() >>> 32);
+        if (enabled) {
+            Files.createDirectories(directory);
+            segment = createSegment(segmentSequence);
+            appended = position(segmentSequence, 0);
+            forced = appended;
+            logger.info("Quantity journal enabled on " + directory.toAbsolutePath());
+        }
+        if (enabled || !sequences.isEmpty()) {
+            writeCheckpoint(position(segmentSequence, 0));
+            deleteSegmentsBefore(segmentSequence);
+            productRepository.deleteJournalPositions(identifier);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        synchronized (appendLock) {
+            if (segment != null) {
+                segment.force();
+                segment = null;
+                enabled = false;
+            }
+        }
+    }
+
+    /**
+     * Method that informs if the changes are being written to the journal
+     *
+     * @return true if the journal is enabled and open
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Method that returns the identifier of the journal, used to keep its positions on the database
+     *
+     * @return identifier of the journal; null if the journal was never opened
+     */
+    public String getIdentifier() {
+        return identifier;
+    }
+
+    /**
+     * Method that appends a quantity change to the journal, if it is accepted, and waits until the change is on the disk.
+     * The acceptance is decided while no other change is appended, so the changes are on the journal on the order they
+     * were accepted
+     *
+     * @param businessIdentifier business identifier of the product
+     * @param delta              quantity to be added (positive) or removed (negative)
+     * @param acceptance         decision of accepting the change: true if accepted, false if refused, null to try again later
+     * @return result of the acceptance
+     * @throws UncheckedIOException if a new segment cannot be created or the segment cannot be forced to the disk
+     */
+    public Boolean append(String businessIdentifier, int delta, Supplier<Boolean> acceptance) {
+        byte[] identifier = businessIdentifier.getBytes(StandardCharsets.UTF_8);
+        long position;
+        synchronized (appendLock) {
+            if (segment.remaining() < HEADER_SIZE + identifier.length + FIXED_PAYLOAD_SIZE) {
+                rollSegment();
+            }
+            Boolean accepted = acceptance.get();
+            if (!Boolean.TRUE.equals(accepted)) {
+                return accepted;
+            }
+            putRecord(segment, identifier, delta, 0);
+            appended = position(segmentSequence, segment.position());
+            position = appended;
+        }
+        force(position);
+        return true;
+    }
+
+    /**
+     * Method that appends again changes taken by a flush of the aggregator, that could not be written to the database, and waits
+     * until they are on the disk. Called before the checkpoint of the flush, so the changes remain after it. Each record replaces
+     * the records of its product up to the position of the flush, so the replay does not add them again
+     *
+     * @param deltas   changes not written, by business identifier
+     * @param replaces position returned by {@link #mark(Runnable)} for the flush
+     * @throws UncheckedIOException if a new segment cannot be created or the segment cannot be forced to the disk
+     */
+    public void appendAgain(Map<String, Integer> deltas, long replaces) {
+        long position;
+        synchronized (appendLock) {
+            for (Map.Entry<String, Integer> delta : deltas.entrySet()) {
+                byte[] identifier = delta.getKey().getBytes(StandardCharsets.UTF_8);
+                if (segment.remaining() < HEADER_SIZE + identifier.length + FIXED_PAYLOAD_SIZE) {
+                    rollSegment();
+                }
+                putRecord(segment, identifier, delta.getValue(), replaces);
+                appended = position(segmentSequence, segment.position());
+            }
+            position = appended;
+        }
+        force(position);
+    }
+
+    /**
+     * Method that executes an action while no change is appended, returning the position of the journal at that moment.
+     * Used to take the pending changes of the aggregator, so the changes taken are exactly the ones before the position
+     *
+     * @param action action to execute
+     * @return position of the journal after the last change appended
+     */
+    public long mark(Runnable action) {
+        synchronized (appendLock) {
+            action.run();
+            return appended;
+        }
+    }
+
+    /**
+     * Method that registers that the changes before a position were written to the database, deleting the segments
+     * that are no longer needed
+     *
+     * @param position position returned by {@link #mark(Runnable)}
+     */
+    public void checkpoint(long position) {
+        try {
+            writeCheckpoint(position);
+            deleteSegmentsBefore(position >>> 32);
+        } catch (IOException e) {
+            logger.error("Error while writing the checkpoint of the quantity journal: " + e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Method that forces the segment to the disk, if the position was not forced yet. Only one force runs at a time, and it
+     * covers every change appended before it starts
+     *
+     * @param position position that must be on the disk
+     */
+    private void force(long position) {
+        synchronized (forceLock) {
+            if (forced >= position) {
+                return;
+            }
+            MappedByteBuffer current;
+            long target;
+            synchronized (appendLock) {
+                current = segment;
+                target = appended;
+            }
+            if (current != null) {
+                current.force();
+            }
+            forced = target;
+        }
+    }
+
+    /**
+     * Method that forces the current segment and replaces it by a new one. Must be called while holding the append lock
+     */
+    private void rollSegment() {
+        try {
+            MappedByteBuffer next = createSegment(segmentSequence + 1);
+            segment.force();
+            segment = next;
+            segmentSequence++;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Method that writes a record on a segment, that must have room for it
+     *
+     * @param buffer     segment
+     * @param identifier business identifier of the product, on UTF-8
+     * @param delta      quantity change
+     * @param replaces   position up to which the records of the product are replaced by this one; 0 for a new change
+     */
+    private static void putRecord(ByteBuffer buffer, byte[] identifier, int delta, long replaces) {
+        int payloadSize = identifier.length + FIXED_PAYLOAD_SIZE;
+        ByteBuffer payload = ByteBuffer.allocate(payloadSize).put(identifier).putInt(delta).putLong(replaces);
+        CRC32 checksum = new CRC32();
+        checksum.update(payload.array());
+        buffer.putInt(payloadSize).putInt((int) checksum.getValue()).put(payload.array());
+    }
+
+    /**
+     * Method that writes changes on new segments, starting on a sequence, forced to the disk. The records replace the ones
+     * already on the journal, so they are not added twice if the old segments are replayed again
+     *
+     * @param sequence sequence of the first segment
+     * @param deltas   changes to keep, by business identifier
+     * @param replaces position of the last record on the old segments
+     * @throws IOException if a segment cannot be created
+     */
+    private void keepRecords(long sequence, Map<String, Integer> deltas, long replaces) throws IOException {
+        MappedByteBuffer buffer = createSegment(sequence);
+        for (Map.Entry<String, Integer> delta : deltas.entrySet()) {
+            byte[] identifier = delta.getKey().getBytes(StandardCharsets.UTF_8);
+            if (buffer.remaining() < HEADER_SIZE + identifier.length + FIXED_PAYLOAD_SIZE) {
+                buffer.force();
+                buffer = createSegment(++sequence);
+            }
+            putRecord(buffer, identifier, delta.getValue(), replaces);
+        }
+        buffer.force();
+    }
+
+    /**
+     * Method that reads the records of the segments after the checkpoint
+     *
+     * @param sequences sequences of the segments, ordered
+     * @return records, on the order they were appended
+     * @throws IOException if a segment or the checkpoint cannot be read
+     */
+    private List<Record> readRecords(List<Long> sequences) throws IOException {
+        long checkpoint = readCheckpoint();
+        List<Record> records = new ArrayList<>();
+        for (long sequence : sequences) {
+            if (sequence < checkpoint >>> 32) {
+                continue;
+            }
+            try (FileChannel channel = FileChannel.open(segmentPath(sequence), StandardOpenOption.READ)) {
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                buffer.position(sequence == checkpoint >>> 32 ? (int) checkpoint : 0);
+                while (buffer.remaining() >= HEADER_SIZE) {
+                    int payloadSize = buffer.getInt();
+                    int expectedChecksum = buffer.getInt();
+                    if (payloadSize <= FIXED_PAYLOAD_SIZE || payloadSize > buffer.remaining()) {
+                        break;
+                    }
+                    byte[] payload = new byte[payloadSize];
+                    buffer.get(payload);
+                    CRC32 checksum = new CRC32();
+                    checksum.update(payload);
+                    if ((int) checksum.getValue() != expectedChecksum) {
+                        break;
+                    }
+                    ByteBuffer fixed = ByteBuffer.wrap(payload, payloadSize - FIXED_PAYLOAD_SIZE, FIXED_PAYLOAD_SIZE);
+                    records.add(new Record(new String(payload, 0, payloadSize - FIXED_PAYLOAD_SIZE, StandardCharsets.UTF_8),
+                            fixed.getInt(), fixed.getLong(), position(sequence, buffer.position())));
+                }
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Method that writes records to the database. The records of each product up to the position kept by the database, or
+     * replaced by a record appended again, are skipped; the deltas of the others are added together and written in a batch,
+     * keeping the position of the last record on the database. The changes refused by the database are discarded; the changes
+     * that fail with a database error are tried again, up to the configured number of attempts
+     *
+     * @param records      records after the checkpoint, on the order they were appended
+     * @param lastPosition position of the last record
+     * @return changes that could not be written, by business identifier
+     * @throws IOException if the positions kept by the database cannot be read
+     */
+    private Map<String, Integer> replay(List<Record> records, long lastPosition) throws IOException {
+        if (records.isEmpty()) {
+            return Map.of();
+        }
+        Map<String, Long> skippedUpTo = new HashMap<>(productRepository.findJournalPositions(identifier)
+                .orElseThrow(() -> new IOException("The positions of the quantity journal could not be read from the database")));
+        records.forEach(record -> skippedUpTo.merge(record.businessIdentifier, record.replaces, Math::max));
+        Map<String, Long> deltas = new HashMap<>();
+        int replayed = 0;
+        for (Record record : records) {
+            if (record.position > skippedUpTo.getOrDefault(record.businessIdentifier, 0L)) {
+                deltas.merge(record.businessIdentifier, (long) record.delta, Long::sum);
+                replayed++;
+            }
+        }
+        Map<String, Integer> changes = deltas.entrySet().stream().filter(delta -> delta.getValue() != 0)
+                .collect(Collectors.toMap(Map.Entry::getKey, delta -> (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, delta.getValue()))));
+        for (int attempt = 1; !changes.isEmpty(); attempt++) {
+            Map<String, Boolean> results;
+            try {
+                results = productRepository.changeQuantities(changes, identifier, lastPosition);
+            } catch (RuntimeException e) {
+                logger.error("Error while manipulating data: " + e.getLocalizedMessage());
+                results = Map.of();
+            }
+            Map<String, Integer> failed = new HashMap<>();
+            for (Map.Entry<String, Integer> change : changes.entrySet()) {
+                Boolean result = results.get(change.getKey());
+                if (result == null) {
+                    failed.put(change.getKey(), change.getValue());
+                } else if (!result) {
+                    logger.error("Error while manipulating data: journaled quantity change of " + change.getValue() +
+                            " on product " + change.getKey() + " was refused and was discarded");
+                }
+            }
+            changes = failed;
+            if (changes.isEmpty() || attempt >= replayAttempts) {
+                break;
+            }
+            logger.warn("The journaled quantity changes of " + changes.size() + " products could not be written, trying again in " + replayRetryDelay);
+            try {
+                Thread.sleep(replayRetryDelay.toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        logger.info("Quantity journal replayed: " + replayed + " of " + records.size() + " changes, of " + deltas.size() + " products");
+        return changes;
+    }
+
+    private List<Long> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> SEGMENT_NAME.matcher(file.getFileName().toString())).filter(Matcher::matches)
+                    .map(matcher -> Long.parseLong(matcher.group(1))).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private MappedByteBuffer createSegment(long sequence) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(sequence), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+    }
+
+    private void deleteSegmentsBefore(long sequence) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        for (long existing : listSegments()) {
+            if (existing < sequence) {
+                Files.deleteIfExists(segmentPath(existing));
+            }
+        }
+    }
+
+    /**
+     * Method that reads the identifier of the journal, creating a new one if the directory does not have it
+     *
+     * @return identifier of the journal
+     * @throws IOException if the file cannot be read or written
+     */
+    private String readIdentifier() throws IOException {
+        Path file = directory.resolve(IDENTIFIER_FILE);
+        if (Files.exists(file)) {
+            String existing = Files.readString(file, StandardCharsets.UTF_8).trim();
+            if (!existing.isEmpty()) {
+                return existing;
+            }
+        }
+        String created = UUID.randomUUID().toString();
+        writeFile(IDENTIFIER_FILE, ByteBuffer.wrap(created.getBytes(StandardCharsets.UTF_8)));
+        return created;
+    }
+
+    private long readCheckpoint() throws IOException {
+        Path file = directory.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        return buffer.remaining() >= Long.BYTES ? buffer.getLong() : 0;
+    }
+
+    /**
+     * Method that replaces the checkpoint file. The new content is forced to the disk on a temporary file, that is then
+     * moved over the checkpoint, so the checkpoint is never partially written
+     *
+     * @param position position of the first record not written to the database
+     * @throws IOException if the file cannot be written
+     */
+    private void writeCheckpoint(long position) throws IOException {
+        writeFile(CHECKPOINT_FILE, ByteBuffer.allocate(Long.BYTES).putLong(0, position));
+    }
+
+    private void writeFile(String name, ByteBuffer content) throws IOException {
+        Path temporary = directory.resolve(name + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(content);
+            channel.force(true);
+        }
+        Files.move(temporary, directory.resolve(name), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Path segmentPath(long sequence) {
+        return directory.resolve(String.format("segment-%020d.journal", sequence));
+    }
+
+    /**
+     * Method that returns the position of a record: the sequence of the segment on the upper 32 bits and the offset on the lower
+     *
+     * @param sequence sequence of the segment
+     * @param offset   offset on the segment
+     * @return position
+     */
+    private static long position(long sequence, int offset) {
+        return sequence << 32 | offset;
+    }
+
+    /**
+     * Record read from a segment, with the position after it
+     */
+    private static final class Record {
+
+        private final String businessIdentifier;
+        private final int delta;
+        private final long replaces;
+        private final long position;
+
+        private Record(String businessIdentifier, int delta, long replaces, long position) {
+            this.businessIdentifier = businessIdentifier;
+            this.delta = delta;
+            this.replaces = replaces;
+            this.position = position;
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package hrtech.bigmanager.invenhelper.service;
+
+import hrtech.bigmanager.invenhelper.exception.InvalidBusinessIdentifier;
+import hrtech.bigmanager.invenhelper.model.Product;
+import hrtech.bigmanager.invenhelper.model.ProductKey;
+import hrtech.bigmanager.invenhelper.model.Reservation;
+import hrtech.bigmanager.invenhelper.model.Response;
+import hrtech.bigmanager.invenhelper.repository.IProductRepository;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Reservation service: holds stock of a product for a while, without changing its quantity, so a checkout does not have to
+ * decrease the quantity and increase it again if it is abandoned. The available quantity of a product is its quantity minus the
+ * reservations that did not expire, and a reservation is only accepted if the available quantity covers it.
+ * <p>
+ * The reservations are kept on the repository, so they survive a restart, and are checked there, so the instances do not reserve
+ * the same stock. Each instance schedules the reservations it knows (the ones it created and the ones found on startup) on a
+ * {@link TimingWheel}, and removes them from the repository once they expire. An expired reservation is never counted, even
+ * before it is removed. The other decreases of the quantity are limited by the reservations too: they are refused if the
+ * quantity left would not cover the reservations not expired. On the write-behind mode, the counter of a product on the
+ * {@link QuantityAggregator} is refreshed when its reservations change, so a decrease is not accepted there and refused later
+ */
+@Service
+public class ReservationService implements InitializingBean, DisposableBean {
+
+    private final Logger logger = LoggerFactory.getLogger(ReservationService.class);
+    private final Map<UUID, Reservation> reservations = new ConcurrentHashMap<>();
+    private IProductRepository productRepository;
+    private QuantityAggregator quantityAggregator;
+    private ApplicationEventPublisher eventPublisher;
+    private boolean enabled;
+    private Duration defaultDuration;
+    private Duration maximumDuration;
+    private Duration tick;
+    private int wheelSize;
+    private TimingWheel<Reservation> wheel;
+    private ScheduledExecutorService scheduler;
+
+    @Autowired
+    public void setProductRepository(IProductRepository productRepository) {
+        this.productRepository = productRepository;
+    }
+
+    @Autowired
+    public void setQuantityAggregator(QuantityAggregator quantityAggregator) {
+        this.quantityAggregator = quantityAggregator;
+    }
+
+    @Autowired
+    public void setEventPublisher(ApplicationEventPublisher eventPublisher) {
+        this.eventPublisher = eventPublisher;
+    }
+
+    @Value("${invenhelper.reservation.enabled:true}")
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Value("${invenhelper.reservation.default-duration:5m}")
+    public void setDefaultDuration(Duration defaultDuration) {
+        this.defaultDuration = defaultDuration;
+    }
+
+    @Value("${invenhelper.reservation.maximum-duration:1h}")
+    public void setMaximumDuration(Duration maximumDuration) {
+        this.maximumDuration = maximumDuration;
+    }
+
+    @Value("${invenhelper.reservation.tick:1s}")
+    public void setTick(Duration tick) {
+        this.tick = tick;
+    }
+
+    @Value("${invenhelper.reservation.wheel-size:512}")
+    public void setWheelSize(int wheelSize) {
+        this.wheelSize = wheelSize;
+    }
+
+    /**
+     * Method that checks if the reservations are enabled, and supported by the repository
+     *
+     * @return true if the reservations are enabled
+     */
+    public boolean isEnabled() {
+        return enabled && productRepository.supportsReservations();
+    }
+
+    public Duration getDefaultDuration() {
+        return defaultDuration;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!isEnabled()) {
+            return;
+        }
+        wheel = new TimingWheel<>(tick, wheelSize, Instant.now());
+        List<Reservation> existingReservations = productRepository.findReservations();
+        existingReservations.forEach(this::track);
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "reservation-wheel");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(1, tick.toMillis());
+        scheduler.scheduleWithFixedDelay(this::reclaimSafely, interval, interval, TimeUnit.MILLISECONDS);
+        logger.info("Reservations enabled, with " + existingReservations.size() + " reservations found");
+    }
+
+    @Override
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Method that reserves a quantity of a product, for a duration
+     *
+     * @param businessIdentifier product identifier
+     * @param quantity           quantity to reserve. Must be positive
+     * @param duration           duration of the reservation, up to the configured maximum duration
+     * @return Response with the reservation created, or the reason of the failure
+     */
+    public Response<Reservation> reserve(String businessIdentifier, int quantity, Duration duration) {
+        if (!isEnabled()) {
+            return new Response<>(false, "The reservations are disabled");
+        }
+        ProductKey key;
+        try {
+            key = new ProductKey(businessIdentifier);
+        } catch (InvalidBusinessIdentifier ibi) {
+            return new Response<>(false, "Product not found");
+        }
+        if (quantity <= 0) {
+            return new Response<>(false, "The number must be positive");
+        }
+        if (duration.isNegative() || duration.isZero() || duration.compareTo(maximumDuration) > 0) {
+            return new Response<>(false, "The duration must be positive and up to " + maximumDuration.getSeconds() + " seconds");
+        }
+
+        Instant now = Instant.now();
+        Reservation reservation = new Reservation(UUID.randomUUID(), key.getInternalKey(), quantity, now.plus(duration));
+        if (productRepository.insertReservation(reservation, now)) {
+            track(reservation);
+            quantityAggregator.refresh(Collections.singletonList(reservation.getProductBusinessKey()));
+            return new Response<>(true, "Quantity reserved", reservation);
+        }
+        if (productRepository.findByBusinessId(key).isEmpty()) {
+            return new Response<>(false, "Product not found");
+        }
+        return new Response<>(false, "The available quantity does not cover the reservation");
+    }
+
+    /**
+     * Method that confirms a reservation: the quantity of the product is decreased by the quantity reserved, directly on the
+     * repository (also on the write-behind mode, refreshing the counter of the product), and the reservation is removed
+     *
+     * @param identifier identifier of the reservation
+     * @return Response with the product after the change, or the reason of the failure
+     */
+    public Response<Product> confirm(String identifier) {
+        if (!isEnabled()) {
+            return new Response<>(false, "The reservations are disabled");
+        }
+        Optional<Reservation> reservation = find(identifier);
+        if (reservation.isEmpty()) {
+            return new Response<>(false, "Reservation not found");
+        }
+        Instant now = Instant.now();
+        if (reservation.get().isExpired(now)) {
+            return new Response<>(false, "The reservation expired");
+        }
+        Optional<Product> product = productRepository.confirmReservation(reservation.get(), now);
+        if (product.isEmpty()) {
+            return new Response<>(false, "Invalid quantity obtained while trying to confirm the reservation");
+        }
+        reservations.remove(reservation.get().getIdentifier());
+        quantityAggregator.refresh(Collections.singletonList(reservation.get().getProductBusinessKey()));
+        eventPublisher.publishEvent(new ProductChangedEvent(product.get(), ProductChangedEvent.Type.QUANTITY_CHANGED));
+        return new Response<>(true, "Reservation confirmed", product.get());
+    }
+
+    /**
+     * Method that releases a reservation, without changing the quantity of the product
+     *
+     * @param identifier identifier of the reservation
+     * @return Response with the reservation released, or the reason of the failure
+     */
+    public Response<Reservation> release(String identifier) {
+        if (!isEnabled()) {
+            return new Response<>(false, "The reservations are disabled");
+        }
+        Optional<Reservation> reservation = find(identifier);
+        if (reservation.isEmpty() || !productRepository.deleteReservation(reservation.get())) {
+            return new Response<>(false, "Reservation not found");
+        }
+        reservations.remove(reservation.get().getIdentifier());
+        quantityAggregator.refresh(Collections.singletonList(reservation.get().getProductBusinessKey()));
+        return new Response<>(true, "Reservation released", reservation.get());
+    }
+
+    /**
+     * Method that returns the quantity of a product, the quantity reserved and the quantity available
+     *
+     * @param businessIdentifier product identifier
+     * @return Optional with a JSON object with the identifier, the quantity, the reserved quantity and the available quantity;
+     * empty if the product does not exist
+     */
+    public Optional<JSONObject> obtainAvailability(String businessIdentifier) {
+        Optional<Product> product;
+        try {
+            product = productRepository.findByBusinessId(new ProductKey(businessIdentifier));
+        } catch (InvalidBusinessIdentifier ibi) {
+            return Optional.empty();
+        }
+        return product.map(found -> {
+            int reserved = isEnabled() ? productRepository.findReservedQuantity(found.getProductBusinessKey(), Instant.now()) : 0;
+            JSONObject objectToReturn = new JSONObject();
+            objectToReturn.put("identifier", found.getProductBusinessKey());
+            objectToReturn.put("quantity", found.getQuantity());
+            objectToReturn.put("reserved", reserved);
+            objectToReturn.put("available", found.getQuantity() - reserved);
+            return objectToReturn;
+        });
+    }
+
+    /**
+     * Method that returns the number of reservations known by this instance, that were not confirmed, released or removed
+     *
+     * @return number of reservations
+     */
+    public int obtainSize() {
+        return reservations.size();
+    }
+
+    /**
+     * Method that removes the reservations expired until an instant, advancing the timing wheel
+     *
+     * @param now current instant
+     * @return number of reservations removed
+     */
+    public int reclaimExpired(Instant now) {
+        if (wheel == null) {
+            return 0;
+        }
+        List<Reservation> expired = wheel.advance(now).stream()
+                .filter(reservation -> reservations.get(reservation.getIdentifier()) == reservation).collect(Collectors.toList());
+        if (expired.isEmpty()) {
+            return 0;
+        }
+        int removed = productRepository.deleteExpiredReservations(expired, now);
+        expired.forEach(reservation -> reservations.remove(reservation.getIdentifier(), reservation));
+        quantityAggregator.refresh(expired.stream().map(Reservation::getProductBusinessKey).collect(Collectors.toSet()));
+        logger.debug("Reservations expired: " + expired.size() + ", " + removed + " removed from the repository");
+        return removed;
+    }
+
+    private void reclaimSafely() {
+        try {
+            reclaimExpired(Instant.now());
+        } catch (RuntimeException e) {
+            logger.error("Error while removing the expired reservations: " + e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Method that keeps a reservation and schedules its expiry
+     *
+     * @param reservation reservation to keep
+     */
+    private void track(Reservation reservation) {
+        reservations.put(reservation.getIdentifier(), reservation);
+        wheel.schedule(reservation, reservation.getExpiresOn());
+    }
+
+    /**
+     * Method that finds a reservation, first on the reservations known by this instance and then on the repository
+     *
+     * @param identifier identifier of the reservation
+     * @return Optional with the reservation; empty if the identifier is invalid or the reservation does not exist
+     */
+    private Optional<Reservation> find(String identifier) {
+        UUID reservationIdentifier;
+        try {
+            reservationIdentifier = UUID.fromString(identifier);
+        } catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+        Reservation known = reservations.get(reservationIdentifier);
+        return known != null ? Optional.of(known) : productRepository.findReservation(reservationIdentifier);
+    }
+}
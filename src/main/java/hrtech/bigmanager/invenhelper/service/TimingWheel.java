@@ -0,0 +1,136 @@
+package hrtech.bigmanager.invenhelper.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashed timing wheel: a circular array of buckets, one per tick, where each item waits for its deadline. An item due after a full
+ * turn of the wheel keeps the number of turns left, so scheduling an item and advancing a tick take constant time, regardless of
+ * the number of items waiting.
+ * <p>
+ * Items may be scheduled from any thread; they are moved to their buckets by {@link #advance(Instant)}, that must be called by a
+ * single thread at a time. Items cannot be cancelled: the owner of an expired item checks if it is still relevant. The deadlines
+ * are rounded up to the tick, so an item never expires before its deadline, and expires up to a tick after it
+ *
+ * @param <T> Item class
+ */
+class TimingWheel<T> {
+
+    private final long tickMillis;
+    private final long startMillis;
+    private final List<ArrayDeque<Timeout<T>>> buckets;
+    private final int mask;
+    private final Queue<Timeout<T>> scheduled = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private long currentTick;
+
+    /**
+     * Default constructor
+     *
+     * @param tick      duration of each tick
+     * @param wheelSize number of buckets, rounded up to a power of two
+     * @param start     instant of the first tick
+     */
+    TimingWheel(Duration tick, int wheelSize, Instant start) {
+        this.tickMillis = Math.max(1, tick.toMillis());
+        this.startMillis = start.toEpochMilli();
+        int bucketCount = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.buckets = new ArrayList<>(bucketCount);
+        for (int index = 0; index < bucketCount; index++) {
+            buckets.add(new ArrayDeque<>());
+        }
+        this.mask = bucketCount - 1;
+    }
+
+    /**
+     * Method that schedules an item to expire at a deadline. A deadline already passed expires on the next advance
+     *
+     * @param item     item to schedule
+     * @param deadline instant when the item expires
+     */
+    void schedule(T item, Instant deadline) {
+        scheduled.add(new Timeout<>(item, deadline.toEpochMilli()));
+        size.incrementAndGet();
+    }
+
+    /**
+     * Method that returns the number of items waiting, including the items not moved to their buckets yet
+     *
+     * @return number of items waiting
+     */
+    int size() {
+        return size.get();
+    }
+
+    /**
+     * Method that advances the wheel until an instant, processing the bucket of each tick passed, after moving the items scheduled
+     * meanwhile to their buckets. Must be called by a single thread at a time
+     *
+     * @param now current instant
+     * @return items expired: the items scheduled meanwhile with a deadline already passed, and then the items of each tick
+     */
+    synchronized List<T> advance(Instant now) {
+        List<T> expired = new ArrayList<>();
+        long nowMillis = now.toEpochMilli();
+        long lastTick = Math.floorDiv(nowMillis - startMillis, tickMillis);
+        transferScheduled(nowMillis, expired);
+        while (currentTick <= lastTick) {
+            Iterator<Timeout<T>> iterator = buckets.get((int) (currentTick & mask)).iterator();
+            while (iterator.hasNext()) {
+                Timeout<T> timeout = iterator.next();
+                if (timeout.remainingRounds > 0) {
+                    timeout.remainingRounds--;
+                } else if (timeout.deadlineMillis <= nowMillis) {
+                    iterator.remove();
+                    expired.add(timeout.item);
+                }
+            }
+            currentTick++;
+        }
+        size.addAndGet(-expired.size());
+        return expired;
+    }
+
+    /**
+     * Method that moves the items scheduled to the bucket of their deadline tick, with the number of full turns left. The items
+     * with a deadline already passed expire without going through the wheel
+     *
+     * @param nowMillis current instant, in milliseconds
+     * @param expired   list where the expired items are added
+     */
+    private void transferScheduled(long nowMillis, List<T> expired) {
+        for (Timeout<T> timeout = scheduled.poll(); timeout != null; timeout = scheduled.poll()) {
+            if (timeout.deadlineMillis <= nowMillis) {
+                expired.add(timeout.item);
+                continue;
+            }
+            long deadlineTick = Math.max(currentTick, Math.floorDiv(timeout.deadlineMillis - startMillis + tickMillis - 1, tickMillis));
+            timeout.remainingRounds = (deadlineTick - currentTick) / buckets.size();
+            buckets.get((int) (deadlineTick & mask)).add(timeout);
+        }
+    }
+
+    /**
+     * Item waiting on the wheel
+     *
+     * @param <T> Item class
+     */
+    private static final class Timeout<T> {
+
+        private final T item;
+        private final long deadlineMillis;
+        private long remainingRounds;
+
+        Timeout(T item, long deadlineMillis) {
+            this.item = item;
+            this.deadlineMillis = deadlineMillis;
+        }
+    }
+}
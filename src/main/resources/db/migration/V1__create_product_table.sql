@@ -0,0 +1,9 @@
+-- Initial schema. On databases created with the old databaseinit.sql script the table already exists and nothing is changed
+CREATE TABLE IF NOT EXISTS product (
+    id          VARCHAR(255) NOT NULL,
+    business_id TEXT         NOT NULL,
+    name        TEXT         NOT NULL,
+    description TEXT         NOT NULL,
+    quantity    INT          NOT NULL DEFAULT 0,
+    PRIMARY KEY (id)
+);
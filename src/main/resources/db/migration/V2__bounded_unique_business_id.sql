@@ -0,0 +1,4 @@
+-- Every lookup filters by the business identifier, so it is bounded and indexed. The index is unique, so duplicated identifiers
+-- are rejected by the database. Existing identifiers longer than 64 characters, or repeated, must be fixed before this migration
+ALTER TABLE product MODIFY business_id VARCHAR(64) NOT NULL;
+CREATE UNIQUE INDEX ux_product_business_id ON product (business_id);
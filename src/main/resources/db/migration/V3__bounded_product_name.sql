@@ -0,0 +1,2 @@
+-- The name is bounded with the same limit validated by ProductInformation
+ALTER TABLE product MODIFY name VARCHAR(255) NOT NULL;
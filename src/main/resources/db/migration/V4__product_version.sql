@@ -0,0 +1,2 @@
+-- Version of each product, increased on every change, for conditional (optimistic) updates
+ALTER TABLE product ADD COLUMN version BIGINT NOT NULL DEFAULT 0;
@@ -0,0 +1,12 @@
+-- Ledger of quantity movements, used when invenhelper.quantity.ledger.enabled is true. The quantity of the product is the snapshot
+-- of the ledger: the movements not compacted yet are added to it when the product is read, and the compactor moves them into it
+CREATE TABLE IF NOT EXISTS stock_movement (
+    id          BIGINT      NOT NULL AUTO_INCREMENT,
+    business_id VARCHAR(64) NOT NULL,
+    delta       INT         NOT NULL,
+    created_on  TIMESTAMP   NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    compacted   BOOLEAN     NOT NULL DEFAULT FALSE,
+    PRIMARY KEY (id)
+);
+CREATE INDEX ix_stock_movement_product ON stock_movement (business_id, compacted);
+CREATE INDEX ix_stock_movement_compacted ON stock_movement (compacted, business_id);
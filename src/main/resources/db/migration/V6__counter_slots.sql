@@ -0,0 +1,9 @@
+-- Counter slots of the products with contended quantity changes. A product split over slots has the number of slots on
+-- counter_slots, and its quantity is the sum of its slots
+ALTER TABLE product ADD COLUMN counter_slots INT NOT NULL DEFAULT 0;
+CREATE TABLE IF NOT EXISTS quantity_slot (
+    business_id VARCHAR(64) NOT NULL,
+    slot        INT         NOT NULL,
+    quantity    INT         NOT NULL DEFAULT 0,
+    PRIMARY KEY (business_id, slot)
+);
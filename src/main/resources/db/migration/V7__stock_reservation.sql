@@ -0,0 +1,10 @@
+-- Reservations of stock: quantity held for a product until it expires, without changing the quantity of the product. The
+-- available quantity of a product is its quantity minus the reservations that did not expire yet
+CREATE TABLE IF NOT EXISTS stock_reservation (
+    id          VARCHAR(36) NOT NULL,
+    business_id VARCHAR(64) NOT NULL,
+    quantity    INT         NOT NULL,
+    expires_on  TIMESTAMP   NOT NULL,
+    PRIMARY KEY (id)
+);
+CREATE INDEX ix_stock_reservation_product ON stock_reservation (business_id, expires_on);
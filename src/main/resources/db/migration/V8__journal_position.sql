@@ -0,0 +1,8 @@
+-- Last position of a quantity journal applied to each product, written on the same transaction of the change. The journaled
+-- changes at or before it are not applied again when the journal is replayed
+CREATE TABLE IF NOT EXISTS journal_position (
+    journal          VARCHAR(36) NOT NULL,
+    business_id      VARCHAR(64) NOT NULL,
+    applied_position BIGINT      NOT NULL,
+    PRIMARY KEY (journal, business_id)
+);
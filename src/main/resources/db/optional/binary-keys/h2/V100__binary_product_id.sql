@@ -0,0 +1,9 @@
+-- Optional migration that stores the product keys as BINARY(16) instead of 36 characters, making the primary key and every
+-- secondary index smaller. Enabled by adding classpath:db/optional/binary-keys/{vendor} to invenhelper.migration.locations
+ALTER TABLE product ADD COLUMN id_binary BINARY(16) NULL;
+UPDATE product SET id_binary = CAST(CAST(id AS UUID) AS BINARY(16));
+ALTER TABLE product DROP PRIMARY KEY;
+ALTER TABLE product DROP COLUMN id;
+ALTER TABLE product ALTER COLUMN id_binary RENAME TO id;
+ALTER TABLE product ALTER COLUMN id SET NOT NULL;
+ALTER TABLE product ADD PRIMARY KEY (id);
@@ -0,0 +1,7 @@
+-- Optional migration that stores the product keys as BINARY(16) instead of 36 characters, making the primary key and every
+-- secondary index smaller. Enabled by adding classpath:db/optional/binary-keys/{vendor} to invenhelper.migration.locations
+ALTER TABLE product ADD COLUMN id_binary BINARY(16) NULL;
+UPDATE product SET id_binary = UUID_TO_BIN(id);
+ALTER TABLE product DROP PRIMARY KEY, DROP COLUMN id;
+ALTER TABLE product RENAME COLUMN id_binary TO id;
+ALTER TABLE product MODIFY id BINARY(16) NOT NULL, ADD PRIMARY KEY (id);
@@ -0,0 +1,50 @@
+package hrtech.bigmanager.invenhelper.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+
+import javax.sql.DataSource;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DataSourceConfigurationTest {
+
+    private static HikariDataSource createDataSource(String username, String password) {
+        DataSourceProperties properties = new DataSourceProperties();
+        properties.setUsername("primary");
+        properties.setPassword("secret");
+        List<DataSource> dataSources = DataSourceConfiguration.createDataSources(Arrays.asList("jdbc:h2:mem:credentials", " "),
+                username, password, properties, 3);
+        assertEquals(1, dataSources.size());
+        return (HikariDataSource) dataSources.get(0);
+    }
+
+    @Test
+    void credentialsFallBackIndependently() {
+        try (HikariDataSource dataSource = createDataSource("", "")) {
+            assertEquals("primary", dataSource.getUsername());
+            assertEquals("secret", dataSource.getPassword());
+            assertEquals(3, dataSource.getMaximumPoolSize());
+        }
+        try (HikariDataSource dataSource = createDataSource("", "replica")) {
+            assertEquals("primary", dataSource.getUsername());
+            assertEquals("replica", dataSource.getPassword());
+        }
+        try (HikariDataSource dataSource = createDataSource("reader", "")) {
+            assertEquals("reader", dataSource.getUsername());
+            assertEquals("secret", dataSource.getPassword());
+        }
+    }
+
+    @Test
+    void blankShardUrlsIgnored() {
+        new ApplicationContextRunner().withUserConfiguration(DataSourceConfiguration.Sharded.class, DataSourceConfiguration.Replicated.class)
+                .withPropertyValues("invenhelper.datasource.shard-urls= ")
+                .run(context -> assertTrue(context.getBeansOfType(DataSource.class).isEmpty()));
+    }
+}
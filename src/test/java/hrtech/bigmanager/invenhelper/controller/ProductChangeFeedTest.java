@@ -0,0 +1,148 @@
+package hrtech.bigmanager.invenhelper.controller;
+
+import hrtech.bigmanager.invenhelper.model.Product;
+import hrtech.bigmanager.invenhelper.model.ProductInformation;
+import hrtech.bigmanager.invenhelper.model.ProductKey;
+import hrtech.bigmanager.invenhelper.model.Quantity;
+import hrtech.bigmanager.invenhelper.service.ProductChangedEvent;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProductChangeFeedTest {
+
+    private static ProductChangeFeed.Change change(long identifier, String businessIdentifier) {
+        return new ProductChangeFeed.Change(identifier, "updated", businessIdentifier, "{}", Instant.now());
+    }
+
+    private static List<Long> identifiers(List<ProductChangeFeed.Change> changes) {
+        return changes.stream().map(ProductChangeFeed.Change::getIdentifier).collect(Collectors.toList());
+    }
+
+    @Test
+    void bufferKeepsTheLastChangeOfEachProduct() {
+        ProductChangeFeed.Subscriber subscriber = new ProductChangeFeed.Subscriber("", 3, new SseEmitter());
+        assertTrue(subscriber.offer(change(1, "A")));
+        assertTrue(subscriber.offer(change(2, "B")));
+        assertTrue(subscriber.offer(change(3, "A")));
+        assertTrue(subscriber.offer(change(4, "C")));
+
+        assertEquals(Arrays.asList(2L, 3L, 4L), identifiers(subscriber.takePending()));
+        assertTrue(subscriber.takePending().isEmpty());
+    }
+
+    @Test
+    void onlyProductsWithThePrefix() {
+        ProductChangeFeed.Subscriber subscriber = new ProductChangeFeed.Subscriber("SKU-1", 3, new SseEmitter());
+        assertTrue(subscriber.offer(change(1, "SKU-10")));
+        assertFalse(subscriber.offer(change(2, "SKU-20")));
+
+        assertEquals(Arrays.asList(1L), identifiers(subscriber.takePending()));
+    }
+
+    @Test
+    void overflowWithMoreProductsThanTheBuffer() {
+        ProductChangeFeed.Subscriber subscriber = new ProductChangeFeed.Subscriber("", 2, new SseEmitter());
+        subscriber.offer(change(1, "A"));
+        subscriber.offer(change(2, "B"));
+        assertFalse(subscriber.isOverflowed());
+        assertTrue(subscriber.offer(change(3, "C")));
+        assertTrue(subscriber.isOverflowed());
+        assertFalse(subscriber.offer(change(4, "D")));
+        assertTrue(subscriber.takePending().isEmpty());
+
+        subscriber.restart();
+        assertFalse(subscriber.isOverflowed());
+        assertTrue(subscriber.offer(change(5, "E")));
+    }
+
+    @Test
+    void stalledSubscribersDoNotBlockTheOthers() throws InterruptedException {
+        ProductChangeFeed feed = new ProductChangeFeed();
+        feed.setBufferSize(16);
+        feed.setRetentionSize(0);
+        feed.setRetention(Duration.ofMinutes(1));
+        feed.setMaximumSubscribers(10);
+        feed.setHeartbeat(Duration.ofHours(1));
+        feed.setTimeout(Duration.ofHours(1));
+        feed.setWriteTimeout(Duration.ofMillis(200));
+        feed.setDispatchThreads(2);
+        feed.afterPropertiesSet();
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            feed.subscribe("", null, new StalledEmitter(release));
+            feed.subscribe("", null, new StalledEmitter(release));
+            RecordingEmitter healthy = new RecordingEmitter();
+            feed.subscribe("", null, healthy);
+
+            for (int index = 0; index < 5; index++) {
+                Product product = new Product(new ProductKey(UUID.randomUUID(), "Feed" + index), new ProductInformation("Name", "Description"), new Quantity(index));
+                feed.onProductChanged(new ProductChangedEvent(product, ProductChangedEvent.Type.CREATED));
+            }
+            assertTrue(waitFor(() -> healthy.events.size() == 5), "The healthy subscriber received " + healthy.events.size() + " changes");
+            assertTrue(waitFor(() -> feed.obtainSubscriberCount() == 1), "The stalled subscribers were not disconnected");
+
+            Product product = new Product(new ProductKey(UUID.randomUUID(), "FeedLast"), new ProductInformation("Name", "Description"), new Quantity(1));
+            feed.onProductChanged(new ProductChangedEvent(product, ProductChangedEvent.Type.CREATED));
+            assertTrue(waitFor(() -> healthy.events.size() == 6));
+        } finally {
+            release.countDown();
+            feed.destroy();
+        }
+    }
+
+    private static boolean waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    /**
+     * Emitter of a client that does not read: each write blocks until released, and then fails
+     */
+    private static final class StalledEmitter extends SseEmitter {
+
+        private final CountDownLatch release;
+
+        StalledEmitter(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new IOException("Broken pipe");
+        }
+    }
+
+    private static final class RecordingEmitter extends SseEmitter {
+
+        private final List<SseEventBuilder> events = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void send(SseEventBuilder builder) {
+            events.add(builder);
+        }
+    }
+}
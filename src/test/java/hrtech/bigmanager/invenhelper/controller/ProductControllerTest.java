@@ -22,8 +22,10 @@ import java.util.Random;
 import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @SpringBootTest(classes = {InvenHelperApplication.class, ProductController.class})
@@ -99,6 +101,146 @@ class ProductControllerTest {
         assertEquals(new JSONArray(Arrays.asList(product.getProductBusinessKey())).toList(), response.toList());
     }
 
+    @Test
+    void getBusinessIdentifiersPage() throws Exception {
+        Product otherProduct = new Product(new ProductKey(UUID.randomUUID(), defaultCode + "Z"), defaultInformation, defaultQuantity);
+        assertTrue(productService.insert(product));
+        assertTrue(productService.insert(otherProduct));
+
+        MvcResult requestResponse = mvc.perform(get("/product/identifiers").param("limit", "1")).andExpect(status().is2xxSuccessful()).andReturn();
+        JSONObject response = new JSONObject(requestResponse.getResponse().getContentAsString());
+        assertEquals(Arrays.asList(product.getProductBusinessKey()), response.getJSONArray("identifiers").toList());
+
+        requestResponse = mvc.perform(get("/product/identifiers").param("after", response.getString("next")).param("limit", "1"))
+                .andExpect(status().is2xxSuccessful()).andReturn();
+        response = new JSONObject(requestResponse.getResponse().getContentAsString());
+        assertEquals(Arrays.asList(otherProduct.getProductBusinessKey()), response.getJSONArray("identifiers").toList());
+        assertTrue(response.isNull("next"));
+
+        mvc.perform(get("/product/identifiers").param("limit", "0")).andExpect(status().is4xxClientError());
+        mvc.perform(get("/product/identifiers").param("after", "not a cursor")).andExpect(status().is4xxClientError());
+    }
+
+    @Test
+    void getBusinessIdentifiersByPrefix() throws Exception {
+        Product otherProduct = new Product(new ProductKey(UUID.randomUUID(), defaultCode + "Z"), defaultInformation, defaultQuantity);
+        Product unrelatedProduct = new Product(new ProductKey(UUID.randomUUID(), "~" + defaultCode), defaultInformation, defaultQuantity);
+        assertTrue(productService.insert(product));
+        assertTrue(productService.insert(otherProduct));
+        assertTrue(productService.insert(unrelatedProduct));
+
+        MvcResult requestResponse = mvc.perform(get("/product/identifiers/prefix").param("p", defaultCode).param("limit", "1"))
+                .andExpect(status().is2xxSuccessful()).andReturn();
+        JSONObject response = new JSONObject(requestResponse.getResponse().getContentAsString());
+        assertEquals(Arrays.asList(product.getProductBusinessKey()), response.getJSONArray("identifiers").toList());
+
+        requestResponse = mvc.perform(get("/product/identifiers/prefix").param("p", defaultCode).param("after", response.getString("next")))
+                .andExpect(status().is2xxSuccessful()).andReturn();
+        response = new JSONObject(requestResponse.getResponse().getContentAsString());
+        assertEquals(Arrays.asList(otherProduct.getProductBusinessKey()), response.getJSONArray("identifiers").toList());
+        assertTrue(response.isNull("next"));
+
+        mvc.perform(get("/product/identifiers/prefix").param("limit", "0")).andExpect(status().is4xxClientError());
+        mvc.perform(get("/product/identifiers/prefix").param("after", "not a cursor")).andExpect(status().is4xxClientError());
+    }
+
+    @Test
+    void searchProducts() throws Exception {
+        Product otherProduct = new Product(new ProductKey(UUID.randomUUID(), defaultCode + "Z"), new ProductInformation("Cable", defaultName), defaultQuantity);
+        assertTrue(productService.insert(product));
+        assertTrue(productService.insert(otherProduct));
+
+        MvcResult requestResponse = mvc.perform(get("/product/search").param("q", defaultName)).andExpect(status().is2xxSuccessful()).andReturn();
+        JSONArray response = new JSONArray(requestResponse.getResponse().getContentAsString());
+        assertEquals(2, response.length());
+        assertEquals(product.getProductBusinessKey(), response.getJSONObject(0).getString("identifier"));
+
+        requestResponse = mvc.perform(get("/product/search").param("q", "cab")).andExpect(status().is2xxSuccessful()).andReturn();
+        response = new JSONArray(requestResponse.getResponse().getContentAsString());
+        assertEquals(1, response.length());
+        assertEquals(otherProduct.getProductBusinessKey(), response.getJSONObject(0).getString("identifier"));
+
+        mvc.perform(get("/product/search").param("q", "cable").param("limit", "0")).andExpect(status().is4xxClientError());
+    }
+
+    @Test
+    void getQuantities() throws Exception {
+        Product stockedProduct = new Product(new ProductKey(UUID.randomUUID(), defaultCode + "Z"), defaultInformation, new Quantity(987654));
+        assertTrue(productService.insert(stockedProduct));
+
+        MvcResult requestResponse = mvc.perform(get("/product/quantities/range").param("min", "987654").param("max", "987654"))
+                .andExpect(status().is2xxSuccessful()).andReturn();
+        JSONArray response = new JSONArray(requestResponse.getResponse().getContentAsString());
+        assertEquals(1, response.length());
+        assertEquals(stockedProduct.getProductBusinessKey(), response.getJSONObject(0).getString("identifier"));
+        assertEquals(987654, response.getJSONObject(0).getInt("quantity"));
+
+        mvc.perform(put("/product/quantities/alert").param("identifier", stockedProduct.getProductBusinessKey()).param("threshold", "987000"))
+                .andExpect(status().is2xxSuccessful());
+        assertTrue(productService.decreaseQuantity(stockedProduct.getProductBusinessKey(), 1000).isSuccess());
+        requestResponse = mvc.perform(get("/product/quantities/alerts").param("limit", "1")).andExpect(status().is2xxSuccessful()).andReturn();
+        response = new JSONArray(requestResponse.getResponse().getContentAsString());
+        assertEquals(stockedProduct.getProductBusinessKey(), response.getJSONObject(0).getString("identifier"));
+        assertEquals(986654, response.getJSONObject(0).getInt("quantity"));
+
+        mvc.perform(get("/product/quantities/top").param("limit", "0")).andExpect(status().is4xxClientError());
+        mvc.perform(put("/product/quantities/alert").param("identifier", defaultCode).param("threshold", "-1")).andExpect(status().is4xxClientError());
+    }
+
+    @Test
+    void reserveAndConfirm() throws Exception {
+        assertTrue(productService.insert(product));
+        int quantity = product.getQuantity();
+
+        MvcResult requestResponse = mvc.perform(post("/product/reservations").param("identifier", defaultCode).param("quantity", "1").param("duration", "60"))
+                .andExpect(status().isCreated()).andReturn();
+        JSONObject reservation = new JSONObject(requestResponse.getResponse().getContentAsString()).getJSONObject("object");
+        assertEquals(defaultCode, reservation.getString("identifier"));
+
+        requestResponse = mvc.perform(get("/product/available").param("identifier", defaultCode)).andExpect(status().is2xxSuccessful()).andReturn();
+        assertEquals(quantity - 1, new JSONObject(requestResponse.getResponse().getContentAsString()).getInt("available"));
+
+        requestResponse = mvc.perform(post("/product/reservations/confirm").param("id", reservation.getString("id"))).andExpect(status().is2xxSuccessful()).andReturn();
+        assertEquals(quantity - 1, new JSONObject(requestResponse.getResponse().getContentAsString()).getJSONObject("object").getInt("quantity"));
+        mvc.perform(delete("/product/reservations").param("id", reservation.getString("id"))).andExpect(status().is4xxClientError());
+        mvc.perform(post("/product/reservations").param("identifier", defaultCode).param("quantity", String.valueOf(quantity))).andExpect(status().is4xxClientError());
+        mvc.perform(get("/product/available").param("identifier", "missing")).andExpect(status().is4xxClientError());
+    }
+
+    @Test
+    void followChanges() throws Exception {
+        MvcResult feed = mvc.perform(get("/product/changes").param("prefix", defaultCode)).andExpect(request().asyncStarted()).andReturn();
+        Product unrelatedProduct = new Product(new ProductKey(UUID.randomUUID(), "~" + defaultCode), defaultInformation, defaultQuantity);
+        assertTrue(productService.insert(unrelatedProduct));
+        assertTrue(productService.insert(product));
+        awaitContent(feed, "event:created");
+        assertTrue(productService.increaseQuantity(defaultCode, 1).isSuccess());
+
+        String events = awaitContent(feed, "event:quantity_changed");
+        assertFalse(events.contains(unrelatedProduct.getProductBusinessKey()));
+
+        MvcResult resumed = mvc.perform(get("/product/changes").header("Last-Event-ID", "0")).andExpect(request().asyncStarted()).andReturn();
+        String replayed = awaitContent(resumed, "event:quantity_changed");
+        assertTrue(replayed.contains("id:1\n"));
+        assertFalse(replayed.contains("id:2\n"), "The creation is replaced by the last change of the same product");
+        assertTrue(replayed.contains("id:3\n"));
+        assertFalse(replayed.contains("event:reset"));
+
+        MvcResult reset = mvc.perform(get("/product/changes").header("Last-Event-ID", "100")).andExpect(request().asyncStarted()).andReturn();
+        awaitContent(reset, "event:reset");
+    }
+
+    private static String awaitContent(MvcResult result, String expected) throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        String content = result.getResponse().getContentAsString();
+        while (!content.contains(expected) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+            content = result.getResponse().getContentAsString();
+        }
+        assertTrue(content.contains(expected), content);
+        return content;
+    }
+
     @Test
     void getProductByBusinessIdentifier() throws Exception {
         JSONObject notFound = new JSONObject();
@@ -140,6 +282,11 @@ class ProductControllerTest {
         response = new JSONObject(requestResponse.getResponse().getContentAsString());
         genericResponse = new Response<>(false, "Error converting the JSON into a Product. Check the request");
         assertEquals(genericResponse.obtainJSONWithAllInfo().toString(), response.toString());
+
+        requestResponse = mvc.perform(post("/product/create").content("{\"identifier\": ")).andExpect(status().is4xxClientError()).andReturn();
+        response = new JSONObject(requestResponse.getResponse().getContentAsString());
+        genericResponse = new Response<>(false, "Error on JSON body. Check the information");
+        assertEquals(genericResponse.obtainJSONWithAllInfo().toString(), response.toString());
     }
 
     @Test
@@ -163,6 +310,7 @@ class ProductControllerTest {
                 .param("quantity", String.valueOf(randomNumberToIncrease))).andExpect(status().is2xxSuccessful()).andReturn();
         response = new JSONObject(requestResponse.getResponse().getContentAsString());
         product.increaseQuantity(randomNumberToIncrease);
+        product.increaseVersion();
         assertEquals(finalResponse.obtainJSONWithAllInfo().toString(), response.toString());
     }
 
@@ -193,6 +341,143 @@ class ProductControllerTest {
                 .param("quantity", String.valueOf(randomNumberToDecrease))).andExpect(status().is2xxSuccessful()).andReturn();
         response = new JSONObject(requestResponse.getResponse().getContentAsString());
         product.decreaseQuantity(randomNumberToDecrease);
+        product.increaseVersion();
         assertEquals(finalResponse.obtainJSONWithAllInfo().toString(), response.toString());
+
+        Response<Product> versionConflict = new Response<>(false, "The product was changed by other request", product);
+        requestResponse = mvc.perform(put("/product/decreaseQuantity").param("identifier", product.getProductBusinessKey())
+                .param("quantity", "0").param("version", "0")).andExpect(status().isConflict()).andReturn();
+        response = new JSONObject(requestResponse.getResponse().getContentAsString());
+        assertEquals(versionConflict.obtainJSONWithAllInfo().toString(), response.toString());
+
+        mvc.perform(put("/product/decreaseQuantity").param("identifier", product.getProductBusinessKey())
+                .param("quantity", "0").param("version", "1")).andExpect(status().is2xxSuccessful());
+    }
+
+    @Test
+    void moveQuantities() throws Exception {
+        assertTrue(productService.insert(product));
+        JSONObject movement = new JSONObject();
+        movement.put("identifier", defaultCode);
+        movement.put("quantity", -(defaultGoodQuantity + 1));
+
+        mvc.perform(put("/product/move").content(new JSONArray(Arrays.asList(movement)).toString())).andExpect(status().is4xxClientError());
+
+        movement.put("quantity", -defaultGoodQuantity);
+        MvcResult requestResponse = mvc.perform(put("/product/move").content(new JSONArray(Arrays.asList(movement)).toString()))
+                .andExpect(status().is2xxSuccessful()).andReturn();
+        JSONArray response = new JSONArray(requestResponse.getResponse().getContentAsString());
+        assertEquals(0, response.getJSONObject(0).getJSONObject("object").getInt("quantity"));
+
+        mvc.perform(put("/product/move").content(movement.toString())).andExpect(status().is4xxClientError());
+    }
+
+    @Test
+    void createProducts() throws Exception {
+        JSONObject objectToInject = new JSONObject();
+        objectToInject.put("identifier", defaultCode);
+        objectToInject.put("name", defaultName);
+        objectToInject.put("description", defaultDescription);
+
+        JSONObject invalidObject = new JSONObject();
+        invalidObject.put("identifier", generateString());
+
+        JSONArray array = new JSONArray();
+        array.put(objectToInject);
+        array.put(invalidObject);
+
+        MvcResult requestResponse = mvc.perform(post("/product/createBatch").content(array.toString())).andExpect(status().is2xxSuccessful()).andReturn();
+        JSONArray response = new JSONArray(requestResponse.getResponse().getContentAsString());
+        product.decreaseQuantity(product.getQuantity());
+        assertEquals(new Response<>(true, "Success creating the product", product).obtainJSONWithAllInfo().toString(), response.getJSONObject(0).toString());
+        assertEquals(new Response<Product>(false, "Error converting the JSON into a Product. Check the request").obtainJSONWithAllInfo().toString(), response.getJSONObject(1).toString());
+
+        mvc.perform(post("/product/createBatch").content(objectToInject.toString())).andExpect(status().is4xxClientError());
+    }
+
+    @Test
+    void importProducts() throws Exception {
+        String csv = "identifier,name,description,quantity\n" +
+                defaultCode + "," + defaultName + "," + defaultDescription + "," + defaultGoodQuantity + "\n" +
+                defaultCode + "," + defaultName + "," + defaultDescription + ",1\n" +
+                "Invalid,Name,Description,-1\n";
+        MvcResult requestResponse = mvc.perform(post("/product/import").contentType("text/csv").content(csv))
+                .andExpect(status().is2xxSuccessful()).andReturn();
+        String[] records = requestResponse.getResponse().getContentAsString().split("\n");
+        assertEquals(3, new JSONObject(records[0]).getInt("line"));
+        assertEquals(4, new JSONObject(records[1]).getInt("line"));
+        assertEquals("progress", new JSONObject(records[2]).getString("type"));
+        JSONObject summary = new JSONObject(records[records.length - 1]);
+        assertEquals("summary", summary.getString("type"));
+        assertEquals(4, summary.getInt("lines"));
+        assertEquals(1, summary.getInt("imported"));
+        assertEquals(2, summary.getInt("failed"));
+        assertEquals(defaultGoodQuantity, productService.findByBusinessKey(defaultCode).orElseThrow().getQuantity());
+    }
+
+    @Test
+    void exportProducts() throws Exception {
+        assertTrue(productService.insert(product));
+        Product otherProduct = new Product(new ProductKey(UUID.randomUUID(), "Other" + defaultCode), new ProductInformation("Name, \"quoted\"", defaultDescription), defaultQuantity);
+        assertTrue(productService.insert(otherProduct));
+
+        MvcResult requestResponse = mvc.perform(get("/product/export").param("ranges", "2")).andExpect(status().is2xxSuccessful()).andReturn();
+        String[] lines = requestResponse.getResponse().getContentAsString().split("\n");
+        assertEquals(2, lines.length);
+        JSONObject exported = new JSONObject(lines[0]);
+        JSONObject first = product.getProductBusinessKey().equals(exported.getString("identifier")) ? exported : new JSONObject(lines[1]);
+        assertEquals(product.convertToJSON().toString(), first.toString());
+
+        requestResponse = mvc.perform(get("/product/export").param("format", "csv")).andExpect(status().is2xxSuccessful()).andReturn();
+        assertEquals("text/csv;charset=UTF-8", requestResponse.getResponse().getContentType());
+        String csv = requestResponse.getResponse().getContentAsString();
+        assertTrue(csv.startsWith("identifier,name,description,quantity,version\n"));
+        assertTrue(csv.contains("Other" + defaultCode + ",\"Name, \"\"quoted\"\"\"," + defaultDescription + "," + defaultGoodQuantity + ",0\n"));
+
+        mvc.perform(get("/product/export").param("format", "xml")).andExpect(status().is4xxClientError());
+        mvc.perform(get("/product/export").param("ranges", "0")).andExpect(status().is4xxClientError());
+    }
+
+    @Test
+    void updateProduct() throws Exception {
+        assertTrue(productService.insert(product));
+
+        String newName = generateString();
+        JSONObject objectToInject = new JSONObject();
+        objectToInject.put("identifier", defaultCode);
+        objectToInject.put("name", newName);
+        objectToInject.put("version", 0);
+        objectToInject.put("ignored", new JSONArray(Arrays.asList(1, 2)));
+
+        MvcResult requestResponse = mvc.perform(put("/product/updateProduct").content(objectToInject.toString())).andExpect(status().is2xxSuccessful()).andReturn();
+        JSONObject response = new JSONObject(requestResponse.getResponse().getContentAsString());
+        product.changeName(newName);
+        product.increaseVersion();
+        assertEquals(new Response<>(true, "Product updated", product).obtainJSONWithAllInfo().toString(), response.toString());
+
+        requestResponse = mvc.perform(put("/product/updateProduct").content(objectToInject.toString())).andExpect(status().isConflict()).andReturn();
+        response = new JSONObject(requestResponse.getResponse().getContentAsString());
+        assertEquals(new Response<>(false, ProductService.VERSION_CONFLICT, product).obtainJSONWithAllInfo().toString(), response.toString());
+
+        requestResponse = mvc.perform(put("/product/updateProduct").content("[]")).andExpect(status().is4xxClientError()).andReturn();
+        response = new JSONObject(requestResponse.getResponse().getContentAsString());
+        assertEquals(new Response<Product>(false, "Error on JSON body. Check the information").obtainJSONWithAllInfo().toString(), response.toString());
+    }
+
+    @Test
+    void updateProducts() throws Exception {
+        assertTrue(productService.insert(product));
+
+        String newName = generateString();
+        JSONObject objectToInject = new JSONObject();
+        objectToInject.put("identifier", defaultCode);
+        objectToInject.put("name", newName);
+
+        MvcResult requestResponse = mvc.perform(put("/product/updateBatch").content(new JSONArray(Arrays.asList(objectToInject)).toString()))
+                .andExpect(status().is2xxSuccessful()).andReturn();
+        JSONArray response = new JSONArray(requestResponse.getResponse().getContentAsString());
+        product.changeName(newName);
+        product.increaseVersion();
+        assertEquals(new Response<>(true, "Product updated", product).obtainJSONWithAllInfo().toString(), response.getJSONObject(0).toString());
     }
 }
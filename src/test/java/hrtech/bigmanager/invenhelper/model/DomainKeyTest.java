@@ -0,0 +1,46 @@
+package hrtech.bigmanager.invenhelper.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DomainKeyTest {
+
+    @Test
+    void convertStringToUUID() {
+        UUID uuid = UUID.randomUUID();
+        assertEquals(uuid, DomainKey.convertStringToUUID(uuid.toString()));
+        assertEquals(uuid, DomainKey.convertStringToUUID(uuid.toString().toUpperCase()));
+        assertEquals(uuid, DomainKey.convertStringToUUID(uuid.toString().replace("-", "")));
+    }
+
+    @Test
+    void convertInvalidStringToUUID() {
+        String uuid = UUID.randomUUID().toString();
+        assertThrows(IllegalArgumentException.class, () -> DomainKey.convertStringToUUID(""));
+        assertThrows(IllegalArgumentException.class, () -> DomainKey.convertStringToUUID(uuid.substring(1)));
+        assertThrows(IllegalArgumentException.class, () -> DomainKey.convertStringToUUID(uuid.replace('-', 'a')));
+        assertThrows(IllegalArgumentException.class, () -> DomainKey.convertStringToUUID("g" + uuid.substring(1)));
+        assertThrows(IllegalArgumentException.class, () -> DomainKey.convertStringToUUID("-" + uuid.replace("-", "").substring(1)));
+    }
+
+    @Test
+    void convertUUIDToBytes() {
+        UUID uuid = UUID.fromString("00112233-4455-6677-8899-aabbccddeeff");
+        byte[] bytes = DomainKey.convertUUIDToBytes(uuid);
+        assertArrayEquals(new byte[]{0x00, 0x11, 0x22, 0x33, 0x44, 0x55, 0x66, 0x77, (byte) 0x88, (byte) 0x99, (byte) 0xaa, (byte) 0xbb,
+                (byte) 0xcc, (byte) 0xdd, (byte) 0xee, (byte) 0xff}, bytes);
+        assertEquals(uuid, DomainKey.convertBytesToUUID(bytes));
+
+        UUID random = UUID.randomUUID();
+        assertEquals(random, DomainKey.convertBytesToUUID(DomainKey.convertUUIDToBytes(random)));
+    }
+
+    @Test
+    void convertInvalidBytesToUUID() {
+        assertThrows(IllegalArgumentException.class, () -> DomainKey.convertBytesToUUID(null));
+        assertThrows(IllegalArgumentException.class, () -> DomainKey.convertBytesToUUID(new byte[15]));
+    }
+}
@@ -0,0 +1,36 @@
+package hrtech.bigmanager.invenhelper.model;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PageTest {
+
+    @Test
+    void cursorConversion() {
+        String key = "Product-ÇÃ/+=";
+        String cursor = Page.encodeCursor(key);
+        assertEquals(key, Page.decodeCursor(cursor));
+        assertFalse(cursor.contains("/"));
+        assertFalse(cursor.contains("="));
+    }
+
+    @Test
+    void invalidCursor() {
+        assertThrows(IllegalArgumentException.class, () -> Page.decodeCursor("not a cursor"));
+    }
+
+    @Test
+    void obtainJSON() {
+        JSONObject lastPage = new Page<>(Collections.singletonList("A"), null).obtainJSON("identifiers");
+        assertEquals(Collections.singletonList("A"), lastPage.getJSONArray("identifiers").toList());
+        assertTrue(lastPage.isNull("next"));
+
+        JSONObject page = new Page<>(Arrays.asList("A", "B"), "Qg").obtainJSON("identifiers");
+        assertEquals("Qg", page.getString("next"));
+    }
+}
@@ -61,4 +61,15 @@ class ProductInformationTest {
     void setInvalidDescription() {
         assertThrows(InvalidText.class, () -> defaultInformation.setDescription(""));
     }
-}
\ No newline at end of file
+
+    @Test
+    void textTooLong() {
+        assertThrows(InvalidText.class, () -> new ProductInformation("n".repeat(ProductInformation.MAXIMUM_NAME_LENGTH + 1), defaultDescription));
+        assertThrows(InvalidText.class, () -> defaultInformation.setName("n".repeat(ProductInformation.MAXIMUM_NAME_LENGTH + 1)));
+        assertThrows(InvalidText.class, () -> defaultInformation.setDescription("d".repeat(ProductInformation.MAXIMUM_DESCRIPTION_LENGTH + 1)));
+
+        String longestName = "n".repeat(ProductInformation.MAXIMUM_NAME_LENGTH);
+        defaultInformation.setName(longestName);
+        assertEquals(longestName, defaultInformation.getName());
+    }
+}
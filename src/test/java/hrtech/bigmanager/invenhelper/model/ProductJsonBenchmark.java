@@ -0,0 +1,102 @@
+package hrtech.bigmanager.invenhelper.model;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares the bytes allocated and the requests per second of the conversion of the body of a product creation, and of its
+ * response, with org.json (the body read as a String, a JSONObject for the request and other for the response, written as a
+ * String) and with the streaming methods of {@link Domain}, used by the controller. Executed with the benchmark task
+ */
+@Tag("benchmark")
+class ProductJsonBenchmark {
+
+    private static final int OPERATIONS = 200_000;
+    private static final int ROUNDS = 5;
+
+    private final JsonFactory factory = new JsonFactory();
+    private final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    @Test
+    void allocationsPerRequest() throws IOException {
+        JSONObject request = new JSONObject();
+        request.put("identifier", "SKU-0001234");
+        request.put("name", "Name of the product");
+        request.put("description", "Description of the product, with some more words to have the length of a real description");
+        request.put("quantity", 150);
+        byte[] body = request.toString().getBytes(StandardCharsets.UTF_8);
+
+        ByteArrayOutputStream legacyOutput = new ByteArrayOutputStream(1024);
+        ByteArrayOutputStream streamingOutput = new ByteArrayOutputStream(1024);
+        convertWithJSONObject(new ByteArrayInputStream(body), legacyOutput);
+        convertWithStreaming(new ByteArrayInputStream(body), streamingOutput);
+        assertEquals(new JSONObject(legacyOutput.toString(StandardCharsets.UTF_8)).toString(),
+                new JSONObject(streamingOutput.toString(StandardCharsets.UTF_8)).toString());
+
+        measure("org.json", body, legacyOutput, this::convertWithJSONObject);
+        measure("streaming", body, streamingOutput, this::convertWithStreaming);
+    }
+
+    private void measure(String name, byte[] body, ByteArrayOutputStream output, Conversion conversion) throws IOException {
+        long threadId = Thread.currentThread().getId();
+        double bestRate = 0;
+        long fewestBytes = Long.MAX_VALUE;
+        for (int round = 0; round <= ROUNDS; round++) {
+            long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            for (int operation = 0; operation < OPERATIONS; operation++) {
+                output.reset();
+                conversion.convert(new ByteArrayInputStream(body), output);
+            }
+            long elapsed = System.nanoTime() - start;
+            long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+            if (round > 0) {
+                bestRate = Math.max(bestRate, OPERATIONS / (elapsed / 1_000_000_000.0));
+                fewestBytes = Math.min(fewestBytes, allocated / OPERATIONS);
+            }
+        }
+        System.out.printf("%s: %d bytes allocated per request, %.0f requests/second%n", name, fewestBytes, bestRate);
+    }
+
+    /**
+     * Conversion used by the controller before the streaming methods: the body is read as a String, parsed into a JSONObject,
+     * and the response is built as a JSONObject and written as a String
+     */
+    private void convertWithJSONObject(InputStream input, OutputStream output) throws IOException {
+        JSONObject object = new JSONObject(new String(input.readAllBytes(), StandardCharsets.UTF_8));
+        Product product = Product.convertFromJSONToCreate(object);
+        Response<Product> response = new Response<>(true, "Success creating the product", product);
+        output.write(response.obtainJSONWithAllInfo().toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void convertWithStreaming(InputStream input, OutputStream output) throws IOException {
+        Product product;
+        try (JsonParser parser = factory.createParser(input)) {
+            product = Product.readJSONToCreate(parser);
+        }
+        Response<Product> response = new Response<>(true, "Success creating the product", product);
+        try (JsonGenerator generator = factory.createGenerator(output, JsonEncoding.UTF8)) {
+            response.writeJSONWithAllInfo(generator);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Conversion {
+        void convert(InputStream input, OutputStream output) throws IOException;
+    }
+}
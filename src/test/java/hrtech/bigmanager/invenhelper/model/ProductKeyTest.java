@@ -50,4 +50,12 @@ class ProductKeyTest {
         assertThrows(InvalidBusinessIdentifier.class, () -> new ProductKey(UUID.randomUUID(), internalKey));
         assertThrows(InvalidBusinessIdentifier.class, () -> new ProductKey(internalKey));
     }
-}
\ No newline at end of file
+
+    @Test
+    void businessKeyTooLong() {
+        String internalKey = "k".repeat(ProductKey.MAXIMUM_INTERNAL_KEY_LENGTH + 1);
+        assertThrows(InvalidBusinessIdentifier.class, () -> new ProductKey(UUID.randomUUID(), internalKey));
+        assertThrows(InvalidBusinessIdentifier.class, () -> new ProductKey(internalKey));
+        assertThrows(InvalidBusinessIdentifier.class, () -> key.setInternalKey(internalKey));
+    }
+}
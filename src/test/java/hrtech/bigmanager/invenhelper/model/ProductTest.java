@@ -1,15 +1,22 @@
 package hrtech.bigmanager.invenhelper.model;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
 import hrtech.bigmanager.invenhelper.exception.InvalidQuantity;
+import hrtech.bigmanager.invenhelper.exception.InvalidRepresentationOfConceptOnJSON;
 import hrtech.bigmanager.invenhelper.exception.InvalidText;
+import org.json.JSONObject;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.util.Random;
 import java.util.UUID;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.*;
 
 class ProductTest {
 
@@ -24,6 +31,7 @@ class ProductTest {
     private int randomNumberToDecrease;
     private Quantity defaultQuantity;
     private Product product;
+    private final JsonFactory factory = new JsonFactory();
 
     private String generateString() {
         //Baeldung Random String generation
@@ -101,6 +109,16 @@ class ProductTest {
         assertThrows(InvalidText.class, () -> product.changeDescription(""));
     }
 
+    @Test
+    void copy() {
+        Product copy = product.copy();
+        assertEquals(product, copy);
+        copy.increaseQuantity(randomNumberToIncrease);
+        copy.changeName(generateString());
+        assertEquals(defaultGoodQuantity, product.getQuantity());
+        assertEquals(defaultName, product.getName());
+    }
+
     @Test
     void convertToJSON() {
         assertEquals(defaultCode, product.convertToJSON().getString("identifier"));
@@ -108,4 +126,49 @@ class ProductTest {
         assertEquals(defaultDescription, product.convertToJSON().getString("description"));
         assertEquals(defaultQuantity.getQuantity(), product.convertToJSON().getInt("quantity"));
     }
-}
\ No newline at end of file
+
+    @Test
+    void writeJSON() throws IOException {
+        product.increaseVersion();
+        StringWriter writer = new StringWriter();
+        try (JsonGenerator generator = factory.createGenerator(writer)) {
+            product.writeJSON(generator);
+        }
+        assertEquals(product.convertToJSON().toString(), new JSONObject(writer.toString()).toString());
+
+        Response<Product> response = new Response<>(true, "Product \"updated\"", product);
+        writer = new StringWriter();
+        try (JsonGenerator generator = factory.createGenerator(writer)) {
+            response.writeJSONWithAllInfo(generator);
+        }
+        assertEquals(response.obtainJSONWithAllInfo().toString(), new JSONObject(writer.toString()).toString());
+    }
+
+    @Test
+    void readJSON() throws IOException {
+        String json = "{\"identifier\": \"" + defaultCode + "\", \"other\": {\"name\": \"x\"}, \"name\": \"" + defaultName +
+                "\", \"description\": \"" + defaultDescription + "\", \"quantity\": \"" + defaultGoodQuantity + "\"}";
+        try (JsonParser parser = factory.createParser(json)) {
+            Product read = product.readJSON(parser);
+            assertEquals(defaultCode, read.getProductBusinessKey());
+            assertEquals(defaultName, read.getName());
+            assertEquals(defaultDescription, read.getDescription());
+            assertEquals(defaultGoodQuantity, read.getQuantity());
+            assertNull(parser.nextToken());
+        }
+
+        json = "{\"identifier\": \"" + defaultCode + "\", \"name\": \"" + defaultName + "\", \"description\": \"" + defaultDescription + "\"}";
+        try (JsonParser parser = factory.createParser(json)) {
+            assertEquals(0, Product.readJSONToCreate(parser).getQuantity());
+        }
+        try (JsonParser parser = factory.createParser(json)) {
+            assertThrows(InvalidRepresentationOfConceptOnJSON.class, () -> product.readJSON(parser));
+        }
+        try (JsonParser parser = factory.createParser("[" + json + "]")) {
+            assertThrows(JsonParseException.class, () -> Product.readJSONToCreate(parser));
+        }
+        try (JsonParser parser = factory.createParser(json.substring(0, json.length() - 1))) {
+            assertThrows(JsonParseException.class, () -> Product.readJSONToCreate(parser));
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package hrtech.bigmanager.invenhelper.repository;
+
+import hrtech.bigmanager.invenhelper.config.InvenHelperApplication;
+import hrtech.bigmanager.invenhelper.model.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.jdbc.Sql;
+
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares the operations per second of the {@link ProductRepository}, over the database, with the {@link EdgeProductRepository},
+ * in memory, on lookups by business identifier and on quantity changes. Executed with the benchmark task
+ */
+@Tag("benchmark")
+@Sql(scripts = "classpath:databaseinit.sql", executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+@SpringBootTest(classes = InvenHelperApplication.class, properties = "invenhelper.repository.batch-size=1000")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+class EdgeProductRepositoryBenchmark {
+
+    private static final int NUMBER_OF_PRODUCTS = 50_000;
+    private static final int OPERATIONS = 20_000;
+    private static final int ROUNDS = 5;
+
+    @Autowired
+    private ProductRepository repository;
+
+    private EdgeProductRepository edge;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        edge = new EdgeProductRepository();
+        edge.setMaximumListSize(10000);
+        edge.setSnapshotFile(Files.createTempDirectory("invenhelper-edge").resolve("inventory.snapshot").toString());
+        edge.setSnapshotInterval(Duration.ZERO);
+        edge.afterPropertiesSet();
+
+        List<Product> products = new ArrayList<>(NUMBER_OF_PRODUCTS);
+        for (int index = 0; index < NUMBER_OF_PRODUCTS; index++) {
+            products.add(new Product(new ProductKey(UUID.randomUUID(), "SKU" + index), new ProductInformation("Name " + index,
+                    "Description of the product number " + index), new Quantity(1_000_000)));
+        }
+        repository.insertAll(products);
+        edge.insertAll(products);
+    }
+
+    @Test
+    void operationsPerSecond() {
+        measure("jdbc lookup", () -> repository.findByBusinessId(randomKey()).isPresent());
+        measure("edge lookup", () -> edge.findByBusinessId(randomKey()).isPresent());
+        measure("jdbc change", () -> repository.changeQuantity(randomKey(), -1).isPresent());
+        measure("edge change", () -> edge.changeQuantity(randomKey(), -1).isPresent());
+    }
+
+    private static ProductKey randomKey() {
+        return new ProductKey("SKU" + ThreadLocalRandom.current().nextInt(NUMBER_OF_PRODUCTS));
+    }
+
+    private void measure(String name, Operation operation) {
+        double best = 0;
+        for (int round = 0; round <= ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int index = 0; index < OPERATIONS; index++) {
+                assertTrue(operation.execute());
+            }
+            long elapsed = System.nanoTime() - start;
+            if (round > 0) {
+                best = Math.max(best, OPERATIONS / (elapsed / 1_000_000_000.0));
+            }
+        }
+        System.out.printf("%s: %.0f operations/second%n", name, best);
+    }
+
+    private interface Operation {
+        boolean execute();
+    }
+}
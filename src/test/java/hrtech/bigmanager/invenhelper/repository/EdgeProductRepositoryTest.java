@@ -0,0 +1,228 @@
+package hrtech.bigmanager.invenhelper.repository;
+
+import hrtech.bigmanager.invenhelper.config.InvenHelperApplication;
+import hrtech.bigmanager.invenhelper.model.Product;
+import hrtech.bigmanager.invenhelper.model.ProductInformation;
+import hrtech.bigmanager.invenhelper.model.ProductKey;
+import hrtech.bigmanager.invenhelper.model.Quantity;
+import hrtech.bigmanager.invenhelper.service.ProductService;
+import hrtech.bigmanager.invenhelper.service.ProductSnapshot;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ActiveProfiles("edge")
+@SpringBootTest(classes = InvenHelperApplication.class, properties = {"invenhelper.edge.snapshot-interval=0s",
+        "invenhelper.edge.snapshot-file=${java.io.tmpdir}/invenhelper-edge-${random.uuid}.snapshot",
+        "spring.autoconfigure.exclude=org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration," +
+                "org.springframework.boot.autoconfigure.jdbc.DataSourceTransactionManagerAutoConfiguration," +
+                "org.springframework.boot.autoconfigure.jdbc.JdbcTemplateAutoConfiguration," +
+                "org.springframework.boot.autoconfigure.data.jdbc.JdbcRepositoriesAutoConfiguration," +
+                "org.springframework.boot.autoconfigure.sql.init.SqlInitializationAutoConfiguration"})
+class EdgeProductRepositoryTest {
+
+    @Autowired
+    private IProductRepository repository;
+
+    @Autowired
+    private ProductService service;
+
+    private static Product product(String businessIdentifier, int quantity) {
+        return new Product(new ProductKey(UUID.randomUUID(), businessIdentifier), new ProductInformation("Name", "Description"), new Quantity(quantity));
+    }
+
+    private static EdgeProductRepository openRepository(Path snapshot) throws Exception {
+        EdgeProductRepository edge = new EdgeProductRepository();
+        edge.setMaximumListSize(10000);
+        edge.setSnapshotFile(snapshot.toString());
+        edge.setSnapshotInterval(Duration.ZERO);
+        edge.afterPropertiesSet();
+        return edge;
+    }
+
+    @Test
+    void selectedByProfile() {
+        assertTrue(repository instanceof EdgeProductRepository);
+        Product product = product("EdgeService" + UUID.randomUUID().toString().substring(0, 8), 4);
+        assertTrue(service.insert(product));
+        assertTrue(service.increaseQuantity(product.getProductBusinessKey(), 3).isSuccess());
+        assertFalse(service.decreaseQuantity(product.getProductBusinessKey(), 8).isSuccess());
+        assertEquals(7, service.findByBusinessKey(product.getProductBusinessKey()).orElseThrow().getQuantity());
+    }
+
+    @Test
+    void insertAndFind() throws Exception {
+        EdgeProductRepository edge = openRepository(Files.createTempDirectory("invenhelper-edge").resolve("inventory.snapshot"));
+        Product product = product("Açúcar", 5);
+        assertTrue(edge.insert(product));
+        assertFalse(edge.insert(product("Açúcar", 1)));
+        assertFalse(edge.insert(new Product(new ProductKey(product.getDatabaseKey(), "Other"), new ProductInformation("Name", "Description"), new Quantity(1))));
+
+        assertEquals(product, edge.findById(new ProductKey(product.getDatabaseKey(), "Açúcar")).orElseThrow());
+        Product found = edge.findByBusinessId(new ProductKey("Açúcar")).orElseThrow();
+        assertTrue(product.sameAs(found));
+        assertEquals(5, found.getQuantity());
+        assertTrue(edge.findByBusinessId(new ProductKey("Unknown")).isEmpty());
+        assertEquals(1, edge.findByBusinessIds(Arrays.asList("Açúcar", "Unknown", "Açúcar")).size());
+    }
+
+    @Test
+    void saveWithVersion() throws Exception {
+        EdgeProductRepository edge = openRepository(Files.createTempDirectory("invenhelper-edge").resolve("inventory.snapshot"));
+        Product product = product("Before", 5);
+        assertTrue(edge.insert(product));
+        assertTrue(edge.insert(product("Taken", 1)));
+        Product stale = product.copy();
+
+        Product renamed = new Product(new ProductKey(product.getDatabaseKey(), "After"),
+                new ProductInformation("A much longer name than before", "Description"), new Quantity(5), product.getVersion());
+        assertTrue(edge.save(renamed));
+        assertEquals(1, renamed.getVersion());
+        assertFalse(edge.save(stale));
+        assertTrue(edge.findByBusinessId(new ProductKey("Before")).isEmpty());
+        assertEquals("A much longer name than before", edge.findByBusinessId(new ProductKey("After")).orElseThrow().getName());
+
+        assertFalse(edge.save(new Product(new ProductKey(product.getDatabaseKey(), "Taken"),
+                new ProductInformation("Name", "Description"), new Quantity(5), renamed.getVersion())));
+        assertEquals(Arrays.asList("After", "Taken"), edge.findListOfIdentifiers());
+    }
+
+    @Test
+    void changeQuantities() throws Exception {
+        EdgeProductRepository edge = openRepository(Files.createTempDirectory("invenhelper-edge").resolve("inventory.snapshot"));
+        assertTrue(edge.insert(product("First", 5)));
+        assertTrue(edge.insert(product("Second", 2)));
+
+        assertEquals(1, edge.changeQuantity(new ProductKey("First"), -4).orElseThrow().getQuantity());
+        assertTrue(edge.changeQuantity(new ProductKey("First"), -2).isEmpty());
+        assertTrue(edge.changeQuantity(new ProductKey("First"), 1, 0).isEmpty());
+        assertEquals(2, edge.changeQuantity(new ProductKey("First"), 1, 1).orElseThrow().getVersion());
+        assertTrue(edge.changeQuantity(new ProductKey("Second"), Integer.MAX_VALUE).isEmpty());
+
+        Map<String, Integer> deltas = new HashMap<>();
+        deltas.put("Second", -3);
+        deltas.put("First", 3);
+        deltas.put("Unknown", 1);
+        Map<String, Boolean> expected = new LinkedHashMap<>();
+        expected.put("First", true);
+        expected.put("Second", false);
+        expected.put("Unknown", false);
+        assertEquals(expected, edge.changeQuantities(deltas));
+        assertEquals(expected, edge.moveQuantities(deltas));
+        assertEquals(5, edge.findByBusinessId(new ProductKey("First")).orElseThrow().getQuantity());
+
+        deltas.remove("Unknown");
+        deltas.put("Second", -2);
+        deltas.put("First", 2);
+        assertEquals(Arrays.asList(true, true), new ArrayList<>(edge.moveQuantities(deltas).values()));
+        assertEquals(7, edge.findByBusinessId(new ProductKey("First")).orElseThrow().getQuantity());
+        assertEquals(0, edge.findByBusinessId(new ProductKey("Second")).orElseThrow().getQuantity());
+    }
+
+    @Test
+    void findIdentifiersAfter() throws Exception {
+        EdgeProductRepository edge = openRepository(Files.createTempDirectory("invenhelper-edge").resolve("inventory.snapshot"));
+        for (int index = 99; index >= 0; index--) {
+            assertTrue(edge.insert(product(String.format("SKU%03d", index), index)));
+        }
+
+        assertEquals(Arrays.asList("SKU000", "SKU001"), edge.findIdentifiersAfter("", 2));
+        assertEquals(Arrays.asList("SKU051", "SKU052", "SKU053"), edge.findIdentifiersAfter("SKU050", 3));
+        assertEquals(Arrays.asList("SKU051", "SKU052"), edge.findIdentifiersAfter("SKU050A", 2));
+        assertTrue(edge.findIdentifiersAfter("SKU099", 2).isEmpty());
+        assertTrue(edge.insert(product("SKU0505", 1)));
+        assertEquals(Arrays.asList("SKU0505", "SKU051"), edge.findIdentifiersAfter("SKU050", 2));
+    }
+
+    @Test
+    void forEachProduct() throws Exception {
+        EdgeProductRepository edge = openRepository(Files.createTempDirectory("invenhelper-edge").resolve("inventory.snapshot"));
+        Set<Product> products = new HashSet<>();
+        for (int index = 0; index < 20; index++) {
+            Product product = product("Exported" + index, index);
+            assertTrue(edge.insert(product));
+            products.add(product);
+        }
+
+        List<Product> read = new ArrayList<>();
+        assertEquals(20, edge.forEachProduct(4, read::add));
+        assertEquals(products, new HashSet<>(read));
+    }
+
+    @Test
+    void concurrentChangesNeverNegative() throws Exception {
+        EdgeProductRepository edge = openRepository(Files.createTempDirectory("invenhelper-edge").resolve("inventory.snapshot"));
+        for (int index = 0; index < 100_000; index++) {
+            assertTrue(edge.insert(product("Product" + index, 10)));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<java.util.concurrent.Future<Boolean>> results = new ArrayList<>();
+        for (int index = 0; index < 1000; index++) {
+            String businessIdentifier = "Product" + (index % 4);
+            results.add(executor.submit(() -> edge.changeQuantity(new ProductKey(businessIdentifier), -1).isPresent()));
+            results.add(executor.submit(() -> edge.findByBusinessId(new ProductKey(businessIdentifier)).orElseThrow().getQuantity() >= 0));
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+        int applied = 0;
+        for (java.util.concurrent.Future<Boolean> result : results) {
+            applied += result.get() ? 1 : 0;
+        }
+        assertEquals(1000 + 40, applied);
+        for (int index = 0; index < 4; index++) {
+            assertEquals(0, edge.findByBusinessId(new ProductKey("Product" + index)).orElseThrow().getQuantity());
+        }
+        assertEquals(10, edge.findByBusinessId(new ProductKey("Product99999")).orElseThrow().getQuantity());
+        assertEquals(100_000, edge.obtainSize());
+    }
+
+    @Test
+    void snapshotLoaded() throws Exception {
+        Path snapshot = Files.createTempDirectory("invenhelper-edge").resolve("inventory.snapshot");
+        EdgeProductRepository edge = openRepository(snapshot);
+        Product product = product("Saved", 5);
+        assertTrue(edge.insert(product));
+        assertTrue(edge.insert(product("Other", 1)));
+        assertTrue(edge.changeQuantity(new ProductKey("Saved"), 2).isPresent());
+        edge.destroy();
+        assertTrue(Files.exists(snapshot));
+
+        EdgeProductRepository loaded = openRepository(snapshot);
+        assertEquals(2, loaded.obtainSize());
+        Product found = loaded.findById(new ProductKey(product.getDatabaseKey(), "Saved")).orElseThrow();
+        assertEquals(7, found.getQuantity());
+        assertEquals(1, found.getVersion());
+        assertEquals("Description", found.getDescription());
+        assertEquals(Arrays.asList("Other", "Saved"), loaded.findListOfIdentifiers());
+
+        byte[] bytes = Files.readAllBytes(snapshot);
+        bytes[30] ^= 1;
+        Files.write(snapshot, bytes);
+        assertThrows(IOException.class, () -> openRepository(snapshot));
+    }
+
+    @Test
+    void serviceSnapshotNotWritten() throws Exception {
+        Path file = Files.createTempDirectory("invenhelper-edge").resolve("products.snapshot");
+        ProductSnapshot snapshot = new ProductSnapshot();
+        snapshot.setProductRepository(repository);
+        snapshot.setEnabled(true);
+        snapshot.setSnapshotFile(file.toString());
+        snapshot.setInterval(Duration.ZERO);
+        snapshot.afterPropertiesSet();
+        snapshot.destroy();
+        assertFalse(Files.exists(file));
+    }
+}
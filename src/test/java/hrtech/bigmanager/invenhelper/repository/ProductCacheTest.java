@@ -0,0 +1,99 @@
+package hrtech.bigmanager.invenhelper.repository;
+
+import hrtech.bigmanager.invenhelper.config.InvenHelperApplication;
+import hrtech.bigmanager.invenhelper.model.Product;
+import hrtech.bigmanager.invenhelper.model.ProductInformation;
+import hrtech.bigmanager.invenhelper.model.ProductKey;
+import hrtech.bigmanager.invenhelper.model.Quantity;
+import org.json.JSONObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.jdbc.Sql;
+
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Sql(scripts = "classpath:databaseinit.sql", executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+@SpringBootTest(classes = InvenHelperApplication.class, properties = {"invenhelper.cache.enabled=true", "invenhelper.cache.maximum-size=2"})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class ProductCacheTest {
+
+    @Autowired
+    private ProductRepository repository;
+
+    @Autowired
+    private ProductCache cache;
+
+    private ProductKey defaultKey;
+    private Product product;
+
+    @BeforeEach
+    void setUp() {
+        defaultKey = new ProductKey(UUID.randomUUID(), "CachedProduct");
+        product = new Product(defaultKey, new ProductInformation("Name", "Description"), new Quantity(3));
+    }
+
+    @Test
+    void readThrough() {
+        assertTrue(repository.insert(product));
+        assertEquals(Optional.of(product), repository.findByBusinessId(defaultKey));
+        assertEquals(Optional.of(product), repository.findByBusinessId(defaultKey));
+
+        JSONObject statistics = cache.obtainJSONWithStatistics();
+        assertTrue(statistics.getBoolean("enabled"));
+        assertEquals(1, statistics.getLong("misses"));
+        assertEquals(1, statistics.getLong("hits"));
+        assertEquals(1, statistics.getLong("size"));
+    }
+
+    @Test
+    void cachedProductsAreCopies() {
+        assertTrue(repository.insert(product));
+        Product obtainedProduct = repository.findByBusinessId(defaultKey).orElseThrow();
+        obtainedProduct.increaseQuantity(10);
+        assertEquals(Optional.of(product), repository.findByBusinessId(defaultKey));
+    }
+
+    @Test
+    void invalidatedOnWrite() {
+        assertTrue(repository.insert(product));
+        assertEquals(Optional.of(product), repository.findByBusinessId(defaultKey));
+
+        assertTrue(repository.changeQuantity(defaultKey, 4).isPresent());
+        assertEquals(7, repository.findByBusinessId(defaultKey).orElseThrow().getQuantity());
+
+        product = repository.findByBusinessId(defaultKey).orElseThrow();
+        product.changeName("Other name");
+        assertTrue(repository.save(product));
+        assertEquals("Other name", repository.findByBusinessId(defaultKey).orElseThrow().getName());
+
+        product.changeDescription("Other description");
+        assertEquals(Arrays.asList(true), repository.saveAll(Arrays.asList(product)));
+        assertEquals("Other description", repository.findByBusinessId(defaultKey).orElseThrow().getDescription());
+    }
+
+    @Test
+    void notFoundIsNotCached() {
+        assertTrue(repository.findByBusinessId(defaultKey).isEmpty());
+        assertTrue(repository.insert(product));
+        assertEquals(Optional.of(product), repository.findByBusinessId(defaultKey));
+    }
+
+    @Test
+    void evictions() {
+        for (int index = 0; index < 3; index++) {
+            ProductKey key = new ProductKey(UUID.randomUUID(), "Product" + index);
+            assertTrue(repository.insert(new Product(key, new ProductInformation("Name", "Description"), new Quantity(index))));
+            assertTrue(repository.findByBusinessId(key).isPresent());
+        }
+        assertEquals(1, cache.obtainJSONWithStatistics().getLong("evictions"));
+    }
+}
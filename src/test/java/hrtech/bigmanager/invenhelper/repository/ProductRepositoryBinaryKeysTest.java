@@ -0,0 +1,87 @@
+package hrtech.bigmanager.invenhelper.repository;
+
+import hrtech.bigmanager.invenhelper.config.InvenHelperApplication;
+import hrtech.bigmanager.invenhelper.model.DomainKey;
+import hrtech.bigmanager.invenhelper.model.Product;
+import hrtech.bigmanager.invenhelper.model.ProductInformation;
+import hrtech.bigmanager.invenhelper.model.ProductKey;
+import hrtech.bigmanager.invenhelper.model.Quantity;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.context.jdbc.Sql;
+
+import javax.sql.DataSource;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Sql(scripts = "classpath:databaseinit.sql", executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+@SpringBootTest(classes = InvenHelperApplication.class, properties = {
+        "spring.datasource.url=jdbc:h2:mem:binarykeys;MODE=MYSQL",
+        "invenhelper.migration.locations=classpath:db/migration,classpath:db/optional/binary-keys/{vendor}"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+class ProductRepositoryBinaryKeysTest {
+
+    @Autowired
+    private ProductRepository repository;
+
+    @Autowired
+    private DataSource dataSource;
+
+    private ProductKey defaultKey;
+    private Product product;
+
+    @BeforeEach
+    void setUp() {
+        defaultKey = new ProductKey(UUID.randomUUID(), "BinaryKeyProduct");
+        product = new Product(defaultKey, new ProductInformation("Name", "Description"), new Quantity(3));
+    }
+
+    @Test
+    void keysStoredAsBinary() {
+        JdbcTemplate template = new JdbcTemplate(dataSource);
+        Integer type = template.query("SELECT id FROM product WHERE 1 = 0", (ResultSetExtractor<Integer>) resultSet -> resultSet.getMetaData().getColumnType(1));
+        assertTrue(type != null && (type == Types.BINARY || type == Types.VARBINARY));
+    }
+
+    @Test
+    void insertAndFind() {
+        assertTrue(repository.insert(product));
+        assertEquals(Optional.of(product), repository.findById(defaultKey));
+        assertEquals(Optional.of(product), repository.findByBusinessId(defaultKey));
+
+        product.increaseQuantity(2);
+        assertEquals(Collections.singletonList(true), repository.saveAll(Collections.singletonList(product)));
+        assertEquals(Optional.of(product), repository.findById(defaultKey));
+    }
+
+    @Test
+    void migrationConvertsExistingKeys() {
+        DriverManagerDataSource existingDatabase = new DriverManagerDataSource("jdbc:h2:mem:binarykeysconversion;MODE=MYSQL;DB_CLOSE_DELAY=-1", "sa", "");
+        SchemaMigrationRunner runner = new SchemaMigrationRunner();
+        runner.setLocations(Collections.singletonList("classpath:db/migration"));
+        runner.migrate(existingDatabase);
+
+        JdbcTemplate template = new JdbcTemplate(existingDatabase);
+        template.update("INSERT INTO product (id, business_id, name, description, quantity) VALUES (?, ?, ?, ?, ?)",
+                defaultKey.getDatabaseKey().toString(), defaultKey.getInternalKey(), "Name", "Description", 3);
+
+        runner.setLocations(Arrays.asList("classpath:db/migration", "classpath:db/optional/binary-keys/{vendor}"));
+        assertEquals(1, runner.migrate(existingDatabase));
+
+        byte[] storedKey = template.queryForObject("SELECT id FROM product WHERE business_id = ?", byte[].class, defaultKey.getInternalKey());
+        assertEquals(defaultKey.getDatabaseKey(), DomainKey.convertBytesToUUID(storedKey));
+    }
+}
@@ -0,0 +1,162 @@
+package hrtech.bigmanager.invenhelper.repository;
+
+import hrtech.bigmanager.invenhelper.config.InvenHelperApplication;
+import hrtech.bigmanager.invenhelper.model.Product;
+import hrtech.bigmanager.invenhelper.model.ProductInformation;
+import hrtech.bigmanager.invenhelper.model.ProductKey;
+import hrtech.bigmanager.invenhelper.model.Quantity;
+import hrtech.bigmanager.invenhelper.model.Reservation;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.jdbc.Sql;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Sql(scripts = "classpath:databaseinit.sql", executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+@SpringBootTest(classes = InvenHelperApplication.class,
+        properties = {"invenhelper.quantity.counter-slots.enabled=true", "invenhelper.quantity.counter-slots.slots=4",
+                "invenhelper.quantity.counter-slots.promotion-threshold=3"})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+class ProductRepositoryCounterSlotsTest {
+
+    @Autowired
+    private ProductRepository repository;
+
+    @Autowired
+    private JdbcTemplate template;
+
+    private ProductKey key;
+
+    @BeforeEach
+    void setUp() {
+        key = new ProductKey(UUID.randomUUID(), "Slotted");
+        assertTrue(repository.insert(new Product(key, new ProductInformation("Name", "Description"), new Quantity(10))));
+    }
+
+    private List<Integer> slots() {
+        return template.queryForList("SELECT quantity FROM quantity_slot WHERE business_id = 'Slotted' ORDER BY slot", Integer.class);
+    }
+
+    @Test
+    void quantitySplitOverSlots() {
+        assertTrue(repository.splitQuantity("Slotted", 4));
+        assertTrue(repository.splitQuantity("Slotted", 4));
+        assertFalse(repository.splitQuantity("Unknown", 4));
+
+        assertEquals(Arrays.asList(3, 3, 2, 2), slots());
+        assertEquals(0, template.queryForObject("SELECT quantity FROM product WHERE business_id = 'Slotted'", Integer.class));
+        Product product = repository.findByBusinessId(key).orElseThrow();
+        assertEquals(10, product.getQuantity());
+        assertEquals(0, product.getVersion());
+        assertEquals(10, repository.findById(key).orElseThrow().getQuantity());
+    }
+
+    @Test
+    void changesOnSlots() {
+        assertTrue(repository.splitQuantity("Slotted", 4));
+
+        assertEquals(15, repository.changeQuantity(key, 5).orElseThrow().getQuantity());
+        assertEquals(6, repository.changeQuantity(key, -9).orElseThrow().getQuantity());
+        assertTrue(repository.changeQuantity(key, -7).isEmpty());
+        assertEquals(6, slots().stream().mapToInt(Integer::intValue).sum());
+        assertTrue(slots().stream().allMatch(quantity -> quantity >= 0));
+
+        assertEquals(1, repository.changeQuantity(key, -1, 0).orElseThrow().getVersion());
+        assertTrue(repository.changeQuantity(key, -1, 0).isEmpty());
+        assertTrue(repository.changeQuantity(key, -6, 1).isEmpty());
+        assertEquals(1, repository.findByBusinessId(key).orElseThrow().getVersion());
+
+        Product product = repository.findByBusinessId(key).orElseThrow();
+        product.changeName("Other name");
+        assertTrue(repository.save(product));
+        assertEquals(5, repository.findByBusinessId(key).orElseThrow().getQuantity());
+    }
+
+    @Test
+    void reservationsHeldOnSlots() {
+        assertTrue(repository.splitQuantity("Slotted", 4));
+        Instant now = Instant.now();
+        assertTrue(repository.insertReservation(new Reservation(UUID.randomUUID(), "Slotted", 7, now.plus(Duration.ofMinutes(5))), now));
+
+        assertTrue(repository.changeQuantity(key, -4).isEmpty());
+        assertEquals(Map.of("Slotted", false), repository.changeQuantities(Map.of("Slotted", -4)));
+        assertEquals(10, repository.findByBusinessId(key).orElseThrow().getQuantity());
+        assertEquals(7, repository.changeQuantity(key, -3).orElseThrow().getQuantity());
+        assertFalse(repository.insertReservation(new Reservation(UUID.randomUUID(), "Slotted", 1, now.plus(Duration.ofMinutes(5))), now));
+    }
+
+    @Test
+    void batchesAndMovementsOnSlots() {
+        assertTrue(repository.insert(new Product(new ProductKey(UUID.randomUUID(), "Unslotted"), new ProductInformation("Name", "Description"), new Quantity(1))));
+        assertTrue(repository.splitQuantity("Slotted", 4));
+
+        Map<String, Integer> deltas = new HashMap<>();
+        deltas.put("Slotted", -8);
+        deltas.put("Unslotted", 3);
+        assertTrue(repository.changeQuantities(deltas).values().stream().allMatch(Boolean::booleanValue));
+        assertFalse(repository.moveQuantities(deltas).get("Slotted"));
+        assertEquals(2, repository.findByBusinessId(key).orElseThrow().getQuantity());
+        assertEquals(4, repository.findByBusinessId(new ProductKey("Unslotted")).orElseThrow().getQuantity());
+
+        deltas.put("Slotted", 2);
+        deltas.put("Unslotted", -2);
+        assertTrue(repository.moveQuantities(deltas).values().stream().allMatch(Boolean::booleanValue));
+        assertEquals(4, repository.findByBusinessId(key).orElseThrow().getQuantity());
+    }
+
+    @Test
+    void contendedProductSplit() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int index = 0; index < 200; index++) {
+            int delta = index % 2 == 0 ? 1 : -1;
+            results.add(executor.submit(() -> {
+                start.await();
+                return repository.changeQuantity(key, delta).isPresent();
+            }));
+        }
+        start.countDown();
+        for (Future<Boolean> result : results) {
+            assertTrue(result.get());
+        }
+        executor.shutdown();
+
+        assertEquals(4, template.queryForObject("SELECT counter_slots FROM product WHERE business_id = 'Slotted'", Integer.class));
+        assertEquals(4, slots().size());
+        assertEquals(10, template.queryForObject("SELECT quantity FROM product WHERE business_id = 'Slotted'", Integer.class)
+                + slots().stream().mapToInt(Integer::intValue).sum());
+        assertEquals(10, repository.findByBusinessId(key).orElseThrow().getQuantity());
+    }
+
+    @Test
+    void contentionTracker() {
+        ContentionTracker tracker = new ContentionTracker(2, Duration.ofHours(1));
+        assertFalse(tracker.enter("Product"));
+        assertFalse(tracker.enter("Product"));
+        assertTrue(tracker.enter("Product"));
+        assertFalse(tracker.enter("Product"));
+        for (int index = 0; index < 4; index++) {
+            tracker.exit("Product");
+        }
+        assertFalse(tracker.enter("Product"));
+        assertFalse(tracker.enter("Other"));
+    }
+}
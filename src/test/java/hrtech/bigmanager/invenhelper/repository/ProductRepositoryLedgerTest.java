@@ -0,0 +1,169 @@
+package hrtech.bigmanager.invenhelper.repository;
+
+import hrtech.bigmanager.invenhelper.config.InvenHelperApplication;
+import hrtech.bigmanager.invenhelper.model.Product;
+import hrtech.bigmanager.invenhelper.model.ProductInformation;
+import hrtech.bigmanager.invenhelper.model.ProductKey;
+import hrtech.bigmanager.invenhelper.model.Quantity;
+import hrtech.bigmanager.invenhelper.model.Reservation;
+import hrtech.bigmanager.invenhelper.service.LedgerCompactor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.jdbc.Sql;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Sql(scripts = "classpath:databaseinit.sql", executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+@SpringBootTest(classes = InvenHelperApplication.class,
+        properties = {"invenhelper.quantity.ledger.enabled=true", "invenhelper.quantity.ledger.compaction-interval=1h"})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+class ProductRepositoryLedgerTest {
+
+    @Autowired
+    private ProductRepository repository;
+
+    @Autowired
+    private LedgerCompactor compactor;
+
+    @Autowired
+    private JdbcTemplate template;
+
+    private Product product;
+    private ProductKey key;
+
+    @BeforeEach
+    void setUp() {
+        key = new ProductKey(UUID.randomUUID(), "Ledger");
+        product = new Product(key, new ProductInformation("Name", "Description"), new Quantity(10));
+        assertTrue(repository.insert(product));
+    }
+
+    private int snapshotQuantity() {
+        return template.queryForObject("SELECT quantity FROM product WHERE business_id = 'Ledger'", Integer.class);
+    }
+
+    private int pendingMovements() {
+        return template.queryForObject("SELECT COUNT(*) FROM stock_movement WHERE business_id = 'Ledger' AND compacted = FALSE", Integer.class);
+    }
+
+    @Test
+    void changesAppendedToLedger() {
+        assertEquals(15, repository.changeQuantity(key, 5).orElseThrow().getQuantity());
+        assertEquals(12, repository.changeQuantity(key, -3).orElseThrow().getQuantity());
+        assertTrue(repository.changeQuantity(key, -13).isEmpty());
+        assertTrue(repository.changeQuantity(new ProductKey("Unknown"), 1).isEmpty());
+
+        assertEquals(10, snapshotQuantity());
+        assertEquals(2, pendingMovements());
+        Product read = repository.findByBusinessId(key).orElseThrow();
+        assertEquals(12, read.getQuantity());
+        assertEquals(0, read.getVersion());
+        assertEquals(12, repository.findById(key).orElseThrow().getQuantity());
+    }
+
+    @Test
+    void reservationsHeldOnLedger() {
+        Instant now = Instant.now();
+        assertTrue(repository.insertReservation(new Reservation(UUID.randomUUID(), "Ledger", 7, now.plus(Duration.ofMinutes(5))), now));
+        assertTrue(repository.insertReservation(new Reservation(UUID.randomUUID(), "Ledger", 3, now.minus(Duration.ofMinutes(5))), now.minus(Duration.ofMinutes(10))));
+
+        assertTrue(repository.changeQuantity(key, -4).isEmpty());
+        assertTrue(repository.changeQuantity(key, -4, 0).isEmpty());
+        assertEquals(7, repository.changeQuantity(key, -3).orElseThrow().getQuantity());
+        assertEquals(1, pendingMovements());
+    }
+
+    @Test
+    void compaction() {
+        repository.changeQuantity(key, 5);
+        repository.changeQuantity(key, -8);
+        assertEquals(2, compactor.compact());
+
+        assertEquals(7, snapshotQuantity());
+        assertEquals(0, pendingMovements());
+        assertEquals(7, repository.findByBusinessId(key).orElseThrow().getQuantity());
+        assertEquals(2, template.queryForObject("SELECT COUNT(*) FROM stock_movement WHERE business_id = 'Ledger'", Integer.class));
+        assertEquals(0, compactor.compact());
+    }
+
+    @Test
+    void saveKeepsQuantity() {
+        repository.changeQuantity(key, 5);
+        Product read = repository.findByBusinessId(key).orElseThrow();
+        read.changeName("Other name");
+        assertTrue(repository.save(read));
+
+        Product saved = repository.findByBusinessId(key).orElseThrow();
+        assertEquals("Other name", saved.getName());
+        assertEquals(15, saved.getQuantity());
+    }
+
+    @Test
+    void conditionalChangeIncreasesVersion() {
+        assertEquals(1, repository.changeQuantity(key, -1, 0).orElseThrow().getVersion());
+        assertTrue(repository.changeQuantity(key, -1, 0).isEmpty());
+        assertEquals(9, repository.findByBusinessId(key).orElseThrow().getQuantity());
+    }
+
+    @Test
+    void batchesAndMovements() {
+        Product other = new Product(new ProductKey(UUID.randomUUID(), "LedgerOther"), new ProductInformation("Name", "Description"), new Quantity(1));
+        assertTrue(repository.insert(other));
+
+        Map<String, Integer> deltas = new HashMap<>();
+        deltas.put("Ledger", -4);
+        deltas.put("LedgerOther", -2);
+        Map<String, Boolean> results = repository.changeQuantities(deltas);
+        assertTrue(results.get("Ledger"));
+        assertFalse(results.get("LedgerOther"));
+
+        assertFalse(repository.moveQuantities(deltas).get("LedgerOther"));
+        assertEquals(6, repository.findByBusinessId(key).orElseThrow().getQuantity());
+
+        deltas.put("LedgerOther", 4);
+        assertTrue(repository.moveQuantities(deltas).values().stream().allMatch(Boolean::booleanValue));
+        assertEquals(2, repository.findByBusinessId(key).orElseThrow().getQuantity());
+        assertEquals(5, repository.findByBusinessId(new ProductKey("LedgerOther")).orElseThrow().getQuantity());
+    }
+
+    @Test
+    void concurrentDecreasesNeverNegative() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Boolean>> results = new ArrayList<>();
+        List<Future<?>> compactions = new ArrayList<>();
+        for (int index = 0; index < 40; index++) {
+            results.add(executor.submit(() -> repository.changeQuantity(key, -1).isPresent()));
+            if (index % 4 == 0) {
+                compactions.add(executor.submit(compactor::compact));
+            }
+        }
+        int applied = 0;
+        for (Future<Boolean> result : results) {
+            applied += result.get() ? 1 : 0;
+        }
+        for (Future<?> compaction : compactions) {
+            compaction.get();
+        }
+        executor.shutdown();
+
+        assertEquals(10, applied);
+        assertEquals(0, repository.findByBusinessId(key).orElseThrow().getQuantity());
+        compactor.compact();
+        assertEquals(0, snapshotQuantity());
+    }
+}
@@ -12,12 +12,25 @@ import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabas
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.jdbc.Sql;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Random;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @Sql(scripts = "classpath:databaseinit.sql", executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
@@ -69,6 +82,32 @@ class ProductRepositoryTest {
         product = new Product(defaultKey, defaultInformation, defaultQuantity);
     }
 
+    /**
+     * The tests run on H2, that accepts types on CAST that MySQL refuses (as INT). The statements of the repositories must only
+     * cast to the types accepted by MySQL
+     */
+    @Test
+    void statementsCastToMySQLTypes() throws IllegalAccessException {
+        Set<String> mysqlCastTypes = new HashSet<>(Arrays.asList("BINARY", "CHAR", "DATE", "DATETIME", "DECIMAL", "DOUBLE", "FLOAT",
+                "JSON", "NCHAR", "REAL", "SIGNED", "UNSIGNED", "TIME", "YEAR"));
+        Pattern cast = Pattern.compile("CAST\\(.+? AS (\\w+)", Pattern.CASE_INSENSITIVE);
+        int casts = 0;
+        for (Class<?> repositoryClass : Arrays.asList(ProductRepository.class, ShardRebalancer.class)) {
+            for (Field field : repositoryClass.getDeclaredFields()) {
+                if (field.getType() != String.class || !Modifier.isStatic(field.getModifiers())) {
+                    continue;
+                }
+                field.setAccessible(true);
+                Matcher matcher = cast.matcher((String) field.get(null));
+                while (matcher.find()) {
+                    casts++;
+                    assertTrue(mysqlCastTypes.contains(matcher.group(1).toUpperCase()), field.getName() + " casts to " + matcher.group(1));
+                }
+            }
+        }
+        assertTrue(casts > 0);
+    }
+
     @Test
     void save() {
         assertTrue(repository.insert(product));
@@ -84,6 +123,13 @@ class ProductRepositoryTest {
         assertTrue(product.sameAs(obtainedProduct.get()));
     }
 
+    @Test
+    void insertDuplicatedBusinessId() {
+        assertTrue(repository.insert(product));
+        Product sameBusinessKey = new Product(new ProductKey(UUID.randomUUID(), defaultCode), defaultInformation, defaultQuantity);
+        assertFalse(repository.insert(sameBusinessKey));
+    }
+
     @Test
     void findById() {
         assertTrue(repository.insert(product));
@@ -113,4 +159,181 @@ class ProductRepositoryTest {
         assertTrue(repository.insert(product));
         assertEquals(Collections.singletonList(product.getProductBusinessKey()), repository.findListOfIdentifiers());
     }
-}
\ No newline at end of file
+
+    @Test
+    void changeQuantity() {
+        assertTrue(repository.insert(product));
+        Optional<Product> updatedProduct = repository.changeQuantity(defaultKey, 5);
+        assertTrue(updatedProduct.isPresent());
+        assertEquals(defaultGoodQuantity + 5, updatedProduct.get().getQuantity());
+
+        updatedProduct = repository.changeQuantity(defaultKey, -(defaultGoodQuantity + 5));
+        assertTrue(updatedProduct.isPresent());
+        assertEquals(0, updatedProduct.get().getQuantity());
+    }
+
+    @Test
+    void changeQuantityNegativeResult() {
+        assertTrue(repository.insert(product));
+        assertTrue(repository.changeQuantity(defaultKey, -(defaultGoodQuantity + 1)).isEmpty());
+
+        Optional<Product> obtainedProduct = repository.findById(defaultKey);
+        assertTrue(obtainedProduct.isPresent());
+        assertEquals(defaultGoodQuantity, obtainedProduct.get().getQuantity());
+    }
+
+    @Test
+    void changeQuantityNoProductFound() {
+        assertTrue(repository.changeQuantity(defaultKey, 5).isEmpty());
+    }
+
+    @Test
+    void saveWithStaleVersion() {
+        assertTrue(repository.insert(product));
+        Product otherCopy = repository.findById(defaultKey).orElseThrow();
+
+        product.changeName(generateString());
+        assertTrue(repository.save(product));
+        assertEquals(1, product.getVersion());
+        assertEquals(1, repository.findById(defaultKey).orElseThrow().getVersion());
+
+        otherCopy.changeDescription(generateString());
+        assertFalse(repository.save(otherCopy));
+        assertEquals(0, otherCopy.getVersion());
+        assertEquals(Optional.of(product), repository.findById(defaultKey));
+    }
+
+    @Test
+    void changeQuantityWithExpectedVersion() {
+        assertTrue(repository.insert(product));
+        assertTrue(repository.changeQuantity(defaultKey, 1, 1).isEmpty());
+
+        Optional<Product> updatedProduct = repository.changeQuantity(defaultKey, 1, 0);
+        assertTrue(updatedProduct.isPresent());
+        assertEquals(defaultGoodQuantity + 1, updatedProduct.get().getQuantity());
+        assertEquals(1, updatedProduct.get().getVersion());
+    }
+
+    @Test
+    void changeQuantities() {
+        Product otherProduct = new Product(new ProductKey(UUID.randomUUID(), generateString()), new ProductInformation(defaultName, defaultDescription), new Quantity(1));
+        assertEquals(Arrays.asList(true, true), repository.insertAll(Arrays.asList(product, otherProduct)));
+
+        Map<String, Integer> deltas = new HashMap<>();
+        deltas.put(defaultCode, 5);
+        deltas.put(otherProduct.getProductBusinessKey(), -2);
+        deltas.put(generateString(), 1);
+        Map<String, Boolean> results = repository.changeQuantities(deltas);
+        assertEquals(3, results.size());
+        assertTrue(results.get(defaultCode));
+        assertFalse(results.get(otherProduct.getProductBusinessKey()));
+
+        assertEquals(defaultGoodQuantity + 5, repository.findById(defaultKey).orElseThrow().getQuantity());
+        assertEquals(1, repository.findByBusinessId(new ProductKey(otherProduct.getProductBusinessKey())).orElseThrow().getQuantity());
+    }
+
+    @Test
+    void moveQuantities() {
+        Product otherProduct = new Product(new ProductKey(UUID.randomUUID(), generateString()), new ProductInformation(defaultName, defaultDescription), new Quantity(1));
+        assertEquals(Arrays.asList(true, true), repository.insertAll(Arrays.asList(product, otherProduct)));
+
+        Map<String, Integer> deltas = new HashMap<>();
+        deltas.put(defaultCode, 5);
+        deltas.put(otherProduct.getProductBusinessKey(), -1);
+        assertTrue(repository.moveQuantities(deltas).values().stream().allMatch(Boolean::booleanValue));
+        assertEquals(defaultGoodQuantity + 5, repository.findById(defaultKey).orElseThrow().getQuantity());
+        assertEquals(0, repository.findByBusinessId(new ProductKey(otherProduct.getProductBusinessKey())).orElseThrow().getQuantity());
+    }
+
+    @Test
+    void moveQuantitiesRolledBack() {
+        Product otherProduct = new Product(new ProductKey(UUID.randomUUID(), generateString()), new ProductInformation(defaultName, defaultDescription), new Quantity(1));
+        assertEquals(Arrays.asList(true, true), repository.insertAll(Arrays.asList(product, otherProduct)));
+
+        Map<String, Integer> deltas = new HashMap<>();
+        deltas.put(defaultCode, 5);
+        deltas.put(otherProduct.getProductBusinessKey(), -2);
+        Map<String, Boolean> results = repository.moveQuantities(deltas);
+        assertTrue(results.get(defaultCode));
+        assertFalse(results.get(otherProduct.getProductBusinessKey()));
+        assertEquals(defaultGoodQuantity, repository.findById(defaultKey).orElseThrow().getQuantity());
+        assertEquals(1, repository.findByBusinessId(new ProductKey(otherProduct.getProductBusinessKey())).orElseThrow().getQuantity());
+    }
+
+    @Test
+    void insertAll() {
+        Product otherProduct = new Product(new ProductKey(UUID.randomUUID(), generateString()), new ProductInformation(defaultName, defaultDescription), new Quantity(1));
+        Product thirdProduct = new Product(new ProductKey(UUID.randomUUID(), generateString()), new ProductInformation(defaultName, defaultDescription), new Quantity(2));
+        assertEquals(Arrays.asList(true, true, true), repository.insertAll(Arrays.asList(product, otherProduct, thirdProduct)));
+
+        assertEquals(Optional.of(product), repository.findById(defaultKey));
+        assertEquals(Optional.of(otherProduct), repository.findByBusinessId(new ProductKey(otherProduct.getProductBusinessKey())));
+        assertEquals(Optional.of(thirdProduct), repository.findByBusinessId(new ProductKey(thirdProduct.getProductBusinessKey())));
+    }
+
+    @Test
+    void insertAllWithFailure() {
+        assertTrue(repository.insert(product));
+        Product otherProduct = new Product(new ProductKey(UUID.randomUUID(), generateString()), new ProductInformation(defaultName, defaultDescription), new Quantity(1));
+        Product sameDatabaseKey = new Product(new ProductKey(defaultDatabaseCode, generateString()), new ProductInformation(defaultName, defaultDescription), new Quantity(2));
+        assertEquals(Arrays.asList(true, false), repository.insertAll(Arrays.asList(otherProduct, sameDatabaseKey)));
+        assertTrue(repository.findByBusinessId(new ProductKey(otherProduct.getProductBusinessKey())).isPresent());
+    }
+
+    @Test
+    void saveAll() {
+        Product otherProduct = new Product(new ProductKey(UUID.randomUUID(), generateString()), new ProductInformation(defaultName, defaultDescription), new Quantity(1));
+        Product notRegistered = new Product(new ProductKey(UUID.randomUUID(), generateString()), new ProductInformation(defaultName, defaultDescription), new Quantity(1));
+        assertEquals(Arrays.asList(true, true), repository.insertAll(Arrays.asList(product, otherProduct)));
+
+        product.changeName(generateString());
+        otherProduct.increaseQuantity(3);
+        assertEquals(Arrays.asList(true, false, true), repository.saveAll(Arrays.asList(product, notRegistered, otherProduct)));
+        assertEquals(Optional.of(product), repository.findById(defaultKey));
+        assertEquals(Optional.of(otherProduct), repository.findByBusinessId(new ProductKey(otherProduct.getProductBusinessKey())));
+    }
+
+    @Test
+    void findByBusinessIds() {
+        Product otherProduct = new Product(new ProductKey(UUID.randomUUID(), generateString()), new ProductInformation(defaultName, defaultDescription), new Quantity(1));
+        Product thirdProduct = new Product(new ProductKey(UUID.randomUUID(), generateString()), new ProductInformation(defaultName, defaultDescription), new Quantity(2));
+        assertEquals(Arrays.asList(true, true, true), repository.insertAll(Arrays.asList(product, otherProduct, thirdProduct)));
+
+        List<Product> products = repository.findByBusinessIds(Arrays.asList(product.getProductBusinessKey(), "NOTFOUND", thirdProduct.getProductBusinessKey()));
+        assertEquals(2, products.size());
+        assertTrue(products.contains(product));
+        assertTrue(products.contains(thirdProduct));
+    }
+
+    @Test
+    void findIdentifiersAfter() {
+        Product otherProduct = new Product(new ProductKey(UUID.randomUUID(), "B" + defaultCode), defaultInformation, defaultQuantity);
+        Product thirdProduct = new Product(new ProductKey(UUID.randomUUID(), "C" + defaultCode), defaultInformation, defaultQuantity);
+        Product firstProduct = new Product(new ProductKey(UUID.randomUUID(), "A" + defaultCode), defaultInformation, defaultQuantity);
+        assertEquals(Arrays.asList(true, true, true), repository.insertAll(Arrays.asList(otherProduct, thirdProduct, firstProduct)));
+
+        assertEquals(Arrays.asList("A" + defaultCode, "B" + defaultCode), repository.findIdentifiersAfter("", 2));
+        assertEquals(Collections.singletonList("C" + defaultCode), repository.findIdentifiersAfter("B" + defaultCode, 2));
+        assertTrue(repository.findIdentifiersAfter("C" + defaultCode, 2).isEmpty());
+    }
+
+    @Test
+    void forEachProduct() {
+        List<Product> products = new ArrayList<>();
+        for (int index = 0; index < 50; index++) {
+            products.add(new Product(new ProductKey(UUID.randomUUID(), String.format("Exported%02d", index)), defaultInformation, new Quantity(index)));
+        }
+        assertEquals(Collections.nCopies(50, true), repository.insertAll(products));
+
+        for (int ranges : new int[]{1, 4, 100}) {
+            List<Product> read = Collections.synchronizedList(new ArrayList<>());
+            assertEquals(50, repository.forEachProduct(ranges, read::add));
+            assertEquals(50, read.size());
+            assertEquals(new HashSet<>(products), new HashSet<>(read));
+        }
+
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        assertEquals(50, repository.forEachProduct(100, product -> threads.add(Thread.currentThread().getName())));
+        assertTrue(threads.size() <= 6, "The ranges must be limited to the pool minus the reserved connections: " + threads.size());
+    }
+}
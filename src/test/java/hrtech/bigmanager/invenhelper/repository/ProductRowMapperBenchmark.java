@@ -0,0 +1,92 @@
+package hrtech.bigmanager.invenhelper.repository;
+
+import hrtech.bigmanager.invenhelper.config.InvenHelperApplication;
+import hrtech.bigmanager.invenhelper.model.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.test.context.jdbc.Sql;
+
+import javax.sql.DataSource;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares the rows per second of the legacy mapping, that inspects the ResultSet metadata on each row, with the
+ * {@link IndexedRowMapper} used by the repository. Executed with the benchmark task
+ */
+@Tag("benchmark")
+@Sql(scripts = "classpath:databaseinit.sql", executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+@SpringBootTest(classes = InvenHelperApplication.class, properties = "invenhelper.repository.batch-size=1000")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+class ProductRowMapperBenchmark {
+
+    private static final int NUMBER_OF_ROWS = 50_000;
+    private static final int ROUNDS = 5;
+
+    @Autowired
+    private ProductRepository repository;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @BeforeEach
+    void setUp() {
+        List<Product> products = new ArrayList<>(NUMBER_OF_ROWS);
+        for (int index = 0; index < NUMBER_OF_ROWS; index++) {
+            products.add(new Product(new ProductKey(UUID.randomUUID(), "SKU" + index), new ProductInformation("Name " + index,
+                    "Description of the product number " + index), new Quantity(index)));
+        }
+        repository.insertAll(products);
+    }
+
+    @Test
+    void rowsPerSecond() {
+        JdbcTemplate template = new JdbcTemplate(dataSource);
+        RowMapper<Optional<Product>> legacyMapper = (rs, rowNum) -> legacyMap(rs);
+
+        measure("legacy", template, () -> legacyMapper);
+        measure("indexed", template, repository::rowMapper);
+    }
+
+    private void measure(String name, JdbcTemplate template, MapperFactory factory) {
+        double best = 0;
+        for (int round = 0; round <= ROUNDS; round++) {
+            long start = System.nanoTime();
+            List<Optional<Product>> products = template.query("SELECT * FROM product", factory.create());
+            long elapsed = System.nanoTime() - start;
+            assertEquals(NUMBER_OF_ROWS, products.stream().filter(Optional::isPresent).count());
+            if (round > 0) {
+                best = Math.max(best, NUMBER_OF_ROWS / (elapsed / 1_000_000_000.0));
+            }
+        }
+        System.out.printf("%s mapper: %.0f rows/second%n", name, best);
+    }
+
+    /**
+     * Mapping used by the repository before the IndexedRowMapper, that extracts the columns of the ResultSet on each row
+     */
+    private Optional<Product> legacyMap(ResultSet resultSet) throws SQLException {
+        Set<String> columnsOnResultSet = IJdbcRepository.extractResultSetColumns(resultSet, true);
+        String databaseIDOnString = columnsOnResultSet.contains("product.id") ? resultSet.getString("product.id") : "";
+        ProductKey key = new ProductKey(DomainKey.convertStringToUUID(databaseIDOnString),
+                columnsOnResultSet.contains("product.business_id") ? resultSet.getString("product.business_id") : "");
+        ProductInformation information = new ProductInformation(
+                columnsOnResultSet.contains("product.name") ? resultSet.getString("product.name") : "",
+                columnsOnResultSet.contains("product.description") ? resultSet.getString("product.description") : "");
+        Quantity quantity = new Quantity(columnsOnResultSet.contains("product.quantity") ? resultSet.getInt("product.quantity") : -1);
+        return Optional.of(new Product(key, information, quantity));
+    }
+
+    private interface MapperFactory {
+        RowMapper<Optional<Product>> create();
+    }
+}
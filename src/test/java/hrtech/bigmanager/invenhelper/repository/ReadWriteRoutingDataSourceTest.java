@@ -0,0 +1,100 @@
+package hrtech.bigmanager.invenhelper.repository;
+
+import hrtech.bigmanager.invenhelper.config.InvenHelperApplication;
+import hrtech.bigmanager.invenhelper.controller.ProductController;
+import hrtech.bigmanager.invenhelper.controller.ReadYourWritesFilter;
+import hrtech.bigmanager.invenhelper.model.Product;
+import hrtech.bigmanager.invenhelper.model.ProductInformation;
+import hrtech.bigmanager.invenhelper.model.ProductKey;
+import hrtech.bigmanager.invenhelper.model.Quantity;
+import hrtech.bigmanager.invenhelper.service.ProductService;
+import org.json.JSONObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.context.jdbc.Sql;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.Collections;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@Sql(scripts = "classpath:databaseinit.sql", executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+@SpringBootTest(classes = {InvenHelperApplication.class, ProductController.class},
+        properties = "invenhelper.datasource.replica-urls=jdbc:h2:mem:replica;MODE=MYSQL;DB_CLOSE_DELAY=-1")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@AutoConfigureMockMvc
+class ReadWriteRoutingDataSourceTest {
+
+    private final DriverManagerDataSource replica = new DriverManagerDataSource("jdbc:h2:mem:replica;MODE=MYSQL;DB_CLOSE_DELAY=-1", "sa", "password");
+
+    @Autowired
+    private ProductService service;
+
+    @Autowired
+    private SchemaMigrationRunner runner;
+
+    @Autowired
+    private MockMvc mvc;
+
+    private Product product;
+
+    @BeforeEach
+    void setUp() {
+        runner.migrate(replica);
+        new JdbcTemplate(replica).update("DELETE FROM product");
+        product = new Product(new ProductKey(UUID.randomUUID(), "Routed"), new ProductInformation("Name", "Description"), new Quantity(2));
+    }
+
+    private void insertOnReplica(Product productToInsert) {
+        new JdbcTemplate(replica).update("INSERT INTO product (id, business_id, name, description, quantity, version) VALUES (?, ?, ?, ?, ?, ?)",
+                productToInsert.getProductID(), productToInsert.getProductBusinessKey(), productToInsert.getName(), productToInsert.getDescription(),
+                productToInsert.getQuantity(), productToInsert.getVersion());
+    }
+
+    @Test
+    void readsSentToReplica() {
+        assertTrue(service.insert(product));
+        assertTrue(service.findByBusinessKey("Routed").isEmpty());
+        assertTrue(service.findById(product.getProductID()).isEmpty());
+        assertTrue(service.findListOfIdentifiers().isEmpty());
+
+        insertOnReplica(product);
+        assertEquals(Optional.of(product), service.findByBusinessKey("Routed"));
+        assertEquals(Collections.singletonList("Routed"), service.findIdentifiersPage("", 10).getItems());
+    }
+
+    @Test
+    void primaryForced() {
+        assertTrue(service.insert(product));
+        assertEquals(Optional.of(product), DataSourceRouting.onPrimary(() -> service.findByBusinessKey("Routed")));
+    }
+
+    @Test
+    void writesUsePrimary() {
+        assertTrue(service.insert(product));
+        JSONObject objectToInject = new JSONObject();
+        objectToInject.put("identifier", "Routed");
+        objectToInject.put("name", "Other name");
+        assertTrue(service.updateProductInformation(objectToInject).isSuccess());
+        assertTrue(service.increaseQuantity("Routed", 3).isSuccess());
+        assertEquals(5, DataSourceRouting.onPrimary(() -> service.findByBusinessKey("Routed")).orElseThrow().getQuantity());
+    }
+
+    @Test
+    void readYourWritesHeader() throws Exception {
+        assertTrue(service.insert(product));
+        mvc.perform(get("/product/getByID").param("identifier", "Routed")).andExpect(status().is4xxClientError());
+        mvc.perform(get("/product/getByID").param("identifier", "Routed").header(ReadYourWritesFilter.HEADER, "true"))
+                .andExpect(status().is2xxSuccessful());
+    }
+}
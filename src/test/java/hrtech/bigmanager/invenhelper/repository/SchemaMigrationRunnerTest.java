@@ -0,0 +1,35 @@
+package hrtech.bigmanager.invenhelper.repository;
+
+import hrtech.bigmanager.invenhelper.config.InvenHelperApplication;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@SpringBootTest(classes = InvenHelperApplication.class)
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+class SchemaMigrationRunnerTest {
+
+    @Autowired
+    private SchemaMigrationRunner runner;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Test
+    void migrationsAppliedOnStartup() {
+        JdbcTemplate template = new JdbcTemplate(dataSource);
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8), template.queryForList("SELECT version FROM schema_version ORDER BY version", Integer.class));
+    }
+
+    @Test
+    void migrationsAppliedOnlyOnce() {
+        assertEquals(0, runner.migrate(dataSource));
+    }
+}
@@ -0,0 +1,230 @@
+package hrtech.bigmanager.invenhelper.repository;
+
+import hrtech.bigmanager.invenhelper.config.InvenHelperApplication;
+import hrtech.bigmanager.invenhelper.model.Product;
+import hrtech.bigmanager.invenhelper.model.ProductInformation;
+import hrtech.bigmanager.invenhelper.model.ProductKey;
+import hrtech.bigmanager.invenhelper.model.Quantity;
+import hrtech.bigmanager.invenhelper.model.Reservation;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(classes = InvenHelperApplication.class, properties = "invenhelper.datasource.shard-urls=" +
+        "jdbc:h2:mem:shard0;MODE=MYSQL;DB_CLOSE_DELAY=-1,jdbc:h2:mem:shard1;MODE=MYSQL;DB_CLOSE_DELAY=-1,jdbc:h2:mem:shard2;MODE=MYSQL;DB_CLOSE_DELAY=-1")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+class ShardedProductRepositoryTest {
+
+    private final List<DataSource> shards = IntStream.range(0, 3)
+            .mapToObj(shard -> new DriverManagerDataSource("jdbc:h2:mem:shard" + shard + ";MODE=MYSQL;DB_CLOSE_DELAY=-1", "sa", "password"))
+            .collect(Collectors.toList());
+
+    @Autowired
+    private ProductRepository repository;
+
+    @Autowired
+    private ShardedDataSource shardedDataSource;
+
+    @BeforeEach
+    void setUp() {
+        shards.forEach(shard -> {
+            new JdbcTemplate(shard).update("DELETE FROM product");
+            new JdbcTemplate(shard).update("DELETE FROM quantity_slot");
+            new JdbcTemplate(shard).update("DELETE FROM stock_reservation");
+        });
+    }
+
+    private Product newProduct(String businessIdentifier, int quantity) {
+        return new Product(new ProductKey(UUID.randomUUID(), businessIdentifier), new ProductInformation("Name", "Description"), new Quantity(quantity));
+    }
+
+    private List<String> identifiersOn(DataSource shard) {
+        return new JdbcTemplate(shard).queryForList("SELECT business_id FROM product ORDER BY business_id", String.class);
+    }
+
+    private String identifierOnShard(int shard, String prefix) {
+        for (int index = 0; ; index++) {
+            if (shardedDataSource.shardOf(prefix + index) == shard) {
+                return prefix + index;
+            }
+        }
+    }
+
+    @Test
+    void productsStoredOnTheirShard() {
+        List<Product> products = IntStream.range(0, 60).mapToObj(index -> newProduct("Sharded" + index, 1)).collect(Collectors.toList());
+        assertEquals(Collections.nCopies(60, true), repository.insertAll(products));
+
+        for (int shard = 0; shard < shards.size(); shard++) {
+            List<String> identifiers = identifiersOn(shards.get(shard));
+            assertFalse(identifiers.isEmpty());
+            for (String identifier : identifiers) {
+                assertEquals(shard, shardedDataSource.shardOf(identifier));
+            }
+        }
+
+        Product product = products.get(7);
+        ProductKey key = new ProductKey(product.getDatabaseKey(), product.getProductBusinessKey());
+        assertEquals(Optional.of(product), repository.findByBusinessId(key));
+        assertEquals(Optional.of(product), repository.findById(key));
+        assertEquals(3, repository.changeQuantity(key, 2).orElseThrow().getQuantity());
+        assertEquals(60, repository.findByBusinessIds(products.stream().map(Product::getProductBusinessKey).collect(Collectors.toList())).size());
+    }
+
+    @Test
+    void identifiersMergedFromEveryShard() {
+        List<String> expected = IntStream.range(0, 25).mapToObj(index -> String.format("Listed%02d", index)).collect(Collectors.toList());
+        expected.forEach(identifier -> assertTrue(repository.insert(newProduct(identifier, 1))));
+
+        assertEquals(expected.subList(0, 10), repository.findIdentifiersAfter("", 10));
+        assertEquals(expected.subList(10, 20), repository.findIdentifiersAfter("Listed09", 10));
+        assertEquals(expected.subList(20, 25), repository.findIdentifiersAfter("Listed19", 10));
+        assertEquals(expected, repository.findListOfIdentifiers());
+    }
+
+    @Test
+    void forEachProductOnEveryShard() {
+        List<Product> products = IntStream.range(0, 60).mapToObj(index -> newProduct("Exported" + index, index)).collect(Collectors.toList());
+        assertEquals(Collections.nCopies(60, true), repository.insertAll(products));
+
+        List<Product> read = Collections.synchronizedList(new ArrayList<>());
+        assertEquals(60, repository.forEachProduct(3, read::add));
+        assertEquals(60, read.size());
+        assertEquals(new HashSet<>(products), new HashSet<>(read));
+    }
+
+    @Test
+    void changeQuantitiesOnSeveralShards() {
+        String first = identifierOnShard(0, "Changed");
+        String second = identifierOnShard(1, "Changed");
+        String third = identifierOnShard(2, "Changed");
+        assertEquals(Arrays.asList(true, true, true), repository.insertAll(Arrays.asList(newProduct(first, 5), newProduct(second, 5), newProduct(third, 5))));
+
+        Map<String, Integer> deltas = new HashMap<>();
+        deltas.put(first, -2);
+        deltas.put(second, -10);
+        deltas.put(third, 4);
+        Map<String, Boolean> results = repository.changeQuantities(deltas);
+        assertTrue(results.get(first));
+        assertFalse(results.get(second));
+        assertTrue(results.get(third));
+        assertEquals(3, repository.findByBusinessId(new ProductKey(first)).orElseThrow().getQuantity());
+        assertEquals(5, repository.findByBusinessId(new ProductKey(second)).orElseThrow().getQuantity());
+        assertEquals(9, repository.findByBusinessId(new ProductKey(third)).orElseThrow().getQuantity());
+    }
+
+    @Test
+    void movementAcrossShards() {
+        String first = identifierOnShard(0, "Moved");
+        String second = identifierOnShard(1, "Moved");
+        String third = identifierOnShard(2, "Moved");
+        assertEquals(Arrays.asList(true, true, true), repository.insertAll(Arrays.asList(newProduct(first, 5), newProduct(second, 5), newProduct(third, 0))));
+
+        Map<String, Integer> deltas = new HashMap<>();
+        deltas.put(first, -3);
+        deltas.put(second, 3);
+        assertEquals(Arrays.asList(true, true), new ArrayList<>(repository.moveQuantities(deltas).values()));
+        assertEquals(2, repository.findByBusinessId(new ProductKey(first)).orElseThrow().getQuantity());
+        assertEquals(8, repository.findByBusinessId(new ProductKey(second)).orElseThrow().getQuantity());
+
+        deltas.put(first, -1);
+        deltas.put(second, 1);
+        deltas.put(third, -1);
+        Map<String, Boolean> results = repository.moveQuantities(deltas);
+        assertTrue(results.get(first));
+        assertFalse(results.get(third));
+        assertEquals(2, repository.findByBusinessId(new ProductKey(first)).orElseThrow().getQuantity());
+        assertEquals(8, repository.findByBusinessId(new ProductKey(second)).orElseThrow().getQuantity());
+        assertEquals(0, repository.findByBusinessId(new ProductKey(third)).orElseThrow().getQuantity());
+    }
+
+    @Test
+    void rebalanceAfterAddingAndRetiringShards() {
+        ShardRebalancer rebalancer = new ShardRebalancer();
+        rebalancer.setBatchSize(4);
+        List<String> identifiers = IntStream.range(0, 40).mapToObj(index -> "Rebalanced" + index).collect(Collectors.toList());
+        for (String identifier : identifiers) {
+            new JdbcTemplate(shards.get(0)).update("INSERT INTO product (id, business_id, name, description, quantity, version) VALUES (?, ?, ?, ?, ?, ?)",
+                    UUID.randomUUID().toString(), identifier, "Name", "Description", 1, 3);
+        }
+
+        ShardedDataSource added = new ShardedDataSource(shards, Collections.emptyList());
+        rebalancer.setDataSource(added);
+        int moved = rebalancer.rebalance();
+        assertTrue(moved > 0);
+        assertEquals(40 - moved, identifiersOn(shards.get(0)).size());
+        for (int shard = 0; shard < shards.size(); shard++) {
+            for (String identifier : identifiersOn(shards.get(shard))) {
+                assertEquals(shard, added.shardOf(identifier));
+            }
+        }
+        assertEquals(0, rebalancer.rebalance());
+
+        ShardedDataSource retired = new ShardedDataSource(shards.subList(0, 2), shards.subList(2, 3));
+        rebalancer.setDataSource(retired);
+        rebalancer.rebalance();
+        assertTrue(identifiersOn(shards.get(2)).isEmpty());
+        List<String> remaining = new ArrayList<>(identifiersOn(shards.get(0)));
+        remaining.addAll(identifiersOn(shards.get(1)));
+        assertEquals(new TreeSet<>(identifiers), new TreeSet<>(remaining));
+        assertEquals(Collections.singletonList(3L), new JdbcTemplate(shards.get(1)).queryForList("SELECT DISTINCT version FROM product", Long.class));
+    }
+
+    @Test
+    void failedMoveKeepsTheProductWhereItWas() {
+        String identifier = identifierOnShard(1, "Unmoved");
+        JdbcTemplate source = new JdbcTemplate(shards.get(0));
+        JdbcTemplate owner = new JdbcTemplate(shards.get(1));
+        source.update("INSERT INTO product (id, business_id, name, description, quantity, version, counter_slots) VALUES (?, ?, ?, ?, ?, ?, ?)",
+                UUID.randomUUID().toString(), identifier, "Name", "Description", 0, 1, 2);
+        source.update("INSERT INTO quantity_slot (business_id, slot, quantity) VALUES (?, 0, 3), (?, 1, 4)", identifier, identifier);
+        owner.update("INSERT INTO quantity_slot (business_id, slot, quantity) VALUES (?, 1, 9)", identifier);
+
+        ShardRebalancer rebalancer = new ShardRebalancer();
+        rebalancer.setBatchSize(10);
+        rebalancer.setDataSource(shardedDataSource);
+        assertEquals(0, rebalancer.rebalance());
+        assertEquals(Collections.singletonList(identifier), identifiersOn(shards.get(0)));
+        assertTrue(identifiersOn(shards.get(1)).isEmpty());
+        assertEquals(7, source.queryForObject("SELECT SUM(quantity) FROM quantity_slot WHERE business_id = ?", Integer.class, identifier));
+        assertEquals(9, owner.queryForObject("SELECT SUM(quantity) FROM quantity_slot WHERE business_id = ?", Integer.class, identifier));
+    }
+
+    @Test
+    void reservationsMovedWithTheirProduct() {
+        String identifier = identifierOnShard(1, "Reserved");
+        JdbcTemplate source = new JdbcTemplate(shards.get(0));
+        source.update("INSERT INTO product (id, business_id, name, description, quantity, version) VALUES (?, ?, ?, ?, ?, ?)",
+                UUID.randomUUID().toString(), identifier, "Name", "Description", 10, 1);
+        Instant now = Instant.now();
+        Reservation reservation = new Reservation(UUID.randomUUID(), identifier, 6, now.plus(Duration.ofMinutes(5)));
+        source.update("INSERT INTO stock_reservation (id, business_id, quantity, expires_on) VALUES (?, ?, ?, ?)",
+                reservation.getIdentifier().toString(), identifier, 6, Timestamp.from(reservation.getExpiresOn()));
+
+        ShardRebalancer rebalancer = new ShardRebalancer();
+        rebalancer.setBatchSize(10);
+        rebalancer.setDataSource(shardedDataSource);
+        assertEquals(1, rebalancer.rebalance());
+        assertEquals(0, source.queryForObject("SELECT COUNT(*) FROM stock_reservation", Integer.class));
+        assertEquals(6, repository.findReservedQuantity(identifier, now));
+        assertTrue(repository.changeQuantity(new ProductKey(identifier), -5).isEmpty());
+
+        assertEquals(4, repository.confirmReservation(reservation, now).orElseThrow().getQuantity());
+        assertEquals(0, repository.findReservedQuantity(identifier, now));
+        assertEquals(Collections.singletonList(identifier), identifiersOn(shards.get(1)));
+    }
+}
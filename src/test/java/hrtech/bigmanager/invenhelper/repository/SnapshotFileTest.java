@@ -0,0 +1,52 @@
+package hrtech.bigmanager.invenhelper.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnapshotFileTest {
+
+    @Test
+    void variableLengthIntegers() throws IOException {
+        long[] values = {0, 1, 127, 128, 300, Integer.MAX_VALUE, Long.MAX_VALUE};
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        for (long value : values) {
+            SnapshotFile.writeVarLong(output, value);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(output.toByteArray());
+        for (long value : values) {
+            assertEquals(value, SnapshotFile.readVarLong(buffer));
+        }
+        assertFalse(buffer.hasRemaining());
+        assertEquals(1 + 1 + 1 + 2 + 2 + 5 + 9, output.size());
+    }
+
+    @Test
+    void failedContentsKeepThePreviousSnapshot() throws IOException {
+        Path file = Files.createTempDirectory("invenhelper-snapshot").resolve("products.snapshot");
+        byte[] name = "Name".getBytes(StandardCharsets.UTF_8);
+        assertEquals(1, SnapshotFile.write(file, writer -> {
+            writer.write(1, 2, name, name.length, name, 2, name, 0, 5, 3);
+            return 1;
+        }));
+        assertThrows(IOException.class, () -> SnapshotFile.write(file, writer -> {
+            throw new IOException("Products cannot be read");
+        }));
+        assertFalse(Files.exists(file.resolveSibling("products.snapshot.tmp")));
+
+        List<String> read = new ArrayList<>();
+        assertEquals(1, SnapshotFile.read(file, (mostBits, leastBits, businessIdentifier, productName, description, quantity, version) ->
+                read.add(mostBits + " " + leastBits + " " + new String(businessIdentifier, StandardCharsets.UTF_8) + " " +
+                        new String(productName, StandardCharsets.UTF_8) + " " + description.length + " " + quantity + " " + version)));
+        assertEquals(List.of("1 2 Name Na 0 5 3"), read);
+    }
+}
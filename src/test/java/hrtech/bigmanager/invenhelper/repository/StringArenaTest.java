@@ -0,0 +1,59 @@
+package hrtech.bigmanager.invenhelper.repository;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StringArenaTest {
+
+    @Test
+    void sizeClasses() {
+        assertEquals(16, StringArena.capacity(0));
+        assertEquals(16, StringArena.capacity(16));
+        assertEquals(32, StringArena.capacity(17));
+        assertEquals(1024, StringArena.capacity(1024));
+        assertEquals(2048, StringArena.capacity(1025));
+        assertEquals(65536, StringArena.capacity(StringArena.MAXIMUM_LENGTH));
+
+        assertEquals(0, StringArena.sizeClass(1));
+        assertEquals(63, StringArena.sizeClass(1024));
+        assertEquals(64, StringArena.sizeClass(2048));
+        assertEquals(69, StringArena.sizeClass(StringArena.MAXIMUM_LENGTH));
+    }
+
+    @Test
+    void replacementsReuseReleasedBlocks() {
+        StringArena arena = new StringArena();
+        long name = arena.append(StringArena.encode("Name"));
+        long other = arena.append(StringArena.encode("Other"));
+
+        long replaced = arena.replace(name, StringArena.encode("Same class"));
+        assertEquals(name >>> 16, replaced >>> 16);
+        assertEquals("Same class", arena.read(replaced));
+        assertEquals(0, arena.obtainReleasedBytes());
+
+        String longer = "A name longer than the block of the first one";
+        long moved = arena.replace(replaced, StringArena.encode(longer));
+        assertEquals(longer, arena.read(moved));
+        assertEquals(16, arena.obtainReleasedBytes());
+        long reused = arena.append(StringArena.encode("Reused"));
+        assertEquals(name >>> 16, reused >>> 16);
+        assertEquals(0, arena.obtainReleasedBytes());
+        assertEquals("Other", arena.read(other));
+        assertEquals("Reused", arena.read(reused));
+    }
+
+    @Test
+    void repeatedEditsDoNotGrow() {
+        StringArena arena = new StringArena();
+        String shortText = "Short";
+        String longText = new String(new char[40000]).replace('\0', 'x');
+        long reference = arena.append(StringArena.encode(shortText));
+        for (int edit = 0; edit < 2000; edit++) {
+            reference = arena.replace(reference, StringArena.encode(edit % 2 == 0 ? longText : shortText + edit));
+        }
+        assertEquals(shortText + 1999, arena.read(reference));
+        assertEquals(16 * 1024 * 1024, arena.obtainReservedBytes());
+        assertEquals(65536, arena.obtainReleasedBytes());
+    }
+}
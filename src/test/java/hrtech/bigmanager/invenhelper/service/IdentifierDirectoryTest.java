@@ -0,0 +1,91 @@
+package hrtech.bigmanager.invenhelper.service;
+
+import hrtech.bigmanager.invenhelper.config.InvenHelperApplication;
+import hrtech.bigmanager.invenhelper.model.Page;
+import hrtech.bigmanager.invenhelper.model.Product;
+import hrtech.bigmanager.invenhelper.model.ProductInformation;
+import hrtech.bigmanager.invenhelper.model.ProductKey;
+import hrtech.bigmanager.invenhelper.model.Quantity;
+import hrtech.bigmanager.invenhelper.repository.IProductRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.jdbc.Sql;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Sql(scripts = "classpath:databaseinit.sql", executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+@SpringBootTest(classes = InvenHelperApplication.class, properties = "invenhelper.identifiers.maximum-list-size=7")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+class IdentifierDirectoryTest {
+
+    @Autowired
+    private ProductService service;
+
+    @Autowired
+    private IdentifierDirectory directory;
+
+    @Autowired
+    private IProductRepository repository;
+
+    @BeforeEach
+    void setUp() {
+        assertEquals(0, directory.rebuild());
+    }
+
+    private static Product product(String identifier) {
+        return new Product(new ProductKey(UUID.randomUUID(), identifier), new ProductInformation("Name", "Description"), new Quantity(1));
+    }
+
+    @Test
+    void builtFromEveryPage() {
+        List<Product> products = new ArrayList<>();
+        for (int number = 0; number < 30; number++) {
+            products.add(product(String.format("SKU%02d", number)));
+        }
+        assertTrue(repository.insertAll(products).stream().allMatch(Boolean::booleanValue));
+        assertEquals(0, directory.obtainSize());
+
+        assertEquals(30, directory.rebuild());
+        assertEquals(Arrays.asList("SKU10", "SKU11", "SKU12"), directory.findByPrefix("SKU1", "", 3).getItems());
+        assertEquals(10, directory.findByPrefix("SKU1", "", 100).getItems().size());
+        assertTrue(directory.findByPrefix("SKU3", "", 3).getItems().isEmpty());
+    }
+
+    @Test
+    void createdIdentifiersAdded() {
+        for (int number = 0; number < 5000; number++) {
+            directory.add(String.format("Bulk%04d", number));
+        }
+        assertTrue(service.insert(product("Bulk2500A")));
+        assertTrue(service.insert(product("Other")));
+        directory.add("Other");
+        assertEquals(5002, directory.obtainSize());
+
+        assertEquals(Arrays.asList("Bulk2500", "Bulk2500A", "Bulk2501"), directory.findByPrefix("Bulk250", "", 3).getItems());
+        assertEquals(Arrays.asList("Other"), directory.findByPrefix("O", "", 3).getItems());
+        assertTrue(service.findIdentifiersByPrefix("", "", 10).isPresent());
+    }
+
+    @Test
+    void pagesOfPrefix() {
+        Arrays.asList("A1", "B1", "B2", "B3", "C1").forEach(directory::add);
+
+        Page<String> page = directory.findByPrefix("B", "", 2);
+        assertEquals(Arrays.asList("B1", "B2"), page.getItems());
+        page = directory.findByPrefix("B", page.getNextCursor().orElseThrow(), 2);
+        assertEquals(Arrays.asList("B3"), page.getItems());
+        assertTrue(page.getNextCursor().isEmpty());
+
+        assertEquals(Arrays.asList("B1", "B2", "B3"), directory.findByPrefix("B", Page.encodeCursor("A9"), 5).getItems());
+        assertEquals(Arrays.asList("C1"), directory.findByPrefix("", Page.encodeCursor("B3"), 5).getItems());
+        assertThrows(IllegalArgumentException.class, () -> directory.findByPrefix("", "not a cursor", 5));
+    }
+}
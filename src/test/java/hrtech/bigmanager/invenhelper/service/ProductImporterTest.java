@@ -0,0 +1,135 @@
+package hrtech.bigmanager.invenhelper.service;
+
+import hrtech.bigmanager.invenhelper.config.InvenHelperApplication;
+import hrtech.bigmanager.invenhelper.model.Product;
+import hrtech.bigmanager.invenhelper.model.ProductInformation;
+import hrtech.bigmanager.invenhelper.model.ProductKey;
+import hrtech.bigmanager.invenhelper.model.Quantity;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.jdbc.Sql;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Sql(scripts = "classpath:databaseinit.sql", executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+@SpringBootTest(classes = InvenHelperApplication.class, properties = {"invenhelper.import.block-size=3", "invenhelper.import.chunk-size=4"})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+class ProductImporterTest {
+
+    @Autowired
+    private ProductImporter importer;
+
+    @Autowired
+    private ProductService productService;
+
+    private JSONObject importCsv(String csv, List<JSONObject> records) throws IOException {
+        return importer.importCsv(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), records::add);
+    }
+
+    private static Map<Integer, String> errors(List<JSONObject> records) {
+        Map<Integer, String> errors = new TreeMap<>();
+        records.stream().filter(record -> "error".equals(record.getString("type")))
+                .forEach(record -> errors.put(record.getInt("line"), record.getString("message")));
+        return errors;
+    }
+
+    @Test
+    void splitFields() {
+        assertEquals(Arrays.asList("a", "b", "", "d"), ProductImporter.splitFields("a,b,,d"));
+        assertEquals(Arrays.asList("a,b", "say \"hi\"", ""), ProductImporter.splitFields("\"a,b\",\"say \"\"hi\"\"\","));
+        assertEquals(Collections.singletonList(""), ProductImporter.splitFields(""));
+        assertThrows(IllegalArgumentException.class, () -> ProductImporter.splitFields("\"open,b"));
+        assertThrows(IllegalArgumentException.class, () -> ProductImporter.splitFields("\"a\"b,c"));
+
+        assertTrue(ProductImporter.endsInsideQuotes("a,\"b"));
+        assertTrue(ProductImporter.endsInsideQuotes("a,\"say \"\"hi\"\""));
+        assertFalse(ProductImporter.endsInsideQuotes("a,\"b\",c"));
+        assertFalse(ProductImporter.endsInsideQuotes("a,5\" screen,c"));
+    }
+
+    @Test
+    void importFieldsWithLineBreaks() throws IOException {
+        String description = "First line, \"quoted\"\nSecond line";
+        String csv = "identifier,name,description,quantity\n" +
+                "Broken," + ProductExporter.formatCsvField("Name\non two lines") + "," + ProductExporter.formatCsvField(description) + ",3\n" +
+                "Single,Name,Description,x\n";
+        List<JSONObject> records = new ArrayList<>();
+        JSONObject summary = importCsv(csv, records);
+
+        assertEquals(Collections.singletonMap(5, "Invalid quantity: x"), errors(records));
+        assertEquals(5, summary.getLong("lines"));
+        assertEquals(1, summary.getLong("imported"));
+        Product broken = productService.findByBusinessKey("Broken").orElseThrow();
+        assertEquals("Name\non two lines", broken.getName());
+        assertEquals(description, broken.getDescription());
+        assertEquals(3, broken.getQuantity());
+    }
+
+    @Test
+    void importProducts() throws IOException {
+        assertTrue(productService.insert(new Product(new ProductKey(UUID.randomUUID(), "Registered"),
+                new ProductInformation("Name", "Description"), new Quantity(1))));
+        String csv = "\uFEFFquantity,identifier,name,description\n" +
+                "5,First,First name,\"Description, with a comma\"\n" +
+                "7,Second,Second name,Description\n" +
+                "x,Third,Third name,Description\n" +
+                "-1,Fourth,Fourth name,Description\n" +
+                "\n" +
+                "1,First,Repeated,Description\n" +
+                "1,Registered,Name,Description\n" +
+                "2,Fifth,Name\n" +
+                "4,Seventh,Name,Description\n" +
+                "3,Sixth,\"Name,Description\n";
+        List<JSONObject> records = new ArrayList<>();
+        JSONObject summary = importCsv(csv, records);
+
+        Map<Integer, String> errors = errors(records);
+        assertEquals(new TreeSet<>(Arrays.asList(4, 5, 7, 8, 9, 11)), errors.keySet());
+        assertEquals("Invalid quantity: x", errors.get(4));
+        assertEquals("The business identifier is repeated on the file", errors.get(7));
+        assertEquals("A product with the same business identifier is already registered", errors.get(8));
+        assertEquals("Expected 4 fields, found 3", errors.get(9));
+        assertEquals("Quoted field not closed", errors.get(11));
+
+        assertEquals("summary", summary.getString("type"));
+        assertEquals(11, summary.getLong("lines"));
+        assertEquals(3, summary.getLong("imported"));
+        assertEquals(6, summary.getLong("failed"));
+        assertTrue(records.stream().anyMatch(record -> "progress".equals(record.getString("type"))));
+
+        Product first = productService.findByBusinessKey("First").orElseThrow();
+        assertEquals(5, first.getQuantity());
+        assertEquals("Description, with a comma", first.getDescription());
+        assertEquals(7, productService.findByBusinessKey("Second").orElseThrow().getQuantity());
+        assertEquals(4, productService.findByBusinessKey("Seventh").orElseThrow().getQuantity());
+        assertEquals(1, productService.findByBusinessKey("Registered").orElseThrow().getQuantity());
+        assertFalse(productService.findByBusinessKey("Fourth").isPresent());
+    }
+
+    @Test
+    void importWithoutHeaderOnChunks() throws IOException {
+        StringBuilder csv = new StringBuilder();
+        for (int index = 0; index < 50; index++) {
+            csv.append("Product").append(index).append(",Name,Description,").append(index).append('\n');
+        }
+        List<JSONObject> records = new ArrayList<>();
+        JSONObject summary = importCsv(csv.toString(), records);
+
+        assertTrue(errors(records).isEmpty());
+        assertEquals(50, summary.getLong("lines"));
+        assertEquals(50, summary.getLong("imported"));
+        assertEquals(0, summary.getLong("failed"));
+        assertEquals(9, records.stream().filter(record -> "progress".equals(record.getString("type"))).count());
+        for (int index = 0; index < 50; index++) {
+            assertEquals(index, productService.findByBusinessKey("Product" + index).orElseThrow().getQuantity());
+        }
+    }
+}
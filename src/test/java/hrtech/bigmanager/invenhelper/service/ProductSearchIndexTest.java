@@ -0,0 +1,98 @@
+package hrtech.bigmanager.invenhelper.service;
+
+import hrtech.bigmanager.invenhelper.config.InvenHelperApplication;
+import hrtech.bigmanager.invenhelper.model.Product;
+import hrtech.bigmanager.invenhelper.model.ProductInformation;
+import hrtech.bigmanager.invenhelper.model.ProductKey;
+import hrtech.bigmanager.invenhelper.model.Quantity;
+import hrtech.bigmanager.invenhelper.repository.IProductRepository;
+import org.json.JSONObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.jdbc.Sql;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Sql(scripts = "classpath:databaseinit.sql", executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+@SpringBootTest(classes = InvenHelperApplication.class, properties = {"invenhelper.search.build-threads=3", "invenhelper.search.build-page-size=7"})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+class ProductSearchIndexTest {
+
+    @Autowired
+    private ProductService service;
+
+    @Autowired
+    private ProductSearchIndex index;
+
+    @Autowired
+    private IProductRepository repository;
+
+    @BeforeEach
+    void setUp() {
+        assertEquals(0, index.rebuild());
+    }
+
+    private Product product(String identifier, String name, String description) {
+        return new Product(new ProductKey(UUID.randomUUID(), identifier), new ProductInformation(name, description), new Quantity(1));
+    }
+
+    @Test
+    void tokenize() {
+        assertEquals(Arrays.asList("cafe", "creme", "50cl", "x"), ProductSearchIndex.tokenize("  Café CRÈME, 50cl / x!"));
+        assertTrue(ProductSearchIndex.tokenize(" -- ").isEmpty());
+    }
+
+    @Test
+    void searchRankedWithPrefixes() {
+        assertTrue(service.insert(product("Cable", "USB cable", "Braided cable for chargers")));
+        assertTrue(service.insert(product("Charger", "Wall charger", "Charger with a USB cable included")));
+        assertTrue(service.insert(product("Case", "Phone case", "Silicone case")));
+
+        assertEquals(Arrays.asList("Cable", "Charger"), index.search("usb cable", 10));
+        assertEquals(Arrays.asList("Charger", "Cable"), index.search("charger", 10));
+        assertEquals(Arrays.asList("Case", "Cable", "Charger"), index.search("ca", 10));
+        assertEquals(Collections.singletonList("Case"), index.search("ca", 1));
+        assertEquals(Collections.singletonList("Case"), index.search("SILICÓNE ph", 10));
+        assertTrue(index.search("usb phone", 10).isEmpty());
+        assertTrue(index.search("?!", 10).isEmpty());
+    }
+
+    @Test
+    void updatesReindexed() {
+        assertTrue(service.insert(product("Lamp", "Desk lamp", "Warm light")));
+        JSONObject update = new JSONObject();
+        update.put("identifier", "Lamp");
+        update.put("name", "Floor lamp");
+        assertTrue(service.updateProductInformation(update).isSuccess());
+
+        assertTrue(index.search("desk", 10).isEmpty());
+        assertEquals(Collections.singletonList("Lamp"), index.search("floor lamp", 10));
+        assertEquals(Collections.singletonList("Lamp"), service.searchProducts("floor", 10).orElseThrow().stream()
+                .map(Product::getProductBusinessKey).collect(Collectors.toList()));
+    }
+
+    @Test
+    void rebuiltWithParallelScan() {
+        List<Product> products = new ArrayList<>();
+        for (int number = 0; number < 100; number++) {
+            products.add(product(String.format("SKU%03d", number), "Screw " + number, number % 2 == 0 ? "Steel" : "Brass"));
+        }
+        assertTrue(repository.insertAll(products).stream().allMatch(Boolean::booleanValue));
+        assertTrue(index.search("screw", 10).isEmpty());
+
+        assertEquals(100, index.rebuild());
+        assertEquals(50, index.search("screw steel", 100).size());
+        assertEquals(11, index.search("screw 7", 100).size());
+        assertEquals(Arrays.asList("SKU007", "SKU070"), index.search("7", 2));
+    }
+}
@@ -2,6 +2,7 @@ package hrtech.bigmanager.invenhelper.service;
 
 import hrtech.bigmanager.invenhelper.config.InvenHelperApplication;
 import hrtech.bigmanager.invenhelper.model.*;
+import org.json.JSONArray;
 import org.json.JSONObject;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -11,6 +12,9 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.jdbc.Sql;
 
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -184,6 +188,46 @@ class ProductServiceTest {
         assertEquals("A product with the same business identifier is already registered", response.getAdditionalInformation());
     }
 
+    @Test
+    void createNewProducts() {
+        assertTrue(service.insert(product));
+
+        JSONObject newProduct = new JSONObject();
+        newProduct.put("identifier", generateString());
+        newProduct.put("name", defaultName);
+        newProduct.put("description", defaultDescription);
+        newProduct.put("quantity", 3);
+
+        JSONObject alreadyRegistered = new JSONObject();
+        alreadyRegistered.put("identifier", defaultCode);
+        alreadyRegistered.put("name", defaultName);
+        alreadyRegistered.put("description", defaultDescription);
+
+        JSONObject noName = new JSONObject();
+        noName.put("identifier", generateString());
+        noName.put("description", defaultDescription);
+
+        JSONArray array = new JSONArray();
+        array.put(newProduct);
+        array.put(alreadyRegistered);
+        array.put(noName);
+        array.put(newProduct);
+        array.put("notAnObject");
+
+        List<Response<Product>> responses = service.createNewProducts(array);
+        assertEquals(5, responses.size());
+        assertTrue(responses.get(0).isSuccess());
+        assertEquals("Success creating the product", responses.get(0).getAdditionalInformation());
+        assertEquals("A product with the same business identifier is already registered", responses.get(1).getAdditionalInformation());
+        assertEquals("Error converting the JSON into a Product. Check the request", responses.get(2).getAdditionalInformation());
+        assertEquals("The business identifier is repeated on the request", responses.get(3).getAdditionalInformation());
+        assertEquals("Error converting the JSON into a Product. Check the request", responses.get(4).getAdditionalInformation());
+
+        Optional<Product> productOnDatabase = service.findByBusinessKey(newProduct.getString("identifier"));
+        assertTrue(productOnDatabase.isPresent());
+        assertEquals(responses.get(0).getObjectToReturn(), productOnDatabase.get());
+    }
+
     @Test
     void increaseQuantityValid() {
         assertTrue(service.insert(product));
@@ -202,6 +246,22 @@ class ProductServiceTest {
         assertEquals("Product not found", methodResponse.getAdditionalInformation());
     }
 
+    @Test
+    void increaseQuantityConcurrent() throws InterruptedException {
+        assertTrue(service.insert(product));
+        int numberOfRequests = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int index = 0; index < numberOfRequests; index++) {
+            executor.submit(() -> service.increaseQuantity(defaultCode, 1));
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+
+        Optional<Product> productOnDatabase = service.findByBusinessKey(defaultCode);
+        assertTrue(productOnDatabase.isPresent());
+        assertEquals(defaultGoodQuantity + numberOfRequests, productOnDatabase.get().getQuantity());
+    }
+
     @Test
     void decreaseQuantityValid() {
         assertTrue(service.insert(product));
@@ -229,6 +289,76 @@ class ProductServiceTest {
         assertEquals("Invalid quantity obtained while trying to decrease", methodResponse.getAdditionalInformation());
     }
 
+    private JSONObject movement(String identifier, int quantity) {
+        JSONObject movement = new JSONObject();
+        movement.put("identifier", identifier);
+        movement.put("quantity", quantity);
+        return movement;
+    }
+
+    @Test
+    void moveQuantities() {
+        Product otherProduct = new Product(new ProductKey(UUID.randomUUID(), generateString()), defaultInformation, new Quantity(10));
+        assertTrue(service.insert(product));
+        assertTrue(service.insert(otherProduct));
+
+        List<Response<Product>> responses = service.moveQuantities(new JSONArray(Arrays.asList(
+                movement(otherProduct.getProductBusinessKey(), -10), movement(defaultCode, randomNumberToIncrease))));
+        assertEquals(2, responses.size());
+        assertTrue(responses.stream().allMatch(Response::isSuccess));
+        assertEquals(0, responses.get(0).getObjectToReturn().getQuantity());
+        assertEquals(defaultGoodQuantity + randomNumberToIncrease, responses.get(1).getObjectToReturn().getQuantity());
+    }
+
+    @Test
+    void moveQuantitiesInvalidQuantity() {
+        Product otherProduct = new Product(new ProductKey(UUID.randomUUID(), generateString()), defaultInformation, new Quantity(10));
+        assertTrue(service.insert(product));
+        assertTrue(service.insert(otherProduct));
+
+        List<Response<Product>> responses = service.moveQuantities(new JSONArray(Arrays.asList(
+                movement(defaultCode, -1), movement(otherProduct.getProductBusinessKey(), -11), movement("Unknown", 1))));
+        assertEquals("Movement not applied", responses.get(0).getAdditionalInformation());
+        assertEquals("Invalid quantity obtained while trying to move", responses.get(1).getAdditionalInformation());
+        assertEquals("Product not found", responses.get(2).getAdditionalInformation());
+        assertTrue(responses.stream().noneMatch(Response::isSuccess));
+        assertEquals(defaultGoodQuantity, service.findByBusinessKey(defaultCode).orElseThrow().getQuantity());
+        assertEquals(10, service.findByBusinessKey(otherProduct.getProductBusinessKey()).orElseThrow().getQuantity());
+    }
+
+    @Test
+    void moveQuantitiesInvalidRequest() {
+        assertTrue(service.insert(product));
+        JSONObject withoutQuantity = new JSONObject();
+        withoutQuantity.put("identifier", defaultCode);
+
+        List<Response<Product>> responses = service.moveQuantities(new JSONArray(Arrays.asList(
+                movement(defaultCode, 1), movement(defaultCode, 2), withoutQuantity)));
+        assertEquals("Movement not applied", responses.get(0).getAdditionalInformation());
+        assertEquals("The business identifier is repeated on the request", responses.get(1).getAdditionalInformation());
+        assertEquals("Error converting the JSON into a movement. Check the request", responses.get(2).getAdditionalInformation());
+        assertEquals(defaultGoodQuantity, service.findByBusinessKey(defaultCode).orElseThrow().getQuantity());
+    }
+
+    @Test
+    void moveQuantitiesConcurrent() throws InterruptedException {
+        Product otherProduct = new Product(new ProductKey(UUID.randomUUID(), generateString()), defaultInformation, new Quantity(1000));
+        assertTrue(service.insert(product));
+        assertTrue(service.insert(otherProduct));
+        int numberOfRequests = 100;
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int index = 0; index < numberOfRequests; index++) {
+            JSONArray movements = index % 2 == 0 ? new JSONArray(Arrays.asList(movement(defaultCode, 1), movement(otherProduct.getProductBusinessKey(), -1))) :
+                    new JSONArray(Arrays.asList(movement(otherProduct.getProductBusinessKey(), -1), movement(defaultCode, 1)));
+            executor.submit(() -> assertTrue(service.moveQuantities(movements).stream().allMatch(Response::isSuccess)));
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+
+        assertEquals(defaultGoodQuantity + numberOfRequests, service.findByBusinessKey(defaultCode).orElseThrow().getQuantity());
+        assertEquals(1000 - numberOfRequests, service.findByBusinessKey(otherProduct.getProductBusinessKey()).orElseThrow().getQuantity());
+    }
+
     @Test
     void updateProductInformationValidInformation() {
         JSONObject objectToInject = new JSONObject();
@@ -249,6 +379,70 @@ class ProductServiceTest {
         assertEquals(newDescription, productRetrieved.getDescription());
     }
 
+    @Test
+    void updateProductInformationAfterOtherChange() {
+        assertTrue(service.insert(product));
+        assertTrue(service.increaseQuantity(defaultCode, randomNumberToIncrease).isSuccess());
+
+        JSONObject objectToInject = new JSONObject();
+        objectToInject.put("identifier", defaultCode);
+        objectToInject.put("name", generateString());
+        Response<Product> response = service.updateProductInformation(objectToInject);
+        assertTrue(response.isSuccess());
+        assertEquals(2, response.getObjectToReturn().getVersion());
+        assertEquals(defaultGoodQuantity + randomNumberToIncrease, service.findByBusinessKey(defaultCode).orElseThrow().getQuantity());
+    }
+
+    @Test
+    void updateProductInformationWithExpectedVersion() {
+        assertTrue(service.insert(product));
+        assertTrue(service.increaseQuantity(defaultCode, randomNumberToIncrease).isSuccess());
+
+        JSONObject objectToInject = new JSONObject();
+        objectToInject.put("identifier", defaultCode);
+        objectToInject.put("name", generateString());
+        objectToInject.put("version", 0);
+        Response<Product> response = service.updateProductInformation(objectToInject);
+        assertFalse(response.isSuccess());
+        assertEquals(ProductService.VERSION_CONFLICT, response.getAdditionalInformation());
+        assertEquals(1, response.getObjectToReturn().getVersion());
+
+        objectToInject.put("version", 1);
+        assertTrue(service.updateProductInformation(objectToInject).isSuccess());
+    }
+
+    @Test
+    void updateProductInformationConcurrent() throws InterruptedException {
+        assertTrue(service.insert(product));
+        int numberOfRequests = 50;
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int index = 0; index < numberOfRequests; index++) {
+            executor.submit(() -> {
+                JSONObject objectToInject = new JSONObject();
+                objectToInject.put("identifier", defaultCode);
+                objectToInject.put("name", generateString());
+                service.updateProductInformation(objectToInject);
+                service.increaseQuantity(defaultCode, 1);
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+
+        assertEquals(defaultGoodQuantity + numberOfRequests, service.findByBusinessKey(defaultCode).orElseThrow().getQuantity());
+    }
+
+    @Test
+    void decreaseQuantityWithExpectedVersion() {
+        assertTrue(service.insert(product));
+        Response<Product> response = service.decreaseQuantity(defaultCode, randomNumberToDecrease, 3);
+        assertFalse(response.isSuccess());
+        assertEquals(ProductService.VERSION_CONFLICT, response.getAdditionalInformation());
+
+        response = service.decreaseQuantity(defaultCode, randomNumberToDecrease, 0);
+        assertTrue(response.isSuccess());
+        assertEquals(defaultGoodQuantity - randomNumberToDecrease, response.getObjectToReturn().getQuantity());
+    }
+
     @Test
     void updateProductInformationValidInformationNoIdentifier() {
         JSONObject objectToInject = new JSONObject();
@@ -321,6 +515,46 @@ class ProductServiceTest {
         assertEquals(defaultDescription, productRetrieved.getDescription());
     }
 
+    @Test
+    void updateProductsInformation() {
+        Product otherProduct = new Product(new ProductKey(UUID.randomUUID(), generateString()), new ProductInformation(defaultName, defaultDescription), new Quantity(1));
+        assertEquals(Arrays.asList(true, true), service.insertAll(Arrays.asList(product, otherProduct)));
+
+        String newName = generateString();
+        JSONObject changeName = new JSONObject();
+        changeName.put("identifier", defaultCode);
+        changeName.put("name", newName);
+
+        String newDescription = generateString();
+        JSONObject changeDescription = new JSONObject();
+        changeDescription.put("identifier", otherProduct.getProductBusinessKey());
+        changeDescription.put("description", newDescription);
+
+        JSONObject notFound = new JSONObject();
+        notFound.put("identifier", "NOTFOUND");
+        notFound.put("name", newName);
+
+        JSONObject invalidName = new JSONObject();
+        invalidName.put("identifier", defaultCode);
+        invalidName.put("name", "");
+
+        JSONArray array = new JSONArray();
+        array.put(changeName);
+        array.put(changeDescription);
+        array.put(notFound);
+        array.put(invalidName);
+
+        List<Response<Product>> responses = service.updateProductsInformation(array);
+        assertEquals(4, responses.size());
+        assertTrue(responses.get(0).isSuccess());
+        assertTrue(responses.get(1).isSuccess());
+        assertEquals("Product not found", responses.get(2).getAdditionalInformation());
+        assertEquals("The business identifier is repeated on the request", responses.get(3).getAdditionalInformation());
+
+        assertEquals(newName, service.findByBusinessKey(defaultCode).get().getName());
+        assertEquals(newDescription, service.findByBusinessKey(otherProduct.getProductBusinessKey()).get().getDescription());
+    }
+
     @Test
     void findListOfIdentifiersEmpty() {
         assertTrue(service.findListOfIdentifiers().isEmpty());
@@ -340,4 +574,28 @@ class ProductServiceTest {
         assertTrue(p.isSuccess());
         assertEquals(Arrays.asList(product.getProductBusinessKey(), p.getObjectToReturn().getProductBusinessKey()), service.findListOfIdentifiers());
     }
-}
\ No newline at end of file
+
+    @Test
+    void findIdentifiersPage() {
+        List<Product> products = new ArrayList<>();
+        List<String> identifiers = new ArrayList<>();
+        for (int index = 0; index < 5; index++) {
+            String identifier = index + defaultCode;
+            identifiers.add(identifier);
+            products.add(new Product(new ProductKey(UUID.randomUUID(), identifier), new ProductInformation(defaultName, defaultDescription), new Quantity(index)));
+        }
+        service.insertAll(products);
+
+        Page<String> page = service.findIdentifiersPage("", 2);
+        assertEquals(identifiers.subList(0, 2), page.getItems());
+        assertTrue(page.getNextCursor().isPresent());
+
+        page = service.findIdentifiersPage(page.getNextCursor().get(), 2);
+        assertEquals(identifiers.subList(2, 4), page.getItems());
+        assertTrue(page.getNextCursor().isPresent());
+
+        page = service.findIdentifiersPage(page.getNextCursor().get(), 2);
+        assertEquals(identifiers.subList(4, 5), page.getItems());
+        assertTrue(page.getNextCursor().isEmpty());
+    }
+}
@@ -0,0 +1,140 @@
+package hrtech.bigmanager.invenhelper.service;
+
+import hrtech.bigmanager.invenhelper.config.InvenHelperApplication;
+import hrtech.bigmanager.invenhelper.model.Product;
+import hrtech.bigmanager.invenhelper.model.ProductInformation;
+import hrtech.bigmanager.invenhelper.model.ProductKey;
+import hrtech.bigmanager.invenhelper.model.Quantity;
+import hrtech.bigmanager.invenhelper.repository.IProductRepository;
+import hrtech.bigmanager.invenhelper.repository.ProductCache;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.jdbc.Sql;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Sql(scripts = "classpath:databaseinit.sql", executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+@SpringBootTest(classes = InvenHelperApplication.class)
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+class ProductSnapshotTest {
+
+    @Autowired
+    private ProductSnapshot snapshot;
+
+    @Autowired
+    private ProductService service;
+
+    @Autowired
+    private IProductRepository repository;
+
+    @Autowired
+    private QuantityIndex quantityIndex;
+
+    private static Product product(String identifier, int quantity) {
+        return new Product(new ProductKey(UUID.randomUUID(), identifier), new ProductInformation("Name " + identifier, "Descrição"), new Quantity(quantity));
+    }
+
+    private List<Product> insertProducts(int count) {
+        List<Product> products = new ArrayList<>();
+        for (int index = 0; index < count; index++) {
+            products.add(product("Snapshot" + index, index * 1000));
+        }
+        assertTrue(repository.insertAll(products).stream().allMatch(Boolean::booleanValue));
+        return products;
+    }
+
+    @Test
+    void writtenAndRead() throws IOException {
+        List<Product> products = insertProducts(30);
+        Path file = Files.createTempDirectory("invenhelper-snapshot").resolve("products.snapshot");
+        assertEquals(30, snapshot.write(file));
+
+        Map<String, Product> read = snapshot.read(file);
+        assertEquals(30, read.size());
+        for (Product product : products) {
+            Product found = read.get(product.getProductBusinessKey());
+            assertEquals(product, found);
+            assertEquals(product.getDatabaseKey(), found.getDatabaseKey());
+            assertEquals(product.getVersion(), found.getVersion());
+        }
+    }
+
+    @Test
+    void corruptedSnapshotRefused() throws IOException {
+        insertProducts(5);
+        Path file = Files.createTempDirectory("invenhelper-snapshot").resolve("products.snapshot");
+        snapshot.write(file);
+
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[30] ^= 1;
+        Files.write(file, bytes);
+        assertThrows(IOException.class, () -> snapshot.read(file));
+
+        Files.write(file, Arrays.copyOf(bytes, 20));
+        assertThrows(IOException.class, () -> snapshot.read(file));
+    }
+
+    @Test
+    void reconciledWithTheDatabase() throws IOException {
+        List<Product> products = insertProducts(10);
+        Path file = Files.createTempDirectory("invenhelper-snapshot").resolve("products.snapshot");
+        snapshot.write(file);
+
+        assertTrue(service.increaseQuantity("Snapshot3", 7).isSuccess());
+        Product created = product("SnapshotNew", 4);
+        assertTrue(service.insert(created));
+        Map<String, Product> read = snapshot.read(file);
+        read.put("Removed", product("Removed", 1));
+
+        Map<String, Product> reconciled = snapshot.reconcile(read).orElseThrow().stream()
+                .collect(Collectors.toMap(Product::getProductBusinessKey, product -> product));
+        assertEquals(11, reconciled.size());
+        assertEquals(3007, reconciled.get("Snapshot3").getQuantity());
+        assertEquals(4, reconciled.get("SnapshotNew").getQuantity());
+        assertEquals(products.get(5), reconciled.get("Snapshot5"));
+        assertFalse(reconciled.containsKey("Removed"));
+    }
+
+    @Test
+    void loadedOnStartup() throws Exception {
+        insertProducts(12);
+        Path file = Files.createTempDirectory("invenhelper-snapshot").resolve("products.snapshot");
+        snapshot.write(file);
+        assertTrue(service.decreaseQuantity("Snapshot2", 2000).isSuccess());
+        assertTrue(snapshot.obtainProducts().isEmpty());
+
+        ProductCache cache = new ProductCache();
+        cache.setEnabled(true);
+        cache.setMaximumSize(5);
+        cache.setTimeToLive(Duration.ofMinutes(5));
+        cache.afterPropertiesSet();
+        ProductSnapshot startup = new ProductSnapshot();
+        startup.setProductRepository(repository);
+        startup.setProductCache(cache);
+        startup.setEnabled(true);
+        startup.setSnapshotFile(file.toString());
+        startup.setInterval(Duration.ZERO);
+        startup.afterPropertiesSet();
+
+        Collection<Product> products = startup.obtainProducts().orElseThrow();
+        assertEquals(12, products.size());
+        assertEquals(5, cache.obtainJSONWithStatistics().getLong("size"));
+        assertEquals(12, quantityIndex.rebuild(products));
+        assertEquals(Arrays.asList("Snapshot0", "Snapshot2"), quantityIndex.findBelow(1, 10).stream()
+                .map(QuantityIndex.StockLevel::getIdentifier).collect(Collectors.toList()));
+
+        startup.releaseProducts();
+        assertTrue(startup.obtainProducts().isEmpty());
+        startup.destroy();
+        assertEquals(12, snapshot.read(file).size());
+    }
+}
@@ -0,0 +1,216 @@
+package hrtech.bigmanager.invenhelper.service;
+
+import hrtech.bigmanager.invenhelper.config.InvenHelperApplication;
+import hrtech.bigmanager.invenhelper.model.*;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.jdbc.Sql;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Sql(scripts = "classpath:databaseinit.sql", executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+@SpringBootTest(classes = InvenHelperApplication.class, properties = {"invenhelper.quantity.write-behind.enabled=true",
+        "invenhelper.quantity.write-behind.flush-interval=1h", "invenhelper.quantity.write-behind.flush-threshold=50"})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+class QuantityAggregatorTest {
+
+    @Autowired
+    private ProductService service;
+
+    @Autowired
+    private QuantityAggregator aggregator;
+
+    @Autowired
+    private ReservationService reservationService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private String defaultCode;
+
+    @BeforeEach
+    void setUp() {
+        aggregator.flush();
+        defaultCode = "Scanned" + UUID.randomUUID().toString().substring(0, 8);
+        assertTrue(service.insert(new Product(new ProductKey(UUID.randomUUID(), defaultCode), new ProductInformation("Name", "Description"), new Quantity(10))));
+    }
+
+    private int quantityOnDatabase() {
+        return service.findByBusinessKey(defaultCode).orElseThrow().getQuantity();
+    }
+
+    @Test
+    void changesAreAcceptedAndFlushed() {
+        Response<Product> response = service.increaseQuantity(defaultCode, 5);
+        assertTrue(response.isSuccess());
+        assertEquals("Quantity change accepted", response.getAdditionalInformation());
+        assertNull(response.getObjectToReturn());
+        assertTrue(service.decreaseQuantity(defaultCode, 3).isSuccess());
+        assertEquals(10, quantityOnDatabase());
+
+        aggregator.flush();
+        assertEquals(12, quantityOnDatabase());
+        assertEquals(0, aggregator.obtainPendingChanges());
+    }
+
+    @Test
+    void decreaseCheckedAgainstProjectedQuantity() {
+        assertTrue(service.increaseQuantity(defaultCode, 5).isSuccess());
+        assertTrue(service.decreaseQuantity(defaultCode, 15).isSuccess());
+
+        Response<Product> response = service.decreaseQuantity(defaultCode, 1);
+        assertFalse(response.isSuccess());
+        assertEquals("Invalid quantity obtained while trying to decrease", response.getAdditionalInformation());
+
+        aggregator.flush();
+        assertEquals(0, quantityOnDatabase());
+    }
+
+    @Test
+    void productNotFound() {
+        Response<Product> response = service.increaseQuantity("Unknown", 1);
+        assertFalse(response.isSuccess());
+        assertEquals("Product not found", response.getAdditionalInformation());
+    }
+
+    @Test
+    void concurrentChanges() throws InterruptedException {
+        int numberOfRequests = 1000;
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int index = 0; index < numberOfRequests; index++) {
+            int current = index;
+            executor.submit(() -> current % 4 == 0 ? service.decreaseQuantity(defaultCode, 1) : service.increaseQuantity(defaultCode, 1));
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+
+        aggregator.flush();
+        assertEquals(10 + numberOfRequests / 2, quantityOnDatabase());
+    }
+
+    @Test
+    void flushedOnThreshold() throws InterruptedException {
+        for (int index = 0; index < 50; index++) {
+            assertTrue(service.increaseQuantity(defaultCode, 1).isSuccess());
+        }
+        long limit = System.currentTimeMillis() + 10000;
+        while (quantityOnDatabase() != 60 && System.currentTimeMillis() < limit) {
+            Thread.sleep(20);
+        }
+        assertEquals(60, quantityOnDatabase());
+    }
+
+    @Test
+    void rejectedChangeIsDiscarded() {
+        assertTrue(service.decreaseQuantity(defaultCode, 8).isSuccess());
+        jdbcTemplate.update("UPDATE product SET quantity = 5 WHERE business_id = ?", defaultCode);
+
+        aggregator.flush();
+        assertEquals(5, quantityOnDatabase());
+        assertFalse(service.decreaseQuantity(defaultCode, 6).isSuccess());
+        assertTrue(service.decreaseQuantity(defaultCode, 5).isSuccess());
+        aggregator.flush();
+        assertEquals(0, quantityOnDatabase());
+    }
+
+    @Test
+    void directChangesRefreshTheCounter() {
+        assertTrue(service.decreaseQuantity(defaultCode, 2).isSuccess());
+        List<Response<Product>> movement = service.moveQuantities(new JSONArray().put(new JSONObject().put("identifier", defaultCode).put("quantity", -6)));
+        assertTrue(movement.get(0).isSuccess());
+
+        assertFalse(service.decreaseQuantity(defaultCode, 3).isSuccess());
+        assertTrue(service.decreaseQuantity(defaultCode, 2).isSuccess());
+        aggregator.flush();
+        assertEquals(0, quantityOnDatabase());
+        assertEquals(0, aggregator.obtainPendingChanges());
+    }
+
+    @Test
+    void reservedQuantityNotAcceptedForDecrease() {
+        assertTrue(service.decreaseQuantity(defaultCode, 2).isSuccess());
+        Response<Reservation> reservation = reservationService.reserve(defaultCode, 6, Duration.ofMinutes(5));
+        assertTrue(reservation.isSuccess());
+
+        assertFalse(service.decreaseQuantity(defaultCode, 3).isSuccess());
+        assertTrue(service.decreaseQuantity(defaultCode, 2).isSuccess());
+        aggregator.flush();
+        assertEquals(6, quantityOnDatabase());
+        assertEquals(0, aggregator.obtainPendingChanges());
+
+        assertTrue(reservationService.release(reservation.getObjectToReturn().getIdentifier().toString()).isSuccess());
+        assertTrue(service.decreaseQuantity(defaultCode, 6).isSuccess());
+        aggregator.flush();
+        assertEquals(0, quantityOnDatabase());
+    }
+
+    @Test
+    void failedFlushKeepsChanges() {
+        assertTrue(service.increaseQuantity(defaultCode, 5).isSuccess());
+        assertTrue(service.decreaseQuantity(defaultCode, 15).isSuccess());
+        jdbcTemplate.execute("ALTER TABLE product RENAME TO product_unavailable");
+        try {
+            aggregator.flush();
+            assertEquals(1, aggregator.obtainPendingChanges());
+        } finally {
+            jdbcTemplate.execute("ALTER TABLE product_unavailable RENAME TO product");
+        }
+        assertEquals(10, quantityOnDatabase());
+        assertFalse(service.decreaseQuantity(defaultCode, 1).isSuccess());
+
+        aggregator.flush();
+        assertEquals(0, quantityOnDatabase());
+        assertEquals(0, aggregator.obtainPendingChanges());
+    }
+
+    @Test
+    @DirtiesContext
+    void changesAddedWhileStoppingAreWritten() throws InterruptedException {
+        AtomicInteger accepted = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int index = 0; index < 2000; index++) {
+            executor.submit(() -> {
+                if (service.increaseQuantity(defaultCode, 1).isSuccess()) {
+                    accepted.incrementAndGet();
+                }
+            });
+            if (index == 1000) {
+                aggregator.destroy();
+            }
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+
+        assertEquals(2000, accepted.get());
+        assertEquals(10 + accepted.get(), quantityOnDatabase());
+        assertEquals(0, aggregator.obtainPendingChanges());
+    }
+
+    @Test
+    @DirtiesContext
+    void drainedOnShutdown() {
+        assertTrue(service.increaseQuantity(defaultCode, 7).isSuccess());
+        aggregator.destroy();
+        assertFalse(aggregator.isEnabled());
+        assertEquals(17, quantityOnDatabase());
+
+        Response<Product> response = service.increaseQuantity(defaultCode, 1);
+        assertTrue(response.isSuccess());
+        assertEquals(18, response.getObjectToReturn().getQuantity());
+    }
+}
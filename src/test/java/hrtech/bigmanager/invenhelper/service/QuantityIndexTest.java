@@ -0,0 +1,110 @@
+package hrtech.bigmanager.invenhelper.service;
+
+import hrtech.bigmanager.invenhelper.config.InvenHelperApplication;
+import hrtech.bigmanager.invenhelper.model.Product;
+import hrtech.bigmanager.invenhelper.model.ProductInformation;
+import hrtech.bigmanager.invenhelper.model.ProductKey;
+import hrtech.bigmanager.invenhelper.model.Quantity;
+import hrtech.bigmanager.invenhelper.repository.IProductRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.jdbc.Sql;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Sql(scripts = "classpath:databaseinit.sql", executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+@SpringBootTest(classes = InvenHelperApplication.class, properties = {"invenhelper.identifiers.maximum-list-size=7", "invenhelper.quantity.index.low-stock-threshold=5"})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+class QuantityIndexTest {
+
+    @Autowired
+    private ProductService service;
+
+    @Autowired
+    private QuantityIndex index;
+
+    @Autowired
+    private IProductRepository repository;
+
+    @BeforeEach
+    void setUp() {
+        assertEquals(0, index.rebuild());
+    }
+
+    private static Product product(String identifier, int quantity) {
+        return new Product(new ProductKey(UUID.randomUUID(), identifier), new ProductInformation("Name", "Description"), new Quantity(quantity));
+    }
+
+    private static List<String> identifiers(List<QuantityIndex.StockLevel> levels) {
+        return levels.stream().map(QuantityIndex.StockLevel::getIdentifier).collect(Collectors.toList());
+    }
+
+    @Test
+    void builtFromEveryPage() {
+        List<Product> products = new ArrayList<>();
+        for (int number = 0; number < 20; number++) {
+            products.add(product(String.format("SKU%02d", number), number));
+        }
+        assertTrue(repository.insertAll(products).stream().allMatch(Boolean::booleanValue));
+
+        assertEquals(20, index.rebuild());
+        assertEquals(Arrays.asList("SKU00", "SKU01", "SKU02"), identifiers(index.findBelow(3, 10)));
+        assertEquals(Arrays.asList("SKU05", "SKU06"), identifiers(index.findRange(5, 10, 2)));
+        assertEquals(Arrays.asList("SKU19", "SKU18", "SKU17"), identifiers(index.findTop(3)));
+        assertEquals(5, index.findRange(15, Integer.MAX_VALUE, 100).size());
+        assertTrue(index.findRange(10, 5, 100).isEmpty());
+        assertTrue(index.findBelow(0, 100).isEmpty());
+    }
+
+    @Test
+    void followsTheChanges() {
+        assertTrue(service.insert(product("First", 10)));
+        assertTrue(service.insert(product("Second", 20)));
+        assertEquals(Arrays.asList("Second", "First"), identifiers(index.findTop(10)));
+
+        assertTrue(service.decreaseQuantity("Second", 15).isSuccess());
+        assertTrue(service.increaseQuantity("First", 1).isSuccess());
+        assertEquals(Arrays.asList("First", "Second"), identifiers(index.findTop(10)));
+        assertEquals(11, index.findTop(1).get(0).getQuantity());
+        assertEquals(Arrays.asList("Second"), identifiers(service.findQuantitiesBelow(6, 10).orElseThrow()));
+    }
+
+    @Test
+    void olderChangesIgnored() {
+        assertTrue(service.insert(product("Versioned", 10)));
+        assertTrue(service.increaseQuantity("Versioned", 5).isSuccess());
+
+        index.update(new Product(new ProductKey(UUID.randomUUID(), "Versioned"), new ProductInformation("Name", "Description"), new Quantity(1), 0));
+        assertEquals(15, index.findTop(1).get(0).getQuantity());
+    }
+
+    @Test
+    void alertsWhenBelowThreshold() {
+        assertTrue(service.insert(product("Default", 6)));
+        assertTrue(service.insert(product("Custom", 30)));
+        assertTrue(service.defineLowStockThreshold("Custom", 25));
+
+        assertTrue(service.decreaseQuantity("Default", 1).isSuccess());
+        assertTrue(service.findLowStockAlerts(10).orElseThrow().stream().noneMatch(alert -> alert.getIdentifier().equals("Default")));
+        assertTrue(service.decreaseQuantity("Default", 1).isSuccess());
+        assertTrue(service.decreaseQuantity("Default", 1).isSuccess());
+        assertTrue(service.decreaseQuantity("Custom", 10).isSuccess());
+
+        List<LowStockAlertEvent> alerts = service.findLowStockAlerts(2).orElseThrow();
+        assertEquals(Arrays.asList("Custom", "Default"), alerts.stream().map(LowStockAlertEvent::getIdentifier).collect(Collectors.toList()));
+        assertEquals(20, alerts.get(0).getQuantity());
+        assertEquals(25, alerts.get(0).getThreshold());
+        assertEquals(4, alerts.get(1).getQuantity());
+        assertEquals(5, alerts.get(1).getThreshold());
+        assertEquals(1, service.findLowStockAlerts(1).orElseThrow().size());
+    }
+}
@@ -0,0 +1,218 @@
+package hrtech.bigmanager.invenhelper.service;
+
+import hrtech.bigmanager.invenhelper.config.InvenHelperApplication;
+import hrtech.bigmanager.invenhelper.model.*;
+import hrtech.bigmanager.invenhelper.repository.ProductRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.jdbc.Sql;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Sql(scripts = "classpath:databaseinit.sql", executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+@SpringBootTest(classes = InvenHelperApplication.class, properties = {"invenhelper.quantity.write-behind.enabled=true",
+        "invenhelper.quantity.write-behind.flush-interval=1h", "invenhelper.quantity.write-behind.journal.enabled=true",
+        "invenhelper.quantity.write-behind.journal.directory=${java.io.tmpdir}/invenhelper-journal-${random.uuid}"})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+class QuantityJournalTest {
+
+    @Autowired
+    private ProductService service;
+
+    @Autowired
+    private ProductRepository repository;
+
+    @Autowired
+    private QuantityAggregator aggregator;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Value("${invenhelper.quantity.write-behind.journal.directory}")
+    private String directory;
+
+    private String defaultCode;
+
+    @BeforeEach
+    void setUp() {
+        aggregator.flush();
+        defaultCode = "Journaled" + UUID.randomUUID().toString().substring(0, 8);
+        assertTrue(service.insert(new Product(new ProductKey(UUID.randomUUID(), defaultCode), new ProductInformation("Name", "Description"), new Quantity(10))));
+    }
+
+    private int quantityOnDatabase() {
+        return service.findByBusinessKey(defaultCode).orElseThrow().getQuantity();
+    }
+
+    private QuantityJournal openJournal(Path journalDirectory, boolean enabled) throws Exception {
+        QuantityJournal journal = new QuantityJournal();
+        journal.setProductRepository(repository);
+        journal.setEnabled(enabled, true);
+        journal.setDirectory(journalDirectory.toString());
+        journal.setSegmentSize(DataSize.ofKilobytes(64));
+        journal.setReplayAttempts(2);
+        journal.setReplayRetryDelay(Duration.ofMillis(10));
+        journal.afterPropertiesSet();
+        return journal;
+    }
+
+    private QuantityAggregator openAggregator(QuantityJournal journal) {
+        QuantityAggregator journaledAggregator = new QuantityAggregator();
+        journaledAggregator.setProductRepository(repository);
+        journaledAggregator.setQuantityJournal(journal);
+        journaledAggregator.setEventPublisher(eventPublisher);
+        journaledAggregator.setEnabled(true);
+        journaledAggregator.setFlushInterval(Duration.ofHours(1));
+        journaledAggregator.setFlushThreshold(1000);
+        journaledAggregator.afterPropertiesSet();
+        return journaledAggregator;
+    }
+
+    private long segments(Path journalDirectory) throws Exception {
+        try (Stream<Path> files = Files.list(journalDirectory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".journal")).count();
+        }
+    }
+
+    @Test
+    void flushedChangesNotReplayed() throws Exception {
+        assertTrue(service.increaseQuantity(defaultCode, 5).isSuccess());
+        assertTrue(service.decreaseQuantity(defaultCode, 3).isSuccess());
+        assertFalse(service.decreaseQuantity(defaultCode, 13).isSuccess());
+        aggregator.flush();
+        assertEquals(12, quantityOnDatabase());
+
+        openJournal(Paths.get(directory), false);
+        assertEquals(12, quantityOnDatabase());
+    }
+
+    @Test
+    void acknowledgedChangesReplayedAfterCrash() throws Exception {
+        Path journalDirectory = Files.createTempDirectory("invenhelper-journal");
+        QuantityJournal journal = openJournal(journalDirectory, true);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int index = 0; index < 5000; index++) {
+            executor.submit(() -> journal.append(defaultCode, 1, () -> true));
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+        assertFalse(journal.append(defaultCode, -1, () -> false));
+        assertTrue(segments(journalDirectory) > 1);
+
+        openJournal(journalDirectory, false);
+        assertEquals(5010, quantityOnDatabase());
+        assertEquals(0, segments(journalDirectory));
+        openJournal(journalDirectory, false);
+        assertEquals(5010, quantityOnDatabase());
+    }
+
+    @Test
+    void partialRecordIgnored() throws Exception {
+        Path journalDirectory = Files.createTempDirectory("invenhelper-journal");
+        QuantityJournal journal = openJournal(journalDirectory, true);
+        journal.append(defaultCode, 4, () -> true);
+        journal.append(defaultCode, -1, () -> true);
+
+        int recordSize = 8 + defaultCode.getBytes(StandardCharsets.UTF_8).length + Integer.BYTES + Long.BYTES;
+        Path segment;
+        try (Stream<Path> files = Files.list(journalDirectory)) {
+            segment = files.filter(file -> file.getFileName().toString().endsWith(".journal")).findFirst().orElseThrow();
+        }
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(12).putInt(recordSize - 8).putInt(42).putInt(7).flip(), 2L * recordSize);
+        }
+
+        openJournal(journalDirectory, false);
+        assertEquals(13, quantityOnDatabase());
+    }
+
+    @Test
+    void failedFlushKeptOnJournal() throws Exception {
+        Path journalDirectory = Files.createTempDirectory("invenhelper-journal");
+        QuantityAggregator failingAggregator = openAggregator(openJournal(journalDirectory, true));
+        assertTrue(failingAggregator.add(new ProductKey(defaultCode), 5));
+
+        jdbcTemplate.execute("ALTER TABLE product RENAME TO product_unavailable");
+        try {
+            failingAggregator.flush();
+        } finally {
+            jdbcTemplate.execute("ALTER TABLE product_unavailable RENAME TO product");
+        }
+        assertEquals(10, quantityOnDatabase());
+        assertEquals(1, failingAggregator.obtainPendingChanges());
+
+        openJournal(journalDirectory, false);
+        assertEquals(15, quantityOnDatabase());
+    }
+
+    @Test
+    void replayKeptWhileDatabaseUnavailable() throws Exception {
+        Path journalDirectory = Files.createTempDirectory("invenhelper-journal");
+        QuantityJournal journal = openJournal(journalDirectory, true);
+        journal.append(defaultCode, 4, () -> true);
+
+        jdbcTemplate.execute("ALTER TABLE product RENAME TO product_unavailable");
+        try {
+            assertThrows(IOException.class, () -> openJournal(journalDirectory, false));
+        } finally {
+            jdbcTemplate.execute("ALTER TABLE product_unavailable RENAME TO product");
+        }
+        assertEquals(10, quantityOnDatabase());
+        assertEquals(1, segments(journalDirectory));
+
+        openJournal(journalDirectory, false);
+        assertEquals(14, quantityOnDatabase());
+        openJournal(journalDirectory, false);
+        assertEquals(14, quantityOnDatabase());
+    }
+
+    @Test
+    void flushedChangesNotReplayedWithoutCheckpoint() throws Exception {
+        Path journalDirectory = Files.createTempDirectory("invenhelper-journal");
+        QuantityAggregator journaledAggregator = openAggregator(openJournal(journalDirectory, true));
+        byte[] checkpoint = Files.readAllBytes(journalDirectory.resolve("checkpoint"));
+        assertTrue(journaledAggregator.add(new ProductKey(defaultCode), 5));
+        jdbcTemplate.execute("ALTER TABLE product RENAME TO product_unavailable");
+        try {
+            journaledAggregator.flush();
+        } finally {
+            jdbcTemplate.execute("ALTER TABLE product_unavailable RENAME TO product");
+        }
+        assertTrue(journaledAggregator.add(new ProductKey(defaultCode), 3));
+        journaledAggregator.flush();
+        assertEquals(18, quantityOnDatabase());
+        assertTrue(journaledAggregator.add(new ProductKey(defaultCode), 2));
+
+        // the process stops after the writes, before the checkpoints are on the disk
+        Files.write(journalDirectory.resolve("checkpoint"), checkpoint);
+        openJournal(journalDirectory, false);
+        assertEquals(20, quantityOnDatabase());
+        openJournal(journalDirectory, false);
+        assertEquals(20, quantityOnDatabase());
+    }
+}
@@ -0,0 +1,182 @@
+package hrtech.bigmanager.invenhelper.service;
+
+import hrtech.bigmanager.invenhelper.config.InvenHelperApplication;
+import hrtech.bigmanager.invenhelper.model.*;
+import hrtech.bigmanager.invenhelper.repository.IProductRepository;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.jdbc.Sql;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Sql(scripts = "classpath:databaseinit.sql", executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+@SpringBootTest(classes = InvenHelperApplication.class, properties = "invenhelper.reservation.tick=1h")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+class ReservationServiceTest {
+
+    @Autowired
+    private ReservationService reservationService;
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private IProductRepository repository;
+
+    private Product product(String identifier, int quantity) {
+        Product product = new Product(new ProductKey(UUID.randomUUID(), identifier), new ProductInformation("Name", "Description"), new Quantity(quantity));
+        assertTrue(productService.insert(product));
+        return product;
+    }
+
+    private int available(String identifier) {
+        return reservationService.obtainAvailability(identifier).orElseThrow().getInt("available");
+    }
+
+    @Test
+    void reservationsHoldTheAvailableQuantity() {
+        product("Reserved", 10);
+        Response<Reservation> first = reservationService.reserve("Reserved", 6, Duration.ofMinutes(5));
+        assertTrue(first.isSuccess());
+        assertEquals(4, available("Reserved"));
+
+        Response<Reservation> second = reservationService.reserve("Reserved", 5, Duration.ofMinutes(5));
+        assertFalse(second.isSuccess());
+        assertEquals("The available quantity does not cover the reservation", second.getAdditionalInformation());
+        assertTrue(reservationService.reserve("Reserved", 4, Duration.ofMinutes(5)).isSuccess());
+        assertEquals(0, available("Reserved"));
+
+        JSONObject availability = reservationService.obtainAvailability("Reserved").orElseThrow();
+        assertEquals(10, availability.getInt("quantity"));
+        assertEquals(10, availability.getInt("reserved"));
+        assertEquals(10, productService.findByBusinessKey("Reserved").orElseThrow().getQuantity());
+    }
+
+    @Test
+    void invalidReservations() {
+        product("Invalid", 10);
+        assertEquals("Product not found", reservationService.reserve("Missing", 1, Duration.ofMinutes(1)).getAdditionalInformation());
+        assertFalse(reservationService.reserve("Invalid", 0, Duration.ofMinutes(1)).isSuccess());
+        assertFalse(reservationService.reserve("Invalid", 1, Duration.ZERO).isSuccess());
+        assertFalse(reservationService.reserve("Invalid", 1, Duration.ofDays(1)).isSuccess());
+        assertEquals("Reservation not found", reservationService.confirm("not a reservation").getAdditionalInformation());
+        assertEquals("Reservation not found", reservationService.release(UUID.randomUUID().toString()).getAdditionalInformation());
+    }
+
+    @Test
+    void confirmAndRelease() {
+        product("Checkout", 10);
+        Reservation confirmed = reservationService.reserve("Checkout", 3, Duration.ofMinutes(5)).getObjectToReturn();
+        Reservation released = reservationService.reserve("Checkout", 5, Duration.ofMinutes(5)).getObjectToReturn();
+        assertEquals(2, available("Checkout"));
+
+        Response<Product> confirmation = reservationService.confirm(confirmed.getIdentifier().toString());
+        assertTrue(confirmation.isSuccess());
+        assertEquals(7, confirmation.getObjectToReturn().getQuantity());
+        assertEquals(2, available("Checkout"));
+        assertFalse(reservationService.confirm(confirmed.getIdentifier().toString()).isSuccess());
+
+        assertTrue(reservationService.release(released.getIdentifier().toString()).isSuccess());
+        assertEquals(7, available("Checkout"));
+        assertFalse(reservationService.release(released.getIdentifier().toString()).isSuccess());
+        assertEquals(7, productService.findByBusinessKey("Checkout").orElseThrow().getQuantity());
+    }
+
+    @Test
+    void decreasesCannotTakeTheReservedQuantity() {
+        product("Held", 10);
+        product("Other", 10);
+        Reservation reservation = reservationService.reserve("Held", 6, Duration.ofMinutes(5)).getObjectToReturn();
+
+        assertFalse(productService.decreaseQuantity("Held", 5).isSuccess());
+        long version = productService.findByBusinessKey("Held").orElseThrow().getVersion();
+        assertFalse(productService.decreaseQuantity("Held", 5, version).isSuccess());
+        assertEquals(Map.of("Held", false), repository.changeQuantities(Map.of("Held", -5)));
+        assertFalse(repository.moveQuantities(Map.of("Held", -5, "Other", 5)).get("Held"));
+        List<Response<Product>> movement = productService.moveQuantities(new JSONArray()
+                .put(new JSONObject().put("identifier", "Held").put("quantity", -5))
+                .put(new JSONObject().put("identifier", "Other").put("quantity", 5)));
+        assertEquals("The quantity left would not cover the reserved quantity", movement.get(0).getAdditionalInformation());
+        assertEquals("Movement not applied", movement.get(1).getAdditionalInformation());
+        assertEquals(10, productService.findByBusinessKey("Held").orElseThrow().getQuantity());
+
+        assertTrue(productService.decreaseQuantity("Held", 4).isSuccess());
+        assertEquals(0, available("Held"));
+        Response<Product> confirmation = reservationService.confirm(reservation.getIdentifier().toString());
+        assertTrue(confirmation.isSuccess());
+        assertEquals(0, confirmation.getObjectToReturn().getQuantity());
+    }
+
+    @Test
+    void confirmationKeepsTheReservationIfTheQuantityIsGone() {
+        product("Taken", 5);
+        Reservation reservation = reservationService.reserve("Taken", 5, Duration.ofMinutes(5)).getObjectToReturn();
+        Product replaced = productService.findByBusinessKey("Taken").orElseThrow();
+        replaced.decreaseQuantity(2);
+        assertTrue(repository.save(replaced));
+
+        assertFalse(reservationService.confirm(reservation.getIdentifier().toString()).isSuccess());
+        assertEquals(5, reservationService.obtainAvailability("Taken").orElseThrow().getInt("reserved"));
+        assertTrue(repository.findReservation(reservation.getIdentifier()).isPresent());
+    }
+
+    @Test
+    void expiredReservationsReclaimed() {
+        product("Expiring", 10);
+        int known = reservationService.obtainSize();
+        Reservation shortReservation = reservationService.reserve("Expiring", 4, Duration.ofSeconds(30)).getObjectToReturn();
+        assertTrue(reservationService.reserve("Expiring", 6, Duration.ofMinutes(30)).isSuccess());
+        assertEquals(known + 2, reservationService.obtainSize());
+
+        ReservationService restarted = new ReservationService();
+        restarted.setProductRepository(repository);
+        restarted.setEnabled(true);
+        restarted.setMaximumDuration(Duration.ofHours(1));
+        restarted.setTick(Duration.ofHours(1));
+        restarted.setWheelSize(8);
+        restarted.afterPropertiesSet();
+        try {
+            assertEquals(2, restarted.obtainSize());
+        } finally {
+            restarted.destroy();
+        }
+
+        assertEquals(1, reservationService.reclaimExpired(Instant.now().plus(Duration.ofMinutes(2))));
+        assertEquals(known + 1, reservationService.obtainSize());
+        assertTrue(repository.findReservation(shortReservation.getIdentifier()).isEmpty());
+        assertEquals(4, available("Expiring"));
+        assertFalse(reservationService.confirm(shortReservation.getIdentifier().toString()).isSuccess());
+    }
+
+    @Test
+    void concurrentReservationsNeverExceedTheQuantity() throws Exception {
+        product("Contended", 50);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int request = 0; request < 80; request++) {
+                results.add(executor.submit(() -> reservationService.reserve("Contended", 1, Duration.ofMinutes(5)).isSuccess()));
+            }
+            int reserved = 0;
+            for (Future<Boolean> result : results) {
+                reserved += result.get(30, TimeUnit.SECONDS) ? 1 : 0;
+            }
+            assertEquals(50, reserved);
+            assertEquals(0, available("Contended"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
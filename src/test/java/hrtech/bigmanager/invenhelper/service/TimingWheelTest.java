@@ -0,0 +1,56 @@
+package hrtech.bigmanager.invenhelper.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimingWheelTest {
+
+    private final Instant start = Instant.parse("2021-07-01T10:00:00Z");
+
+    @Test
+    void expiresOnDeadlineTick() {
+        TimingWheel<String> wheel = new TimingWheel<>(Duration.ofSeconds(1), 8, start);
+        wheel.schedule("late", start.plusMillis(2500));
+        wheel.schedule("early", start.plusMillis(1000));
+        assertEquals(2, wheel.size());
+
+        assertTrue(wheel.advance(start.plusMillis(999)).isEmpty());
+        assertEquals(Collections.singletonList("early"), wheel.advance(start.plusMillis(1000)));
+        assertTrue(wheel.advance(start.plusMillis(2999)).isEmpty());
+        assertEquals(Collections.singletonList("late"), wheel.advance(start.plusMillis(3000)));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void deadlinesAfterSeveralTurns() {
+        TimingWheel<Integer> wheel = new TimingWheel<>(Duration.ofSeconds(1), 4, start);
+        wheel.schedule(1, start.plusSeconds(3));
+        wheel.schedule(2, start.plusSeconds(7));
+        wheel.schedule(3, start.plusSeconds(11));
+
+        assertEquals(Collections.singletonList(1), wheel.advance(start.plusSeconds(6)));
+        assertEquals(Collections.singletonList(2), wheel.advance(start.plusSeconds(10)));
+        wheel.schedule(4, start.plusSeconds(11));
+        assertEquals(new HashSet<>(Arrays.asList(3, 4)), new HashSet<>(wheel.advance(start.plusSeconds(20))));
+    }
+
+    @Test
+    void passedDeadlinesExpireOnNextAdvance() {
+        TimingWheel<String> wheel = new TimingWheel<>(Duration.ofMillis(100), 16, start);
+        assertTrue(wheel.advance(start.plusSeconds(10)).isEmpty());
+        wheel.schedule("passed", start.plusSeconds(1));
+        wheel.schedule("future", start.plusSeconds(11));
+
+        assertEquals(Collections.singletonList("passed"), wheel.advance(start.plusSeconds(10)));
+        List<String> expired = wheel.advance(start.plusSeconds(11));
+        assertEquals(Collections.singletonList("future"), expired);
+    }
+}
@@ -1,10 +1,6 @@
 SET MODE MYSQL;
-DROP TABLE IF EXISTS `product`;
-CREATE TABLE `product` (
-	`id` VARCHAR(255) NOT NULL,
-	`business_id` TEXT NOT NULL ,
-	`name` TEXT NOT NULL ,
-	`description` TEXT NOT NULL ,
-	`quantity` INT(10) NOT NULL DEFAULT '0',
-	PRIMARY KEY (`id`)
-)
\ No newline at end of file
+DELETE FROM `product`;
+DELETE FROM `stock_movement`;
+DELETE FROM `quantity_slot`;
+DELETE FROM `stock_reservation`;
+DELETE FROM `journal_position`;